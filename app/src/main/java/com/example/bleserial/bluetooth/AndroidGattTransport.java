@@ -0,0 +1,353 @@
+package com.example.bleserial.bluetooth;
+
+import android.Manifest;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCallback;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.bluetooth.BluetoothProfile;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.os.Build;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+import androidx.core.app.ActivityCompat;
+
+import com.example.bleserial.gatt.CharacteristicHandle;
+import com.example.bleserial.gatt.GattTransport;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+
+/**
+ * GattTransport on top of the Android BluetoothGatt API
+ **/
+public class AndroidGattTransport implements GattTransport {
+    private final Context context;
+    private final BluetoothDevice device;
+    private BluetoothGatt bluetoothGatt;
+    private Callback callback;
+    // checked once per connection, revoking a runtime permission restarts the app process
+    private volatile boolean gattPermitted = false;
+
+    public AndroidGattTransport(Context context, BluetoothDevice device) {
+        this.context = context.getApplicationContext();
+        this.device = device;
+    }
+
+    public BluetoothDevice getDevice() {
+        return device;
+    }
+
+    @Override
+    public String getAddress() {
+        return device.getAddress();
+    }
+
+    @Nullable
+    public BluetoothGatt getBluetoothGatt() {
+        return bluetoothGatt;
+    }
+
+    private boolean isGattPermitted() {
+        return gattPermitted;
+    }
+
+    private boolean checkGattPermission() {
+        if (ActivityCompat.checkSelfPermission(context, Manifest.permission.BLUETOOTH_SCAN) != PackageManager.PERMISSION_GRANTED) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+                Log.d(Constants.TAG, "connect: No Permission");
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Nullable
+    private BluetoothGattCharacteristic findCharacteristic(UUID service, UUID characteristic) {
+        BluetoothGatt gatt = bluetoothGatt;
+        if (gatt == null) {
+            return null;
+        }
+        BluetoothGattService gattService = gatt.getService(service);
+        if (gattService == null) {
+            return null;
+        }
+        return gattService.getCharacteristic(characteristic);
+    }
+
+    @Override
+    public boolean connect(Callback callback) {
+        this.callback = callback;
+        gattPermitted = checkGattPermission();
+        if (!gattPermitted) {
+            return false;
+        }
+        bluetoothGatt = device.connectGatt(context, false, gattCallback);
+        return bluetoothGatt != null;
+    }
+
+    @Override
+    public void disconnect() {
+        BluetoothGatt gatt = bluetoothGatt;
+        if (gatt != null && isGattPermitted()) {
+            gatt.disconnect();
+        }
+    }
+
+    @Override
+    public void close() {
+        BluetoothGatt gatt = bluetoothGatt;
+        if (gatt != null) {
+            Log.d(Constants.TAG, "Closing and destroying BluetoothGatt object");
+            if (isGattPermitted()) {
+                gatt.close();
+            }
+            bluetoothGatt = null;
+        }
+    }
+
+    @Override
+    public boolean discoverServices() {
+        BluetoothGatt gatt = bluetoothGatt;
+        Log.d(Constants.TAG, "Discovering GATT services");
+        return gatt != null && isGattPermitted() && gatt.discoverServices();
+    }
+
+    public List<BluetoothGattService> getServices() {
+        BluetoothGatt gatt = bluetoothGatt;
+        if (gatt == null) {
+            return Collections.emptyList();
+        }
+        return gatt.getServices();
+    }
+
+    @Override
+    public List<UUID> getServiceUuids() {
+        List<BluetoothGattService> services = getServices();
+        List<UUID> uuids = new ArrayList<>(services.size());
+        for (BluetoothGattService service : services) {
+            uuids.add(service.getUuid());
+        }
+        return uuids;
+    }
+
+    @Override
+    public boolean hasCharacteristic(UUID service, UUID characteristic) {
+        return findCharacteristic(service, characteristic) != null;
+    }
+
+    @Override
+    public List<CharacteristicHandle> getCharacteristics() {
+        List<CharacteristicHandle> handles = new ArrayList<>();
+        for (BluetoothGattService service : getServices()) {
+            for (BluetoothGattCharacteristic characteristic : service.getCharacteristics()) {
+                handles.add(new CharacteristicHandle(service.getUuid(), characteristic.getUuid(),
+                        characteristic.getProperties(), characteristic));
+            }
+        }
+        return handles;
+    }
+
+    @Override
+    public boolean requestMtu(int mtu) {
+        BluetoothGatt gatt = bluetoothGatt;
+        Log.d(Constants.TAG, "request max MTU");
+        return gatt != null && isGattPermitted() && gatt.requestMtu(mtu);
+    }
+
+    @Override
+    public boolean readCharacteristic(UUID service, UUID characteristic) {
+        BluetoothGatt gatt = bluetoothGatt;
+        BluetoothGattCharacteristic gattChar = findCharacteristic(service, characteristic);
+        return gatt != null && gattChar != null && isGattPermitted() && gatt.readCharacteristic(gattChar);
+    }
+
+    @Override
+    public boolean writeCharacteristic(UUID service, UUID characteristic, byte[] value, int writeType) {
+        BluetoothGatt gatt = bluetoothGatt;
+        BluetoothGattCharacteristic gattChar = findCharacteristic(service, characteristic);
+        if (gatt == null || gattChar == null || !isGattPermitted()) {
+            return false;
+        }
+        // the characteristic object is shared, so set it up only when this write runs
+        gattChar.setWriteType(writeType);
+        gattChar.setValue(value);
+        return gatt.writeCharacteristic(gattChar);
+    }
+
+    @Override
+    public boolean readCharacteristic(CharacteristicHandle characteristic) {
+        BluetoothGatt gatt = bluetoothGatt;
+        BluetoothGattCharacteristic gattChar = (BluetoothGattCharacteristic) characteristic.getPlatformCharacteristic();
+        return gatt != null && isGattPermitted() && gatt.readCharacteristic(gattChar);
+    }
+
+    @Override
+    public boolean writeCharacteristic(CharacteristicHandle characteristic, byte[] value, int writeType) {
+        BluetoothGatt gatt = bluetoothGatt;
+        if (gatt == null || !isGattPermitted()) {
+            return false;
+        }
+        BluetoothGattCharacteristic gattChar = (BluetoothGattCharacteristic) characteristic.getPlatformCharacteristic();
+        gattChar.setWriteType(writeType);
+        gattChar.setValue(value);
+        return gatt.writeCharacteristic(gattChar);
+    }
+
+    @Override
+    public boolean requestConnectionPriority(int priority) {
+        BluetoothGatt gatt = bluetoothGatt;
+        return gatt != null && isGattPermitted() && gatt.requestConnectionPriority(priority);
+    }
+
+    @Override
+    public boolean setPreferredPhy(int txPhyMask, int rxPhyMask) {
+        BluetoothGatt gatt = bluetoothGatt;
+        if (gatt == null || !isGattPermitted() || Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
+            return false;
+        }
+        gatt.setPreferredPhy(txPhyMask, rxPhyMask, BluetoothDevice.PHY_OPTION_NO_PREFERRED);
+        return true;
+    }
+
+    @Override
+    public boolean setCharacteristicNotification(UUID service, UUID characteristic, boolean enabled) {
+        BluetoothGatt gatt = bluetoothGatt;
+        BluetoothGattCharacteristic gattChar = findCharacteristic(service, characteristic);
+        if (gatt == null || gattChar == null || !isGattPermitted()) {
+            return false;
+        }
+        for (BluetoothGattDescriptor a : gattChar.getDescriptors()) {
+            Log.d(Constants.TAG, "setIndicationsState: " + a.getUuid().toString().toUpperCase(Locale.ROOT));
+        }
+        return gatt.setCharacteristicNotification(gattChar, enabled);
+    }
+
+    @Override
+    public boolean writeDescriptor(UUID service, UUID characteristic, UUID descriptor, byte[] value) {
+        BluetoothGatt gatt = bluetoothGatt;
+        BluetoothGattCharacteristic gattChar = findCharacteristic(service, characteristic);
+        if (gatt == null || gattChar == null || !isGattPermitted()) {
+            return false;
+        }
+        BluetoothGattDescriptor gattDescriptor = gattChar.getDescriptor(descriptor);
+        if (gattDescriptor == null) {
+            Log.d(Constants.TAG, "writeDescriptor: descriptor null");
+            return false;
+        }
+        gattDescriptor.setValue(value);
+        return gatt.writeDescriptor(gattDescriptor);
+    }
+
+    /************************ GATT CALLBACK **************************/
+    private final BluetoothGattCallback gattCallback = new BluetoothGattCallback() {
+
+        /**
+         * On Connection State Change
+         **/
+        @Override
+        public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
+            Log.d(Constants.TAG, "onConnectionStateChange: status=" + status + ", New State = " + newState);
+
+            if (newState == BluetoothProfile.STATE_CONNECTED) {
+                Log.d(Constants.TAG, "onConnectionStateChange: CONNECTED");
+                callback.onConnectionStateChange(true, status);
+
+            } else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
+                Log.d(Constants.TAG, "onConnectionStateChange: DISCONNECTED");
+                callback.onConnectionStateChange(false, status);
+                close();
+            }
+        }
+
+        /**
+         * On Services Discovered
+         **/
+        @Override
+        public void onServicesDiscovered(BluetoothGatt gatt, int status) {
+            callback.onServicesDiscovered(status);
+        }
+
+        /**
+         * On MTU Changed
+         **/
+        @Override
+        public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+            Log.d(Constants.TAG, "onMtuChanged: mtu=" + mtu + ", status=" + status);
+            callback.onMtuChanged(mtu, status);
+        }
+
+        /**
+         * On Characteristics Read
+         **/
+        @Override
+        public void onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+            if (status != BluetoothGatt.GATT_SUCCESS) {
+                Log.d(Constants.TAG, "failed to read characteristic:" + characteristic.getUuid().toString() + " of service " + characteristic.getService().getUuid().toString() + " : status=" + status);
+            }
+            callback.onCharacteristicRead(characteristic.getService().getUuid(), characteristic.getUuid(), characteristic.getValue(), status);
+        }
+
+        /**
+         * On Characteristics Write
+         **/
+        @Override
+        public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+            callback.onCharacteristicWrite(characteristic.getService().getUuid(), characteristic.getUuid(), characteristic.getValue(), status);
+        }
+
+        /**
+         * On Descriptor Write
+         **/
+        @Override
+        public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
+            Log.d(Constants.TAG, "onDescriptorWrite: status=" + status);
+            BluetoothGattCharacteristic characteristic = descriptor.getCharacteristic();
+            callback.onDescriptorWrite(characteristic.getService().getUuid(), characteristic.getUuid(), descriptor.getUuid(), status);
+        }
+
+        /**
+         * On Phy Update, Android 8 and later
+         **/
+        @Override
+        public void onPhyUpdate(BluetoothGatt gatt, int txPhy, int rxPhy, int status) {
+            Log.d(Constants.TAG, "onPhyUpdate: tx=" + txPhy + ", rx=" + rxPhy + ", status=" + status);
+            callback.onPhyUpdate(txPhy, rxPhy, status);
+        }
+
+        /**
+         * On Connection Updated, hidden in the SDK before Android 13 but called by the stack
+         * since Android 8, so it is declared without @Override
+         **/
+        public void onConnectionUpdated(BluetoothGatt gatt, int interval, int latency, int timeout, int status) {
+            Log.d(Constants.TAG, "onConnectionUpdated: interval=" + interval + ", latency=" + latency + ", timeout=" + timeout);
+            callback.onConnectionUpdated(interval, latency, timeout, status);
+        }
+
+        /**
+         * On Service Changed, only called from Android 12 on
+         **/
+        @Override
+        public void onServiceChanged(BluetoothGatt gatt) {
+            Log.d(Constants.TAG, "onServiceChanged");
+            callback.onServiceChanged();
+        }
+
+        /**
+         * On Characteristic Changed
+         **/
+        @Override
+        public void onCharacteristicChanged(BluetoothGatt gatt,
+                                            BluetoothGattCharacteristic characteristic) {
+            // notifications and indications are both communicated from here in this way
+            callback.onCharacteristicChanged(characteristic.getService().getUuid(), characteristic.getUuid(), characteristic.getValue());
+        }
+    };
+}
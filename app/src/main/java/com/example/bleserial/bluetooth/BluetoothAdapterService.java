@@ -1,53 +1,111 @@
 package com.example.bleserial.bluetooth;
 
-import static androidx.constraintlayout.helper.widget.MotionEffect.TAG;
-
-import android.Manifest;
-import android.app.Activity;
 import android.app.Service;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothGatt;
-import android.bluetooth.BluetoothGattCallback;
 import android.bluetooth.BluetoothGattCharacteristic;
-import android.bluetooth.BluetoothGattDescriptor;
 import android.bluetooth.BluetoothGattService;
 import android.bluetooth.BluetoothManager;
-import android.bluetooth.BluetoothProfile;
 import android.content.Context;
 import android.content.Intent;
-import android.content.pm.PackageManager;
+import android.net.Uri;
 import android.os.Binder;
-import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.IBinder;
 import android.os.Message;
+import android.os.ParcelFileDescriptor;
 import android.util.Log;
 
 import androidx.annotation.Nullable;
-import androidx.core.app.ActivityCompat;
 
+import com.example.bleserial.capture.CaptureFormat;
+import com.example.bleserial.capture.CaptureReader;
+import com.example.bleserial.capture.CaptureWriter;
+import com.example.bleserial.capture.ReplayStats;
+import com.example.bleserial.capture.ReplayTransport;
+import com.example.bleserial.codec.CobsCodec;
+import com.example.bleserial.codec.FrameCodec;
+import com.example.bleserial.gatt.CharacteristicHandle;
+import com.example.bleserial.gatt.GattConnectionManager;
+import com.example.bleserial.gatt.GattOperation;
+import com.example.bleserial.gatt.GattOperationQueue;
+import com.example.bleserial.gatt.GattSession;
+import com.example.bleserial.gatt.GattTransport;
+import com.example.bleserial.gatt.LinkParameters;
+import com.example.bleserial.gatt.LinkTuner;
+import com.example.bleserial.gatt.NotificationDispatcher;
+import com.example.bleserial.gatt.ThroughputSnapshot;
+import com.example.bleserial.gatt.TxPacer;
+import com.example.bleserial.metrics.MetricsSnapshot;
+import com.example.bleserial.rpc.RpcClient;
+import com.example.bleserial.rpc.RpcFuture;
+import com.example.bleserial.transfer.FileUpload;
+import com.example.bleserial.uart.NordicUart;
+import com.example.bleserial.uart.RxRingBuffer;
+import com.example.bleserial.uart.UartChannel;
+import com.example.bleserial.uart.UartFragmenter;
+
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
 
 public class BluetoothAdapterService extends Service {
     private BluetoothAdapter bluetoothAdapter;
-    private BluetoothGatt bluetoothGatt;
     private BluetoothManager bluetoothManager;
     private Handler activityHandler = null;
     private BluetoothDevice device;
 
-    private BluetoothGattDescriptor descriptor;
-    private boolean connected = false;
+    // the connection the activity works with, its operation queue and UART plumbing, see GattSession
+    private volatile GattSession session;
     public boolean alarmPlaying = false;
 
+    // settings that outlive a single session, applied to every new connection
+    private int rxBufferCapacity = 0;
+    private RxRingBuffer.OverflowPolicy rxBufferPolicy;
+    private NotificationDispatcher.Listener notificationListener;
+    private int noResponseWindow = GattOperationQueue.DEFAULT_NO_RESPONSE_WINDOW;
+    // fallback pacing of writeUart until a device advertises credits, 0 = unpaced
+    private long txPacingRate = 0;
+    private int txPacingBurst = TxPacer.DEFAULT_BURST;
+    private boolean txPacingCredits = false;
+
+    // binary capture of the activity's connection, null when off
+    private volatile CaptureWriter capture;
+
+    // file upload to the activity's device, kept across reconnects until done or stopped
+    private volatile FileUpload upload;
+    private ParcelFileDescriptor uploadFile;
+    // the RPC client the upload enabled itself, disabled again when it ends
+    private volatile RpcClient uploadRpc;
+    // the tuner the running upload called beginTransfer on, guarded by this
+    private LinkTuner uploadTuner;
+    // reads the file and reports progress, off the GATT callback thread
+    private final ExecutorService uploadExecutor = Executors.newSingleThreadExecutor();
+
     private final IBinder binder = new LocalBinder();
 
+    // the String API gets the same few UUIDs over and over, parse each one once
+    private final ConcurrentHashMap<String, UUID> uuidCache = new ConcurrentHashMap<>();
+
+    // timeouts of queued ATT operations
+    private final ScheduledExecutorService operationTimer = Executors.newSingleThreadScheduledExecutor();
+
+    // every open connection, the one above included, sharing a fair write scheduler
+    private final GattConnectionManager connections = new GattConnectionManager(operationTimer);
+    // connection priority and PHY per device address
+    private final ConcurrentHashMap<String, LinkTuner> linkTuners = new ConcurrentHashMap<>();
+
     // messages sent back to activity
     public static final int GATT_CONNECTED = 1;
     public static final int GATT_DISCONNECT = 2;
@@ -56,6 +114,11 @@ public class BluetoothAdapterService extends Service {
     public static final int GATT_CHARACTERISTIC_WRITTEN = 5;
     public static final int MESSAGE = 6;
     public static final int NOTIFICATION_OR_INDICATION_RECEIVED = 7;
+    public static final int GATT_MTU_CHANGED = 8;
+    public static final int UART_MESSAGE_RECEIVED = 9;
+    public static final int RX_DATA_AVAILABLE = 10;
+    public static final int DEVICE_CONNECTION_CHANGED = 11;
+    public static final int TRANSFER_PROGRESS = 12;
 
     // message params
     public static final String PARCEL_DESCRIPTOR_UUID = "DESCRIPTOR_UUID";
@@ -64,12 +127,21 @@ public class BluetoothAdapterService extends Service {
     public static final String PARCEL_VALUE = "VALUE";
     public static final String PARCEL_RSSI = "RSSI";
     public static final String PARCEL_TEXT = "TEXT";
+    public static final String PARCEL_MTU = "MTU";
+    public static final String PARCEL_ADDRESS = "ADDRESS";
+    public static final String PARCEL_TRANSFERRED = "TRANSFERRED";
+    public static final String PARCEL_SIZE = "SIZE";
+    public static final String PARCEL_RATE = "RATE";
 
     public static String UART_SERVICE_UUID = "6E400001-B5A3-F393-E0A9-E50E24DCCA9E";
     public static String CHARACTERISTIC_UUID_RX = "6E400002-B5A3-F393-E0A9-E50E24DCCA9E";
     public static String CHARACTERISTIC_UUID_TX = "6E400003-B5A3-F393-E0A9-E50E24DCCA9E";
     public static String BLUETOOTH_LE_CCCD = "00002902-0000-1000-8000-00805F9B34FB";
 
+    // characteristic ids passed to a NotificationDispatcher.Listener
+    public static final int CHARACTERISTIC_ID_UART_TX = GattSession.CHARACTERISTIC_ID_UART_TX;
+    public static final int CHARACTERISTIC_ID_UART_RX = GattSession.CHARACTERISTIC_ID_UART_RX;
+
 
     public class LocalBinder extends Binder {
         public BluetoothAdapterService getService() {
@@ -78,7 +150,8 @@ public class BluetoothAdapterService extends Service {
     }
 
     public boolean isConnected() {
-        return connected;
+        GattSession s = session;
+        return s != null && s.isConnected();
     }
 
     @Override
@@ -95,6 +168,19 @@ public class BluetoothAdapterService extends Service {
         }
     }
 
+    @Override
+    public void onDestroy() {
+        stopCapture();
+        stopFileUpload();
+        uploadExecutor.shutdownNow();
+        for (LinkTuner tuner : linkTuners.values()) {
+            tuner.stop();
+        }
+        connections.closeAll();
+        operationTimer.shutdownNow();
+        super.onDestroy();
+    }
+
     @Nullable
     @Override
     public IBinder onBind(Intent intent) {
@@ -111,7 +197,20 @@ public class BluetoothAdapterService extends Service {
         activityHandler = handler;
     }
 
+    @Nullable
+    public GattSession getSession() {
+        return session;
+    }
+
+    public GattConnectionManager getConnectionManager() {
+        return connections;
+    }
+
     private void sendConsoleMessage(String text) {
+        if (activityHandler == null) {
+            // no activity bound, e.g. while the service shuts down
+            return;
+        }
         Message msg = Message.obtain(activityHandler, MESSAGE);
         Bundle data = new Bundle();
         data.putString(PARCEL_TEXT, text);
@@ -130,281 +229,738 @@ public class BluetoothAdapterService extends Service {
             sendConsoleMessage("connect: device=null");
             return false;
         }
-        if (ActivityCompat.checkSelfPermission(getApplicationContext(), Manifest.permission.BLUETOOTH_SCAN) != PackageManager.PERMISSION_GRANTED) {
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
-                Log.d(Constants.TAG, "connect: No Permission");
+        return connect(new AndroidGattTransport(this, device));
+    }
 
-            } else {
-                bluetoothGatt = device.connectGatt(this, false, gattCallback);
-            }
+    /**
+     * Connect through any transport, e.g. a FakeUartPeripheral for demos and load tests
+     **/
+    public boolean connect(GattTransport transport) {
+        GattSession previous = session;
+        if (previous != null) {
+            disconnectDevice(previous.getTransport().getAddress());
         }
+        GattSession s = connections.add(transport, sessionListener);
+        applySettings(s);
+        s.setTrafficTap(capture);
+        session = s;
+        startLinkTuner(s);
+        return s.connect();
+    }
+
+    /**
+     * Connect one more device next to the current one. It discovers services and turns on UART
+     * notifications by itself, its data is buffered in its session's RX ring.
+     **/
+    public boolean connectDevice(String address) {
+        if (bluetoothAdapter == null || address == null) {
+            sendConsoleMessage("connectDevice: bluetooth_adapter=null");
+            return false;
+        }
+        BluetoothDevice other = bluetoothAdapter.getRemoteDevice(address);
+        if (other == null) {
+            sendConsoleMessage("connectDevice: device=null");
+            return false;
+        }
+        return connectDevice(new AndroidGattTransport(this, other));
+    }
+
+    public boolean connectDevice(GattTransport transport) {
+        GattSession s = connections.add(transport, deviceListener);
+        applySettings(s);
+        if (s.getRxBuffer() == null) {
+            s.enableRxBuffer(GattSession.DEFAULT_STREAM_BUFFER_SIZE, RxRingBuffer.OverflowPolicy.DROP_OLDEST);
+        }
+        startLinkTuner(s);
+        return s.connect();
+    }
 
+    /**
+     * Capture every packet written and notified on this and later connections of the activity,
+     * to segment files in directory, see CaptureWriter
+     **/
+    public boolean startCapture(File directory) {
+        if (capture != null) {
+            sendConsoleMessage("startCapture: already capturing");
+            return false;
+        }
+        CaptureWriter writer;
+        try {
+            writer = new CaptureWriter(directory, "capture-" + System.currentTimeMillis());
+        } catch (IOException e) {
+            sendConsoleMessage("startCapture: " + e.getMessage());
+            return false;
+        }
+        capture = writer;
+        GattSession s = session;
+        if (s != null) {
+            s.setTrafficTap(writer);
+        }
+        sendConsoleMessage("Capturing to " + writer.getDirectory() + "/" + writer.getName());
         return true;
     }
 
+    // captures go to the app's files dir
+    public boolean startCapture() {
+        return startCapture(getCaptureDirectory());
+    }
+
+    public File getCaptureDirectory() {
+        return new File(getFilesDir(), "captures");
+    }
+
+    public void stopCapture() {
+        CaptureWriter writer = capture;
+        if (writer == null) {
+            return;
+        }
+        capture = null;
+        GattSession s = session;
+        if (s != null) {
+            s.setTrafficTap(null);
+        }
+        try {
+            writer.close();
+        } catch (IOException e) {
+            sendConsoleMessage("stopCapture: " + e.getMessage());
+        }
+        sendConsoleMessage("Capture stopped: " + writer.getRecordCount() + " packets, "
+                + writer.getDroppedCount() + " dropped, " + writer.getSegmentCount() + " segments");
+    }
+
+    public boolean isCapturing() {
+        return capture != null;
+    }
+
+    /**
+     * Connect to a recording instead of a device: the capture's notifications go through the
+     * activity's connection as if a peripheral sent them. speed 1 keeps the recorded timing,
+     * CaptureReplayer.AS_FAST_AS_POSSIBLE measures what the pipeline absorbs. Refused while a
+     * device is connected, which the replay would drop, or while capturing, which would record
+     * the replay into the capture.
+     **/
+    public boolean replayCapture(File directory, String name, double speed) {
+        if (isConnected()) {
+            sendConsoleMessage("replayCapture: disconnect first");
+            return false;
+        }
+        if (isCapturing()) {
+            sendConsoleMessage("replayCapture: stop the capture first");
+            return false;
+        }
+        CaptureReader reader;
+        try {
+            reader = CaptureReader.open(directory, name);
+        } catch (IOException e) {
+            sendConsoleMessage("replayCapture: " + e.getMessage());
+            return false;
+        }
+        sendConsoleMessage("Replaying " + name);
+        return connect(new ReplayTransport("replay:" + name, reader, speed, replayListener));
+    }
+
+    public boolean replayLatestCapture(double speed) {
+        String name = CaptureFormat.latestCapture(getCaptureDirectory());
+        if (name == null) {
+            sendConsoleMessage("replayCapture: no capture yet");
+            return false;
+        }
+        return replayCapture(getCaptureDirectory(), name, speed);
+    }
+
+    public void disconnectDevice(String address) {
+        LinkTuner tuner = linkTuners.remove(address);
+        if (tuner != null) {
+            tuner.stop();
+        }
+        connections.remove(address);
+    }
+
+    private void startLinkTuner(GattSession s) {
+        LinkTuner tuner = new LinkTuner(s, operationTimer);
+        tuner.setListener(linkTunerListener);
+        LinkTuner previous = linkTuners.put(s.getTransport().getAddress(), tuner);
+        if (previous != null) {
+            previous.stop();
+        }
+        tuner.start();
+    }
+
+    /**
+     * Connection priority and PHY tuning of the current connection, null if there is none.
+     * Call beginTransfer() on it around bulk transfers.
+     **/
+    @Nullable
+    public LinkTuner getLinkTuner() {
+        GattSession s = session;
+        return s == null ? null : linkTuners.get(s.getTransport().getAddress());
+    }
+
+    @Nullable
+    public LinkTuner getLinkTuner(String address) {
+        return linkTuners.get(address);
+    }
+
+    private void applySettings(GattSession s) {
+        s.setNoResponseWindow(noResponseWindow);
+        applyTxPacing(s);
+        s.setNotificationListener(notificationListener);
+        if (rxBufferCapacity > 0) {
+            s.enableRxBuffer(rxBufferCapacity, rxBufferPolicy);
+        }
+    }
+
     // disconnect from device
     public void disconnect() {
         sendConsoleMessage("disconnecting");
-        if (bluetoothAdapter == null || bluetoothGatt == null) {
+        GattSession s = session;
+        if (s == null) {
             sendConsoleMessage("disconnect: bluetooth_adapter|bluetooth_gatt null");
             return;
         }
-        if (ActivityCompat.checkSelfPermission(getApplicationContext(), Manifest.permission.BLUETOOTH_SCAN) != PackageManager.PERMISSION_GRANTED) {
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
-                Log.d(Constants.TAG, "connect: No Permission");
-
-            } else {
-                bluetoothGatt.disconnect();
-            }
-        }
+        s.disconnect();
     }
 
     /**
      * Discover Services
      **/
     public void discoverServices() {
-        if (bluetoothAdapter == null || bluetoothGatt == null) {
+        GattSession s = session;
+        if (s == null) {
             return;
         }
-        Log.d(Constants.TAG, "Discovering GATT services");
+        s.discoverServices();
+    }
 
-        if (ActivityCompat.checkSelfPermission(getApplicationContext(), Manifest.permission.BLUETOOTH_SCAN) != PackageManager.PERMISSION_GRANTED) {
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
-                Log.d(Constants.TAG, "connect: No Permission");
+    public List<BluetoothGattService> getSupportedGattServices() {
+        GattSession s = session;
+        if (s == null || !(s.getTransport() instanceof AndroidGattTransport))
+            return null;
+        return ((AndroidGattTransport) s.getTransport()).getServices();
+    }
 
-            } else {
-                bluetoothGatt.discoverServices();
+    public List<UUID> getSupportedServiceUuids() {
+        GattSession s = session;
+        if (s == null)
+            return Collections.emptyList();
+        return s.getServiceUuids();
+    }
+
+    /**
+     * Buffer UART notifications instead of posting them. The handler gets RX_DATA_AVAILABLE once
+     * new data is waiting, and should call readRx() until it returns 0.
+     **/
+    @Nullable
+    public RxRingBuffer enableRxBuffer(int capacity, RxRingBuffer.OverflowPolicy policy) {
+        rxBufferCapacity = capacity;
+        rxBufferPolicy = policy;
+        GattSession s = session;
+        return s == null ? null : s.enableRxBuffer(capacity, policy);
+    }
+
+    public void disableRxBuffer() {
+        rxBufferCapacity = 0;
+        GattSession s = session;
+        if (s != null) {
+            s.disableRxBuffer();
+        }
+    }
+
+    @Nullable
+    public RxRingBuffer getRxBuffer() {
+        GattSession s = session;
+        return s == null ? null : s.getRxBuffer();
+    }
+
+    public int readRx(byte[] dst, int offset, int length) {
+        GattSession s = session;
+        return s == null ? 0 : s.readRx(dst, offset, length);
+    }
+
+    /**
+     * Receive notifications on the GATT callback thread instead of as messages. The listener gets
+     * a CHARACTERISTIC_ID_* and a reused buffer, pass null to go back to messages.
+     **/
+    public void setNotificationListener(NotificationDispatcher.Listener listener) {
+        notificationListener = listener;
+        GattSession s = session;
+        if (s != null) {
+            s.setNotificationListener(listener);
+        }
+    }
+
+    // number of writes without response allowed in flight at once
+    public void setNoResponseWindow(int window) {
+        noResponseWindow = window;
+        GattSession s = session;
+        if (s != null) {
+            s.setNoResponseWindow(window);
+        }
+    }
+
+    /**
+     * Pace every UART write to the devices' receive buffers at bytesPerSecond with bursts of up
+     * to burst bytes, 0 for no limit. With credits set, devices that advertise credits on the TX
+     * channel get exactly what they have room for instead; leave it off for firmware that does
+     * not, or its data could be taken for credits. See TxPacer.
+     **/
+    public void setTxPacing(long bytesPerSecond, int burst, boolean credits) {
+        txPacingRate = bytesPerSecond;
+        txPacingBurst = burst;
+        txPacingCredits = credits;
+        for (String address : connections.getAddresses()) {
+            GattSession s = connections.getSession(address);
+            if (s != null) {
+                applyTxPacing(s);
             }
         }
     }
 
-    public List<BluetoothGattService> getSupportedGattServices() {
-        if (bluetoothGatt == null)
-            return null;
-        return bluetoothGatt.getServices();
+    private void applyTxPacing(GattSession s) {
+        if (txPacingRate > 0) {
+            s.enableTxPacing(txPacingRate, txPacingBurst, txPacingCredits);
+        } else {
+            s.disableTxPacing();
+        }
+    }
+
+    @Nullable
+    public TxPacer getTxPacer() {
+        GattSession s = session;
+        return s == null ? null : s.getTxPacer();
+    }
+
+    public int getPendingOperationCount() {
+        GattSession s = session;
+        return s == null ? 0 : s.getPendingOperationCount();
+    }
+
+    // MTU negotiated for the current connection, 23 until the exchange completes
+    public int getMtu() {
+        GattSession s = session;
+        return s == null ? UartFragmenter.DEFAULT_MTU : s.getMtu();
     }
 
     /**
      * Read Characteristics
      **/
     public boolean readCharacteristic(String serviceUuid, String characteristicUuid) {
-        Log.d(Constants.TAG, "readCharacteristic:" + characteristicUuid + " of service " + serviceUuid);
+        return readCharacteristic(serviceUuid, characteristicUuid, null);
+    }
 
-        if (bluetoothAdapter == null || bluetoothGatt == null) {
+    public boolean readCharacteristic(String serviceUuid, String characteristicUuid, GattOperation.Callback callback) {
+        GattSession s = session;
+        if (s == null) {
             sendConsoleMessage("readCharacteristic: bluetooth_adapter|bluetooth_gatt null");
             return false;
         }
+        return s.readCharacteristic(toUuid(serviceUuid), toUuid(characteristicUuid), callback);
+    }
 
-        BluetoothGattService gattService = bluetoothGatt.getService(java.util.UUID.fromString(serviceUuid));
-        if (gattService == null) {
-            sendConsoleMessage("readCharacteristic: gattService null");
-            return false;
-        }
-        BluetoothGattCharacteristic gattChar = gattService
-                .getCharacteristic(java.util.UUID.fromString(characteristicUuid));
-        if (gattChar == null) {
-            sendConsoleMessage("readCharacteristic: gattChar null");
+    public boolean readCharacteristic(CharacteristicHandle characteristic, GattOperation.Callback callback) {
+        GattSession s = session;
+        if (s == null) {
+            sendConsoleMessage("readCharacteristic: bluetooth_adapter|bluetooth_gatt null");
             return false;
         }
+        return s.readCharacteristic(characteristic, callback);
+    }
 
-        boolean c = false;
-        if (ActivityCompat.checkSelfPermission(getApplicationContext(), Manifest.permission.BLUETOOTH_SCAN) != PackageManager.PERMISSION_GRANTED) {
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
-                Log.d(TAG, "connect: No Permission");
-
-            } else {
-                c = bluetoothGatt.readCharacteristic(gattChar);
-            }
-        } else {
-            c = bluetoothGatt.readCharacteristic(gattChar);
-        }
-
-        return c;
+    /**
+     * Resolved characteristic for the handle overloads, null until services are discovered.
+     * Look it up again after a disconnect or GATT_SERVICES_DISCOVERED.
+     **/
+    @Nullable
+    public CharacteristicHandle getCharacteristic(String serviceUuid, String characteristicUuid) {
+        GattSession s = session;
+        return s == null ? null : s.getCharacteristic(toUuid(serviceUuid), toUuid(characteristicUuid));
     }
 
     /**
      * Write Characteristics
      **/
     public boolean writeCharacteristic(String serviceUuid, String characteristicUuid, byte[] value) {
-        Log.d(Constants.TAG, "writeCharacteristic:" + characteristicUuid + " of service " + serviceUuid);
+        return writeCharacteristic(serviceUuid, characteristicUuid, value, BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT, null);
+    }
 
-        if (bluetoothAdapter == null || bluetoothGatt == null) {
+    /**
+     * Queue a write, writes without response are pipelined, all other writes go one at a time
+     **/
+    public boolean writeCharacteristic(String serviceUuid, String characteristicUuid, byte[] value, int writeType, GattOperation.Callback callback) {
+        GattSession s = session;
+        if (s == null) {
             sendConsoleMessage("writeCharacteristic: bluetooth_adapter|bluetooth_gatt null");
             return false;
         }
+        return s.writeCharacteristic(toUuid(serviceUuid), toUuid(characteristicUuid), value, writeType, callback);
+    }
 
-        BluetoothGattService gattService = bluetoothGatt.getService(java.util.UUID.fromString(serviceUuid));
-        if (gattService == null) {
-            sendConsoleMessage("writeCharacteristic: gattService null");
+    // fast path, no parsing or lookups before the GATT call
+    public boolean writeCharacteristic(CharacteristicHandle characteristic, byte[] value, int writeType, GattOperation.Callback callback) {
+        GattSession s = session;
+        if (s == null) {
+            sendConsoleMessage("writeCharacteristic: bluetooth_adapter|bluetooth_gatt null");
             return false;
         }
-        BluetoothGattCharacteristic gattChar = gattService
-                .getCharacteristic(java.util.UUID.fromString(characteristicUuid));
+        return s.writeCharacteristic(characteristic, value, writeType, callback);
+    }
 
-        if (gattChar == null) {
-            sendConsoleMessage("writeCharacteristic: gattChar null");
+    /**
+     * Write UART data of any length, split into MTU sized writes without response
+     **/
+    public boolean writeUart(byte[] data) {
+        return writeUart(data, null);
+    }
+
+    // callback runs once, after the last chunk or on the first failed one
+    public boolean writeUart(byte[] data, GattOperation.Callback callback) {
+        GattSession s = session;
+        if (s == null) {
+            sendConsoleMessage("writeUart: bluetooth_adapter|bluetooth_gatt null");
             return false;
         }
-        gattChar.setValue(value);
-
-        boolean c = false;
-        if (ActivityCompat.checkSelfPermission(getApplicationContext(), Manifest.permission.BLUETOOTH_SCAN) != PackageManager.PERMISSION_GRANTED) {
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
-                Log.d(Constants.TAG, "connect: No Permission");
+        return writeUart(s.getTransport().getAddress(), data, callback);
+    }
 
-            } else {
-                c = bluetoothGatt.writeCharacteristic(gattChar);
-            }
+    /**
+     * Write UART data to any connected device, taking turns with the writes to the others
+     **/
+    public boolean writeUart(String address, byte[] data, GattOperation.Callback callback) {
+        GattSession s = connections.getSession(address);
+        if (s == null || !s.isConnected()) {
+            sendConsoleMessage("writeUart: not connected");
+            return false;
+        }
+        if (!connections.writeUart(address, data, callback)) {
+            sendConsoleMessage("writeUart: backlog full");
+            return false;
         }
-        return c;
+        return true;
     }
 
     /**
-     * Set Indication State
+     * Bytes moved and rates since the last call, per device and then summed up
      **/
+    public List<ThroughputSnapshot> sampleThroughput() {
+        return connections.sampleThroughput();
+    }
 
-    public boolean setIndicationsState(String serviceUuid, String characteristicUuid, boolean enabled) {
-        if (bluetoothAdapter == null || bluetoothGatt == null) {
-            sendConsoleMessage("setIndicationsState: bluetooth_adapter|bluetooth_gatt null");
+    /**
+     * Latencies, rates and errors of the activity's connection, null without one. Rates are
+     * since the previous call.
+     **/
+    @Nullable
+    public MetricsSnapshot getMetricsSnapshot() {
+        GattSession s = session;
+        return s == null ? null : s.getMetricsSnapshot();
+    }
+
+    /**
+     * Open the UART as a blocking byte channel, for use from a worker thread. Incoming data is
+     * buffered in the RX ring (enabled here if needed) and the channel reads end when the link drops.
+     **/
+    @Nullable
+    public UartChannel openUartChannel() {
+        GattSession s = session;
+        return s == null ? null : s.openUartChannel();
+    }
+
+    /**
+     * Stream a file to the device in MTU sized RPC requests, see FileUpload. UART notifications
+     * carry the responses meanwhile instead of console text. An upload cut off by a disconnect
+     * resumes once the device is back and its MTU is known.
+     **/
+    public boolean startFileUpload(Uri uri) {
+        GattSession s = session;
+        if (s == null || !s.isConnected()) {
+            sendConsoleMessage("startFileUpload: not connected");
             return false;
         }
-        BluetoothGattService gattService = bluetoothGatt.getService(java.util.UUID.fromString(serviceUuid));
-        if (gattService == null) {
-            sendConsoleMessage("setIndicationsState: gattService null");
+        if (upload != null && !upload.isDone()) {
+            sendConsoleMessage("startFileUpload: upload in progress");
+            return false;
+        }
+        closeUploadFile();
+        try {
+            uploadFile = getContentResolver().openFileDescriptor(uri, "r");
+            if (uploadFile == null) {
+                sendConsoleMessage("startFileUpload: cannot open " + uri);
+                return false;
+            }
+            upload = new FileUpload(new FileInputStream(uploadFile.getFileDescriptor()).getChannel(),
+                    uploadExecutor, uploadListener);
+        } catch (IOException e) {
+            sendConsoleMessage("startFileUpload: " + e.getMessage());
+            closeUploadFile();
+            return false;
+        }
+        sendConsoleMessage("Uploading " + upload.getSize() + " bytes");
+        return resumeFileUpload(s);
+    }
+
+    public void stopFileUpload() {
+        FileUpload current = upload;
+        upload = null;
+        if (current != null) {
+            current.pause();
+        }
+        disableUploadRpc();
+        closeUploadFile();
+    }
+
+    @Nullable
+    public FileUpload getFileUpload() {
+        return upload;
+    }
+
+    // start or resume the upload on s, if one is waiting
+    private boolean resumeFileUpload(GattSession s) {
+        FileUpload current = upload;
+        if (current == null || current.isDone() || current.isActive()) {
             return false;
         }
-        BluetoothGattCharacteristic gattChar = gattService.getCharacteristic(java.util.UUID.fromString(characteristicUuid));
-        if (gattChar == null) {
-            sendConsoleMessage("setIndicationsState: gattChar null");
+        s.setNotificationsEnabled(NordicUart.SERVICE, NordicUart.TX, true);
+        RpcClient client = s.getRpcClient();
+        if (client == null) {
+            client = s.enableRpc(new CobsCodec());
+            uploadRpc = client;
+        }
+        FrameCodec codec = s.getFrameCodec();
+        beginTransfer(linkTuners.get(s.getTransport().getAddress()));
+        if (!current.start(client, FileUpload.chunkSizeFor(s.getMtu(), codec))) {
+            endTransfer();
             return false;
         }
+        return true;
+    }
+
+    // back to console text, unless someone else enabled RPC
+    private void disableUploadRpc() {
+        RpcClient client = uploadRpc;
+        uploadRpc = null;
+        GattSession s = session;
+        if (client != null && s != null && s.getRpcClient() == client) {
+            s.disableRpc();
+        }
+    }
+
+    private void closeUploadFile() {
+        if (uploadFile == null) {
+            return;
+        }
+        try {
+            uploadFile.close();
+        } catch (IOException e) {
+            Log.d(Constants.TAG, "closeUploadFile: " + e.getMessage());
+        }
+        uploadFile = null;
+    }
+
+    private void sendTransferProgress(FileUpload current) {
+        if (activityHandler == null) {
+            return;
+        }
+        Bundle bundle = new Bundle();
+        bundle.putLong(PARCEL_TRANSFERRED, current.getAcknowledged());
+        bundle.putLong(PARCEL_SIZE, current.getSize());
+        bundle.putDouble(PARCEL_RATE, current.getBytesPerSecond());
+        Message msg = Message.obtain(activityHandler, TRANSFER_PROGRESS);
+        msg.setData(bundle);
+        msg.sendToTarget();
+    }
 
-        List<BluetoothGattDescriptor> d = gattChar.getDescriptors();
+    // keeps the link fast on tuner until endTransfer, whichever session is current by then
+    private synchronized void beginTransfer(LinkTuner tuner) {
+        endTransfer();
+        if (tuner != null) {
+            tuner.beginTransfer();
+            uploadTuner = tuner;
+        }
+    }
 
-        for (BluetoothGattDescriptor a : d) {
-            Log.d(Constants.TAG, "setIndicationsState: " + a.getUuid().toString().toUpperCase(Locale.ROOT));
+    private synchronized void endTransfer() {
+        LinkTuner tuner = uploadTuner;
+        uploadTuner = null;
+        if (tuner != null) {
+            tuner.endTransfer();
+        }
+    }
+
+    /************************ UPLOAD CALLBACK **************************/
+    private final FileUpload.Listener uploadListener = new FileUpload.Listener() {
+        @Override
+        public void onProgress(FileUpload current) {
+            sendTransferProgress(current);
         }
 
-        if (ActivityCompat.checkSelfPermission(getApplicationContext(), Manifest.permission.BLUETOOTH_SCAN) != PackageManager.PERMISSION_GRANTED) {
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
-                Log.d(Constants.TAG, "connect: No Permission");
+        @Override
+        public void onComplete(FileUpload current) {
+            endTransfer();
+            sendConsoleMessage(String.format(Locale.US, "Upload done: %d bytes, %.1f kB/s",
+                    current.getSize(), current.getBytesPerSecond() / 1000));
+            disableUploadRpc();
+        }
 
+        @Override
+        public void onFailed(FileUpload current, int status) {
+            endTransfer();
+            if (status == RpcFuture.STATUS_CANCELLED) {
+                sendConsoleMessage("Upload stopped at " + current.getAcknowledged() + " bytes");
             } else {
-                bluetoothGatt.setCharacteristicNotification(gattChar, enabled);
+                sendConsoleMessage("Upload paused at " + current.getAcknowledged() + " bytes, status " + status);
             }
         }
+    };
 
-        // Enable remote notifications
-        descriptor = gattChar.getDescriptor(UUID.fromString(BLUETOOTH_LE_CCCD));
+    /**
+     * Set Indication State
+     **/
 
-        if (descriptor == null) {
-            sendConsoleMessage("setIndicationsState: descriptor null");
+    public boolean setIndicationsState(String serviceUuid, String characteristicUuid, boolean enabled) {
+        GattSession s = session;
+        if (s == null) {
+            sendConsoleMessage("setIndicationsState: bluetooth_adapter|bluetooth_gatt null");
             return false;
         }
+        return s.setNotificationsEnabled(toUuid(serviceUuid), toUuid(characteristicUuid), enabled);
+    }
 
-        if (enabled) {
-            descriptor.setValue(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
-        } else {
-            descriptor.setValue(BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE);
+    private UUID toUuid(String uuid) {
+        UUID parsed = uuidCache.get(uuid);
+        if (parsed == null) {
+            parsed = UUID.fromString(uuid);
+            uuidCache.putIfAbsent(uuid, parsed);
         }
+        return parsed;
+    }
 
-        return bluetoothGatt.writeDescriptor(descriptor);
+
+    private static String priorityName(int priority) {
+        switch (priority) {
+            case GattTransport.CONNECTION_PRIORITY_HIGH:
+                return "high";
+            case GattTransport.CONNECTION_PRIORITY_LOW_POWER:
+                return "low power";
+            default:
+                return "balanced";
+        }
     }
 
+    private final LinkTuner.Listener linkTunerListener = (s, priority, throughput) -> {
+        String text = "Link priority " + priorityName(priority) + ", " + throughput;
+        if (s == session) {
+            sendConsoleMessage(text);
+        } else {
+            Log.d(Constants.TAG, text);
+        }
+    };
 
-    /************************ GATT CALLBACK **************************/
-    private final BluetoothGattCallback gattCallback = new BluetoothGattCallback() {
+    /************************ REPLAY CALLBACK **************************/
+    private final ReplayTransport.Listener replayListener = new ReplayTransport.Listener() {
+        @Override
+        public void onReplayFinished(ReplayTransport transport, ReplayStats stats) {
+            Log.d(Constants.TAG, "replay " + transport.getAddress() + ": " + stats);
+            sendConsoleMessage("Replay done: " + stats);
+        }
 
-        /**
-         * On Connection State Change
-         **/
         @Override
-        public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
-            Log.d(Constants.TAG, "onConnectionStateChange: status=" + status + ", New State = " + newState);
+        public void onReplayFailed(ReplayTransport transport, IOException e) {
+            sendConsoleMessage("Replay failed: " + e.getMessage());
+        }
+    };
 
-            if (newState == BluetoothProfile.STATE_CONNECTED) {
-                Log.d(Constants.TAG, "onConnectionStateChange: CONNECTED");
-                connected = true;
-                Message msg = Message.obtain(activityHandler, GATT_CONNECTED);
-                msg.sendToTarget();
+    /************************ DEVICE CALLBACK **************************/
+    // the extra devices run on their own, the activity only hears about connects and disconnects
+    private final GattSession.Listener deviceListener = new GattSession.Listener() {
 
-            } else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
-                Log.d(Constants.TAG, "onConnectionStateChange: DISCONNECTED");
-                connected = false;
-                Message msg = Message.obtain(activityHandler, GATT_DISCONNECT);
+        @Override
+        public void onConnectionStateChange(GattSession s, boolean connected) {
+            if (activityHandler != null) {
+                Bundle bundle = new Bundle();
+                bundle.putString(PARCEL_ADDRESS, s.getTransport().getAddress());
+                Message msg = Message.obtain(activityHandler, DEVICE_CONNECTION_CHANGED, connected ? 1 : 0, 0);
+                msg.setData(bundle);
                 msg.sendToTarget();
+            }
+            if (connected) {
+                s.discoverServices();
+            }
+        }
 
-                if (bluetoothGatt != null) {
-                    Log.d(Constants.TAG, "Closing and destroying BluetoothGatt object");
+        @Override
+        public void onServicesDiscovered(GattSession s, int status) {
+            // the setup the activity does for the primary connection
+            if (status == GattTransport.STATUS_SUCCESS) {
+                s.setNotificationsEnabled(NordicUart.SERVICE, NordicUart.TX, true);
+            }
+        }
 
-                    if (ActivityCompat.checkSelfPermission(getApplicationContext(), Manifest.permission.BLUETOOTH_SCAN) != PackageManager.PERMISSION_GRANTED) {
-                        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
-                            Log.d(Constants.TAG, "connect: No Permission");
+        @Override
+        public void onConsoleMessage(GattSession s, String text) {
+            sendConsoleMessage(s.getTransport().getAddress() + ": " + text);
+        }
+    };
 
-                        } else {
-                            bluetoothGatt.close();
-                        }
-                    }
+    /************************ SESSION CALLBACK **************************/
+    private final GattSession.Listener sessionListener = new GattSession.Listener() {
 
-                    bluetoothGatt = null;
-                }
-            }
+        @Override
+        public void onConnectionStateChange(GattSession s, boolean connected) {
+            Message msg = Message.obtain(activityHandler, connected ? GATT_CONNECTED : GATT_DISCONNECT);
+            msg.sendToTarget();
         }
 
-        /**
-         * On Services Discovered
-         **/
         @Override
-        public void onServicesDiscovered(BluetoothGatt gatt, int status) {
+        public void onServicesDiscovered(GattSession s, int status) {
             sendConsoleMessage("Services Discovered");
             Message msg = Message.obtain(activityHandler, GATT_SERVICES_DISCOVERED);
             msg.sendToTarget();
+            if (status == GattTransport.STATUS_SUCCESS) {
+                // not only on onMtuChanged, which never comes if the MTU exchange fails
+                resumeFileUpload(s);
+            }
+        }
 
-            Log.d(TAG, "request max MTU");
-            if (ActivityCompat.checkSelfPermission(getApplicationContext(), Manifest.permission.BLUETOOTH_SCAN) != PackageManager.PERMISSION_GRANTED) {
-                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
-                    Log.d(TAG, "connect: No Permission");
+        @Override
+        public void onMtuChanged(GattSession s, int mtu) {
+            Bundle bundle = new Bundle();
+            bundle.putInt(PARCEL_MTU, mtu);
+            Message msg = Message.obtain(activityHandler, GATT_MTU_CHANGED);
+            msg.setData(bundle);
+            msg.sendToTarget();
+            resumeFileUpload(s);
+        }
 
-                } else {
-                    bluetoothGatt.requestMtu(512);  //Without this the esp32 is only able to receive maximum 20 bytes
-                }
-            } else {
-                bluetoothGatt.requestMtu(512);  //Without this the esp32 is only able to receive maximum 20 bytes
-            }
+        @Override
+        public void onLinkParametersChanged(GattSession s, LinkParameters parameters) {
+            sendConsoleMessage("Link: " + parameters);
         }
 
-        /**
-         * On Characteristics Read
-         **/
         @Override
-        public void onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
-            if (status == BluetoothGatt.GATT_SUCCESS) {
+        public void onCharacteristicRead(GattSession s, UUID service, UUID characteristic, byte[] value, int status) {
+            if (status == GattTransport.STATUS_SUCCESS) {
                 Bundle bundle = new Bundle();
-                bundle.putString(PARCEL_CHARACTERISTIC_UUID, characteristic.getUuid().toString());
-                bundle.putString(PARCEL_SERVICE_UUID, characteristic.getService().getUuid().toString());
-                bundle.putByteArray(PARCEL_VALUE, characteristic.getValue());
+                bundle.putString(PARCEL_CHARACTERISTIC_UUID, characteristic.toString());
+                bundle.putString(PARCEL_SERVICE_UUID, service.toString());
+                bundle.putByteArray(PARCEL_VALUE, value);
                 Message msg = Message.obtain(activityHandler, GATT_CHARACTERISTIC_READ);
                 msg.setData(bundle);
                 msg.sendToTarget();
 
             } else {
-                Log.d(Constants.TAG, "failed to read characteristic:" + characteristic.getUuid().toString() + " of service " + characteristic.getService().getUuid().toString() + " : status=" + status);
                 sendConsoleMessage("characteristic read err:" + status);
             }
         }
 
-        /**
-         * On Characteristics Write
-         **/
         @Override
-        public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+        public void onCharacteristicWrite(GattSession s, UUID service, UUID characteristic, byte[] value, int status) {
             Log.d(Constants.TAG, "onCharacteristicWrite");
 
-            if (status == BluetoothGatt.GATT_SUCCESS) {
+            if (status == GattTransport.STATUS_SUCCESS) {
                 Bundle bundle = new Bundle();
-                bundle.putString(PARCEL_CHARACTERISTIC_UUID, characteristic.getUuid().toString());
-                bundle.putString(PARCEL_SERVICE_UUID, characteristic.getService().getUuid().toString());
-                bundle.putByteArray(PARCEL_VALUE, characteristic.getValue());
+                bundle.putString(PARCEL_CHARACTERISTIC_UUID, characteristic.toString());
+                bundle.putString(PARCEL_SERVICE_UUID, service.toString());
+                bundle.putByteArray(PARCEL_VALUE, value);
                 Message msg = Message.obtain(activityHandler, GATT_CHARACTERISTIC_WRITTEN);
                 msg.setData(bundle);
                 msg.sendToTarget();
@@ -414,26 +970,44 @@ public class BluetoothAdapterService extends Service {
             }
         }
 
-        /**
-         * On Characteristic Changed
-         **/
         @Override
-        public void onCharacteristicChanged(BluetoothGatt gatt,
-                                            BluetoothGattCharacteristic characteristic) {
+        public void onNotification(GattSession s, UUID service, UUID characteristic, byte[] value) {
             Log.d(Constants.TAG, "onCharacteristicChanged");
 
             Bundle bundle = new Bundle();
-            bundle.putString(PARCEL_CHARACTERISTIC_UUID, characteristic.getUuid().toString());
-            bundle.putString(PARCEL_SERVICE_UUID, characteristic.getService().getUuid().toString());
-            bundle.putByteArray(PARCEL_VALUE, characteristic.getValue());
+            bundle.putString(PARCEL_CHARACTERISTIC_UUID, characteristic.toString());
+            bundle.putString(PARCEL_SERVICE_UUID, service.toString());
+            bundle.putByteArray(PARCEL_VALUE, value.clone());
 
             // notifications and indications are both communicated from here in this way
             Message msg = Message.obtain(activityHandler, NOTIFICATION_OR_INDICATION_RECEIVED);
             msg.setData(bundle);
             msg.sendToTarget();
 
-            Log.d(Constants.TAG, "onCharacteristicChanged: " + Arrays.toString(characteristic.getValue()));
+            if (Log.isLoggable(Constants.TAG, Log.VERBOSE)) {
+                Log.v(Constants.TAG, "onCharacteristicChanged: " + Arrays.toString(value));
+            }
+        }
 
+        @Override
+        public void onUartMessage(GattSession s, byte[] buffer, int length) {
+            Bundle bundle = new Bundle();
+            bundle.putByteArray(PARCEL_VALUE, Arrays.copyOf(buffer, length));
+            Message msg = Message.obtain(activityHandler, UART_MESSAGE_RECEIVED);
+            msg.setData(bundle);
+            msg.sendToTarget();
+        }
+
+        @Override
+        public void onRxDataAvailable(GattSession s) {
+            if (activityHandler != null) {
+                Message.obtain(activityHandler, RX_DATA_AVAILABLE).sendToTarget();
+            }
+        }
+
+        @Override
+        public void onConsoleMessage(GattSession s, String text) {
+            sendConsoleMessage(text);
         }
     };
 }
@@ -5,4 +5,5 @@ public class Constants {
     public static final String FIND = "Find BLE Devices";
     public static final String STOP_SCANNING = "Stop Scanning";
     public static final String SCANNING = "Scanning";
+    public static final String SCANNING_CONTINUOUSLY = "Scanning until stopped";
 }
\ No newline at end of file
@@ -1,10 +1,16 @@
 package com.example.bleserial.bluetooth;
 
 import android.bluetooth.BluetoothDevice;
+import android.bluetooth.le.ScanResult;
+
+import java.util.List;
 
 public interface ScanResultsConsumer {
     public void candidateDevice(BluetoothDevice device, byte[] scan_record, int rssi);
 
+    // results gathered by the controller over one report delay, see Scanner.setReportDelay
+    public void candidateDevices(List<ScanResult> results);
+
     public void scanningStarted();
 
     public void scanningStopped();
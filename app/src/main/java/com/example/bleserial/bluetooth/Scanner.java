@@ -13,12 +13,17 @@ import android.content.Context;
 import android.content.pm.PackageManager;
 import android.os.Build;
 import android.os.Handler;
+import android.os.ParcelUuid;
 import android.util.Log;
 
 import androidx.core.app.ActivityCompat;
 
+import com.example.bleserial.scan.AdRecordCache;
+import com.example.bleserial.scan.MacAddress;
+
 import java.util.ArrayList;
 import java.util.List;
+import java.util.UUID;
 
 public class Scanner {
     private BluetoothLeScanner scanner = null;
@@ -29,6 +34,21 @@ public class Scanner {
     private boolean scanning = false;
     private final int REQUEST_BLUETOOTH_SCAN = 1;
 
+    // startScanning runs until stopScanning
+    public static final long NO_TIMEOUT = 0;
+    // no manufacturer filter
+    public static final int ANY_MANUFACTURER = -1;
+
+    // filters, matched by the controller where it supports offloading
+    private UUID serviceFilter = null;
+    private String nameFilter = null;
+    private int manufacturerFilter = ANY_MANUFACTURER;
+    // checked on delivery, the controller only matches complete names
+    private String namePrefix = null;
+    private long reportDelayMs = 0;
+    // raw records parsed in place, repeats served from the cache
+    private final AdRecordCache adRecords = new AdRecordCache();
+
     public Scanner(Context context) {
         this.context = context;
         final BluetoothManager bluetoothManager = (BluetoothManager) context.getSystemService(Context.BLUETOOTH_SERVICE);
@@ -49,22 +69,90 @@ public class Scanner {
             scanner = bluetoothAdapter.getBluetoothLeScanner();
             Log.d(Constants.TAG, "Created BluetoothScanner object");
         }
-        handler.postDelayed(() -> {
-            if (scanning) {
-                Log.d(Constants.TAG, "Stopping scanning");
-                scanner.stopScan(scanCallback);
-                setScanning(false);
-            }
-        }, stop_after_ms);
+        if (stop_after_ms > NO_TIMEOUT) {
+            handler.postDelayed(stopAfterTimeout, stop_after_ms);
+        }
 
         this.scanResultsConsumer = scanResultsConsumer;
         Log.d(Constants.TAG, "Scanning");
 
-        List<ScanFilter> filters;
-        filters = new ArrayList<>();
-        ScanSettings settings = new ScanSettings.Builder().setScanMode(ScanSettings.SCAN_MODE_LOW_LATENCY).build();
+        List<ScanFilter> filters = buildFilters();
+        ScanSettings.Builder settings = new ScanSettings.Builder();
+        if (reportDelayMs > 0 && bluetoothAdapter.isOffloadedScanBatchingSupported()) {
+            // the controller buffers the results and wakes us once per report delay
+            settings.setScanMode(ScanSettings.SCAN_MODE_BALANCED)
+                    .setReportDelay(reportDelayMs);
+            Log.d(Constants.TAG, "Batched scanning, report delay " + reportDelayMs + "ms");
+        } else {
+            settings.setScanMode(ScanSettings.SCAN_MODE_LOW_LATENCY);
+        }
         setScanning(true);
-        scanner.startScan(filters, settings, scanCallback);
+        scanner.startScan(filters, settings.build(), scanCallback);
+    }
+
+    /**
+     * Only report devices advertising this service, e.g. NordicUart.SERVICE. null for any.
+     **/
+    public void setServiceFilter(UUID serviceUuid) {
+        serviceFilter = serviceUuid;
+    }
+
+    // only report devices advertising exactly this name, null for any
+    public void setNameFilter(String name) {
+        nameFilter = name;
+    }
+
+    // only report devices whose advertised name starts with prefix, null for any
+    public void setNamePrefix(String prefix) {
+        namePrefix = prefix;
+    }
+
+    // only report devices with manufacturer data for this company id, ANY_MANUFACTURER for any
+    public void setManufacturerFilter(int manufacturerId) {
+        manufacturerFilter = manufacturerId;
+    }
+
+    /**
+     * Deliver results in batches through ScanResultsConsumer.candidateDevices every delayMs
+     * instead of one callback per advertisement. 0 reports each result at once, as does a
+     * controller without batching support.
+     **/
+    public void setReportDelay(long delayMs) {
+        reportDelayMs = delayMs;
+    }
+
+    private List<ScanFilter> buildFilters() {
+        List<ScanFilter> filters = new ArrayList<>();
+        if (serviceFilter == null && nameFilter == null && manufacturerFilter == ANY_MANUFACTURER) {
+            return filters;
+        }
+        ScanFilter.Builder filter = new ScanFilter.Builder();
+        if (serviceFilter != null) {
+            filter.setServiceUuid(new ParcelUuid(serviceFilter));
+        }
+        if (nameFilter != null) {
+            filter.setDeviceName(nameFilter);
+        }
+        if (manufacturerFilter != ANY_MANUFACTURER) {
+            // empty data with an empty mask matches any payload from this company
+            filter.setManufacturerData(manufacturerFilter, new byte[0], new byte[0]);
+        }
+        filters.add(filter.build());
+        if (!bluetoothAdapter.isOffloadedFilteringSupported()) {
+            Log.d(Constants.TAG, "Scan filters not offloaded, matched by the host stack");
+        }
+        return filters;
+    }
+
+    private boolean accept(ScanResult result) {
+        if (namePrefix == null) {
+            return true;
+        }
+        if (result.getScanRecord() == null) {
+            return false;
+        }
+        long key = MacAddress.pack(result.getDevice().getAddress());
+        return adRecords.get(key, result.getScanRecord().getBytes()).nameStartsWith(namePrefix);
     }
 
     public void stopScanning() {
@@ -73,6 +161,7 @@ public class Scanner {
                 ActivityCompat.requestPermissions(((Activity) context).getParent(), new String[]{Manifest.permission.BLUETOOTH_SCAN}, REQUEST_BLUETOOTH_SCAN);
             }
         }
+        handler.removeCallbacks(stopAfterTimeout);
         setScanning(false);
         Log.d(Constants.TAG, "Stopping scanning");
         scanner.stopScan(scanCallback);
@@ -83,8 +172,44 @@ public class Scanner {
             if (!scanning) {
                 return;
             }
+            if (!accept(result)) {
+                return;
+            }
             scanResultsConsumer.candidateDevice(result.getDevice(), result.getScanRecord().getBytes(), result.getRssi());
         }
+
+        @Override
+        public void onBatchScanResults(List<ScanResult> results) {
+            if (!scanning) {
+                return;
+            }
+            List<ScanResult> accepted = results;
+            if (namePrefix != null) {
+                accepted = new ArrayList<>(results.size());
+                for (ScanResult result : results) {
+                    if (accept(result)) {
+                        accepted.add(result);
+                    }
+                }
+            }
+            if (!accepted.isEmpty()) {
+                scanResultsConsumer.candidateDevices(accepted);
+            }
+        }
+
+        @Override
+        public void onScanFailed(int errorCode) {
+            Log.d(Constants.TAG, "Scan failed: " + errorCode);
+            setScanning(false);
+        }
+    };
+
+    private final Runnable stopAfterTimeout = () -> {
+        if (scanning) {
+            Log.d(Constants.TAG, "Stopping scanning");
+            scanner.stopScan(scanCallback);
+            setScanning(false);
+        }
     };
 
     public boolean isScanning() {
@@ -0,0 +1,88 @@
+package com.example.bleserial.capture;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Layout of a capture segment file, little endian throughout.
+ * <p>
+ * A segment starts with a 32 byte header: magic (4 bytes), version (2), header size (2), segment
+ * index (4), reserved (4), then wall clock millis (8) and System.nanoTime() (8) taken together,
+ * so record timestamps can be placed in real time. Records follow back to back: type (1 byte),
+ * characteristic id (1), payload length (2, unsigned), timestamp in nanoTime (8), payload. A
+ * characteristic record maps an id to the characteristic and service UUIDs (32 byte payload) and
+ * comes before the first packet using the id in every segment, so each segment reads on its own.
+ * A zero type byte or the end of the file ends the segment.
+ **/
+public final class CaptureFormat {
+    public static final int MAGIC = 0x50414342; // "BCAP"
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 32;
+    public static final int RECORD_HEADER_SIZE = 12;
+    public static final int MAX_PAYLOAD = 0xFFFF;
+    // ids are one byte
+    public static final int MAX_CHARACTERISTICS = 256;
+
+    public static final int TYPE_END = 0;
+    // notification from the peripheral
+    public static final int TYPE_RX = 1;
+    // write to the peripheral
+    public static final int TYPE_TX = 2;
+    public static final int TYPE_CHARACTERISTIC = 3;
+
+    public static final String EXTENSION = ".cap";
+
+    private CaptureFormat() {
+    }
+
+    public static File segmentFile(File directory, String name, int index) {
+        return new File(directory, name + "-" + String.format(Locale.ROOT, "%06d", index) + EXTENSION);
+    }
+
+    /**
+     * The segments of one capture, in order
+     **/
+    public static List<File> listSegments(File directory, String name) {
+        List<File> segments = new ArrayList<>();
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return segments;
+        }
+        String prefix = name + "-";
+        for (File file : files) {
+            String fileName = file.getName();
+            if (fileName.startsWith(prefix) && fileName.endsWith(EXTENSION)
+                    && fileName.length() == prefix.length() + 6 + EXTENSION.length()) {
+                segments.add(file);
+            }
+        }
+        // zero padded indexes sort by name
+        Collections.sort(segments);
+        return segments;
+    }
+
+    /**
+     * Name of the capture in directory whose name sorts last, null if there is none
+     **/
+    public static String latestCapture(File directory) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return null;
+        }
+        String suffix = "-" + String.format(Locale.ROOT, "%06d", 0) + EXTENSION;
+        String latest = null;
+        for (File file : files) {
+            String fileName = file.getName();
+            if (fileName.endsWith(suffix)) {
+                String name = fileName.substring(0, fileName.length() - suffix.length());
+                if (latest == null || name.compareTo(latest) > 0) {
+                    latest = name;
+                }
+            }
+        }
+        return latest;
+    }
+}
@@ -0,0 +1,166 @@
+package com.example.bleserial.capture;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static com.example.bleserial.capture.CaptureFormat.*;
+
+/**
+ * Reads the packets of a capture back in order, across its segments. Each segment is mapped
+ * read only, next() moves to the following packet and the getters describe it until the next
+ * call. Characteristic records are taken care of here and never returned.
+ **/
+public class CaptureReader implements Closeable {
+    private final List<File> segments;
+    private int nextSegment = 0;
+    private MappedByteBuffer buffer;
+    // positioned separately for bulk payload copies
+    private ByteBuffer payloadView;
+    private final UUID[] characteristics = new UUID[MAX_CHARACTERISTICS];
+    private final UUID[] services = new UUID[MAX_CHARACTERISTICS];
+
+    private long segmentWallClockMillis;
+    private long segmentNanos;
+
+    private int type;
+    private int characteristicId;
+    private long timestamp;
+    private int payloadPosition;
+    private int length;
+
+    public CaptureReader(List<File> segments) {
+        this.segments = new ArrayList<>(segments);
+    }
+
+    /**
+     * All segments written by a CaptureWriter with this directory and name
+     **/
+    public static CaptureReader open(File directory, String name) throws IOException {
+        List<File> segments = listSegments(directory, name);
+        if (segments.isEmpty()) {
+            throw new IOException("no capture " + name + " in " + directory);
+        }
+        return new CaptureReader(segments);
+    }
+
+    /**
+     * Move to the next packet, false at the end of the capture
+     **/
+    public boolean next() throws IOException {
+        while (true) {
+            if (buffer == null || buffer.remaining() < RECORD_HEADER_SIZE || buffer.get(buffer.position()) == TYPE_END) {
+                if (!openNextSegment()) {
+                    buffer = null;
+                    return false;
+                }
+                continue;
+            }
+            int p = buffer.position();
+            int recordType = buffer.get(p);
+            int id = buffer.get(p + 1) & 0xFF;
+            int recordLength = buffer.getShort(p + 2) & 0xFFFF;
+            if (buffer.remaining() < RECORD_HEADER_SIZE + recordLength) {
+                throw new IOException("truncated record in " + segments.get(nextSegment - 1));
+            }
+            buffer.position(p + RECORD_HEADER_SIZE + recordLength);
+            if (recordType == TYPE_CHARACTERISTIC) {
+                characteristics[id] = new UUID(buffer.getLong(p + RECORD_HEADER_SIZE), buffer.getLong(p + RECORD_HEADER_SIZE + 8));
+                services[id] = new UUID(buffer.getLong(p + RECORD_HEADER_SIZE + 16), buffer.getLong(p + RECORD_HEADER_SIZE + 24));
+                continue;
+            }
+            if (recordType != TYPE_RX && recordType != TYPE_TX) {
+                throw new IOException("unknown record type " + recordType + " in " + segments.get(nextSegment - 1));
+            }
+            type = recordType;
+            characteristicId = id;
+            timestamp = buffer.getLong(p + 4);
+            payloadPosition = p + RECORD_HEADER_SIZE;
+            length = recordLength;
+            return true;
+        }
+    }
+
+    private boolean openNextSegment() throws IOException {
+        if (nextSegment == segments.size()) {
+            return false;
+        }
+        File file = segments.get(nextSegment++);
+        // the mapping stays valid after the file is closed
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC) {
+            throw new IOException("not a capture segment: " + file);
+        }
+        int version = buffer.getShort();
+        if (version != VERSION) {
+            throw new IOException("unsupported capture version " + version + ": " + file);
+        }
+        int headerSize = buffer.getShort();
+        buffer.getInt();
+        buffer.getInt();
+        segmentWallClockMillis = buffer.getLong();
+        segmentNanos = buffer.getLong();
+        buffer.position(headerSize);
+        payloadView = buffer.duplicate();
+        return true;
+    }
+
+    // CaptureFormat.TYPE_RX or TYPE_TX
+    public int getType() {
+        return type;
+    }
+
+    public int getCharacteristicId() {
+        return characteristicId;
+    }
+
+    public UUID getCharacteristic() {
+        return characteristics[characteristicId];
+    }
+
+    public UUID getService() {
+        return services[characteristicId];
+    }
+
+    // System.nanoTime() of the capturing process
+    public long getTimestampNanos() {
+        return timestamp;
+    }
+
+    public long getWallClockMillis() {
+        return segmentWallClockMillis + (timestamp - segmentNanos) / 1000000;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public void getPayload(byte[] dst, int offset) {
+        payloadView.position(payloadPosition);
+        payloadView.get(dst, offset, length);
+    }
+
+    public byte[] copyPayload() {
+        byte[] payload = new byte[length];
+        getPayload(payload, 0);
+        return payload;
+    }
+
+    @Override
+    public void close() {
+        buffer = null;
+        payloadView = null;
+        nextSegment = segments.size();
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.bleserial.capture;
+
+import com.example.bleserial.gatt.GattTransport;
+
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Plays the notifications of a capture into a {@link GattTransport.Callback}, normally a
+ * GattSession, so they take the same path as live ones. The capture's writes were the app's own
+ * and are skipped.
+ * <p>
+ * At speed 1 notifications keep their recorded spacing, at 2 it is halved and so on.
+ * {@link #AS_FAST_AS_POSSIBLE} delivers them back to back, the replay then runs at the rate the
+ * pipeline absorbs, which makes it a repeatable load test. Delivery happens on the thread
+ * calling run(), which stands in for the transport's callback thread.
+ **/
+public class CaptureReplayer {
+    public static final double AS_FAST_AS_POSSIBLE = 0;
+
+    // parking overshoots, the last stretch of a wait spins
+    private static final long SPIN_NANOS = 100000;
+
+    private final CaptureReader reader;
+    private final GattTransport.Callback target;
+    private double speed = 1;
+    private volatile boolean stopped = false;
+    private volatile long events = 0;
+
+    public CaptureReplayer(CaptureReader reader, GattTransport.Callback target) {
+        this.reader = reader;
+        this.target = target;
+    }
+
+    /**
+     * Playback speed relative to the recording, set before run()
+     **/
+    public void setSpeed(double speed) {
+        if (speed < 0 || Double.isNaN(speed)) {
+            throw new IllegalArgumentException("speed " + speed);
+        }
+        this.speed = speed;
+    }
+
+    public double getSpeed() {
+        return speed;
+    }
+
+    // notifications delivered so far
+    public long getEvents() {
+        return events;
+    }
+
+    // ends run() after the notification in progress
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * Deliver the capture's notifications until it ends or stop() is called
+     **/
+    public ReplayStats run() throws IOException {
+        long delivered = 0;
+        long bytes = 0;
+        long maxLag = 0;
+        long start = System.nanoTime();
+        long first = 0;
+        boolean started = false;
+        while (!stopped && reader.next()) {
+            if (reader.getType() != CaptureFormat.TYPE_RX) {
+                continue;
+            }
+            if (speed != AS_FAST_AS_POSSIBLE) {
+                long timestamp = reader.getTimestampNanos();
+                if (!started) {
+                    first = timestamp;
+                    started = true;
+                }
+                long lag = waitUntil(start + (long) ((timestamp - first) / speed));
+                if (lag > maxLag) {
+                    maxLag = lag;
+                }
+            }
+            // a fresh array per notification, as the Android stack hands them out
+            byte[] value = reader.copyPayload();
+            target.onCharacteristicChanged(reader.getService(), reader.getCharacteristic(), value);
+            delivered++;
+            bytes += value.length;
+            events = delivered;
+        }
+        return new ReplayStats(delivered, bytes, System.nanoTime() - start, maxLag);
+    }
+
+    // how late we are for due, after waiting for it if it is still ahead
+    private long waitUntil(long due) {
+        while (true) {
+            long remaining = due - System.nanoTime();
+            if (remaining <= 0 || stopped) {
+                return -remaining;
+            }
+            if (remaining > SPIN_NANOS) {
+                LockSupport.parkNanos(remaining - SPIN_NANOS);
+            } else {
+                Thread.yield();
+            }
+        }
+    }
+}
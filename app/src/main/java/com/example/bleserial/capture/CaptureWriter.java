@@ -0,0 +1,328 @@
+package com.example.bleserial.capture;
+
+import com.example.bleserial.gatt.GattSession;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static com.example.bleserial.capture.CaptureFormat.*;
+
+/**
+ * Appends every packet of a session to memory mapped segment files, see {@link CaptureFormat}.
+ * <p>
+ * A packet costs one copy into the mapped segment and no system call, the page cache takes it to
+ * disk, which also keeps what was captured when the app dies. A background thread opens, maps
+ * and pre-faults the next segment before it is needed and trims and closes full ones, so the
+ * GATT callback thread never waits for file I/O. If the next segment is not ready when the
+ * current one fills up, packets are dropped and counted rather than blocking the link.
+ **/
+public class CaptureWriter implements GattSession.TrafficTap, Closeable {
+    public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+    // room for the header, every characteristic record and the largest packet
+    public static final int MIN_SEGMENT_SIZE = 256 * 1024;
+
+    private static final int PAGE_SIZE = 4096;
+
+    private static final class Segment {
+        final int index;
+        final File file;
+        final RandomAccessFile raf;
+        final MappedByteBuffer buffer;
+
+        Segment(int index, File file, RandomAccessFile raf, MappedByteBuffer buffer) {
+            this.index = index;
+            this.file = file;
+            this.raf = raf;
+            this.buffer = buffer;
+        }
+    }
+
+    private final File directory;
+    private final String name;
+    private final int segmentSize;
+    private final ExecutorService io;
+
+    // guarded by this
+    private Segment current;
+    private final UUID[] characteristics = new UUID[MAX_CHARACTERISTICS];
+    private final UUID[] services = new UUID[MAX_CHARACTERISTICS];
+    private int characteristicCount = 0;
+    private boolean closed = false;
+
+    // handed over by the io thread
+    private volatile Segment spare;
+    private volatile boolean preparing = false;
+    private volatile IOException failure;
+
+    // written under the lock
+    private volatile long records = 0;
+    private volatile long droppedRecords = 0;
+    private volatile long bytesWritten = 0;
+    private volatile int segments = 0;
+
+    /**
+     * Start a capture in directory, its segments are named name-000000.cap, name-000001.cap...
+     **/
+    public CaptureWriter(File directory, String name, int segmentSize) throws IOException {
+        if (segmentSize < MIN_SEGMENT_SIZE) {
+            throw new IllegalArgumentException("segment size below " + MIN_SEGMENT_SIZE + ": " + segmentSize);
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("cannot create " + directory);
+        }
+        this.directory = directory;
+        this.name = name;
+        this.segmentSize = segmentSize;
+        this.io = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "capture-" + name);
+            thread.setDaemon(true);
+            return thread;
+        });
+        current = openSegment(0);
+        segments = 1;
+        bytesWritten = HEADER_SIZE;
+        prepareSpare(1);
+    }
+
+    public CaptureWriter(File directory, String name) throws IOException {
+        this(directory, name, DEFAULT_SEGMENT_SIZE);
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getRecordCount() {
+        return records;
+    }
+
+    // packets lost to a late segment, a failed file or too many characteristics
+    public long getDroppedCount() {
+        return droppedRecords;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    public int getSegmentCount() {
+        return segments;
+    }
+
+    // the last error of the background thread, null if none
+    public IOException getFailure() {
+        return failure;
+    }
+
+    @Override
+    public void onTx(UUID service, UUID characteristic, byte[] value) {
+        append(TYPE_TX, service, characteristic, value, System.nanoTime());
+    }
+
+    @Override
+    public void onRx(UUID service, UUID characteristic, byte[] value) {
+        append(TYPE_RX, service, characteristic, value, System.nanoTime());
+    }
+
+    /**
+     * Append one packet, timestamp in System.nanoTime() units
+     **/
+    public synchronized boolean append(int type, UUID service, UUID characteristic, byte[] value, long timestamp) {
+        if (closed) {
+            return false;
+        }
+        int id = findCharacteristic(service, characteristic);
+        if (value.length > MAX_PAYLOAD || (id < 0 && characteristicCount == MAX_CHARACTERISTICS)) {
+            droppedRecords++;
+            return false;
+        }
+        int size = RECORD_HEADER_SIZE + value.length + (id < 0 ? RECORD_HEADER_SIZE + 32 : 0);
+        if (current.buffer.remaining() < size && !rollOver()) {
+            droppedRecords++;
+            return false;
+        }
+        if (id < 0) {
+            id = characteristicCount;
+            services[characteristicCount] = service;
+            characteristics[characteristicCount++] = characteristic;
+            writeCharacteristic(id, timestamp);
+        }
+        writeRecord(type, id, timestamp, value, 0, value.length);
+        records++;
+        return true;
+    }
+
+    private int findCharacteristic(UUID service, UUID characteristic) {
+        // a session has a handful, usually the same instances every time
+        for (int i = 0; i < characteristicCount; i++) {
+            if (characteristics[i] == characteristic && services[i] == service) {
+                return i;
+            }
+        }
+        for (int i = 0; i < characteristicCount; i++) {
+            if (characteristics[i].equals(characteristic) && services[i].equals(service)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void writeCharacteristic(int id, long timestamp) {
+        MappedByteBuffer buffer = current.buffer;
+        int p = buffer.position();
+        UUID characteristic = characteristics[id];
+        UUID service = services[id];
+        buffer.putLong(p + RECORD_HEADER_SIZE, characteristic.getMostSignificantBits());
+        buffer.putLong(p + RECORD_HEADER_SIZE + 8, characteristic.getLeastSignificantBits());
+        buffer.putLong(p + RECORD_HEADER_SIZE + 16, service.getMostSignificantBits());
+        buffer.putLong(p + RECORD_HEADER_SIZE + 24, service.getLeastSignificantBits());
+        finishRecord(buffer, p, TYPE_CHARACTERISTIC, id, timestamp, 32);
+    }
+
+    private void writeRecord(int type, int id, long timestamp, byte[] payload, int offset, int length) {
+        MappedByteBuffer buffer = current.buffer;
+        int p = buffer.position();
+        buffer.position(p + RECORD_HEADER_SIZE);
+        buffer.put(payload, offset, length);
+        finishRecord(buffer, p, type, id, timestamp, length);
+    }
+
+    private void finishRecord(MappedByteBuffer buffer, int p, int type, int id, long timestamp, int length) {
+        buffer.put(p + 1, (byte) id);
+        buffer.putShort(p + 2, (short) length);
+        buffer.putLong(p + 4, timestamp);
+        // type last, a record cut short by the process dying reads as the end of the segment
+        buffer.put(p, (byte) type);
+        buffer.position(p + RECORD_HEADER_SIZE + length);
+        bytesWritten += RECORD_HEADER_SIZE + length;
+    }
+
+    // swap in the spare segment, false if it is not ready
+    private boolean rollOver() {
+        Segment next = spare;
+        if (next == null) {
+            if (!preparing) {
+                // the last attempt failed, try again
+                prepareSpare(current.index + 1);
+            }
+            return false;
+        }
+        spare = null;
+        Segment full = current;
+        int length = full.buffer.position();
+        current = next;
+        segments++;
+        bytesWritten += HEADER_SIZE;
+        io.execute(() -> finishSegment(full, length));
+        prepareSpare(next.index + 1);
+        // every segment reads on its own
+        long now = System.nanoTime();
+        for (int id = 0; id < characteristicCount; id++) {
+            writeCharacteristic(id, now);
+        }
+        return true;
+    }
+
+    private void prepareSpare(int index) {
+        preparing = true;
+        io.execute(() -> {
+            try {
+                spare = openSegment(index);
+            } catch (IOException e) {
+                failure = e;
+            } finally {
+                preparing = false;
+            }
+        });
+    }
+
+    private Segment openSegment(int index) throws IOException {
+        File file = segmentFile(directory, name, index);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(segmentSize);
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            // fault every page in now instead of on the callback thread
+            for (int i = 0; i < segmentSize; i += PAGE_SIZE) {
+                buffer.put(i, (byte) 0);
+            }
+            buffer.putInt(MAGIC);
+            buffer.putShort((short) VERSION);
+            buffer.putShort((short) HEADER_SIZE);
+            buffer.putInt(index);
+            buffer.putInt(0);
+            buffer.putLong(System.currentTimeMillis());
+            buffer.putLong(System.nanoTime());
+            return new Segment(index, file, raf, buffer);
+        } catch (IOException e) {
+            raf.close();
+            file.delete();
+            throw e;
+        }
+    }
+
+    // cut the unused tail off a full or last segment
+    private void finishSegment(Segment segment, int length) {
+        try {
+            segment.raf.setLength(length);
+            segment.raf.close();
+        } catch (IOException e) {
+            failure = e;
+        }
+    }
+
+    /**
+     * Stop capturing and complete the files, waits for the background thread
+     **/
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            Segment last = current;
+            int length = last.buffer.position();
+            io.execute(() -> finishSegment(last, length));
+            // runs after a spare still being prepared
+            io.execute(() -> {
+                Segment unused = spare;
+                spare = null;
+                if (unused != null) {
+                    try {
+                        unused.raf.close();
+                    } catch (IOException ignored) {
+                    }
+                    unused.file.delete();
+                }
+            });
+        }
+        io.shutdown();
+        try {
+            if (!io.awaitTermination(5, TimeUnit.SECONDS)) {
+                throw new IOException("capture files not closed in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted closing capture");
+        }
+        IOException e = failure;
+        if (e != null) {
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.example.bleserial.capture;
+
+import java.util.Locale;
+
+/**
+ * Outcome of a replay: what was delivered, how long it took and how far delivery fell behind the
+ * requested timing
+ **/
+public final class ReplayStats {
+    private final long events;
+    private final long bytes;
+    private final long elapsedNanos;
+    private final long maxLagNanos;
+
+    public ReplayStats(long events, long bytes, long elapsedNanos, long maxLagNanos) {
+        this.events = events;
+        this.bytes = bytes;
+        this.elapsedNanos = elapsedNanos;
+        this.maxLagNanos = maxLagNanos;
+    }
+
+    public long getEvents() {
+        return events;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    // worst delay of a notification behind its schedule, 0 as fast as possible
+    public long getMaxLagNanos() {
+        return maxLagNanos;
+    }
+
+    // as fast as possible, the rate the pipeline absorbs
+    public double getEventsPerSecond() {
+        return elapsedNanos == 0 ? 0 : events * 1e9 / elapsedNanos;
+    }
+
+    public double getBytesPerSecond() {
+        return elapsedNanos == 0 ? 0 : bytes * 1e9 / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "%d notifications, %d B in %.3f s: %.0f/s, %.1f kB/s, max lag %.2f ms",
+                events, bytes, elapsedNanos / 1e9, getEventsPerSecond(), getBytesPerSecond() / 1000, maxLagNanos / 1e6);
+    }
+}
@@ -0,0 +1,223 @@
+package com.example.bleserial.capture;
+
+import com.example.bleserial.gatt.CharacteristicHandle;
+import com.example.bleserial.gatt.GattTransport;
+import com.example.bleserial.uart.NordicUart;
+import com.example.bleserial.uart.UartFragmenter;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A peripheral made of a capture. It connects at once and offers the Nordic UART service; once
+ * notifications are switched on, as the app does with a real device, a {@link CaptureReplayer}
+ * plays the recorded notifications on a thread of their own. Writes succeed and go nowhere, and
+ * the link ends when the capture does.
+ **/
+public class ReplayTransport implements GattTransport {
+    public static final int MAX_MTU = 517;
+
+    public interface Listener {
+        void onReplayFinished(ReplayTransport transport, ReplayStats stats);
+
+        void onReplayFailed(ReplayTransport transport, IOException e);
+    }
+
+    private final String address;
+    private final CaptureReader reader;
+    private final double speed;
+    private final Listener listener;
+
+    // guarded by this
+    private Callback callback;
+    private ExecutorService requests;
+    private boolean connected = false;
+    private CaptureReplayer replayer;
+
+    /**
+     * speed as for CaptureReplayer, address names the replay in the connection list
+     **/
+    public ReplayTransport(String address, CaptureReader reader, double speed, Listener listener) {
+        this.address = address;
+        this.reader = reader;
+        this.speed = speed;
+        this.listener = listener;
+    }
+
+    // notifications delivered so far, 0 before playback starts
+    public synchronized long getEvents() {
+        return replayer == null ? 0 : replayer.getEvents();
+    }
+
+    @Override
+    public String getAddress() {
+        return address;
+    }
+
+    @Override
+    public synchronized boolean connect(Callback callback) {
+        if (requests != null) {
+            return false;
+        }
+        this.callback = callback;
+        requests = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "replay-requests");
+            thread.setDaemon(true);
+            return thread;
+        });
+        connected = true;
+        requests.execute(() -> callback.onConnectionStateChange(true, STATUS_SUCCESS));
+        return true;
+    }
+
+    @Override
+    public synchronized void disconnect() {
+        if (!connected) {
+            return;
+        }
+        connected = false;
+        if (replayer != null) {
+            replayer.stop();
+        }
+        Callback c = callback;
+        // like AndroidGattTransport, a dropped link closes the transport
+        requests.execute(() -> {
+            c.onConnectionStateChange(false, STATUS_SUCCESS);
+            close();
+        });
+    }
+
+    @Override
+    public synchronized void close() {
+        connected = false;
+        if (replayer != null) {
+            replayer.stop();
+        }
+        if (requests != null) {
+            requests.shutdown();
+        }
+        if (replayer == null) {
+            // otherwise the replay thread closes it when it is done reading
+            reader.close();
+        }
+    }
+
+    @Override
+    public synchronized boolean discoverServices() {
+        return post(() -> callback.onServicesDiscovered(STATUS_SUCCESS));
+    }
+
+    @Override
+    public List<UUID> getServiceUuids() {
+        return Collections.singletonList(NordicUart.SERVICE);
+    }
+
+    @Override
+    public boolean hasCharacteristic(UUID service, UUID characteristic) {
+        return NordicUart.SERVICE.equals(service)
+                && (NordicUart.RX.equals(characteristic) || NordicUart.TX.equals(characteristic));
+    }
+
+    @Override
+    public List<CharacteristicHandle> getCharacteristics() {
+        return Arrays.asList(
+                new CharacteristicHandle(NordicUart.SERVICE, NordicUart.RX,
+                        CharacteristicHandle.PROPERTY_WRITE | CharacteristicHandle.PROPERTY_WRITE_NO_RESPONSE, null),
+                new CharacteristicHandle(NordicUart.SERVICE, NordicUart.TX,
+                        CharacteristicHandle.PROPERTY_READ | CharacteristicHandle.PROPERTY_NOTIFY, null));
+    }
+
+    @Override
+    public synchronized boolean requestMtu(int mtu) {
+        int negotiated = Math.max(UartFragmenter.DEFAULT_MTU, Math.min(mtu, MAX_MTU));
+        return post(() -> callback.onMtuChanged(negotiated, STATUS_SUCCESS));
+    }
+
+    @Override
+    public synchronized boolean readCharacteristic(UUID service, UUID characteristic) {
+        return hasCharacteristic(service, characteristic)
+                && post(() -> callback.onCharacteristicRead(service, characteristic, new byte[0], STATUS_SUCCESS));
+    }
+
+    @Override
+    public synchronized boolean writeCharacteristic(UUID service, UUID characteristic, byte[] value, int writeType) {
+        return hasCharacteristic(service, characteristic)
+                && post(() -> callback.onCharacteristicWrite(service, characteristic, value, STATUS_SUCCESS));
+    }
+
+    @Override
+    public boolean readCharacteristic(CharacteristicHandle characteristic) {
+        return readCharacteristic(characteristic.getServiceUuid(), characteristic.getUuid());
+    }
+
+    @Override
+    public boolean writeCharacteristic(CharacteristicHandle characteristic, byte[] value, int writeType) {
+        return writeCharacteristic(characteristic.getServiceUuid(), characteristic.getUuid(), value, writeType);
+    }
+
+    // nothing to tune on a recording
+    @Override
+    public boolean requestConnectionPriority(int priority) {
+        return false;
+    }
+
+    @Override
+    public boolean setPreferredPhy(int txPhyMask, int rxPhyMask) {
+        return false;
+    }
+
+    @Override
+    public synchronized boolean setCharacteristicNotification(UUID service, UUID characteristic, boolean enabled) {
+        return connected && hasCharacteristic(service, characteristic);
+    }
+
+    @Override
+    public synchronized boolean writeDescriptor(UUID service, UUID characteristic, UUID descriptor, byte[] value) {
+        if (!NordicUart.TX.equals(characteristic) || !NordicUart.CCCD.equals(descriptor)) {
+            return false;
+        }
+        boolean enable = value.length > 0 && (value[0] & 0x03) != 0;
+        return post(() -> {
+            callback.onDescriptorWrite(service, characteristic, descriptor, STATUS_SUCCESS);
+            if (enable) {
+                startReplay();
+            }
+        });
+    }
+
+    private synchronized boolean post(Runnable request) {
+        if (!connected) {
+            return false;
+        }
+        requests.execute(request);
+        return true;
+    }
+
+    private synchronized void startReplay() {
+        if (!connected || replayer != null) {
+            return;
+        }
+        CaptureReplayer r = new CaptureReplayer(reader, callback);
+        r.setSpeed(speed);
+        replayer = r;
+        Thread thread = new Thread(() -> {
+            try {
+                ReplayStats stats = r.run();
+                listener.onReplayFinished(this, stats);
+            } catch (IOException e) {
+                listener.onReplayFailed(this, e);
+            } finally {
+                reader.close();
+            }
+            // the recording is over, so is the link
+            disconnect();
+        }, "replay-notifications");
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
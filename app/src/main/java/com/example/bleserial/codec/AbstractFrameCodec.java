@@ -0,0 +1,100 @@
+package com.example.bleserial.codec;
+
+/**
+ * The frame buffer and counters every codec needs. A frame longer than the maximum is dropped
+ * and decoding picks up again at the next frame.
+ **/
+public abstract class AbstractFrameCodec implements FrameCodec {
+    public static final int DEFAULT_MAX_FRAME_SIZE = 64 * 1024;
+
+    protected final int maxFrameSize;
+    private byte[] buffer = new byte[256];
+    // bytes of the current frame in buffer
+    protected int buffered = 0;
+    // the current frame went over the maximum and is being skipped
+    protected boolean overflow = false;
+
+    private long framesDecoded = 0;
+    private long framesDropped = 0;
+
+    protected AbstractFrameCodec(int maxFrameSize) {
+        this.maxFrameSize = maxFrameSize;
+    }
+
+    @Override
+    public long getFramesDecoded() {
+        return framesDecoded;
+    }
+
+    @Override
+    public long getFramesDropped() {
+        return framesDropped;
+    }
+
+    @Override
+    public void reset() {
+        buffered = 0;
+        overflow = false;
+    }
+
+    protected void append(byte[] src, int offset, int count) {
+        if (overflow || count == 0) {
+            return;
+        }
+        if (buffered + count > maxFrameSize) {
+            overflow = true;
+            return;
+        }
+        if (buffered + count > buffer.length) {
+            byte[] grown = new byte[Math.min(maxFrameSize, Math.max(buffer.length * 2, buffered + count))];
+            System.arraycopy(buffer, 0, grown, 0, buffered);
+            buffer = grown;
+        }
+        System.arraycopy(src, offset, buffer, buffered, count);
+        buffered += count;
+    }
+
+    protected void append(byte b) {
+        if (overflow) {
+            return;
+        }
+        if (buffered == maxFrameSize) {
+            overflow = true;
+            return;
+        }
+        if (buffered == buffer.length) {
+            byte[] grown = new byte[Math.min(maxFrameSize, buffer.length * 2)];
+            System.arraycopy(buffer, 0, grown, 0, buffered);
+            buffer = grown;
+        }
+        buffer[buffered++] = b;
+    }
+
+    // pass on the buffered frame, or count it as dropped, and start the next one
+    protected void endFrame(FrameListener listener) {
+        if (overflow) {
+            framesDropped++;
+        } else {
+            framesDecoded++;
+            listener.onFrame(buffer, 0, buffered);
+        }
+        buffered = 0;
+        overflow = false;
+    }
+
+    // a frame found whole inside one packet goes out without a copy
+    protected void frame(byte[] data, int offset, int count, FrameListener listener) {
+        if (count > maxFrameSize) {
+            framesDropped++;
+        } else {
+            framesDecoded++;
+            listener.onFrame(data, offset, count);
+        }
+    }
+
+    protected void dropFrame() {
+        framesDropped++;
+        buffered = 0;
+        overflow = false;
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.bleserial.codec;
+
+import com.example.bleserial.uart.UartFragmenter;
+
+/**
+ * Collects encoded bytes into chunks of one ATT write each. Several small frames share a chunk
+ * until it is full or flushed, a large frame is cut across as many chunks as it needs.
+ **/
+public class ChunkWriter {
+    public interface Sink {
+        // chunk is reused, copy what you need
+        void onChunk(byte[] chunk, int length);
+    }
+
+    private final byte[] chunk = new byte[UartFragmenter.payloadSizeForMtu(UartFragmenter.MAX_MTU)];
+    private final Sink sink;
+    private int chunkSize;
+    private int position = 0;
+
+    public ChunkWriter(int mtu, Sink sink) {
+        this.sink = sink;
+        this.chunkSize = UartFragmenter.payloadSizeForMtu(mtu);
+    }
+
+    // takes effect from the next chunk
+    public void setMtu(int mtu) {
+        int size = UartFragmenter.payloadSizeForMtu(mtu);
+        if (position >= size) {
+            emit();
+        }
+        chunkSize = size;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public void put(int b) {
+        chunk[position++] = (byte) b;
+        if (position == chunkSize) {
+            emit();
+        }
+    }
+
+    public void put(byte[] src, int offset, int length) {
+        while (length > 0) {
+            int n = Math.min(length, chunkSize - position);
+            System.arraycopy(src, offset, chunk, position, n);
+            position += n;
+            offset += n;
+            length -= n;
+            if (position == chunkSize) {
+                emit();
+            }
+        }
+    }
+
+    /**
+     * Pass on the partly filled chunk, if any
+     **/
+    public void flush() {
+        if (position > 0) {
+            emit();
+        }
+    }
+
+    private void emit() {
+        int n = position;
+        position = 0;
+        sink.onChunk(chunk, n);
+    }
+}
@@ -0,0 +1,118 @@
+package com.example.bleserial.codec;
+
+/**
+ * Consistent Overhead Byte Stuffing: the payload is rewritten without zero bytes and each frame
+ * ends with a zero, at a cost of one byte per 254. Decoding resynchronises at the next zero
+ * after any damage.
+ **/
+public class CobsCodec extends AbstractFrameCodec {
+    // data bytes in a block of the longest code
+    private static final int MAX_BLOCK = 254;
+
+    // data bytes left in the current block
+    private int remaining = 0;
+    // the block before ended in an implied zero, written once another block follows
+    private boolean zeroPending = false;
+    private boolean inFrame = false;
+
+    public CobsCodec(int maxFrameSize) {
+        super(maxFrameSize);
+    }
+
+    public CobsCodec() {
+        this(DEFAULT_MAX_FRAME_SIZE);
+    }
+
+    @Override
+    public void decode(byte[] data, int offset, int length, FrameListener listener) {
+        int end = offset + length;
+        int i = offset;
+        while (i < end) {
+            byte b = data[i];
+            if (b == 0) {
+                i++;
+                onDelimiter(listener);
+                continue;
+            }
+            if (remaining > 0) {
+                // the rest of the block, up to a zero that would cut it short
+                int limit = Math.min(end, i + remaining);
+                int j = i + 1;
+                while (j < limit && data[j] != 0) {
+                    j++;
+                }
+                append(data, i, j - i);
+                remaining -= j - i;
+                i = j;
+                continue;
+            }
+            i++;
+            if (zeroPending) {
+                append((byte) 0);
+            }
+            int code = b & 0xFF;
+            remaining = code - 1;
+            zeroPending = code != 0xFF;
+            inFrame = true;
+        }
+    }
+
+    private void onDelimiter(FrameListener listener) {
+        if (inFrame) {
+            if (remaining > 0) {
+                // block cut short
+                dropFrame();
+            } else {
+                endFrame(listener);
+            }
+        }
+        remaining = 0;
+        zeroPending = false;
+        inFrame = false;
+    }
+
+    @Override
+    public void encode(byte[] payload, int offset, int length, ChunkWriter out) {
+        int end = offset + length;
+        int start = offset;
+        while (true) {
+            int limit = Math.min(end, start + MAX_BLOCK);
+            int i = start;
+            while (i < limit && payload[i] != 0) {
+                i++;
+            }
+            int n = i - start;
+            if (n == MAX_BLOCK) {
+                // a full block has no implied zero
+                out.put(0xFF);
+                out.put(payload, start, n);
+                start = i;
+                if (start == end) {
+                    break;
+                }
+                continue;
+            }
+            out.put(n + 1);
+            out.put(payload, start, n);
+            if (i == end) {
+                break;
+            }
+            // step over the zero the code stands for
+            start = i + 1;
+        }
+        out.put(0);
+    }
+
+    @Override
+    public int maxEncodedLength(int length) {
+        return length + length / MAX_BLOCK + 2;
+    }
+
+    @Override
+    public void reset() {
+        super.reset();
+        remaining = 0;
+        zeroPending = false;
+        inFrame = false;
+    }
+}
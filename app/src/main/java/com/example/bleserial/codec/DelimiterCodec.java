@@ -0,0 +1,63 @@
+package com.example.bleserial.codec;
+
+/**
+ * Frames ended by one delimiter byte, '\n' by default, that never occurs inside a frame. Bytes
+ * are not escaped, so this suits text and protocols that keep the delimiter out of their data;
+ * encode() rejects a payload containing it. Empty frames are skipped.
+ **/
+public class DelimiterCodec extends AbstractFrameCodec {
+    public static final byte DEFAULT_DELIMITER = '\n';
+
+    private final byte delimiter;
+
+    public DelimiterCodec(byte delimiter, int maxFrameSize) {
+        super(maxFrameSize);
+        this.delimiter = delimiter;
+    }
+
+    public DelimiterCodec() {
+        this(DEFAULT_DELIMITER, DEFAULT_MAX_FRAME_SIZE);
+    }
+
+    public byte getDelimiter() {
+        return delimiter;
+    }
+
+    @Override
+    public void decode(byte[] data, int offset, int length, FrameListener listener) {
+        int end = offset + length;
+        int start = offset;
+        for (int i = offset; i < end; i++) {
+            if (data[i] != delimiter) {
+                continue;
+            }
+            if (buffered == 0 && !overflow) {
+                // a whole frame in this packet
+                if (i > start) {
+                    frame(data, start, i - start, listener);
+                }
+            } else {
+                append(data, start, i - start);
+                endFrame(listener);
+            }
+            start = i + 1;
+        }
+        append(data, start, end - start);
+    }
+
+    @Override
+    public void encode(byte[] payload, int offset, int length, ChunkWriter out) {
+        for (int i = offset; i < offset + length; i++) {
+            if (payload[i] == delimiter) {
+                throw new IllegalArgumentException("payload contains the delimiter at " + (i - offset));
+            }
+        }
+        out.put(payload, offset, length);
+        out.put(delimiter);
+    }
+
+    @Override
+    public int maxEncodedLength(int length) {
+        return length + 1;
+    }
+}
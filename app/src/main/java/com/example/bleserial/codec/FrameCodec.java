@@ -0,0 +1,32 @@
+package com.example.bleserial.codec;
+
+/**
+ * Framing of a peripheral's protocol on the UART byte stream.
+ * <p>
+ * decode() is a state machine fed packet by packet: frames may span packets and packets may
+ * hold several frames. Complete frames are passed on in a buffer the codec reuses, or straight
+ * out of the packet when a frame sits whole inside it, so decoding allocates nothing once the
+ * buffer has grown to the largest frame. encode() writes into a {@link ChunkWriter}, which cuts
+ * the stream into MTU sized writes. Use one codec per stream, from one thread.
+ **/
+public interface FrameCodec {
+    interface FrameListener {
+        // the frame is only valid during the call
+        void onFrame(byte[] buffer, int offset, int length);
+    }
+
+    void decode(byte[] data, int offset, int length, FrameListener listener);
+
+    void encode(byte[] payload, int offset, int length, ChunkWriter out);
+
+    // the most bytes a payload of this length can take once encoded
+    int maxEncodedLength(int length);
+
+    // forget a partial frame, e.g. on disconnect
+    void reset();
+
+    long getFramesDecoded();
+
+    // malformed or longer than the maximum frame size
+    long getFramesDropped();
+}
@@ -0,0 +1,97 @@
+package com.example.bleserial.codec;
+
+/**
+ * SLIP framing (RFC 1055): frames end with 0xC0, and 0xC0 and 0xDB inside a frame are escaped
+ * as 0xDB 0xDC and 0xDB 0xDD. Empty frames, e.g. from a leading 0xC0 sent to flush line noise,
+ * are skipped.
+ **/
+public class SlipCodec extends AbstractFrameCodec {
+    public static final byte END = (byte) 0xC0;
+    public static final byte ESC = (byte) 0xDB;
+    public static final byte ESC_END = (byte) 0xDC;
+    public static final byte ESC_ESC = (byte) 0xDD;
+
+    private boolean escaped = false;
+
+    public SlipCodec(int maxFrameSize) {
+        super(maxFrameSize);
+    }
+
+    public SlipCodec() {
+        this(DEFAULT_MAX_FRAME_SIZE);
+    }
+
+    @Override
+    public void decode(byte[] data, int offset, int length, FrameListener listener) {
+        int end = offset + length;
+        int i = offset;
+        while (i < end) {
+            if (escaped) {
+                byte b = data[i++];
+                escaped = false;
+                if (b == ESC_END) {
+                    append(END);
+                } else if (b == ESC_ESC) {
+                    append(ESC);
+                } else if (b == END) {
+                    // escape at the end of a frame, it is damaged
+                    dropFrame();
+                } else {
+                    // invalid escape, RFC 1055 keeps the byte
+                    append(b);
+                }
+                continue;
+            }
+            int j = i;
+            while (j < end && data[j] != END && data[j] != ESC) {
+                j++;
+            }
+            if (j < end && data[j] == END && buffered == 0 && !overflow) {
+                // a whole frame without escapes in this packet
+                if (j > i) {
+                    frame(data, i, j - i, listener);
+                }
+                i = j + 1;
+                continue;
+            }
+            append(data, i, j - i);
+            i = j;
+            if (i == end) {
+                break;
+            }
+            if (data[i++] == ESC) {
+                escaped = true;
+            } else if (buffered > 0 || overflow) {
+                endFrame(listener);
+            }
+        }
+    }
+
+    @Override
+    public void encode(byte[] payload, int offset, int length, ChunkWriter out) {
+        int end = offset + length;
+        int start = offset;
+        for (int i = offset; i < end; i++) {
+            byte b = payload[i];
+            if (b == END || b == ESC) {
+                out.put(payload, start, i - start);
+                out.put(ESC);
+                out.put(b == END ? ESC_END : ESC_ESC);
+                start = i + 1;
+            }
+        }
+        out.put(payload, start, end - start);
+        out.put(END);
+    }
+
+    @Override
+    public int maxEncodedLength(int length) {
+        return 2 * length + 1;
+    }
+
+    @Override
+    public void reset() {
+        super.reset();
+        escaped = false;
+    }
+}
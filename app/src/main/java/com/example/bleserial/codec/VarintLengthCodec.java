@@ -0,0 +1,103 @@
+package com.example.bleserial.codec;
+
+/**
+ * Frames prefixed with their length as an unsigned LEB128 varint, 7 bits per byte, low bits
+ * first: one byte up to 127, two up to 16383. There is no way to resynchronise inside the
+ * stream, so a frame over the maximum is skipped by its length and a malformed length resets
+ * the codec; both count as dropped.
+ **/
+public class VarintLengthCodec extends AbstractFrameCodec {
+    // five varint bytes hold any int
+    private static final int MAX_SHIFT = 28;
+
+    private boolean inPayload = false;
+    private int frameLength = 0;
+    private int shift = 0;
+    // payload bytes still to come
+    private int remaining = 0;
+
+    public VarintLengthCodec(int maxFrameSize) {
+        super(maxFrameSize);
+    }
+
+    public VarintLengthCodec() {
+        this(DEFAULT_MAX_FRAME_SIZE);
+    }
+
+    @Override
+    public void decode(byte[] data, int offset, int length, FrameListener listener) {
+        int end = offset + length;
+        int i = offset;
+        while (i < end) {
+            if (!inPayload) {
+                int b = data[i++] & 0xFF;
+                frameLength |= (b & 0x7F) << shift;
+                if ((b & 0x80) != 0) {
+                    shift += 7;
+                    if (shift > MAX_SHIFT) {
+                        dropFrame();
+                        resetLength();
+                    }
+                    continue;
+                }
+                if (frameLength < 0) {
+                    dropFrame();
+                    resetLength();
+                    continue;
+                }
+                remaining = frameLength;
+                inPayload = true;
+                overflow = frameLength > maxFrameSize;
+                if (remaining == 0) {
+                    endFrame(listener);
+                    resetLength();
+                }
+                continue;
+            }
+            int n = Math.min(remaining, end - i);
+            if (n == remaining && buffered == 0 && !overflow) {
+                // the whole payload is in this packet
+                frame(data, i, n, listener);
+            } else {
+                append(data, i, n);
+                if (n == remaining) {
+                    endFrame(listener);
+                }
+            }
+            i += n;
+            remaining -= n;
+            if (remaining == 0) {
+                resetLength();
+            }
+        }
+    }
+
+    private void resetLength() {
+        inPayload = false;
+        frameLength = 0;
+        shift = 0;
+        remaining = 0;
+    }
+
+    @Override
+    public void encode(byte[] payload, int offset, int length, ChunkWriter out) {
+        int value = length;
+        while ((value & ~0x7F) != 0) {
+            out.put((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.put(value);
+        out.put(payload, offset, length);
+    }
+
+    @Override
+    public int maxEncodedLength(int length) {
+        return length + 5;
+    }
+
+    @Override
+    public void reset() {
+        super.reset();
+        resetLength();
+    }
+}
@@ -0,0 +1,177 @@
+package com.example.bleserial.console;
+
+/**
+ * Received text as a bounded ring of lines.
+ * <p>
+ * The last row is always the line still being received, possibly empty. When the ring is full
+ * the oldest line is dropped, and a line growing past the maximum length is broken, so memory
+ * stays bounded however long the stream runs. Appends are recorded as changes since the last
+ * {@link #applyChanges}, which reports them as row removals, one in-place change and insertions,
+ * however many appends there were in between. {@link #shownSize} and {@link #getShown} serve the
+ * rows as last reported, so an adapter stays consistent with the notifications it was given.
+ * Use it from one thread.
+ **/
+public class ScrollbackBuffer {
+    public static final int DEFAULT_MAX_LINES = 5000;
+    public static final int DEFAULT_MAX_LINE_LENGTH = 1024;
+
+    /**
+     * Receives the row changes, e.g. a RecyclerView adapter's notify methods
+     **/
+    public interface Updates {
+        void onRemoved(int position, int count);
+
+        void onChanged(int position, int count);
+
+        void onInserted(int position, int count);
+
+        void onCleared();
+    }
+
+    private final String[] lines;
+    private final int maxLineLength;
+    private final StringBuilder current = new StringBuilder();
+
+    // absolute number of the first row still held, and of the row being received
+    private long firstLine = 0;
+    private long currentLine = 0;
+
+    // the state last reported by applyChanges
+    private long shownFirstLine = 0;
+    private long shownCurrentLine = 0;
+    private boolean shownCurrentChanged = false;
+    private boolean cleared = false;
+
+    private long appends = 0;
+    private long appendsAtLastApply = 0;
+
+    public ScrollbackBuffer(int maxLines, int maxLineLength) {
+        this.lines = new String[maxLines];
+        this.maxLineLength = maxLineLength;
+    }
+
+    public ScrollbackBuffer() {
+        this(DEFAULT_MAX_LINES, DEFAULT_MAX_LINE_LENGTH);
+    }
+
+    public void append(CharSequence text) {
+        append(text, 0, text.length());
+    }
+
+    public void append(CharSequence text, int start, int end) {
+        appends++;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c == '\n') {
+                endLine();
+            } else if (c != '\r') {
+                if (current.length() == maxLineLength) {
+                    endLine();
+                }
+                current.append(c);
+            }
+        }
+        if (currentLine == shownCurrentLine) {
+            shownCurrentChanged = true;
+        }
+    }
+
+    private void endLine() {
+        if (currentLine == shownCurrentLine) {
+            shownCurrentChanged = true;
+        }
+        if (currentLine - firstLine == lines.length) {
+            lines[(int) (firstLine % lines.length)] = null;
+            firstLine++;
+        }
+        lines[(int) (currentLine % lines.length)] = current.toString();
+        current.setLength(0);
+        currentLine++;
+    }
+
+    public void clear() {
+        for (long line = firstLine; line < currentLine; line++) {
+            lines[(int) (line % lines.length)] = null;
+        }
+        current.setLength(0);
+        firstLine = currentLine;
+        cleared = true;
+    }
+
+    // rows, the completed lines held plus the one being received
+    public int size() {
+        return (int) (currentLine - firstLine) + 1;
+    }
+
+    public CharSequence get(int position) {
+        long line = firstLine + position;
+        if (line == currentLine) {
+            return current;
+        }
+        return lines[(int) (line % lines.length)];
+    }
+
+    // rows as of the last applyChanges
+    public int shownSize() {
+        return (int) (shownCurrentLine - shownFirstLine) + 1;
+    }
+
+    /**
+     * A row as of the last applyChanges, with its text as of now. Rows dropped or cleared since
+     * read as empty until the next applyChanges removes them.
+     **/
+    public CharSequence getShown(int position) {
+        long line = shownFirstLine + position;
+        if (line == currentLine) {
+            return current;
+        }
+        if (line < firstLine) {
+            return "";
+        }
+        return lines[(int) (line % lines.length)];
+    }
+
+    // lines dropped from the top since the start
+    public long getDroppedLines() {
+        return firstLine;
+    }
+
+    // appends since the start
+    public long getAppendCount() {
+        return appends;
+    }
+
+    /**
+     * Report what changed since the previous call. Returns the number of appends covered.
+     **/
+    public long applyChanges(Updates updates) {
+        long covered = appends - appendsAtLastApply;
+        appendsAtLastApply = appends;
+        if (cleared) {
+            cleared = false;
+            reset();
+            updates.onCleared();
+            return covered;
+        }
+        // rows shown last time and dropped since
+        long removed = Math.min(firstLine, shownCurrentLine + 1) - shownFirstLine;
+        if (removed > 0) {
+            updates.onRemoved(0, (int) removed);
+        }
+        if (shownCurrentChanged && shownCurrentLine >= firstLine) {
+            updates.onChanged((int) (shownCurrentLine - firstLine), 1);
+        }
+        long insertFrom = Math.max(shownCurrentLine + 1, firstLine);
+        if (currentLine >= insertFrom) {
+            updates.onInserted((int) (insertFrom - firstLine), (int) (currentLine - insertFrom + 1));
+        }
+        reset();
+        return covered;
+    }
+
+    private void reset() {
+        shownFirstLine = firstLine;
+        shownCurrentLine = currentLine;
+        shownCurrentChanged = false;
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.bleserial.gatt;
+
+import java.util.UUID;
+
+/**
+ * A characteristic resolved once after service discovery, with its properties and the
+ * transport's own object for it, so reads and writes skip the service/characteristic lookup.
+ * <p>
+ * Handles belong to one discovery of one connection, {@link GattSession} rejects them after a
+ * disconnect or a service change.
+ **/
+public final class CharacteristicHandle {
+    // same values as BluetoothGattCharacteristic.PROPERTY_*
+    public static final int PROPERTY_READ = 0x02;
+    public static final int PROPERTY_WRITE_NO_RESPONSE = 0x04;
+    public static final int PROPERTY_WRITE = 0x08;
+    public static final int PROPERTY_NOTIFY = 0x10;
+    public static final int PROPERTY_INDICATE = 0x20;
+
+    private final UUID service;
+    private final UUID characteristic;
+    private final int properties;
+    private final Object platformCharacteristic;
+
+    // discovery this handle came from, set by the session when it caches the handle
+    int generation = -1;
+
+    public CharacteristicHandle(UUID service, UUID characteristic, int properties, Object platformCharacteristic) {
+        this.service = service;
+        this.characteristic = characteristic;
+        this.properties = properties;
+        this.platformCharacteristic = platformCharacteristic;
+    }
+
+    public UUID getServiceUuid() {
+        return service;
+    }
+
+    public UUID getUuid() {
+        return characteristic;
+    }
+
+    public int getProperties() {
+        return properties;
+    }
+
+    // e.g. the BluetoothGattCharacteristic, only meaningful to the transport that made the handle
+    public Object getPlatformCharacteristic() {
+        return platformCharacteristic;
+    }
+
+    public boolean canRead() {
+        return (properties & PROPERTY_READ) != 0;
+    }
+
+    public boolean canWrite(int writeType) {
+        int required = writeType == GattTransport.WRITE_TYPE_NO_RESPONSE ? PROPERTY_WRITE_NO_RESPONSE : PROPERTY_WRITE;
+        return (properties & required) != 0;
+    }
+
+    public boolean canNotify() {
+        return (properties & (PROPERTY_NOTIFY | PROPERTY_INDICATE)) != 0;
+    }
+
+    @Override
+    public String toString() {
+        return characteristic + " of service " + service;
+    }
+}
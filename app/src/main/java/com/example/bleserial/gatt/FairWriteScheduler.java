@@ -0,0 +1,233 @@
+package com.example.bleserial.gatt;
+
+import com.example.bleserial.uart.UartFragmenter;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Interleaves UART writes of several connections, deficit round robin by bytes.
+ * <p>
+ * All links of a phone share one radio, so whoever fills the stack first gets the air time.
+ * Messages are kept here per connection and handed to each session's queue a few chunks at a
+ * time, taking turns, so one chatty device cannot starve the rest. Once a chunk of a message
+ * fails, the chunks of it still waiting here are dropped.
+ **/
+public class FairWriteScheduler {
+    // bytes a connection may send per turn, one full packet at the largest MTU
+    public static final int DEFAULT_QUANTUM = UartFragmenter.MAX_MTU - UartFragmenter.ATT_HEADER_SIZE;
+    // chunks of one connection allowed in its session queue at once
+    public static final int DEFAULT_DEVICE_WINDOW = 8;
+    public static final int DEFAULT_MAX_BACKLOG = 1024;
+
+    private static final class Chunk {
+        final byte[] data;
+        final MessageCallback callback;
+
+        Chunk(byte[] data, MessageCallback callback) {
+            this.data = data;
+            this.callback = callback;
+        }
+    }
+
+    // runs the caller's callback once, after the last chunk or on the first failed one
+    private static final class MessageCallback implements GattOperation.Callback {
+        private final GattOperation.Callback callback;
+        private int remaining;
+        // read under the scheduler lock, so not guarded by this
+        private volatile boolean failed = false;
+
+        MessageCallback(GattOperation.Callback callback, int chunks) {
+            this.callback = callback;
+            this.remaining = chunks;
+        }
+
+        @Override
+        public synchronized void onComplete(GattOperation operation, int status) {
+            if (remaining > 0 && (status != GattOperation.STATUS_SUCCESS || --remaining == 0)) {
+                remaining = 0;
+                failed = status != GattOperation.STATUS_SUCCESS;
+                if (callback != null) {
+                    callback.onComplete(operation, status);
+                }
+            }
+        }
+    }
+
+    private static final class Flow {
+        final GattSession session;
+        final ArrayDeque<Chunk> backlog = new ArrayDeque<>();
+        int deficit = 0;
+        boolean inTurn = false;
+        boolean active = false;
+        int outstanding = 0;
+
+        Flow(GattSession session) {
+            this.session = session;
+        }
+    }
+
+    private final int quantum;
+    private final int deviceWindow;
+    private final int maxBacklog;
+    private final Map<GattSession, Flow> flows = new HashMap<>();
+    // connections with data waiting, in turn order
+    private final ArrayDeque<Flow> active = new ArrayDeque<>();
+    private boolean dispatching = false;
+    private boolean redispatch = false;
+
+    public FairWriteScheduler(int quantum, int deviceWindow, int maxBacklog) {
+        if (quantum < 1 || deviceWindow < 1 || maxBacklog < 1) {
+            throw new IllegalArgumentException("quantum, deviceWindow and maxBacklog must be >= 1");
+        }
+        this.quantum = quantum;
+        this.deviceWindow = deviceWindow;
+        this.maxBacklog = maxBacklog;
+    }
+
+    public FairWriteScheduler() {
+        this(DEFAULT_QUANTUM, DEFAULT_DEVICE_WINDOW, DEFAULT_MAX_BACKLOG);
+    }
+
+    /**
+     * Queue UART data for a connection. Returns false if its backlog is full.
+     **/
+    public boolean submit(GattSession session, byte[] data, GattOperation.Callback callback) {
+        byte[][] chunks = session.fragmentUart(data);
+        MessageCallback messageCallback = new MessageCallback(callback, chunks.length);
+        synchronized (this) {
+            Flow flow = flows.get(session);
+            if (flow == null) {
+                flow = new Flow(session);
+                flows.put(session, flow);
+            }
+            if (flow.backlog.size() + chunks.length > maxBacklog) {
+                return false;
+            }
+            for (byte[] chunk : chunks) {
+                flow.backlog.add(new Chunk(chunk, messageCallback));
+            }
+            if (!flow.active) {
+                flow.active = true;
+                active.add(flow);
+            }
+        }
+        dispatch();
+        return true;
+    }
+
+    // chunks of this connection not yet handed to its session
+    public synchronized int getBacklog(GattSession session) {
+        Flow flow = flows.get(session);
+        return flow == null ? 0 : flow.backlog.size();
+    }
+
+    /**
+     * Forget a connection, failing whatever it still had waiting
+     **/
+    public void remove(GattSession session) {
+        List<Chunk> dropped;
+        synchronized (this) {
+            Flow flow = flows.remove(session);
+            if (flow == null) {
+                return;
+            }
+            active.remove(flow);
+            dropped = new ArrayList<>(flow.backlog);
+            flow.backlog.clear();
+        }
+        for (Chunk chunk : dropped) {
+            chunk.callback.onComplete(null, GattOperation.STATUS_CANCELLED);
+        }
+    }
+
+    // the connection whose turn it is and that may send its next chunk, caller holds the lock
+    private Flow nextFlow() {
+        int blocked = 0;
+        while (!active.isEmpty() && blocked < active.size()) {
+            Flow flow = active.peek();
+            Chunk head = flow.backlog.peek();
+            if (head == null) {
+                active.poll();
+                flow.active = false;
+                flow.inTurn = false;
+                flow.deficit = 0;
+                continue;
+            }
+            if (head.callback.failed) {
+                // the message failed already, the rest of it would leave a hole at the peripheral
+                flow.backlog.poll();
+                continue;
+            }
+            if (flow.outstanding >= deviceWindow) {
+                // its session is busy, let the others go meanwhile
+                active.add(active.poll());
+                blocked++;
+                continue;
+            }
+            if (!flow.inTurn) {
+                flow.inTurn = true;
+                flow.deficit += quantum;
+            }
+            if (flow.deficit >= head.data.length) {
+                return flow;
+            }
+            // turn used up, the remaining deficit carries over
+            flow.inTurn = false;
+            active.add(active.poll());
+            blocked = 0;
+        }
+        return null;
+    }
+
+    private void dispatch() {
+        synchronized (this) {
+            if (dispatching) {
+                redispatch = true;
+                return;
+            }
+            dispatching = true;
+        }
+        while (true) {
+            Flow flow;
+            Chunk chunk;
+            synchronized (this) {
+                flow = nextFlow();
+                if (flow == null) {
+                    if (redispatch) {
+                        redispatch = false;
+                        continue;
+                    }
+                    dispatching = false;
+                    return;
+                }
+                chunk = flow.backlog.poll();
+                flow.deficit -= chunk.data.length;
+                flow.outstanding++;
+            }
+            if (!flow.session.isConnected()) {
+                // link gone, fail its backlog at once instead of chunk by chunk
+                synchronized (this) {
+                    flow.outstanding--;
+                }
+                chunk.callback.onComplete(null, GattOperation.STATUS_CANCELLED);
+                remove(flow.session);
+                continue;
+            }
+            Flow sender = flow;
+            GattOperation.Callback done = (operation, status) -> {
+                synchronized (FairWriteScheduler.this) {
+                    sender.outstanding--;
+                }
+                chunk.callback.onComplete(operation, status);
+                dispatch();
+            };
+            if (!flow.session.writeUartChunk(chunk.data, done)) {
+                done.onComplete(null, GattOperation.STATUS_NOT_STARTED);
+            }
+        }
+    }
+}
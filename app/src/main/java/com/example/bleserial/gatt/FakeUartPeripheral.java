@@ -0,0 +1,574 @@
+package com.example.bleserial.gatt;
+
+import com.example.bleserial.uart.NordicUart;
+import com.example.bleserial.uart.UartFragmenter;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An in-process Nordic UART peripheral behind the {@link GattTransport} interface, for tests,
+ * benchmarks and demos without hardware.
+ * <p>
+ * The link is modelled as connection events every connection interval. Each event moves up to
+ * packetsPerEvent packets in each direction, optionally delayed by a per packet latency and
+ * dropped at the loss rate (writes without response and notifications only, as those carry no
+ * acknowledgement). Writes without response sit in a small controller buffer until their event,
+ * and {@link #writeCharacteristic} reports busy when it is full, like the Android stack does.
+ * Received bytes go into a peripheral UART buffer of limited size that the "firmware" drains at
+ * a configurable rate; whatever does not fit is lost, as on a real ESP32.
+ * <p>
+ * Connection priority requests switch to the interval configured for that priority, and the
+ * 2M PHY doubles the packets per event, so link tuning shows up in the throughput.
+ **/
+public class FakeUartPeripheral implements GattTransport {
+    public interface DataHandler {
+        // bytes the firmware read from its UART buffer, called on the peripheral thread
+        void onData(FakeUartPeripheral peripheral, byte[] data, int offset, int length);
+    }
+
+    public interface PacketHandler {
+        // one write as it arrived, before the UART buffer; called on the peripheral thread
+        void onPacket(FakeUartPeripheral peripheral, byte[] value);
+    }
+
+    // firmware that sends everything it receives straight back
+    public static final DataHandler ECHO = FakeUartPeripheral::notifyUart;
+
+    private static final int PACKET_WRITE = 1;
+    private static final int PACKET_WRITE_NO_RESPONSE = 2;
+    private static final int PACKET_NOTIFICATION = 3;
+    private static final int MAX_NOTIFICATION_BACKLOG = 4096;
+
+    private static final class Packet {
+        final int kind;
+        final UUID characteristic;
+        final byte[] value;
+
+        Packet(int kind, UUID characteristic, byte[] value) {
+            this.kind = kind;
+            this.characteristic = characteristic;
+            this.value = value;
+        }
+    }
+
+    // link parameters, change them before connecting
+    private int maxMtu = 247;
+    private long connectionIntervalMicros = 7500;
+    private int packetsPerEvent = 6;
+    private long packetLatencyMicros = 0;
+    private double lossRate = 0;
+    private int controllerBufferPackets = 8;
+    private int peripheralBufferSize = 4096;
+    private long peripheralDrainBytesPerSecond = 0;
+    private volatile DataHandler dataHandler = ECHO;
+    private volatile PacketHandler packetHandler;
+    // interval per CONNECTION_PRIORITY_*: balanced, high, low power
+    private final long[] priorityIntervalMicros = {30000, 7500, 100000};
+    private boolean supports2M = true;
+
+    private volatile String address = "02:00:00:00:00:01";
+    private final Random random;
+    private ScheduledExecutorService executor;
+    private ScheduledFuture<?> eventLoop;
+    private long currentIntervalMicros;
+    private Callback callback;
+
+    // link state, guarded by this
+    private boolean connected = false;
+    private boolean disconnectRequested = false;
+    private boolean notificationsEnabled = false;
+    private int mtu = UartFragmenter.DEFAULT_MTU;
+    private int phy = PHY_LE_1M;
+    private final ArrayDeque<Packet> centralPackets = new ArrayDeque<>();
+    private final ArrayDeque<Packet> peripheralPackets = new ArrayDeque<>();
+    private final ArrayDeque<Runnable> requests = new ArrayDeque<>();
+    private byte[] lastNotification = new byte[0];
+
+    // peripheral UART buffer, only touched on the peripheral thread
+    private byte[] uartBuffer;
+    private int uartHead = 0;
+    private int uartSize = 0;
+    private long drainCredit = 0;
+
+    // statistics
+    private volatile long packetsLost = 0;
+    private volatile long bytesReceived = 0;
+    private volatile long bytesOverflowed = 0;
+    private volatile long notificationsSent = 0;
+
+    public FakeUartPeripheral(long seed) {
+        random = new Random(seed);
+    }
+
+    public FakeUartPeripheral() {
+        this(0);
+    }
+
+    // largest MTU the peripheral accepts in the exchange
+    public void setMaxMtu(int maxMtu) {
+        this.maxMtu = maxMtu;
+    }
+
+    public void setConnectionInterval(long interval, TimeUnit unit) {
+        this.connectionIntervalMicros = Math.max(1, unit.toMicros(interval));
+    }
+
+    // interval the controller settles on when the central asks for this priority
+    public void setPriorityInterval(int priority, long interval, TimeUnit unit) {
+        priorityIntervalMicros[priority] = Math.max(1, unit.toMicros(interval));
+    }
+
+    public void setSupports2M(boolean supports2M) {
+        this.supports2M = supports2M;
+    }
+
+    public void setPacketsPerEvent(int packetsPerEvent) {
+        this.packetsPerEvent = packetsPerEvent;
+    }
+
+    public void setPacketLatency(long latency, TimeUnit unit) {
+        this.packetLatencyMicros = unit.toMicros(latency);
+    }
+
+    // probability that a write without response or a notification never arrives
+    public void setLossRate(double lossRate) {
+        this.lossRate = lossRate;
+    }
+
+    // writes without response the central can have waiting for the air
+    public void setControllerBufferPackets(int controllerBufferPackets) {
+        this.controllerBufferPackets = controllerBufferPackets;
+    }
+
+    // UART RX buffer of the peripheral firmware, bytes that do not fit are lost
+    public void setPeripheralBufferSize(int peripheralBufferSize) {
+        this.peripheralBufferSize = peripheralBufferSize;
+    }
+
+    // how fast the firmware empties its UART buffer, 0 for instantly
+    public void setPeripheralDrainRate(long bytesPerSecond) {
+        this.peripheralDrainBytesPerSecond = bytesPerSecond;
+    }
+
+    public void setAddress(String address) {
+        this.address = address;
+    }
+
+    public void setDataHandler(DataHandler dataHandler) {
+        this.dataHandler = dataHandler;
+    }
+
+    /**
+     * Firmware that works on whole packets, e.g. a framed protocol, instead of the UART byte
+     * stream. Writes bypass the UART buffer while one is set, null goes back to the stream.
+     **/
+    public void setPacketHandler(PacketHandler packetHandler) {
+        this.packetHandler = packetHandler;
+    }
+
+    public long getPacketsLost() {
+        return packetsLost;
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    // bytes lost because the peripheral UART buffer was full
+    public long getBytesOverflowed() {
+        return bytesOverflowed;
+    }
+
+    public long getNotificationsSent() {
+        return notificationsSent;
+    }
+
+    public synchronized int getMtu() {
+        return mtu;
+    }
+
+    public synchronized int getPhy() {
+        return phy;
+    }
+
+    public synchronized long getCurrentIntervalMicros() {
+        return currentIntervalMicros;
+    }
+
+    /**
+     * Firmware side: send bytes to the central as TX notifications of at most MTU - 3 bytes.
+     * Returns false when notifications are off or the backlog is full.
+     **/
+    public boolean notifyUart(byte[] data, int offset, int length) {
+        synchronized (this) {
+            if (!connected || !notificationsEnabled) {
+                return false;
+            }
+            int size = mtu - UartFragmenter.ATT_HEADER_SIZE;
+            if (peripheralPackets.size() + (length + size - 1) / size > MAX_NOTIFICATION_BACKLOG) {
+                return false;
+            }
+            for (int start = offset; start < offset + length; start += size) {
+                byte[] value = Arrays.copyOfRange(data, start, Math.min(start + size, offset + length));
+                peripheralPackets.add(new Packet(PACKET_NOTIFICATION, NordicUart.TX, value));
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Firmware side: send one notification of at most MTU - 3 bytes as it is. Returns false when
+     * notifications are off, the value is too long or the backlog is full.
+     **/
+    public synchronized boolean notifyPacket(byte[] value) {
+        if (!connected || !notificationsEnabled || value.length > mtu - UartFragmenter.ATT_HEADER_SIZE
+                || peripheralPackets.size() >= MAX_NOTIFICATION_BACKLOG) {
+            return false;
+        }
+        peripheralPackets.add(new Packet(PACKET_NOTIFICATION, NordicUart.TX, value.clone()));
+        return true;
+    }
+
+    /************************ TRANSPORT **************************/
+
+    @Override
+    public String getAddress() {
+        return address;
+    }
+
+    @Override
+    public synchronized boolean connect(Callback callback) {
+        if (executor != null) {
+            return false;
+        }
+        this.callback = callback;
+        uartBuffer = new byte[peripheralBufferSize];
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "fake-uart-peripheral");
+            thread.setDaemon(true);
+            return thread;
+        });
+        requests.add(() -> {
+            synchronized (this) {
+                connected = true;
+            }
+            callback.onConnectionStateChange(true, STATUS_SUCCESS);
+        });
+        scheduleEvents(connectionIntervalMicros);
+        return true;
+    }
+
+    @Override
+    public synchronized void disconnect() {
+        disconnectRequested = true;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+            eventLoop = null;
+        }
+        connected = false;
+    }
+
+    @Override
+    public synchronized boolean discoverServices() {
+        if (!connected) {
+            return false;
+        }
+        requests.add(() -> callback.onServicesDiscovered(STATUS_SUCCESS));
+        return true;
+    }
+
+    @Override
+    public List<UUID> getServiceUuids() {
+        return Collections.singletonList(NordicUart.SERVICE);
+    }
+
+    @Override
+    public boolean hasCharacteristic(UUID service, UUID characteristic) {
+        return NordicUart.SERVICE.equals(service)
+                && (NordicUart.RX.equals(characteristic) || NordicUart.TX.equals(characteristic));
+    }
+
+    @Override
+    public List<CharacteristicHandle> getCharacteristics() {
+        return Arrays.asList(
+                new CharacteristicHandle(NordicUart.SERVICE, NordicUart.RX,
+                        CharacteristicHandle.PROPERTY_WRITE | CharacteristicHandle.PROPERTY_WRITE_NO_RESPONSE, null),
+                new CharacteristicHandle(NordicUart.SERVICE, NordicUart.TX,
+                        CharacteristicHandle.PROPERTY_READ | CharacteristicHandle.PROPERTY_NOTIFY, null));
+    }
+
+    @Override
+    public synchronized boolean requestMtu(int requested) {
+        if (!connected) {
+            return false;
+        }
+        requests.add(() -> {
+            int negotiated;
+            synchronized (this) {
+                mtu = Math.max(UartFragmenter.DEFAULT_MTU, Math.min(requested, maxMtu));
+                negotiated = mtu;
+            }
+            callback.onMtuChanged(negotiated, STATUS_SUCCESS);
+        });
+        return true;
+    }
+
+    @Override
+    public synchronized boolean readCharacteristic(UUID service, UUID characteristic) {
+        if (!connected || !hasCharacteristic(service, characteristic)) {
+            return false;
+        }
+        byte[] value = NordicUart.TX.equals(characteristic) ? lastNotification : new byte[0];
+        requests.add(() -> callback.onCharacteristicRead(service, characteristic, value, STATUS_SUCCESS));
+        return true;
+    }
+
+    @Override
+    public synchronized boolean writeCharacteristic(UUID service, UUID characteristic, byte[] value, int writeType) {
+        if (!connected || !NordicUart.SERVICE.equals(service) || !NordicUart.RX.equals(characteristic)) {
+            return false;
+        }
+        if (value.length > mtu - UartFragmenter.ATT_HEADER_SIZE) {
+            // too long for one ATT write, the stack would reject it
+            return false;
+        }
+        if (centralPackets.size() >= controllerBufferPackets) {
+            // controller buffers full, the caller retries after a completion
+            return false;
+        }
+        int kind = writeType == WRITE_TYPE_NO_RESPONSE ? PACKET_WRITE_NO_RESPONSE : PACKET_WRITE;
+        centralPackets.add(new Packet(kind, characteristic, value.clone()));
+        return true;
+    }
+
+    @Override
+    public boolean readCharacteristic(CharacteristicHandle characteristic) {
+        return readCharacteristic(characteristic.getServiceUuid(), characteristic.getUuid());
+    }
+
+    @Override
+    public boolean writeCharacteristic(CharacteristicHandle characteristic, byte[] value, int writeType) {
+        return writeCharacteristic(characteristic.getServiceUuid(), characteristic.getUuid(), value, writeType);
+    }
+
+    /**
+     * Firmware side: change the GATT database, the central is told to rediscover
+     **/
+    public synchronized void changeServices() {
+        if (connected) {
+            requests.add(() -> callback.onServiceChanged());
+        }
+    }
+
+    @Override
+    public synchronized boolean requestConnectionPriority(int priority) {
+        if (!connected || priority < 0 || priority >= priorityIntervalMicros.length) {
+            return false;
+        }
+        long interval = priorityIntervalMicros[priority];
+        requests.add(() -> {
+            synchronized (this) {
+                scheduleEvents(interval);
+            }
+            callback.onConnectionUpdated((int) ((interval + 1249) / 1250), 0, 500, STATUS_SUCCESS);
+        });
+        return true;
+    }
+
+    @Override
+    public synchronized boolean setPreferredPhy(int txPhyMask, int rxPhyMask) {
+        if (!connected) {
+            return false;
+        }
+        boolean use2M = supports2M && (txPhyMask & PHY_LE_2M_MASK) != 0 && (rxPhyMask & PHY_LE_2M_MASK) != 0;
+        requests.add(() -> {
+            int negotiated;
+            synchronized (this) {
+                phy = use2M ? PHY_LE_2M : PHY_LE_1M;
+                negotiated = phy;
+            }
+            callback.onPhyUpdate(negotiated, negotiated, STATUS_SUCCESS);
+        });
+        return true;
+    }
+
+    @Override
+    public synchronized boolean setCharacteristicNotification(UUID service, UUID characteristic, boolean enabled) {
+        return connected && hasCharacteristic(service, characteristic);
+    }
+
+    @Override
+    public synchronized boolean writeDescriptor(UUID service, UUID characteristic, UUID descriptor, byte[] value) {
+        if (!connected || !NordicUart.TX.equals(characteristic) || !NordicUart.CCCD.equals(descriptor)) {
+            return false;
+        }
+        boolean enable = value.length > 0 && (value[0] & 0x03) != 0;
+        requests.add(() -> {
+            synchronized (this) {
+                notificationsEnabled = enable;
+            }
+            callback.onDescriptorWrite(service, characteristic, descriptor, STATUS_SUCCESS);
+        });
+        return true;
+    }
+
+    /************************ LINK MODEL **************************/
+
+    // caller holds the lock
+    private void scheduleEvents(long intervalMicros) {
+        if (executor == null) {
+            return;
+        }
+        if (eventLoop != null) {
+            eventLoop.cancel(false);
+        }
+        currentIntervalMicros = intervalMicros;
+        eventLoop = executor.scheduleAtFixedRate(this::connectionEvent, intervalMicros, intervalMicros, TimeUnit.MICROSECONDS);
+    }
+
+    private boolean lost() {
+        return lossRate > 0 && random.nextDouble() < lossRate;
+    }
+
+    // runs every connection interval on the peripheral thread
+    private void connectionEvent() {
+        List<Runnable> work = new ArrayList<>();
+        List<Packet> toPeripheral = new ArrayList<>();
+        List<Packet> toCentral = new ArrayList<>();
+        boolean dropLink;
+        synchronized (this) {
+            dropLink = disconnectRequested && connected;
+            if (!dropLink) {
+                work.addAll(requests);
+                requests.clear();
+                // the 2M PHY fits twice the packets into an event
+                int perEvent = phy == PHY_LE_2M ? packetsPerEvent * 2 : packetsPerEvent;
+                for (int i = 0; i < perEvent && !centralPackets.isEmpty(); i++) {
+                    toPeripheral.add(centralPackets.poll());
+                }
+                for (int i = 0; i < perEvent && !peripheralPackets.isEmpty(); i++) {
+                    toCentral.add(peripheralPackets.poll());
+                }
+            } else {
+                connected = false;
+                disconnectRequested = false;
+                notificationsEnabled = false;
+                centralPackets.clear();
+                peripheralPackets.clear();
+                requests.clear();
+                mtu = UartFragmenter.DEFAULT_MTU;
+                phy = PHY_LE_1M;
+            }
+        }
+        if (dropLink) {
+            callback.onConnectionStateChange(false, STATUS_SUCCESS);
+            // like AndroidGattTransport, a dropped link closes the transport
+            close();
+            return;
+        }
+
+        for (Runnable request : work) {
+            request.run();
+        }
+        for (Packet packet : toPeripheral) {
+            // the local stack confirms writes without response once they are on the air
+            if (packet.kind == PACKET_WRITE_NO_RESPONSE) {
+                callback.onCharacteristicWrite(NordicUart.SERVICE, packet.characteristic, packet.value, STATUS_SUCCESS);
+                if (lost()) {
+                    packetsLost++;
+                    continue;
+                }
+            }
+            deliver(() -> {
+                receive(packet.value);
+                if (packet.kind == PACKET_WRITE) {
+                    callback.onCharacteristicWrite(NordicUart.SERVICE, packet.characteristic, packet.value, STATUS_SUCCESS);
+                }
+            });
+        }
+        for (Packet packet : toCentral) {
+            notificationsSent++;
+            if (lost()) {
+                packetsLost++;
+                continue;
+            }
+            deliver(() -> {
+                synchronized (this) {
+                    lastNotification = packet.value;
+                }
+                callback.onCharacteristicChanged(NordicUart.SERVICE, packet.characteristic, packet.value);
+            });
+        }
+        drainUart();
+    }
+
+    private void deliver(Runnable delivery) {
+        ScheduledExecutorService e = executor;
+        if (packetLatencyMicros <= 0 || e == null) {
+            delivery.run();
+        } else {
+            e.schedule(delivery, packetLatencyMicros, TimeUnit.MICROSECONDS);
+        }
+    }
+
+    // a write arriving at the peripheral goes to the packet handler, or into its UART buffer and is lost if full
+    private void receive(byte[] value) {
+        bytesReceived += value.length;
+        PacketHandler handler = packetHandler;
+        if (handler != null) {
+            handler.onPacket(this, value);
+            return;
+        }
+        int free = uartBuffer.length - uartSize;
+        int n = Math.min(free, value.length);
+        if (n < value.length) {
+            bytesOverflowed += value.length - n;
+        }
+        for (int i = 0; i < n; i++) {
+            uartBuffer[(uartHead + uartSize + i) % uartBuffer.length] = value[i];
+        }
+        uartSize += n;
+    }
+
+    // the firmware reads its UART buffer at the configured rate
+    private void drainUart() {
+        if (uartSize == 0) {
+            drainCredit = 0;
+            return;
+        }
+        int n = uartSize;
+        if (peripheralDrainBytesPerSecond > 0) {
+            drainCredit += peripheralDrainBytesPerSecond * currentIntervalMicros;
+            n = (int) Math.min(n, drainCredit / 1000000);
+            drainCredit -= n * 1000000L;
+        }
+        if (n == 0) {
+            return;
+        }
+        byte[] data = new byte[n];
+        for (int i = 0; i < n; i++) {
+            data[i] = uartBuffer[(uartHead + i) % uartBuffer.length];
+        }
+        uartHead = (uartHead + n) % uartBuffer.length;
+        uartSize -= n;
+        DataHandler handler = dataHandler;
+        if (handler != null) {
+            handler.onData(this, data, 0, n);
+        }
+    }
+}
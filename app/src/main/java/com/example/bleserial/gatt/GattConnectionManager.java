@@ -0,0 +1,174 @@
+package com.example.bleserial.gatt;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Several GATT connections at once, keyed by device address. Every connection is its own
+ * {@link GattSession} with its own state, operation queue and RX buffer, UART writes go through
+ * one {@link FairWriteScheduler} so the devices share the radio evenly.
+ **/
+public class GattConnectionManager {
+    private static final class Sample {
+        long nanos;
+        long txBytes;
+        long rxBytes;
+
+        Sample(long nanos, long txBytes, long rxBytes) {
+            this.nanos = nanos;
+            this.txBytes = txBytes;
+            this.rxBytes = rxBytes;
+        }
+    }
+
+    private final ScheduledExecutorService timer;
+    private final FairWriteScheduler writeScheduler;
+    private final Map<String, GattSession> sessions = new LinkedHashMap<>();
+    // counters at the previous throughput sample
+    private final Map<GattSession, Sample> samples = new HashMap<>();
+
+    public GattConnectionManager(ScheduledExecutorService timer, FairWriteScheduler writeScheduler) {
+        this.timer = timer;
+        this.writeScheduler = writeScheduler;
+    }
+
+    public GattConnectionManager(ScheduledExecutorService timer) {
+        this(timer, new FairWriteScheduler());
+    }
+
+    public FairWriteScheduler getWriteScheduler() {
+        return writeScheduler;
+    }
+
+    /**
+     * Open a connection, replacing any previous one to the same address.
+     * Returns null if the transport could not start connecting.
+     **/
+    public GattSession connect(GattTransport transport, GattSession.Listener listener) {
+        GattSession session = add(transport, listener);
+        if (!session.connect()) {
+            remove(transport.getAddress());
+            return null;
+        }
+        return session;
+    }
+
+    /**
+     * Register a session without connecting yet, so it can be configured first
+     **/
+    public GattSession add(GattTransport transport, GattSession.Listener listener) {
+        String address = transport.getAddress();
+        GattSession session = new GattSession(transport, timer, listener);
+        GattSession previous;
+        synchronized (this) {
+            previous = sessions.put(address, session);
+            if (previous != null) {
+                samples.remove(previous);
+            }
+            samples.put(session, new Sample(System.nanoTime(), 0, 0));
+        }
+        if (previous != null) {
+            close(previous);
+        }
+        return session;
+    }
+
+    public synchronized GattSession getSession(String address) {
+        return sessions.get(address);
+    }
+
+    public synchronized List<String> getAddresses() {
+        return new ArrayList<>(sessions.keySet());
+    }
+
+    public synchronized List<GattSession> getSessions() {
+        return new ArrayList<>(sessions.values());
+    }
+
+    public synchronized int size() {
+        return sessions.size();
+    }
+
+    public boolean disconnect(String address) {
+        GattSession session = getSession(address);
+        if (session == null) {
+            return false;
+        }
+        session.disconnect();
+        return true;
+    }
+
+    /**
+     * Drop a connection for good: fail its waiting writes and release the transport
+     **/
+    public void remove(String address) {
+        GattSession session;
+        synchronized (this) {
+            session = sessions.remove(address);
+            if (session == null) {
+                return;
+            }
+            samples.remove(session);
+        }
+        close(session);
+    }
+
+    public void closeAll() {
+        for (String address : getAddresses()) {
+            remove(address);
+        }
+    }
+
+    private void close(GattSession session) {
+        writeScheduler.remove(session);
+        // a closed transport reports no disconnect, so the session tears down here
+        session.close();
+        session.getTransport().close();
+    }
+
+    /**
+     * Write UART data to one device, interleaved fairly with the writes to the others
+     **/
+    public boolean writeUart(String address, byte[] data, GattOperation.Callback callback) {
+        GattSession session = getSession(address);
+        return session != null && writeScheduler.submit(session, data, callback);
+    }
+
+    /**
+     * Bytes and rates since the previous call for every connection, followed by their sum
+     * under {@link ThroughputSnapshot#AGGREGATE}
+     **/
+    public synchronized List<ThroughputSnapshot> sampleThroughput() {
+        List<ThroughputSnapshot> result = new ArrayList<>(sessions.size() + 1);
+        long now = System.nanoTime();
+        long totalTx = 0;
+        long totalRx = 0;
+        double totalTxRate = 0;
+        double totalRxRate = 0;
+        for (Map.Entry<String, GattSession> entry : sessions.entrySet()) {
+            GattSession session = entry.getValue();
+            Sample sample = samples.get(session);
+            long tx = session.getTxBytes();
+            long rx = session.getRxBytes();
+            double seconds = Math.max(1, now - sample.nanos) / (double) TimeUnit.SECONDS.toNanos(1);
+            double txRate = (tx - sample.txBytes) / seconds;
+            double rxRate = (rx - sample.rxBytes) / seconds;
+            sample.nanos = now;
+            sample.txBytes = tx;
+            sample.rxBytes = rx;
+
+            result.add(new ThroughputSnapshot(entry.getKey(), tx, rx, txRate, rxRate));
+            totalTx += tx;
+            totalRx += rx;
+            totalTxRate += txRate;
+            totalRxRate += rxRate;
+        }
+        result.add(new ThroughputSnapshot(ThroughputSnapshot.AGGREGATE, totalTx, totalRx, totalTxRate, totalRxRate));
+        return result;
+    }
+}
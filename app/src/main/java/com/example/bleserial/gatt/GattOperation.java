@@ -0,0 +1,88 @@
+package com.example.bleserial.gatt;
+
+/**
+ * A single ATT operation waiting in, or running from, a {@link GattOperationQueue}.
+ **/
+public final class GattOperation {
+    // operation types, also used to match completions coming back from the GATT callback
+    public static final int TYPE_READ = 1;
+    public static final int TYPE_WRITE = 2;
+    public static final int TYPE_WRITE_NO_RESPONSE = 3;
+    public static final int TYPE_DESCRIPTOR_WRITE = 4;
+    public static final int TYPE_MTU_REQUEST = 5;
+
+    // completion status, GATT statuses are passed through as they are
+    public static final int STATUS_SUCCESS = 0;
+    public static final int STATUS_TIMEOUT = -1;
+    public static final int STATUS_CANCELLED = -2;
+    public static final int STATUS_NOT_STARTED = -3;
+
+    public interface Action {
+        // start the operation, return false if the stack refused it
+        boolean execute();
+    }
+
+    public interface Callback {
+        void onComplete(GattOperation operation, int status);
+    }
+
+    private final int type;
+    private final Action action;
+    private final Callback callback;
+    private final long timeoutMs;
+
+    // set by the queue while the operation is in flight
+    long deadlineNanos;
+    // for the queue's metrics, startedNanos stays 0 until the operation is started
+    long enqueuedNanos;
+    long startedNanos;
+    // UART bytes the queue's TxPacer must allow before this starts, 0 for writes it does not pace
+    int pacedBytes;
+    // allowance taken, a write the stack refused keeps it for its retry
+    boolean paceAcquired;
+
+    public GattOperation(int type, Action action, Callback callback, long timeoutMs) {
+        if (action == null) {
+            throw new IllegalArgumentException("action == null");
+        }
+        this.type = type;
+        this.action = action;
+        this.callback = callback;
+        this.timeoutMs = timeoutMs;
+    }
+
+    public GattOperation(int type, Action action, Callback callback) {
+        this(type, action, callback, GattOperationQueue.DEFAULT_TIMEOUT_MS);
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public long getTimeoutMs() {
+        return timeoutMs;
+    }
+
+    // write without response may share the link with other writes without response
+    public boolean isPipelined() {
+        return type == TYPE_WRITE_NO_RESPONSE;
+    }
+
+    // both kinds of write complete through onCharacteristicWrite
+    boolean matches(int completionType) {
+        if (completionType == TYPE_WRITE || completionType == TYPE_WRITE_NO_RESPONSE) {
+            return type == TYPE_WRITE || type == TYPE_WRITE_NO_RESPONSE;
+        }
+        return type == completionType;
+    }
+
+    boolean execute() {
+        return action.execute();
+    }
+
+    void complete(int status) {
+        if (callback != null) {
+            callback.onComplete(this, status);
+        }
+    }
+}
@@ -0,0 +1,357 @@
+package com.example.bleserial.gatt;
+
+import com.example.bleserial.metrics.GattMetrics;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serialises ATT operations onto one GATT connection.
+ * <p>
+ * Reads, writes with response, descriptor writes and MTU requests run one at a time.
+ * Writes without response are pipelined up to the configured window. Each operation is
+ * completed exactly once, by the GATT callback, by its timeout or by {@link #clear(int)}.
+ * With a {@link TxPacer} set, UART writes wait at the head of the queue until it allows them.
+ **/
+public class GattOperationQueue {
+    public static final int DEFAULT_MAX_DEPTH = 64;
+    public static final int DEFAULT_NO_RESPONSE_WINDOW = 4;
+    public static final long DEFAULT_TIMEOUT_MS = 5000;
+
+    private final ArrayDeque<GattOperation> pending = new ArrayDeque<>();
+    private final ArrayDeque<GattOperation> inFlight = new ArrayDeque<>();
+    private final ScheduledExecutorService timer;
+    private final int maxDepth;
+    private int noResponseWindow;
+
+    private boolean dispatching = false;
+    // the stack refused a pipelined write, wait for a completion before retrying
+    private boolean stalled = false;
+    private ScheduledFuture<?> watchdog;
+    private long watchdogDeadlineNanos;
+    // late callbacks still owed by timed out operations, per completion type
+    private final int[] lateCompletions = new int[GattOperation.TYPE_MTU_REQUEST + 1];
+    private volatile GattMetrics metrics;
+    private volatile TxPacer pacer;
+    // handed to the pacer when it holds the head back
+    private final Runnable wakeUp = this::drain;
+
+    public GattOperationQueue(ScheduledExecutorService timer, int maxDepth, int noResponseWindow) {
+        if (maxDepth < 1 || noResponseWindow < 1) {
+            throw new IllegalArgumentException("maxDepth and noResponseWindow must be >= 1");
+        }
+        this.timer = timer;
+        this.maxDepth = maxDepth;
+        this.noResponseWindow = noResponseWindow;
+    }
+
+    public GattOperationQueue(ScheduledExecutorService timer) {
+        this(timer, DEFAULT_MAX_DEPTH, DEFAULT_NO_RESPONSE_WINDOW);
+    }
+
+    public synchronized void setNoResponseWindow(int window) {
+        if (window < 1) {
+            throw new IllegalArgumentException("window must be >= 1");
+        }
+        noResponseWindow = window;
+    }
+
+    public synchronized int getNoResponseWindow() {
+        return noResponseWindow;
+    }
+
+    /**
+     * Record queue depth, queue wait, per type latency and failures, null stops recording
+     **/
+    public void setMetrics(GattMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Hold UART writes back until pacer allows them, null to stop pacing
+     **/
+    public void setPacer(TxPacer pacer) {
+        this.pacer = pacer;
+        drain();
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    // operations waiting plus operations in flight
+    public synchronized int size() {
+        return pending.size() + inFlight.size();
+    }
+
+    public synchronized int inFlightCount() {
+        return inFlight.size();
+    }
+
+    /**
+     * Add an operation, returns false if the queue is full.
+     **/
+    public boolean enqueue(GattOperation operation) {
+        int depth;
+        operation.enqueuedNanos = System.nanoTime();
+        synchronized (this) {
+            if (pending.size() + inFlight.size() >= maxDepth) {
+                return false;
+            }
+            pending.add(operation);
+            depth = pending.size() + inFlight.size();
+        }
+        recordQueued(depth);
+        drain();
+        return true;
+    }
+
+    /**
+     * Add an operation, waiting up to timeoutMs for room. Returns false on timeout.
+     **/
+    public boolean enqueue(GattOperation operation, long timeoutMs) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        int depth;
+        synchronized (this) {
+            while (pending.size() + inFlight.size() >= maxDepth) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+            operation.enqueuedNanos = System.nanoTime();
+            pending.add(operation);
+            depth = pending.size() + inFlight.size();
+        }
+        recordQueued(depth);
+        drain();
+        return true;
+    }
+
+    /**
+     * Add several operations back to back, either all of them or none if they do not fit.
+     **/
+    public boolean enqueueAll(List<GattOperation> operations) {
+        int depth;
+        long now = System.nanoTime();
+        for (GattOperation operation : operations) {
+            operation.enqueuedNanos = now;
+        }
+        synchronized (this) {
+            if (pending.size() + inFlight.size() + operations.size() > maxDepth) {
+                return false;
+            }
+            pending.addAll(operations);
+            depth = pending.size() + inFlight.size();
+        }
+        recordQueued(depth);
+        drain();
+        return true;
+    }
+
+    /**
+     * Called from the GATT callback, completes the oldest in flight operation of that type.
+     **/
+    public void onOperationComplete(int type, int status) {
+        GattOperation done;
+        synchronized (this) {
+            int kind = completionKind(type);
+            if (lateCompletions[kind] > 0) {
+                // late completion of an operation that already timed out, not of the next one
+                lateCompletions[kind]--;
+                return;
+            }
+            done = inFlight.peek();
+            if (done == null || !done.matches(type)) {
+                return;
+            }
+            inFlight.poll();
+            stalled = false;
+            notifyAll();
+        }
+        complete(done, status);
+        drain();
+    }
+
+    /**
+     * Fail everything queued or in flight, used on disconnect.
+     **/
+    public void clear(int status) {
+        List<GattOperation> dropped;
+        synchronized (this) {
+            dropped = new ArrayList<>(inFlight);
+            dropped.addAll(pending);
+            inFlight.clear();
+            pending.clear();
+            stalled = false;
+            // no callbacks come after a disconnect
+            Arrays.fill(lateCompletions, 0);
+            if (watchdog != null) {
+                watchdog.cancel(false);
+                watchdog = null;
+            }
+            notifyAll();
+        }
+        for (GattOperation operation : dropped) {
+            complete(operation, status);
+        }
+    }
+
+    // writes with and without response complete through the same callback
+    private static int completionKind(int type) {
+        return type == GattOperation.TYPE_WRITE_NO_RESPONSE ? GattOperation.TYPE_WRITE : type;
+    }
+
+    // the next operation allowed to start, caller holds the lock
+    private GattOperation nextRunnable() {
+        GattOperation head = pending.peek();
+        if (head == null || stalled) {
+            return null;
+        }
+        if (inFlight.isEmpty()) {
+            return head;
+        }
+        if (!head.isPipelined() || inFlight.size() >= noResponseWindow) {
+            return null;
+        }
+        for (GattOperation running : inFlight) {
+            if (!running.isPipelined()) {
+                return null;
+            }
+        }
+        return head;
+    }
+
+    private void drain() {
+        synchronized (this) {
+            if (dispatching) {
+                // the running dispatcher re-checks the queue after its current operation
+                return;
+            }
+            dispatching = true;
+        }
+        while (true) {
+            GattOperation next;
+            synchronized (this) {
+                next = nextRunnable();
+                TxPacer p = pacer;
+                if (next != null && next.pacedBytes > 0 && !next.paceAcquired && p != null) {
+                    if (!p.tryAcquire(next.pacedBytes, wakeUp)) {
+                        // the pacer calls drain again once the device has room
+                        next = null;
+                    } else {
+                        next.paceAcquired = true;
+                    }
+                }
+                if (next == null) {
+                    dispatching = false;
+                    return;
+                }
+                pending.poll();
+                next.startedNanos = System.nanoTime();
+                next.deadlineNanos = next.startedNanos + TimeUnit.MILLISECONDS.toNanos(next.getTimeoutMs());
+                inFlight.add(next);
+                armWatchdog();
+            }
+
+            boolean started;
+            try {
+                started = next.execute();
+            } catch (RuntimeException e) {
+                started = false;
+            }
+            if (started) {
+                continue;
+            }
+
+            synchronized (this) {
+                if (!inFlight.remove(next)) {
+                    // already cleared or timed out while starting
+                    continue;
+                }
+                if (next.isPipelined() && !inFlight.isEmpty()) {
+                    // stack buffers are full, retry once an earlier write completes
+                    pending.addFirst(next);
+                    stalled = true;
+                    continue;
+                }
+                notifyAll();
+            }
+            complete(next, GattOperation.STATUS_NOT_STARTED);
+        }
+    }
+
+    private void recordQueued(int depth) {
+        GattMetrics m = metrics;
+        if (m != null) {
+            m.recordQueued(depth);
+        }
+    }
+
+    // every completion goes through here, so metrics see each operation exactly once
+    private void complete(GattOperation operation, int status) {
+        GattMetrics m = metrics;
+        if (m != null) {
+            if (status == GattOperation.STATUS_SUCCESS) {
+                long now = System.nanoTime();
+                m.recordQueueWait(operation.startedNanos - operation.enqueuedNanos);
+                m.recordLatency(operation.getType(), now - operation.startedNanos);
+            } else {
+                m.recordError(status);
+            }
+        }
+        operation.complete(status);
+    }
+
+    // keep one timer armed for the oldest in flight operation, caller holds the lock
+    private void armWatchdog() {
+        if (inFlight.isEmpty()) {
+            return;
+        }
+        long deadline = inFlight.peek().deadlineNanos;
+        if (watchdog != null) {
+            if (watchdogDeadlineNanos - deadline <= 0) {
+                return;
+            }
+            watchdog.cancel(false);
+        }
+        watchdogDeadlineNanos = deadline;
+        try {
+            watchdog = timer.schedule(this::onWatchdog, Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            // timer gone with the service, operations no longer time out but the queue keeps going
+            watchdog = null;
+        }
+    }
+
+    private void onWatchdog() {
+        List<GattOperation> expired = new ArrayList<>();
+        synchronized (this) {
+            watchdog = null;
+            long now = System.nanoTime();
+            while (!inFlight.isEmpty() && inFlight.peek().deadlineNanos - now <= 0) {
+                GattOperation operation = inFlight.poll();
+                lateCompletions[completionKind(operation.getType())]++;
+                expired.add(operation);
+            }
+            if (!expired.isEmpty()) {
+                stalled = false;
+                notifyAll();
+            }
+            armWatchdog();
+        }
+        for (GattOperation operation : expired) {
+            complete(operation, GattOperation.STATUS_TIMEOUT);
+        }
+        if (!expired.isEmpty()) {
+            drain();
+        }
+    }
+}
@@ -0,0 +1,930 @@
+package com.example.bleserial.gatt;
+
+import com.example.bleserial.codec.ChunkWriter;
+import com.example.bleserial.codec.FrameCodec;
+import com.example.bleserial.link.ReliableLink;
+import com.example.bleserial.metrics.GattMetrics;
+import com.example.bleserial.metrics.MetricsSnapshot;
+import com.example.bleserial.mux.ChannelMux;
+import com.example.bleserial.rpc.RpcClient;
+import com.example.bleserial.text.LineDecoder;
+import com.example.bleserial.uart.NordicUart;
+import com.example.bleserial.uart.RxRingBuffer;
+import com.example.bleserial.uart.UartChannel;
+import com.example.bleserial.uart.UartFragmenter;
+import com.example.bleserial.uart.UartReassembler;
+import com.example.bleserial.uart.UartSink;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * One GATT connection and the UART plumbing on top of it: operation queue, MTU tracking,
+ * fragmentation, notification delivery, RX ring and stream channel.
+ * <p>
+ * Plain Java, the platform specific part lives behind {@link GattTransport}, so the whole data
+ * path runs the same against the Android stack and against {@link FakeUartPeripheral}.
+ **/
+public class GattSession implements GattTransport.Callback {
+    public static final int DEFAULT_REQUESTED_MTU = 512;
+    public static final int DEFAULT_STREAM_BUFFER_SIZE = 64 * 1024;
+
+    // characteristic ids passed to a NotificationDispatcher.Listener
+    public static final int CHARACTERISTIC_ID_UART_TX = 0;
+    public static final int CHARACTERISTIC_ID_UART_RX = 1;
+
+    /**
+     * Session events, called on the transport's callback thread
+     **/
+    public interface Listener {
+        default void onConnectionStateChange(GattSession session, boolean connected) {
+        }
+
+        default void onServicesDiscovered(GattSession session, int status) {
+        }
+
+        default void onMtuChanged(GattSession session, int mtu) {
+        }
+
+        // PHY or connection interval changed
+        default void onLinkParametersChanged(GattSession session, LinkParameters parameters) {
+        }
+
+        default void onCharacteristicRead(GattSession session, UUID service, UUID characteristic, byte[] value, int status) {
+        }
+
+        default void onCharacteristicWrite(GattSession session, UUID service, UUID characteristic, byte[] value, int status) {
+        }
+
+        // notifications outside the UART stream
+        default void onNotification(GattSession session, UUID service, UUID characteristic, byte[] value) {
+        }
+
+        // buffer is reused, copy what you need
+        default void onUartMessage(GattSession session, byte[] buffer, int length) {
+        }
+
+        // new data in the RX ring, raised once until readRx() is called again
+        default void onRxDataAvailable(GattSession session) {
+        }
+
+        default void onConsoleMessage(GattSession session, String text) {
+        }
+    }
+
+    /**
+     * Sees every packet written to or notified by the peripheral, e.g. to capture the traffic.
+     * Called on the thread moving the packet, so it must return quickly and must not keep value.
+     **/
+    public interface TrafficTap {
+        void onTx(UUID service, UUID characteristic, byte[] value);
+
+        void onRx(UUID service, UUID characteristic, byte[] value);
+    }
+
+    private final GattTransport transport;
+    private final ScheduledExecutorService timer;
+    private final Listener listener;
+    private final GattOperationQueue operationQueue;
+
+    private volatile boolean connected = false;
+    private volatile int mtu = UartFragmenter.DEFAULT_MTU;
+    private volatile int requestedMtu = DEFAULT_REQUESTED_MTU;
+    private volatile LinkParameters linkParameters = LinkParameters.DEFAULT;
+
+    private final UartFragmenter uartFragmenter = new UartFragmenter();
+    private final UartReassembler uartReassembler;
+    private final NotificationDispatcher notificationDispatcher = new NotificationDispatcher(NordicUart.TX, NordicUart.RX);
+    private volatile RxRingBuffer uartRxBuffer;
+    private final AtomicBoolean rxSignalPending = new AtomicBoolean(false);
+    private volatile TrafficTap trafficTap;
+    // paces scheduled UART writes while set
+    private volatile TxPacer txPacer;
+    // UART traffic runs through this while set
+    private volatile ReliableLink reliableLink;
+    // UART packets belong to logical channels while set
+    private volatile ChannelMux channelMux;
+    // UART notifications are decoded into frames while set
+    private volatile FrameCodec frameCodec;
+    private volatile FrameCodec.FrameListener frameListener;
+    private volatile LineDecoder lineDecoder;
+    // takes the decoded frames as responses while set
+    private volatile RpcClient rpcClient;
+    // encodes frames for writeFrame, guarded by itself
+    private final List<byte[]> frameChunks = new ArrayList<>();
+    private final ChunkWriter frameWriter = new ChunkWriter(UartFragmenter.DEFAULT_MTU,
+            (chunk, length) -> frameChunks.add(Arrays.copyOf(chunk, length)));
+
+    // characteristics resolved after discovery, keyed by characteristic UUID
+    private volatile Map<UUID, CharacteristicHandle> handles = Collections.emptyMap();
+    private volatile int handleGeneration = 0;
+    private volatile CharacteristicHandle uartRxHandle;
+
+    // bytes and packets each way, operation latencies and failures; cheap enough to stay on
+    private final GattMetrics metrics = new GattMetrics();
+    // start of a connect or discovery in progress, 0 if none
+    private volatile long connectStartNanos = 0;
+    private volatile long discoveryStartNanos = 0;
+    // arrival of the oldest notification the RX ring reader has not picked up yet
+    private volatile long rxPendingSinceNanos = 0;
+
+    public GattSession(GattTransport transport, ScheduledExecutorService timer, Listener listener) {
+        this.transport = transport;
+        this.timer = timer;
+        this.listener = listener;
+        this.operationQueue = new GattOperationQueue(timer);
+        this.operationQueue.setMetrics(metrics);
+        this.uartReassembler = new UartReassembler((buffer, length) -> listener.onUartMessage(this, buffer, length));
+    }
+
+    public GattTransport getTransport() {
+        return transport;
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    // MTU negotiated for the current connection, 23 until the exchange completes
+    public int getMtu() {
+        return mtu;
+    }
+
+    // MTU asked for after service discovery
+    public void setRequestedMtu(int requestedMtu) {
+        this.requestedMtu = requestedMtu;
+    }
+
+    public void setNoResponseWindow(int window) {
+        operationQueue.setNoResponseWindow(window);
+    }
+
+    public int getPendingOperationCount() {
+        return operationQueue.size();
+    }
+
+    public LinkParameters getLinkParameters() {
+        return linkParameters;
+    }
+
+    /**
+     * Ask for a shorter or longer connection interval, one of GattTransport.CONNECTION_PRIORITY_*
+     **/
+    public boolean requestConnectionPriority(int priority) {
+        return connected && transport.requestConnectionPriority(priority);
+    }
+
+    // PHY_LE_*_MASK combinations, ignored by peripherals that only do 1M
+    public boolean setPreferredPhy(int txPhyMask, int rxPhyMask) {
+        return connected && transport.setPreferredPhy(txPhyMask, rxPhyMask);
+    }
+
+    public long getTxBytes() {
+        return metrics.getTxBytes();
+    }
+
+    public long getRxBytes() {
+        return metrics.getRxBytes();
+    }
+
+    public GattMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Latencies, rates since the previous call, queue depth and errors of this connection
+     **/
+    public MetricsSnapshot getMetricsSnapshot() {
+        return metrics.snapshot(operationQueue.size());
+    }
+
+    public boolean connect() {
+        connectStartNanos = System.nanoTime();
+        return transport.connect(this);
+    }
+
+    public void disconnect() {
+        transport.disconnect();
+    }
+
+    /**
+     * Tear down as on a disconnect, for a session dropped without one: waiting operations are
+     * cancelled, link, mux and RPC closed and UART channel readers see the end of the stream.
+     * The listener is not called. The transport is closed by the caller.
+     **/
+    public void close() {
+        connected = false;
+        tearDown();
+    }
+
+    public boolean discoverServices() {
+        discoveryStartNanos = System.nanoTime();
+        return transport.discoverServices();
+    }
+
+    public List<UUID> getServiceUuids() {
+        return transport.getServiceUuids();
+    }
+
+    /**
+     * Receive notifications on the transport thread instead of through the listener. The
+     * notification listener gets a CHARACTERISTIC_ID_* and a reused buffer, null switches back.
+     **/
+    public void setNotificationListener(NotificationDispatcher.Listener notificationListener) {
+        notificationDispatcher.setListener(notificationListener);
+    }
+
+    // null stops tapping
+    public void setTrafficTap(TrafficTap tap) {
+        trafficTap = tap;
+    }
+
+    public TrafficTap getTrafficTap() {
+        return trafficTap;
+    }
+
+    /**
+     * Buffer UART notifications instead of delivering them as messages
+     **/
+    public RxRingBuffer enableRxBuffer(int capacity, RxRingBuffer.OverflowPolicy policy) {
+        RxRingBuffer buffer = new RxRingBuffer(capacity, policy);
+        uartRxBuffer = buffer;
+        return buffer;
+    }
+
+    public void disableRxBuffer() {
+        uartRxBuffer = null;
+    }
+
+    public RxRingBuffer getRxBuffer() {
+        return uartRxBuffer;
+    }
+
+    public int readRx(byte[] dst, int offset, int length) {
+        RxRingBuffer buffer = uartRxBuffer;
+        if (buffer == null) {
+            return 0;
+        }
+        // clear first, so data arriving while we drain raises a new signal
+        if (rxSignalPending.getAndSet(false)) {
+            metrics.recordLatency(GattMetrics.OP_NOTIFICATION_DELIVERY, System.nanoTime() - rxPendingSinceNanos);
+        }
+        return buffer.read(dst, offset, length);
+    }
+
+    /**
+     * The cached handle of a characteristic, null if not connected, not discovered yet or missing.
+     * Valid until the link drops or the peripheral changes its services.
+     **/
+    public CharacteristicHandle getCharacteristic(UUID service, UUID characteristic) {
+        CharacteristicHandle handle = handles.get(characteristic);
+        if (handle == null || !handle.getServiceUuid().equals(service)) {
+            return null;
+        }
+        return handle;
+    }
+
+    public boolean isValid(CharacteristicHandle handle) {
+        return handle != null && connected && handle.generation == handleGeneration;
+    }
+
+    /**
+     * Read Characteristic
+     **/
+    public boolean readCharacteristic(UUID service, UUID characteristic, GattOperation.Callback callback) {
+        CharacteristicHandle handle = resolve(service, characteristic, "readCharacteristic");
+        return handle != null && readCharacteristic(handle, callback);
+    }
+
+    public boolean readCharacteristic(CharacteristicHandle handle, GattOperation.Callback callback) {
+        if (!checkHandle(handle, "readCharacteristic")) {
+            return false;
+        }
+        if (!handle.canRead()) {
+            listener.onConsoleMessage(this, "readCharacteristic: not readable");
+            return false;
+        }
+        return enqueue(new GattOperation(GattOperation.TYPE_READ,
+                () -> transport.readCharacteristic(handle), callback), "readCharacteristic");
+    }
+
+    /**
+     * Write Characteristic, writes without response are pipelined, all other writes go one at a time
+     **/
+    public boolean writeCharacteristic(UUID service, UUID characteristic, byte[] value, int writeType, GattOperation.Callback callback) {
+        CharacteristicHandle handle = resolve(service, characteristic, "writeCharacteristic");
+        return handle != null && writeCharacteristic(handle, value, writeType, callback);
+    }
+
+    public boolean writeCharacteristic(CharacteristicHandle handle, byte[] value, int writeType, GattOperation.Callback callback) {
+        if (!checkHandle(handle, "writeCharacteristic")) {
+            return false;
+        }
+        if (!handle.canWrite(writeType)) {
+            listener.onConsoleMessage(this, "writeCharacteristic: write type " + writeType + " not supported");
+            return false;
+        }
+        return enqueue(newWriteOperation(handle, value, writeType, callback), "writeCharacteristic");
+    }
+
+    /**
+     * Enable or disable notifications, locally and in the peripheral's CCCD
+     **/
+    public boolean setNotificationsEnabled(UUID service, UUID characteristic, boolean enabled) {
+        if (resolve(service, characteristic, "setIndicationsState") == null) {
+            return false;
+        }
+        transport.setCharacteristicNotification(service, characteristic, enabled);
+        byte[] value = enabled ? NordicUart.ENABLE_NOTIFICATION_VALUE : NordicUart.DISABLE_NOTIFICATION_VALUE;
+        return enqueue(new GattOperation(GattOperation.TYPE_DESCRIPTOR_WRITE,
+                () -> transport.writeDescriptor(service, characteristic, NordicUart.CCCD, value), null), "setIndicationsState");
+    }
+
+    /**
+     * Write UART data of any length, split into MTU sized writes without response.
+     * The callback runs once, after the last chunk or on the first failed one.
+     **/
+    public boolean writeUart(byte[] data, GattOperation.Callback callback) {
+        CharacteristicHandle rx = uartRxHandle;
+        if (!checkHandle(rx, "writeUart")) {
+            return false;
+        }
+        return enqueueUartChunks(rx, Arrays.asList(uartFragmenter.fragment(data)), callback, "writeUart");
+    }
+
+    // all chunks or none; the callback runs once, after the last chunk or on the first failed one
+    private boolean enqueueUartChunks(CharacteristicHandle rx, List<byte[]> chunks, GattOperation.Callback callback, String caller) {
+        GattOperation.Callback chunkCallback = callback == null ? null : new GattOperation.Callback() {
+            private int remaining = chunks.size();
+
+            @Override
+            public synchronized void onComplete(GattOperation operation, int status) {
+                if (remaining > 0 && (status != GattOperation.STATUS_SUCCESS || --remaining == 0)) {
+                    remaining = 0;
+                    callback.onComplete(operation, status);
+                }
+            }
+        };
+        List<GattOperation> operations = new ArrayList<>(chunks.size());
+        for (byte[] chunk : chunks) {
+            operations.add(newWriteOperation(rx, chunk, GattTransport.WRITE_TYPE_NO_RESPONSE, chunkCallback));
+        }
+        if (!operationQueue.enqueueAll(operations)) {
+            listener.onConsoleMessage(this, caller + ": operation queue full");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Decode UART notifications with the peripheral's framing and pass whole frames to
+     * frameListener on the transport thread, in a buffer the codec reuses. null goes back to
+     * the RX ring or UART messages.
+     **/
+    public void setFrameCodec(FrameCodec codec, FrameCodec.FrameListener frameListener) {
+        this.frameCodec = null;
+        this.frameListener = frameListener;
+        if (codec != null) {
+            codec.reset();
+        }
+        this.frameCodec = codec;
+    }
+
+    public FrameCodec getFrameCodec() {
+        return frameCodec;
+    }
+
+    /**
+     * Decode UART notifications as UTF-8 text and pass whole lines to the decoder's listener on
+     * the transport thread, for peripherals that talk in lines. A frame codec, link or mux goes
+     * first; null goes back to the RX ring or UART messages.
+     **/
+    public void setLineDecoder(LineDecoder decoder) {
+        if (decoder != null) {
+            decoder.reset();
+        }
+        lineDecoder = decoder;
+    }
+
+    public LineDecoder getLineDecoder() {
+        return lineDecoder;
+    }
+
+    /**
+     * Encode one frame with the codec and write it in MTU sized writes without response.
+     * The callback runs once, after the last chunk or on the first failed one.
+     **/
+    public boolean writeFrame(byte[] payload, int offset, int length, GattOperation.Callback callback) {
+        FrameCodec codec = frameCodec;
+        if (codec == null) {
+            listener.onConsoleMessage(this, "writeFrame: no frame codec");
+            return false;
+        }
+        CharacteristicHandle rx = uartRxHandle;
+        if (!checkHandle(rx, "writeFrame")) {
+            return false;
+        }
+        List<byte[]> chunks;
+        synchronized (frameWriter) {
+            frameWriter.setMtu(mtu);
+            codec.encode(payload, offset, length, frameWriter);
+            frameWriter.flush();
+            chunks = new ArrayList<>(frameChunks);
+            frameChunks.clear();
+        }
+        return enqueueUartChunks(rx, chunks, callback, "writeFrame");
+    }
+
+    /**
+     * Talk to the peripheral in commands and responses framed with codec, with many requests
+     * in flight. Responses complete on the transport thread. The client fails its pending
+     * requests and is dropped when the connection ends.
+     **/
+    public RpcClient enableRpc(FrameCodec codec) {
+        RpcClient client = new RpcClient((frame, offset, length) -> writeFrame(frame, offset, length, null), timer);
+        RpcClient previous = rpcClient;
+        rpcClient = client;
+        setFrameCodec(codec, client);
+        if (previous != null) {
+            previous.close();
+        }
+        return client;
+    }
+
+    public void disableRpc() {
+        RpcClient client = rpcClient;
+        rpcClient = null;
+        if (client != null) {
+            if (frameListener == client) {
+                setFrameCodec(null, null);
+            }
+            client.close();
+        }
+    }
+
+    public RpcClient getRpcClient() {
+        return rpcClient;
+    }
+
+    /**
+     * Split UART data into writes for the current MTU, for callers that schedule the chunks
+     * themselves with {@link #writeUartChunk}
+     **/
+    public byte[][] fragmentUart(byte[] data) {
+        return uartFragmenter.fragment(data);
+    }
+
+    // one write without response of at most MTU - 3 bytes
+    public boolean writeUartChunk(byte[] chunk, GattOperation.Callback callback) {
+        CharacteristicHandle rx = uartRxHandle;
+        if (!checkHandle(rx, "writeUartChunk")) {
+            return false;
+        }
+        return enqueue(newWriteOperation(rx, chunk, GattTransport.WRITE_TYPE_NO_RESPONSE, callback), "writeUartChunk");
+    }
+
+    /**
+     * Open the UART as a blocking byte channel, for use from a worker thread. Incoming data is
+     * buffered in the RX ring (enabled here if needed) and reads end when the link drops.
+     **/
+    public UartChannel openUartChannel() {
+        RxRingBuffer buffer = uartRxBuffer;
+        if (buffer == null || buffer.isClosed()) {
+            buffer = enableRxBuffer(DEFAULT_STREAM_BUFFER_SIZE, RxRingBuffer.OverflowPolicy.BLOCK);
+        }
+        return new UartChannel(buffer, new UartStream());
+    }
+
+    /**
+     * A UART channel's writes. Chunks fail after send has returned, e.g. by timeout or a
+     * disconnect; the first failure is kept for the channel's next write or close.
+     **/
+    private class UartStream implements UartSink {
+        private volatile int failedStatus = GattOperation.STATUS_SUCCESS;
+
+        private final GattOperation.Callback chunkCallback = (operation, status) -> {
+            if (status != GattOperation.STATUS_SUCCESS && failedStatus == GattOperation.STATUS_SUCCESS) {
+                failedStatus = status;
+            }
+        };
+
+        // stream writes carry no message boundaries, so no terminating empty chunk
+        @Override
+        public boolean send(byte[] data, int offset, int length, long timeoutMs) throws InterruptedException {
+            CharacteristicHandle rx = uartRxHandle;
+            if (!checkHandle(rx, "sendUartStream")) {
+                return false;
+            }
+            for (byte[] chunk : uartFragmenter.fragment(data, offset, length, false)) {
+                GattOperation operation = newWriteOperation(rx, chunk, GattTransport.WRITE_TYPE_NO_RESPONSE, chunkCallback);
+                if (!connected || !operationQueue.enqueue(operation, timeoutMs)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public void checkError() throws IOException {
+            int status = failedStatus;
+            if (status != GattOperation.STATUS_SUCCESS) {
+                failedStatus = GattOperation.STATUS_SUCCESS;
+                throw new IOException("UART write failed, status " + status);
+            }
+        }
+    }
+
+    /**
+     * Run the UART through a {@link ReliableLink}: frames with sequence numbers and a CRC, acked
+     * and resent as needed, at the pace of writes without response. The peripheral must speak the
+     * same protocol. Start it once notifications are on, it ends with the connection.
+     **/
+    public ReliableLink enableReliableLink(ReliableLink.Listener linkListener) {
+        ReliableLink link = new ReliableLink(frame -> sendUartPacket(frame, null), linkListener, timer);
+        link.setMtu(mtu);
+        ReliableLink previous = reliableLink;
+        reliableLink = link;
+        if (previous != null) {
+            previous.close();
+        }
+        return link;
+    }
+
+    public void disableReliableLink() {
+        ReliableLink link = reliableLink;
+        reliableLink = null;
+        if (link != null) {
+            link.close();
+        }
+    }
+
+    public ReliableLink getReliableLink() {
+        return reliableLink;
+    }
+
+    /**
+     * Like {@link #openUartChannel}, over a new reliable link: every byte arrives once and in
+     * order. When the RX ring is full, frames are left unacknowledged instead of dropped.
+     **/
+    public UartChannel openReliableChannel() {
+        RxRingBuffer buffer = enableRxBuffer(DEFAULT_STREAM_BUFFER_SIZE, RxRingBuffer.OverflowPolicy.DROP_NEWEST);
+        ReliableLink link = enableReliableLink((data, offset, length) -> {
+            if (buffer.capacity() - buffer.available() < length) {
+                return false;
+            }
+            buffer.write(data, offset, length);
+            return true;
+        });
+        return new UartChannel(buffer, link);
+    }
+
+    /**
+     * Pace every UART write to the peripheral's buffer by a token bucket of bytesPerSecond and
+     * burst, or by the credits it advertises when credits is set and the firmware sends them
+     **/
+    public TxPacer enableTxPacing(long bytesPerSecond, int burst, boolean credits) {
+        TxPacer pacer = txPacer;
+        if (pacer != null && pacer.isCreditsEnabled() == credits) {
+            pacer.setRate(bytesPerSecond, burst);
+            return pacer;
+        }
+        disableTxPacing();
+        pacer = new TxPacer(timer, bytesPerSecond, burst, credits);
+        txPacer = pacer;
+        operationQueue.setPacer(pacer);
+        return pacer;
+    }
+
+    public void disableTxPacing() {
+        TxPacer pacer = txPacer;
+        txPacer = null;
+        if (pacer != null) {
+            operationQueue.setPacer(null);
+            // releases a write the pacer still holds back
+            pacer.close();
+        }
+    }
+
+    public TxPacer getTxPacer() {
+        return txPacer;
+    }
+
+    /**
+     * Carry several logical channels over the UART, each with its own priority and flow control.
+     * The peripheral must open the same channels. Start it once notifications are on, it ends
+     * with the connection.
+     **/
+    public ChannelMux enableChannelMux() {
+        ChannelMux mux = new ChannelMux((packet, sent) -> sendUartPacket(packet, (operation, status) -> sent.run()), timer);
+        mux.setMtu(mtu);
+        ChannelMux previous = channelMux;
+        channelMux = mux;
+        if (previous != null) {
+            previous.close();
+        }
+        return mux;
+    }
+
+    public void disableChannelMux() {
+        ChannelMux mux = channelMux;
+        channelMux = null;
+        if (mux != null) {
+            mux.close();
+        }
+    }
+
+    public ChannelMux getChannelMux() {
+        return channelMux;
+    }
+
+    // no console messages here, the layers above recover or retry packets that did not get out
+    private boolean sendUartPacket(byte[] packet, GattOperation.Callback callback) {
+        CharacteristicHandle rx = uartRxHandle;
+        return connected && rx != null
+                && operationQueue.enqueue(newWriteOperation(rx, packet, GattTransport.WRITE_TYPE_NO_RESPONSE, callback));
+    }
+
+    private CharacteristicHandle resolve(UUID service, UUID characteristic, String caller) {
+        if (!connected) {
+            listener.onConsoleMessage(this, caller + ": not connected");
+            return null;
+        }
+        CharacteristicHandle handle = getCharacteristic(service, characteristic);
+        if (handle == null) {
+            listener.onConsoleMessage(this, caller + ": gattChar null");
+        }
+        return handle;
+    }
+
+    private boolean checkHandle(CharacteristicHandle handle, String caller) {
+        if (!connected) {
+            listener.onConsoleMessage(this, caller + ": not connected");
+            return false;
+        }
+        if (handle == null) {
+            listener.onConsoleMessage(this, caller + ": gattChar null");
+            return false;
+        }
+        if (handle.generation != handleGeneration) {
+            listener.onConsoleMessage(this, caller + ": stale handle, services changed");
+            return false;
+        }
+        return true;
+    }
+
+    // resolve every characteristic once, lookups after this are a single map get
+    private void cacheHandles() {
+        Map<UUID, CharacteristicHandle> resolved = new HashMap<>();
+        int generation = handleGeneration;
+        for (CharacteristicHandle handle : transport.getCharacteristics()) {
+            handle.generation = generation;
+            // a UUID used in two services keeps its first occurrence
+            if (!resolved.containsKey(handle.getUuid())) {
+                resolved.put(handle.getUuid(), handle);
+            }
+        }
+        handles = resolved;
+        CharacteristicHandle rx = resolved.get(NordicUart.RX);
+        uartRxHandle = rx != null && rx.getServiceUuid().equals(NordicUart.SERVICE) ? rx : null;
+    }
+
+    private void invalidateHandles() {
+        handles = Collections.emptyMap();
+        uartRxHandle = null;
+        handleGeneration++;
+    }
+
+    private boolean enqueue(GattOperation operation, String caller) {
+        if (!operationQueue.enqueue(operation)) {
+            listener.onConsoleMessage(this, caller + ": operation queue full");
+            return false;
+        }
+        return true;
+    }
+
+    private GattOperation newWriteOperation(CharacteristicHandle handle, byte[] value, int writeType, GattOperation.Callback callback) {
+        int type = writeType == GattTransport.WRITE_TYPE_NO_RESPONSE
+                ? GattOperation.TYPE_WRITE_NO_RESPONSE : GattOperation.TYPE_WRITE;
+        GattOperation operation = new GattOperation(type, () -> {
+            if (!transport.writeCharacteristic(handle, value, writeType)) {
+                return false;
+            }
+            metrics.onTx(value.length);
+            TrafficTap tap = trafficTap;
+            if (tap != null) {
+                tap.onTx(handle.getServiceUuid(), handle.getUuid(), value);
+            }
+            return true;
+        }, callback);
+        if (NordicUart.RX.equals(handle.getUuid())) {
+            // every path to the peripheral's buffer goes through the pacer, if there is one
+            operation.pacedBytes = value.length;
+        }
+        return operation;
+    }
+
+    private void setMtu(int value) {
+        mtu = value;
+        uartFragmenter.setMtu(value);
+        uartReassembler.setMtu(value);
+        ReliableLink link = reliableLink;
+        if (link != null) {
+            link.setMtu(value);
+        }
+        ChannelMux mux = channelMux;
+        if (mux != null) {
+            mux.setMtu(value);
+        }
+    }
+
+    // what ends with the connection
+    private void tearDown() {
+        invalidateHandles();
+        operationQueue.clear(GattOperation.STATUS_CANCELLED);
+        disableReliableLink();
+        disableChannelMux();
+        disableRpc();
+        TxPacer pacer = txPacer;
+        if (pacer != null) {
+            // credits belong to the connection
+            pacer.reset();
+        }
+        FrameCodec codec = frameCodec;
+        if (codec != null) {
+            codec.reset();
+        }
+        LineDecoder lines = lineDecoder;
+        if (lines != null) {
+            // a line cut off by the disconnect is not passed on
+            lines.reset();
+        }
+        uartReassembler.reset();
+        rxSignalPending.set(false);
+        setMtu(UartFragmenter.DEFAULT_MTU);
+        linkParameters = LinkParameters.DEFAULT;
+        RxRingBuffer rxBuffer = uartRxBuffer;
+        if (rxBuffer != null) {
+            // end of stream for UART channel readers
+            rxBuffer.close();
+        }
+    }
+
+    /************************ TRANSPORT CALLBACK **************************/
+
+    @Override
+    public void onConnectionStateChange(boolean isConnected, int status) {
+        long started = connectStartNanos;
+        connectStartNanos = 0;
+        if (status != GattTransport.STATUS_SUCCESS) {
+            metrics.recordError(status);
+        }
+        if (isConnected) {
+            if (started != 0) {
+                metrics.recordLatency(GattMetrics.OP_CONNECT, System.nanoTime() - started);
+            }
+            connected = true;
+            RxRingBuffer rxBuffer = uartRxBuffer;
+            if (rxBuffer != null && rxBuffer.isClosed()) {
+                // the last link's stream has ended, start a fresh one with the same settings
+                uartRxBuffer = new RxRingBuffer(rxBuffer.capacity(), rxBuffer.getPolicy());
+            }
+        } else {
+            connected = false;
+            tearDown();
+        }
+        listener.onConnectionStateChange(this, isConnected);
+    }
+
+    @Override
+    public void onServicesDiscovered(int status) {
+        long started = discoveryStartNanos;
+        discoveryStartNanos = 0;
+        if (status == GattTransport.STATUS_SUCCESS) {
+            if (started != 0) {
+                metrics.recordLatency(GattMetrics.OP_DISCOVER, System.nanoTime() - started);
+            }
+            cacheHandles();
+        } else {
+            metrics.recordError(status);
+        }
+        listener.onServicesDiscovered(this, status);
+        //Without this the esp32 is only able to receive maximum 20 bytes
+        enqueue(new GattOperation(GattOperation.TYPE_MTU_REQUEST, () -> transport.requestMtu(requestedMtu), null), "requestMtu");
+    }
+
+    @Override
+    public void onMtuChanged(int newMtu, int status) {
+        if (status == GattTransport.STATUS_SUCCESS) {
+            setMtu(newMtu);
+            listener.onMtuChanged(this, newMtu);
+        }
+        operationQueue.onOperationComplete(GattOperation.TYPE_MTU_REQUEST, status);
+    }
+
+    @Override
+    public void onCharacteristicRead(UUID service, UUID characteristic, byte[] value, int status) {
+        listener.onCharacteristicRead(this, service, characteristic, value, status);
+        // complete last, the next queued operation may reuse the characteristic value
+        operationQueue.onOperationComplete(GattOperation.TYPE_READ, status);
+    }
+
+    @Override
+    public void onCharacteristicWrite(UUID service, UUID characteristic, byte[] value, int status) {
+        listener.onCharacteristicWrite(this, service, characteristic, value, status);
+        operationQueue.onOperationComplete(GattOperation.TYPE_WRITE, status);
+    }
+
+    @Override
+    public void onDescriptorWrite(UUID service, UUID characteristic, UUID descriptor, int status) {
+        operationQueue.onOperationComplete(GattOperation.TYPE_DESCRIPTOR_WRITE, status);
+    }
+
+    @Override
+    public void onServiceChanged() {
+        invalidateHandles();
+        listener.onConsoleMessage(this, "Services changed, rediscovering");
+        discoveryStartNanos = System.nanoTime();
+        transport.discoverServices();
+    }
+
+    @Override
+    public void onPhyUpdate(int txPhy, int rxPhy, int status) {
+        if (status == GattTransport.STATUS_SUCCESS) {
+            linkParameters = linkParameters.withPhy(txPhy, rxPhy);
+            listener.onLinkParametersChanged(this, linkParameters);
+        }
+    }
+
+    @Override
+    public void onConnectionUpdated(int interval, int latency, int timeout, int status) {
+        if (status == GattTransport.STATUS_SUCCESS) {
+            linkParameters = linkParameters.withConnection(interval * 1250, latency, timeout * 10);
+            listener.onLinkParametersChanged(this, linkParameters);
+        }
+    }
+
+    @Override
+    public void onCharacteristicChanged(UUID service, UUID characteristic, byte[] value) {
+        // hot path: no logging, strings or allocations per packet
+        metrics.onRx(value.length);
+        TrafficTap tap = trafficTap;
+        if (tap != null) {
+            tap.onRx(service, characteristic, value);
+        }
+        TxPacer pacer = txPacer;
+        if (pacer != null && pacer.isCreditsEnabled() && TxPacer.isCreditPacket(value)
+                && NordicUart.TX.equals(characteristic)) {
+            pacer.onCreditPacket(value);
+            return;
+        }
+        ReliableLink link = reliableLink;
+        if (link != null && NordicUart.TX.equals(characteristic)) {
+            link.onFrame(value, 0, value.length);
+            return;
+        }
+        ChannelMux mux = channelMux;
+        if (mux != null && NordicUart.TX.equals(characteristic)) {
+            mux.onPacket(value, 0, value.length);
+            return;
+        }
+        FrameCodec codec = frameCodec;
+        if (codec != null && NordicUart.TX.equals(characteristic)) {
+            codec.decode(value, 0, value.length, frameListener);
+            return;
+        }
+        LineDecoder lines = lineDecoder;
+        if (lines != null && NordicUart.TX.equals(characteristic)) {
+            lines.decode(value, 0, value.length);
+            return;
+        }
+        RxRingBuffer rxBuffer = uartRxBuffer;
+        if (rxBuffer != null && NordicUart.TX.equals(characteristic)) {
+            if (!rxSignalPending.get()) {
+                // a reader picks this up after the signal, measured from here
+                rxPendingSinceNanos = System.nanoTime();
+            }
+            rxBuffer.write(value, 0, value.length);
+            if (rxSignalPending.compareAndSet(false, true)) {
+                listener.onRxDataAvailable(this);
+            }
+            return;
+        }
+        if (notificationDispatcher.dispatch(characteristic, value)) {
+            return;
+        }
+        if (NordicUart.TX.equals(characteristic)) {
+            // UART data is delivered as whole messages
+            uartReassembler.onPacket(value);
+            return;
+        }
+        listener.onNotification(this, service, characteristic, value);
+    }
+}
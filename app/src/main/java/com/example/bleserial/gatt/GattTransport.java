@@ -0,0 +1,91 @@
+package com.example.bleserial.gatt;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * The GATT client operations {@link GattSession} needs, so a session can run on the Android
+ * stack or on an in-process fake. Calls return false if the operation could not be started,
+ * results arrive on the {@link Callback} from the transport's own thread.
+ **/
+public interface GattTransport {
+    // same values as BluetoothGatt / BluetoothGattCharacteristic
+    int STATUS_SUCCESS = 0;
+    int STATUS_FAILURE = 257;
+    int WRITE_TYPE_NO_RESPONSE = 1;
+    int WRITE_TYPE_DEFAULT = 2;
+    int CONNECTION_PRIORITY_BALANCED = 0;
+    int CONNECTION_PRIORITY_HIGH = 1;
+    int CONNECTION_PRIORITY_LOW_POWER = 2;
+    // same values as BluetoothDevice.PHY_*
+    int PHY_LE_1M = 1;
+    int PHY_LE_2M = 2;
+    int PHY_LE_CODED = 3;
+    int PHY_LE_1M_MASK = 1;
+    int PHY_LE_2M_MASK = 2;
+
+    interface Callback {
+        void onConnectionStateChange(boolean connected, int status);
+
+        void onServicesDiscovered(int status);
+
+        void onMtuChanged(int mtu, int status);
+
+        void onCharacteristicRead(UUID service, UUID characteristic, byte[] value, int status);
+
+        void onCharacteristicWrite(UUID service, UUID characteristic, byte[] value, int status);
+
+        void onDescriptorWrite(UUID service, UUID characteristic, UUID descriptor, int status);
+
+        // the peripheral changed its GATT database, handles are stale until rediscovery
+        void onServiceChanged();
+
+        void onPhyUpdate(int txPhy, int rxPhy, int status);
+
+        // interval in 1.25 ms units, supervision timeout in 10 ms units
+        void onConnectionUpdated(int interval, int latency, int timeout, int status);
+
+        // value may be reused by the transport once this returns
+        void onCharacteristicChanged(UUID service, UUID characteristic, byte[] value);
+    }
+
+    // device address, e.g. the MAC of the peripheral
+    String getAddress();
+
+    boolean connect(Callback callback);
+
+    void disconnect();
+
+    // release the transport once disconnected
+    void close();
+
+    boolean discoverServices();
+
+    List<UUID> getServiceUuids();
+
+    boolean hasCharacteristic(UUID service, UUID characteristic);
+
+    // every characteristic found by the last discovery, resolved for the handle overloads below
+    List<CharacteristicHandle> getCharacteristics();
+
+    boolean requestMtu(int mtu);
+
+    boolean readCharacteristic(UUID service, UUID characteristic);
+
+    boolean writeCharacteristic(UUID service, UUID characteristic, byte[] value, int writeType);
+
+    boolean readCharacteristic(CharacteristicHandle characteristic);
+
+    boolean writeCharacteristic(CharacteristicHandle characteristic, byte[] value, int writeType);
+
+    // one of CONNECTION_PRIORITY_*, the controller picks the actual interval
+    boolean requestConnectionPriority(int priority);
+
+    // PHY_LE_*_MASK combinations, the result arrives in onPhyUpdate
+    boolean setPreferredPhy(int txPhyMask, int rxPhyMask);
+
+    // local switch, does not touch the link
+    boolean setCharacteristicNotification(UUID service, UUID characteristic, boolean enabled);
+
+    boolean writeDescriptor(UUID service, UUID characteristic, UUID descriptor, byte[] value);
+}
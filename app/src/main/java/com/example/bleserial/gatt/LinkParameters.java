@@ -0,0 +1,70 @@
+package com.example.bleserial.gatt;
+
+import java.util.Locale;
+
+/**
+ * Link settings as negotiated by the controllers, not as requested
+ **/
+public final class LinkParameters {
+    public static final LinkParameters DEFAULT = new LinkParameters(GattTransport.PHY_LE_1M, GattTransport.PHY_LE_1M, 0, 0, 0);
+
+    private final int txPhy;
+    private final int rxPhy;
+    // 0 until the controller reports it
+    private final int intervalMicros;
+    private final int latency;
+    private final int supervisionTimeoutMs;
+
+    public LinkParameters(int txPhy, int rxPhy, int intervalMicros, int latency, int supervisionTimeoutMs) {
+        this.txPhy = txPhy;
+        this.rxPhy = rxPhy;
+        this.intervalMicros = intervalMicros;
+        this.latency = latency;
+        this.supervisionTimeoutMs = supervisionTimeoutMs;
+    }
+
+    public int getTxPhy() {
+        return txPhy;
+    }
+
+    public int getRxPhy() {
+        return rxPhy;
+    }
+
+    public int getIntervalMicros() {
+        return intervalMicros;
+    }
+
+    public int getLatency() {
+        return latency;
+    }
+
+    public int getSupervisionTimeoutMs() {
+        return supervisionTimeoutMs;
+    }
+
+    LinkParameters withPhy(int txPhy, int rxPhy) {
+        return new LinkParameters(txPhy, rxPhy, intervalMicros, latency, supervisionTimeoutMs);
+    }
+
+    LinkParameters withConnection(int intervalMicros, int latency, int supervisionTimeoutMs) {
+        return new LinkParameters(txPhy, rxPhy, intervalMicros, latency, supervisionTimeoutMs);
+    }
+
+    private static String phyName(int phy) {
+        switch (phy) {
+            case GattTransport.PHY_LE_2M:
+                return "2M";
+            case GattTransport.PHY_LE_CODED:
+                return "Coded";
+            default:
+                return "1M";
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "PHY %s/%s, interval %.2f ms, latency %d, timeout %d ms",
+                phyName(txPhy), phyName(rxPhy), intervalMicros / 1000.0, latency, supervisionTimeoutMs);
+    }
+}
@@ -0,0 +1,181 @@
+package com.example.bleserial.gatt;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Adapts the connection priority and PHY of a session to its traffic.
+ * <p>
+ * While writes are queued, data is flowing or a transfer holds it busy, the link runs at high
+ * priority on the 2M PHY. After idleTimeout without traffic it drops back to balanced on 1M,
+ * and after lowPowerTimeout to low power. The traffic is sampled every sample interval, which
+ * also gives the throughput figures.
+ **/
+public class LinkTuner {
+    public static final long DEFAULT_SAMPLE_INTERVAL_MS = 250;
+    public static final int DEFAULT_BUSY_QUEUE_DEPTH = 2;
+    public static final long DEFAULT_BUSY_BYTES_PER_SECOND = 2000;
+    public static final long DEFAULT_IDLE_TIMEOUT_MS = 2000;
+    public static final long DEFAULT_LOW_POWER_TIMEOUT_MS = 30000;
+
+    // no priority requested yet on this connection
+    public static final int PRIORITY_UNKNOWN = -1;
+
+    public interface Listener {
+        // called on the timer thread after every priority change
+        void onLinkTuned(GattSession session, int priority, ThroughputSnapshot throughput);
+    }
+
+    private final GattSession session;
+    private final ScheduledExecutorService timer;
+    private volatile Listener listener;
+
+    private long sampleIntervalMs = DEFAULT_SAMPLE_INTERVAL_MS;
+    private int busyQueueDepth = DEFAULT_BUSY_QUEUE_DEPTH;
+    private long busyBytesPerSecond = DEFAULT_BUSY_BYTES_PER_SECOND;
+    private long idleTimeoutMs = DEFAULT_IDLE_TIMEOUT_MS;
+    private long lowPowerTimeoutMs = DEFAULT_LOW_POWER_TIMEOUT_MS;
+
+    private final AtomicInteger transfers = new AtomicInteger();
+    private ScheduledFuture<?> sampler;
+    private volatile int priority = PRIORITY_UNKNOWN;
+    private volatile ThroughputSnapshot throughput;
+    private long lastSampleNanos;
+    private long lastTxBytes;
+    private long lastRxBytes;
+    private long lastBusyNanos;
+
+    public LinkTuner(GattSession session, ScheduledExecutorService timer) {
+        this.session = session;
+        this.timer = timer;
+        this.throughput = new ThroughputSnapshot(session.getTransport().getAddress(), 0, 0, 0, 0);
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public synchronized void setSampleInterval(long interval, TimeUnit unit) {
+        sampleIntervalMs = unit.toMillis(interval);
+    }
+
+    // pending operations that count as a busy link
+    public synchronized void setBusyQueueDepth(int busyQueueDepth) {
+        this.busyQueueDepth = busyQueueDepth;
+    }
+
+    // tx plus rx rate that counts as a busy link
+    public synchronized void setBusyBytesPerSecond(long busyBytesPerSecond) {
+        this.busyBytesPerSecond = busyBytesPerSecond;
+    }
+
+    public synchronized void setIdleTimeouts(long idleTimeout, long lowPowerTimeout, TimeUnit unit) {
+        idleTimeoutMs = unit.toMillis(idleTimeout);
+        lowPowerTimeoutMs = unit.toMillis(lowPowerTimeout);
+    }
+
+    public synchronized void start() {
+        if (sampler != null) {
+            return;
+        }
+        lastSampleNanos = System.nanoTime();
+        lastBusyNanos = lastSampleNanos;
+        lastTxBytes = session.getTxBytes();
+        lastRxBytes = session.getRxBytes();
+        sampler = timer.scheduleAtFixedRate(this::sample, sampleIntervalMs, sampleIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (sampler != null) {
+            sampler.cancel(false);
+            sampler = null;
+        }
+    }
+
+    /**
+     * Keep the link fast for a bulk transfer, whatever the traffic looks like in between.
+     * Every call needs a matching {@link #endTransfer()}.
+     **/
+    public void beginTransfer() {
+        if (transfers.getAndIncrement() == 0) {
+            timer.execute(this::sample);
+        }
+    }
+
+    public void endTransfer() {
+        transfers.decrementAndGet();
+    }
+
+    // last CONNECTION_PRIORITY_* requested, or PRIORITY_UNKNOWN
+    public int getPriority() {
+        return priority;
+    }
+
+    // rates over the last sample interval
+    public ThroughputSnapshot getThroughput() {
+        return throughput;
+    }
+
+    public LinkParameters getLinkParameters() {
+        return session.getLinkParameters();
+    }
+
+    private synchronized void sample() {
+        long now = System.nanoTime();
+        long tx = session.getTxBytes();
+        long rx = session.getRxBytes();
+        double seconds = Math.max(1, now - lastSampleNanos) / (double) TimeUnit.SECONDS.toNanos(1);
+        double txRate = (tx - lastTxBytes) / seconds;
+        double rxRate = (rx - lastRxBytes) / seconds;
+        lastSampleNanos = now;
+        lastTxBytes = tx;
+        lastRxBytes = rx;
+        throughput = new ThroughputSnapshot(session.getTransport().getAddress(), tx, rx, txRate, rxRate);
+
+        if (!session.isConnected()) {
+            // a new connection starts from the controller defaults
+            priority = PRIORITY_UNKNOWN;
+            lastBusyNanos = now;
+            return;
+        }
+
+        boolean busy = transfers.get() > 0
+                || session.getPendingOperationCount() >= busyQueueDepth
+                || txRate + rxRate >= busyBytesPerSecond;
+        int target;
+        if (busy) {
+            lastBusyNanos = now;
+            target = GattTransport.CONNECTION_PRIORITY_HIGH;
+        } else {
+            long idleMs = TimeUnit.NANOSECONDS.toMillis(now - lastBusyNanos);
+            if (idleMs >= lowPowerTimeoutMs) {
+                target = GattTransport.CONNECTION_PRIORITY_LOW_POWER;
+            } else if (idleMs >= idleTimeoutMs || priority == PRIORITY_UNKNOWN) {
+                target = GattTransport.CONNECTION_PRIORITY_BALANCED;
+            } else {
+                target = priority;
+            }
+        }
+        if (target != priority && apply(target)) {
+            Listener l = listener;
+            if (l != null) {
+                l.onLinkTuned(session, target, throughput);
+            }
+        }
+    }
+
+    private boolean apply(int target) {
+        if (!session.requestConnectionPriority(target)) {
+            return false;
+        }
+        priority = target;
+        // 2M halves the air time per packet, 1M keeps the range when little is sent
+        int phyMask = target == GattTransport.CONNECTION_PRIORITY_HIGH
+                ? GattTransport.PHY_LE_2M_MASK | GattTransport.PHY_LE_1M_MASK
+                : GattTransport.PHY_LE_1M_MASK;
+        session.setPreferredPhy(phyMask, phyMask);
+        return true;
+    }
+}
@@ -0,0 +1,61 @@
+package com.example.bleserial.gatt;
+
+import java.util.UUID;
+
+/**
+ * Hands notifications to a typed listener without allocating per packet.
+ * <p>
+ * Characteristics are registered up front and identified by their index in the table,
+ * the payload is copied into one reused buffer. The listener must consume the bytes
+ * before returning, the buffer is overwritten by the next notification.
+ **/
+public class NotificationDispatcher {
+    public static final int UNKNOWN_CHARACTERISTIC = -1;
+    // largest value an ATT notification can carry (MTU 517 - 3)
+    public static final int MAX_VALUE_SIZE = 514;
+
+    public interface Listener {
+        void onNotification(int characteristicId, byte[] buffer, int offset, int length);
+    }
+
+    private final UUID[] characteristics;
+    private final byte[] buffer = new byte[MAX_VALUE_SIZE];
+    private volatile Listener listener;
+
+    public NotificationDispatcher(UUID... characteristics) {
+        this.characteristics = characteristics.clone();
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public boolean hasListener() {
+        return listener != null;
+    }
+
+    // id of a registered characteristic, UUID.equals compares the two longs and does not allocate
+    public int resolve(UUID uuid) {
+        for (int i = 0; i < characteristics.length; i++) {
+            if (characteristics[i].equals(uuid)) {
+                return i;
+            }
+        }
+        return UNKNOWN_CHARACTERISTIC;
+    }
+
+    /**
+     * Deliver one notification, returns false when no listener is set
+     **/
+    public boolean dispatch(UUID uuid, byte[] value) {
+        Listener l = listener;
+        if (l == null) {
+            return false;
+        }
+        int length = Math.min(value.length, buffer.length);
+        // callbacks for one connection arrive on a single binder thread, so one buffer is enough
+        System.arraycopy(value, 0, buffer, 0, length);
+        l.onNotification(resolve(uuid), buffer, 0, length);
+        return true;
+    }
+}
@@ -0,0 +1,51 @@
+package com.example.bleserial.gatt;
+
+import java.util.Locale;
+
+/**
+ * Bytes moved over one connection, or all of them, and the rates since the previous sample
+ **/
+public final class ThroughputSnapshot {
+    // address used for the sum over all connections
+    public static final String AGGREGATE = "all";
+
+    private final String address;
+    private final long txBytes;
+    private final long rxBytes;
+    private final double txBytesPerSecond;
+    private final double rxBytesPerSecond;
+
+    public ThroughputSnapshot(String address, long txBytes, long rxBytes, double txBytesPerSecond, double rxBytesPerSecond) {
+        this.address = address;
+        this.txBytes = txBytes;
+        this.rxBytes = rxBytes;
+        this.txBytesPerSecond = txBytesPerSecond;
+        this.rxBytesPerSecond = rxBytesPerSecond;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public long getTxBytes() {
+        return txBytes;
+    }
+
+    public long getRxBytes() {
+        return rxBytes;
+    }
+
+    public double getTxBytesPerSecond() {
+        return txBytesPerSecond;
+    }
+
+    public double getRxBytesPerSecond() {
+        return rxBytesPerSecond;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "%s: tx %d B (%.1f kB/s), rx %d B (%.1f kB/s)",
+                address, txBytes, txBytesPerSecond / 1000, rxBytes, rxBytesPerSecond / 1000);
+    }
+}
@@ -0,0 +1,209 @@
+package com.example.bleserial.gatt;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Paces UART writes to what the peripheral's receive buffer can take. The session's operation
+ * queue asks it before starting any write to the UART RX characteristic, whichever path queued
+ * the write.
+ * <p>
+ * A token bucket of bytesPerSecond with room for burst bytes paces the writes by default.
+ * Firmware that knows its buffer can advertise credits instead, when the app opts in with
+ * creditsEnabled: a TX notification of exactly [0xFF][0xC0][bytes u16 LE] grants that many more
+ * bytes, the buffer size once when notifications come on and then what the firmware has read
+ * since. From the first credit on, writes go out only against credit, which keeps the link busy
+ * exactly as fast as the device drains it. A write larger than the largest grant goes once that
+ * much credit is there, running the balance into debt that later credits pay off. The check sits in front of every TX consumer, so
+ * with credits on the firmware must never send such a notification as data. Credits start over
+ * with every connection, the bucket covers the time until the first one.
+ **/
+public class TxPacer {
+    public static final int CREDIT_PACKET_SIZE = 4;
+    public static final byte CREDIT_MARKER = (byte) 0xFF;
+    public static final byte CREDIT_TYPE = (byte) 0xC0;
+    public static final int DEFAULT_BURST = 2048;
+
+    private final ScheduledExecutorService timer;
+    private final boolean creditsEnabled;
+
+    // guarded by this
+    private long bytesPerSecond;
+    private int burst;
+    private double tokens;
+    private long refilledNanos;
+    private boolean creditMode = false;
+    private long credits = 0;
+    // largest single credit seen, what a small buffer can ever grant at once
+    private int largestGrant = 0;
+    private boolean closed = false;
+    // run once a refused write may go, by the next credit or the token timer
+    private Runnable pendingWake;
+    private boolean wakeScheduled = false;
+
+    private volatile long creditsReceived = 0;
+    private volatile long throttled = 0;
+
+    public TxPacer(ScheduledExecutorService timer, long bytesPerSecond, int burst, boolean creditsEnabled) {
+        this.timer = timer;
+        this.creditsEnabled = creditsEnabled;
+        setRate(bytesPerSecond, burst);
+    }
+
+    /**
+     * Token bucket, used until the peripheral sends credits if it does
+     **/
+    public synchronized void setRate(long bytesPerSecond, int burst) {
+        if (bytesPerSecond < 1 || burst < 1) {
+            throw new IllegalArgumentException("bytesPerSecond and burst must be >= 1");
+        }
+        this.bytesPerSecond = bytesPerSecond;
+        this.burst = burst;
+        this.tokens = burst;
+        this.refilledNanos = System.nanoTime();
+    }
+
+    public synchronized long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    public synchronized int getBurst() {
+        return burst;
+    }
+
+    // whether credit notifications are taken out of the TX stream at all
+    public boolean isCreditsEnabled() {
+        return creditsEnabled;
+    }
+
+    // true once the peripheral has sent a credit on this connection
+    public synchronized boolean isCreditMode() {
+        return creditMode;
+    }
+
+    public synchronized long getCredits() {
+        return credits;
+    }
+
+    public long getCreditsReceived() {
+        return creditsReceived;
+    }
+
+    // writes held back for lack of credit or tokens
+    public long getThrottled() {
+        return throttled;
+    }
+
+    public static boolean isCreditPacket(byte[] value) {
+        return value.length == CREDIT_PACKET_SIZE && value[0] == CREDIT_MARKER && value[1] == CREDIT_TYPE;
+    }
+
+    public void onCreditPacket(byte[] value) {
+        addCredit((value[2] & 0xFF) | (value[3] & 0xFF) << 8);
+    }
+
+    public void addCredit(int bytes) {
+        Runnable wake;
+        synchronized (this) {
+            if (!creditsEnabled) {
+                return;
+            }
+            creditMode = true;
+            credits += bytes;
+            largestGrant = Math.max(largestGrant, bytes);
+            creditsReceived += bytes;
+            wake = pendingWake;
+            pendingWake = null;
+        }
+        if (wake != null) {
+            wake.run();
+        }
+    }
+
+    /**
+     * Take permission to write bytes now. If refused, wake runs once when it may succeed.
+     **/
+    public boolean tryAcquire(int bytes, Runnable wake) {
+        long delayNanos;
+        synchronized (this) {
+            if (closed) {
+                return true;
+            }
+            if (creditMode) {
+                // like the bucket: a chunk larger than the device's buffer goes once it is empty
+                if (credits >= Math.min(bytes, largestGrant)) {
+                    credits -= bytes;
+                    return true;
+                }
+                throttled++;
+                pendingWake = wake;
+                return false;
+            }
+            long now = System.nanoTime();
+            tokens = Math.min(burst, tokens + (now - refilledNanos) * bytesPerSecond / 1e9);
+            refilledNanos = now;
+            // a chunk larger than the bucket goes once the bucket is full
+            double needed = Math.min(bytes, burst);
+            if (tokens >= needed) {
+                tokens -= bytes;
+                return true;
+            }
+            throttled++;
+            pendingWake = wake;
+            if (wakeScheduled) {
+                return false;
+            }
+            wakeScheduled = true;
+            delayNanos = (long) Math.ceil((needed - tokens) * 1e9 / bytesPerSecond);
+        }
+        try {
+            timer.schedule(this::onTokens, delayNanos, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            // timer gone with the service, nothing left to pace
+            close();
+        }
+        return false;
+    }
+
+    /**
+     * Back to the token bucket for a new connection, releasing a waiting writer
+     **/
+    public void reset() {
+        Runnable wake;
+        synchronized (this) {
+            creditMode = false;
+            credits = 0;
+            largestGrant = 0;
+            tokens = burst;
+            refilledNanos = System.nanoTime();
+            wake = pendingWake;
+            pendingWake = null;
+        }
+        if (wake != null) {
+            wake.run();
+        }
+    }
+
+    /**
+     * Stop pacing, every write may go from now on
+     **/
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        reset();
+    }
+
+    private void onTokens() {
+        Runnable wake;
+        synchronized (this) {
+            wakeScheduled = false;
+            wake = pendingWake;
+            pendingWake = null;
+        }
+        if (wake != null) {
+            wake.run();
+        }
+    }
+}
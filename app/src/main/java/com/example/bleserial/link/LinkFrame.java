@@ -0,0 +1,86 @@
+package com.example.bleserial.link;
+
+/**
+ * Frames of the reliable link, one per ATT packet, little endian.
+ * <p>
+ * A data frame is type (1 byte), sequence number (1), payload, CRC (2). An ack frame is type,
+ * the next sequence number expected (1), a 32 bit map of the frames after it that arrived out of
+ * order (bit i for expected + 1 + i) and the CRC. The CRC covers everything before it.
+ **/
+public final class LinkFrame {
+    public static final int TYPE_DATA = 0x01;
+    public static final int TYPE_ACK = 0x02;
+
+    public static final int HEADER_SIZE = 2;
+    public static final int CRC_SIZE = 2;
+    public static final int DATA_OVERHEAD = HEADER_SIZE + CRC_SIZE;
+    public static final int ACK_SIZE = HEADER_SIZE + 4 + CRC_SIZE;
+    // sequence numbers are one byte and wrap
+    public static final int SEQUENCE_SPACE = 256;
+
+    private LinkFrame() {
+    }
+
+    public static byte[] data(int sequence, byte[] payload, int offset, int length) {
+        byte[] frame = new byte[length + DATA_OVERHEAD];
+        frame[0] = TYPE_DATA;
+        frame[1] = (byte) sequence;
+        System.arraycopy(payload, offset, frame, HEADER_SIZE, length);
+        putCrc(frame);
+        return frame;
+    }
+
+    public static byte[] ack(int expected, int received) {
+        byte[] frame = new byte[ACK_SIZE];
+        frame[0] = TYPE_ACK;
+        frame[1] = (byte) expected;
+        frame[2] = (byte) received;
+        frame[3] = (byte) (received >>> 8);
+        frame[4] = (byte) (received >>> 16);
+        frame[5] = (byte) (received >>> 24);
+        putCrc(frame);
+        return frame;
+    }
+
+    /**
+     * True if the frame is long enough for its type and its CRC matches
+     **/
+    public static boolean isValid(byte[] frame, int offset, int length) {
+        if (length < DATA_OVERHEAD) {
+            return false;
+        }
+        int type = frame[offset] & 0xFF;
+        if (type != TYPE_DATA && (type != TYPE_ACK || length != ACK_SIZE)) {
+            return false;
+        }
+        int end = offset + length - CRC_SIZE;
+        int crc = (frame[end] & 0xFF) | (frame[end + 1] & 0xFF) << 8;
+        return crc == Crc16.compute(frame, offset, length - CRC_SIZE);
+    }
+
+    public static int getType(byte[] frame, int offset) {
+        return frame[offset] & 0xFF;
+    }
+
+    public static int getSequence(byte[] frame, int offset) {
+        return frame[offset + 1] & 0xFF;
+    }
+
+    // the out of order map of an ack frame
+    public static int getReceived(byte[] frame, int offset) {
+        return (frame[offset + 2] & 0xFF) | (frame[offset + 3] & 0xFF) << 8
+                | (frame[offset + 4] & 0xFF) << 16 | (frame[offset + 5] & 0xFF) << 24;
+    }
+
+    // distance from sequence number from to to, going forward
+    static int distance(int from, int to) {
+        return (to - from) & (SEQUENCE_SPACE - 1);
+    }
+
+    private static void putCrc(byte[] frame) {
+        int end = frame.length - CRC_SIZE;
+        int crc = Crc16.compute(frame, 0, end);
+        frame[end] = (byte) crc;
+        frame[end + 1] = (byte) (crc >>> 8);
+    }
+}
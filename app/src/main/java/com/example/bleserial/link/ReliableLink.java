@@ -0,0 +1,515 @@
+package com.example.bleserial.link;
+
+import com.example.bleserial.uart.UartFragmenter;
+import com.example.bleserial.uart.UartSink;
+
+import java.util.Arrays;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A reliable, ordered byte stream over packets that may be lost: writes without response one
+ * way, notifications the other.
+ * <p>
+ * Selective repeat: every data frame carries a sequence number and a CRC, and up to window
+ * frames may be unacknowledged at once. The receiver acknowledges cumulatively, plus a map of
+ * the frames it holds beyond a gap. The sender resends a frame as soon as three frames sent after
+ * it are reported, or when the retransmission timeout, adapted to the measured round trip, runs out.
+ * While data arrives in order acks are held back for ackDelay or a quarter window, so the
+ * reverse direction carries few packets.
+ * <p>
+ * The same class runs on both ends. Sequence numbers start at 0, so both ends must start a
+ * fresh link together, e.g. right after notifications are enabled.
+ **/
+public class ReliableLink implements UartSink {
+    // the out of order map of an ack covers 32 frames
+    public static final int MAX_WINDOW = 32;
+    public static final long DEFAULT_ACK_DELAY_MS = 10;
+    public static final long DEFAULT_MIN_RETRANSMIT_TIMEOUT_MS = 50;
+    public static final long INITIAL_RETRANSMIT_TIMEOUT_MS = 500;
+    public static final long MAX_RETRANSMIT_TIMEOUT_MS = 4000;
+    public static final int DEFAULT_MAX_RETRIES = 10;
+    // later frames that must arrive before a missing one counts as lost, as TCP's duplicate ack threshold
+    public static final int REORDER_THRESHOLD = 3;
+
+    private static final int MASK = LinkFrame.SEQUENCE_SPACE - 1;
+
+    /**
+     * Where frames go, one frame per packet
+     **/
+    public interface Output {
+        // false if the frame could not be queued, it is then treated as lost
+        boolean sendFrame(byte[] frame);
+    }
+
+    public interface Listener {
+        /**
+         * In order payload, the buffer is reused. Return false if there is no room for it, the
+         * frame is then dropped unacknowledged and the peer sends it again.
+         **/
+        boolean onData(byte[] buffer, int offset, int length);
+
+        // a frame went unacknowledged max retries times, the link is closed
+        default void onLinkFailed(ReliableLink link) {
+        }
+    }
+
+    private final Output output;
+    private final Listener listener;
+    private final ScheduledExecutorService timer;
+
+    private int window = MAX_WINDOW;
+    private long ackDelayNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_ACK_DELAY_MS);
+    private long minRtoNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_MIN_RETRANSMIT_TIMEOUT_MS);
+    private int maxRetries = DEFAULT_MAX_RETRIES;
+    private volatile int payloadSize = UartFragmenter.payloadSizeForMtu(UartFragmenter.DEFAULT_MTU) - LinkFrame.DATA_OVERHEAD;
+
+    // sender, frames base until next are unacknowledged, guarded by this
+    private final byte[][] frames = new byte[LinkFrame.SEQUENCE_SPACE][];
+    private final long[] sentNanos = new long[LinkFrame.SEQUENCE_SPACE];
+    // transmission count when a frame last went out, to tell lost frames from ones still in flight
+    private final long[] sendOrder = new long[LinkFrame.SEQUENCE_SPACE];
+    private final int[] retries = new int[LinkFrame.SEQUENCE_SPACE];
+    // reported by the receiver beyond a gap
+    private final boolean[] selected = new boolean[LinkFrame.SEQUENCE_SPACE];
+    private int base = 0;
+    private int next = 0;
+    private long transmissions = 0;
+    private long srttNanos = 0;
+    private long rttVarNanos = 0;
+    private long rtoNanos = TimeUnit.MILLISECONDS.toNanos(INITIAL_RETRANSMIT_TIMEOUT_MS);
+    private ScheduledFuture<?> retransmitTimer;
+
+    // receiver, frames that arrived after a gap, guarded by this
+    private final byte[][] held = new byte[LinkFrame.SEQUENCE_SPACE][];
+    private int heldCount = 0;
+    private int expected = 0;
+    private int unacknowledged = 0;
+    private ScheduledFuture<?> ackTimer;
+
+    private boolean closed = false;
+
+    // statistics, written under the lock
+    private volatile long framesSent = 0;
+    private volatile long retransmissions = 0;
+    private volatile long framesReceived = 0;
+    private volatile long duplicates = 0;
+    private volatile long corruptFrames = 0;
+    private volatile long acksSent = 0;
+    private volatile long bytesDelivered = 0;
+
+    public ReliableLink(Output output, Listener listener, ScheduledExecutorService timer) {
+        this.output = output;
+        this.listener = listener;
+        this.timer = timer;
+    }
+
+    // frames in flight, at most MAX_WINDOW
+    public synchronized void setWindow(int window) {
+        if (window < 1 || window > MAX_WINDOW) {
+            throw new IllegalArgumentException("window must be 1.." + MAX_WINDOW);
+        }
+        this.window = window;
+    }
+
+    public synchronized void setAckDelay(long delay, TimeUnit unit) {
+        ackDelayNanos = unit.toNanos(delay);
+    }
+
+    // lower bound of the adaptive retransmission timeout, keep it above a few connection intervals
+    public synchronized void setMinRetransmitTimeout(long timeout, TimeUnit unit) {
+        minRtoNanos = unit.toNanos(timeout);
+    }
+
+    // used until the first round trip is measured
+    public synchronized void setInitialRetransmitTimeout(long timeout, TimeUnit unit) {
+        if (srttNanos == 0) {
+            rtoNanos = unit.toNanos(timeout);
+        }
+    }
+
+    public synchronized void setMaxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+    }
+
+    // frames sent from now on carry MTU - 3 - 4 bytes of payload
+    public void setMtu(int mtu) {
+        payloadSize = Math.max(1, UartFragmenter.payloadSizeForMtu(mtu) - LinkFrame.DATA_OVERHEAD);
+    }
+
+    public int getPayloadSize() {
+        return payloadSize;
+    }
+
+    public synchronized int getInFlight() {
+        return LinkFrame.distance(base, next);
+    }
+
+    public synchronized long getRetransmitTimeoutNanos() {
+        return rtoNanos;
+    }
+
+    public synchronized long getSmoothedRttNanos() {
+        return srttNanos;
+    }
+
+    public long getFramesSent() {
+        return framesSent;
+    }
+
+    public long getRetransmissions() {
+        return retransmissions;
+    }
+
+    public long getFramesReceived() {
+        return framesReceived;
+    }
+
+    public long getDuplicates() {
+        return duplicates;
+    }
+
+    // failed the CRC or too short, dropped
+    public long getCorruptFrames() {
+        return corruptFrames;
+    }
+
+    public long getAcksSent() {
+        return acksSent;
+    }
+
+    public long getBytesDelivered() {
+        return bytesDelivered;
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Queue bytes, waiting up to timeoutMs whenever the window is full. Returns false if the
+     * link closed or the wait timed out, the bytes before that point are on their way.
+     **/
+    @Override
+    public boolean send(byte[] data, int offset, int length, long timeoutMs) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        int position = offset;
+        int end = offset + length;
+        synchronized (this) {
+            while (position < end) {
+                if (closed) {
+                    return false;
+                }
+                if (LinkFrame.distance(base, next) >= window) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                    continue;
+                }
+                int n = Math.min(payloadSize, end - position);
+                int sequence = next;
+                frames[sequence] = LinkFrame.data(sequence, data, position, n);
+                retries[sequence] = 0;
+                selected[sequence] = false;
+                next = (next + 1) & MASK;
+                position += n;
+                transmit(sequence);
+                armRetransmit();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Wait until the peer acknowledged everything sent, false on timeout or if the link closed
+     **/
+    public synchronized boolean awaitAcknowledged(long timeoutMs) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        while (base != next && !closed) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return base == next;
+    }
+
+    /**
+     * Feed one received packet, data or ack
+     **/
+    public void onFrame(byte[] frame, int offset, int length) {
+        boolean failed;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            if (!LinkFrame.isValid(frame, offset, length)) {
+                corruptFrames++;
+                return;
+            }
+            if (LinkFrame.getType(frame, offset) == LinkFrame.TYPE_ACK) {
+                failed = !onAck(LinkFrame.getSequence(frame, offset), LinkFrame.getReceived(frame, offset));
+            } else {
+                onData(frame, offset, length);
+                failed = false;
+            }
+        }
+        if (failed) {
+            listener.onLinkFailed(this);
+        }
+    }
+
+    public void onFrame(byte[] frame) {
+        onFrame(frame, 0, frame.length);
+    }
+
+    /**
+     * Stop, wakes up blocked senders. Unacknowledged data is abandoned.
+     **/
+    public synchronized void close() {
+        closed = true;
+        cancelTimers();
+        notifyAll();
+    }
+
+    /************************ SENDER **************************/
+
+    // caller holds the lock; a refused frame is simply lost and recovered like one
+    private void transmit(int sequence) {
+        sentNanos[sequence] = System.nanoTime();
+        sendOrder[sequence] = ++transmissions;
+        framesSent++;
+        output.sendFrame(frames[sequence]);
+    }
+
+    // caller holds the lock, false once the frame used up its retries
+    private boolean retransmit(int sequence) {
+        if (retries[sequence] >= maxRetries) {
+            closed = true;
+            cancelTimers();
+            notifyAll();
+            return false;
+        }
+        retries[sequence]++;
+        retransmissions++;
+        transmit(sequence);
+        return true;
+    }
+
+    // caller holds the lock, false if the link failed
+    private boolean onAck(int peerExpected, int received) {
+        int outstanding = LinkFrame.distance(base, next);
+        int advance = LinkFrame.distance(base, peerExpected);
+        if (advance > outstanding) {
+            // older than what we already know
+            return true;
+        }
+        long now = System.nanoTime();
+        if (advance > 0) {
+            int newest = (peerExpected - 1) & MASK;
+            // Karn: only frames sent once give a clean sample
+            if (retries[newest] == 0 && !selected[newest]) {
+                sampleRtt(now - sentNanos[newest]);
+            }
+            for (int sequence = base; sequence != peerExpected; sequence = (sequence + 1) & MASK) {
+                frames[sequence] = null;
+                selected[sequence] = false;
+            }
+            base = peerExpected;
+            notifyAll();
+        }
+
+        int inFlight = LinkFrame.distance(base, next);
+        for (int i = 0; received != 0 && i < Integer.SIZE; i++) {
+            int sequence = (base + 1 + i) & MASK;
+            if (LinkFrame.distance(base, sequence) >= inFlight) {
+                break;
+            }
+            if ((received & (1 << i)) != 0) {
+                selected[sequence] = true;
+            }
+        }
+        if (received != 0) {
+            // a frame is lost, not late, once REORDER_THRESHOLD frames sent after it arrived
+            for (int sequence = base; sequence != next; sequence = (sequence + 1) & MASK) {
+                if (!selected[sequence] && arrivedAfter(sequence) >= REORDER_THRESHOLD && !retransmit(sequence)) {
+                    return false;
+                }
+            }
+        }
+
+        if (base == next) {
+            if (retransmitTimer != null) {
+                retransmitTimer.cancel(false);
+                retransmitTimer = null;
+            }
+        } else {
+            armRetransmit();
+        }
+        return true;
+    }
+
+    // frames reported by the receiver that went out after this one did, caller holds the lock
+    private int arrivedAfter(int sequence) {
+        int count = 0;
+        for (int other = base; other != next; other = (other + 1) & MASK) {
+            if (selected[other] && sendOrder[other] > sendOrder[sequence]) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // RFC 6298 smoothing, caller holds the lock
+    private void sampleRtt(long rtt) {
+        if (srttNanos == 0) {
+            srttNanos = rtt;
+            rttVarNanos = rtt / 2;
+        } else {
+            rttVarNanos = (3 * rttVarNanos + Math.abs(srttNanos - rtt)) / 4;
+            srttNanos = (7 * srttNanos + rtt) / 8;
+        }
+        rtoNanos = Math.min(Math.max(srttNanos + 4 * rttVarNanos, minRtoNanos),
+                TimeUnit.MILLISECONDS.toNanos(MAX_RETRANSMIT_TIMEOUT_MS));
+    }
+
+    // one timer for the oldest frame not yet reported, caller holds the lock
+    private void armRetransmit() {
+        if (retransmitTimer != null || base == next || closed) {
+            return;
+        }
+        long now = System.nanoTime();
+        long due = Long.MAX_VALUE;
+        for (int sequence = base; sequence != next; sequence = (sequence + 1) & MASK) {
+            if (!selected[sequence]) {
+                due = Math.min(due, sentNanos[sequence] + rtoNanos - now);
+            }
+        }
+        if (due != Long.MAX_VALUE) {
+            retransmitTimer = timer.schedule(this::onRetransmitTimeout, Math.max(0, due), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void onRetransmitTimeout() {
+        synchronized (this) {
+            retransmitTimer = null;
+            if (closed) {
+                return;
+            }
+            long now = System.nanoTime();
+            boolean backedOff = false;
+            for (int sequence = base; sequence != next; sequence = (sequence + 1) & MASK) {
+                if (selected[sequence] || sentNanos[sequence] + rtoNanos - now > 0) {
+                    continue;
+                }
+                if (!backedOff) {
+                    // the path got slower or the tail was lost, back off once per timeout
+                    rtoNanos = Math.min(rtoNanos * 2, TimeUnit.MILLISECONDS.toNanos(MAX_RETRANSMIT_TIMEOUT_MS));
+                    backedOff = true;
+                }
+                if (!retransmit(sequence)) {
+                    break;
+                }
+            }
+            if (!closed) {
+                armRetransmit();
+                return;
+            }
+        }
+        listener.onLinkFailed(this);
+    }
+
+    /************************ RECEIVER **************************/
+
+    // caller holds the lock
+    private void onData(byte[] frame, int offset, int length) {
+        framesReceived++;
+        int sequence = LinkFrame.getSequence(frame, offset);
+        int distance = LinkFrame.distance(expected, sequence);
+        if (distance == 0) {
+            int n = length - LinkFrame.DATA_OVERHEAD;
+            if (!listener.onData(frame, offset + LinkFrame.HEADER_SIZE, n)) {
+                // no room, the sender tries again after its timeout
+                return;
+            }
+            bytesDelivered += n;
+            expected = (expected + 1) & MASK;
+            // frames held beyond the gap follow
+            byte[] payload;
+            while ((payload = held[expected]) != null && listener.onData(payload, 0, payload.length)) {
+                held[expected] = null;
+                heldCount--;
+                bytesDelivered += payload.length;
+                expected = (expected + 1) & MASK;
+            }
+            unacknowledged++;
+            if (heldCount > 0 || unacknowledged >= Math.max(1, window / 4)) {
+                sendAck();
+            } else {
+                armAck();
+            }
+        } else if (distance < MAX_WINDOW) {
+            if (held[sequence] == null) {
+                held[sequence] = Arrays.copyOfRange(frame, offset + LinkFrame.HEADER_SIZE, offset + length - LinkFrame.CRC_SIZE);
+                heldCount++;
+            } else {
+                duplicates++;
+            }
+            // report the gap at once
+            sendAck();
+        } else {
+            // delivered already, our ack got lost
+            duplicates++;
+            sendAck();
+        }
+    }
+
+    // caller holds the lock
+    private void sendAck() {
+        int received = 0;
+        if (heldCount > 0) {
+            for (int i = 0; i < Integer.SIZE; i++) {
+                if (held[(expected + 1 + i) & MASK] != null) {
+                    received |= 1 << i;
+                }
+            }
+        }
+        unacknowledged = 0;
+        if (ackTimer != null) {
+            ackTimer.cancel(false);
+            ackTimer = null;
+        }
+        acksSent++;
+        output.sendFrame(LinkFrame.ack(expected, received));
+    }
+
+    // caller holds the lock
+    private void armAck() {
+        if (ackTimer == null) {
+            ackTimer = timer.schedule(this::onAckTimeout, ackDelayNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private synchronized void onAckTimeout() {
+        ackTimer = null;
+        if (!closed && unacknowledged > 0) {
+            sendAck();
+        }
+    }
+
+    // caller holds the lock
+    private void cancelTimers() {
+        if (retransmitTimer != null) {
+            retransmitTimer.cancel(false);
+            retransmitTimer = null;
+        }
+        if (ackTimer != null) {
+            ackTimer.cancel(false);
+            ackTimer = null;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.example.bleserial.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latencies, traffic and errors of one GATT connection.
+ * <p>
+ * Updated without locks from whatever thread moves the packet or completes the operation: a
+ * counter update is one atomic add, a latency one {@link Histogram#record}. Reading goes through
+ * {@link #snapshot}, which also turns the counters into rates.
+ **/
+public class GattMetrics {
+    // operation kinds, the queued ones have the values of GattOperation.TYPE_*
+    public static final int OP_CONNECT = 0;
+    public static final int OP_READ = 1;
+    public static final int OP_WRITE = 2;
+    public static final int OP_WRITE_NO_RESPONSE = 3;
+    public static final int OP_DESCRIPTOR_WRITE = 4;
+    public static final int OP_MTU_REQUEST = 5;
+    public static final int OP_DISCOVER = 6;
+    // from a notification arriving to the handler reading it
+    public static final int OP_NOTIFICATION_DELIVERY = 7;
+    public static final int OP_COUNT = 8;
+
+    private static final String[] OP_NAMES = {
+            "connect", "read", "write", "write no rsp", "cccd write", "mtu exchange", "discovery", "rx delivery"};
+
+    private final Histogram[] latencies = new Histogram[OP_COUNT];
+    // time operations wait in the queue, and the queue depth each one found
+    private final Histogram queueWait = new Histogram();
+    private final Histogram queueDepth = new Histogram();
+
+    private final AtomicLong txBytes = new AtomicLong();
+    private final AtomicLong txPackets = new AtomicLong();
+    private final AtomicLong rxBytes = new AtomicLong();
+    private final AtomicLong rxPackets = new AtomicLong();
+    // failures by status, GATT statuses and GattOperation.STATUS_* alike
+    private final ConcurrentHashMap<Integer, AtomicLong> errors = new ConcurrentHashMap<>();
+
+    // counters at the previous snapshot, guarded by this
+    private long lastNanos;
+    private long lastTxBytes, lastTxPackets, lastRxBytes, lastRxPackets;
+
+    public GattMetrics() {
+        for (int i = 0; i < OP_COUNT; i++) {
+            latencies[i] = new Histogram();
+        }
+        lastNanos = System.nanoTime();
+    }
+
+    public static String getOperationName(int op) {
+        return OP_NAMES[op];
+    }
+
+    public void recordLatency(int op, long nanos) {
+        latencies[op].record(nanos);
+    }
+
+    public void recordQueued(int depth) {
+        queueDepth.record(depth);
+    }
+
+    public void recordQueueWait(long nanos) {
+        queueWait.record(nanos);
+    }
+
+    public void recordError(int status) {
+        AtomicLong counter = errors.get(status);
+        if (counter == null) {
+            // first failure with this status
+            AtomicLong fresh = new AtomicLong();
+            counter = errors.putIfAbsent(status, fresh);
+            if (counter == null) {
+                counter = fresh;
+            }
+        }
+        counter.incrementAndGet();
+    }
+
+    public void onTx(int bytes) {
+        txBytes.addAndGet(bytes);
+        txPackets.incrementAndGet();
+    }
+
+    public void onRx(int bytes) {
+        rxBytes.addAndGet(bytes);
+        rxPackets.incrementAndGet();
+    }
+
+    public long getTxBytes() {
+        return txBytes.get();
+    }
+
+    public long getRxBytes() {
+        return rxBytes.get();
+    }
+
+    /**
+     * Current state, with the rates since the previous snapshot
+     **/
+    public synchronized MetricsSnapshot snapshot(int pendingOperations) {
+        long now = System.nanoTime();
+        double seconds = Math.max(1, now - lastNanos) / 1e9;
+        long tx = txBytes.get();
+        long txp = txPackets.get();
+        long rx = rxBytes.get();
+        long rxp = rxPackets.get();
+
+        HistogramSnapshot[] latencySnapshots = new HistogramSnapshot[OP_COUNT];
+        for (int i = 0; i < OP_COUNT; i++) {
+            latencySnapshots[i] = latencies[i].snapshot();
+        }
+        Map<Integer, Long> errorCounts = new TreeMap<>();
+        for (Map.Entry<Integer, AtomicLong> entry : errors.entrySet()) {
+            errorCounts.put(entry.getKey(), entry.getValue().get());
+        }
+        MetricsSnapshot snapshot = new MetricsSnapshot(latencySnapshots, queueWait.snapshot(), queueDepth.snapshot(),
+                pendingOperations, tx, txp, rx, rxp,
+                (tx - lastTxBytes) / seconds, (txp - lastTxPackets) / seconds,
+                (rx - lastRxBytes) / seconds, (rxp - lastRxPackets) / seconds, errorCounts);
+        lastNanos = now;
+        lastTxBytes = tx;
+        lastTxPackets = txp;
+        lastRxBytes = rx;
+        lastRxPackets = rxp;
+        return snapshot;
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.bleserial.metrics;
+
+import java.util.Locale;
+
+/**
+ * The counts of a {@link Histogram} at one moment
+ **/
+public final class HistogramSnapshot {
+    private final long[] counts;
+    private final long count;
+    private final long sum;
+    private final long max;
+
+    HistogramSnapshot(long[] counts, long count, long sum, long max) {
+        this.counts = counts;
+        this.count = count;
+        this.sum = sum;
+        this.max = max;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * The value below which percentile % of the recorded values fall, as the upper end of its
+     * bucket, never above the maximum. 0 if nothing was recorded.
+     **/
+    public long getValueAtPercentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                long upper = i + 1 < counts.length ? Histogram.lowerBound(i + 1) - 1 : max;
+                return Math.min(upper, max);
+            }
+        }
+        return max;
+    }
+
+    // latencies in ns as "n=.. p50 .. p99 .. max .." in ms
+    public String toLatencyString() {
+        return String.format(Locale.ROOT, "n=%d p50 %.2f p90 %.2f p99 %.2f max %.2f ms", count,
+                getValueAtPercentile(50) / 1e6, getValueAtPercentile(90) / 1e6,
+                getValueAtPercentile(99) / 1e6, max / 1e6);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "n=%d mean %.1f p50 %d p99 %d max %d", count, getMean(),
+                getValueAtPercentile(50), getValueAtPercentile(99), max);
+    }
+}
@@ -0,0 +1,134 @@
+package com.example.bleserial.metrics;
+
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * What {@link GattMetrics} knew at one moment. Rates cover the time since the snapshot before.
+ **/
+public final class MetricsSnapshot {
+    private final HistogramSnapshot[] latencies;
+    private final HistogramSnapshot queueWait;
+    private final HistogramSnapshot queueDepth;
+    private final int pendingOperations;
+    private final long txBytes;
+    private final long txPackets;
+    private final long rxBytes;
+    private final long rxPackets;
+    private final double txBytesPerSecond;
+    private final double txPacketsPerSecond;
+    private final double rxBytesPerSecond;
+    private final double rxPacketsPerSecond;
+    private final Map<Integer, Long> errors;
+
+    MetricsSnapshot(HistogramSnapshot[] latencies, HistogramSnapshot queueWait, HistogramSnapshot queueDepth,
+                    int pendingOperations, long txBytes, long txPackets, long rxBytes, long rxPackets,
+                    double txBytesPerSecond, double txPacketsPerSecond, double rxBytesPerSecond, double rxPacketsPerSecond,
+                    Map<Integer, Long> errors) {
+        this.latencies = latencies;
+        this.queueWait = queueWait;
+        this.queueDepth = queueDepth;
+        this.pendingOperations = pendingOperations;
+        this.txBytes = txBytes;
+        this.txPackets = txPackets;
+        this.rxBytes = rxBytes;
+        this.rxPackets = rxPackets;
+        this.txBytesPerSecond = txBytesPerSecond;
+        this.txPacketsPerSecond = txPacketsPerSecond;
+        this.rxBytesPerSecond = rxBytesPerSecond;
+        this.rxPacketsPerSecond = rxPacketsPerSecond;
+        this.errors = Collections.unmodifiableMap(errors);
+    }
+
+    // one of GattMetrics.OP_*, in nanoseconds
+    public HistogramSnapshot getLatency(int op) {
+        return latencies[op];
+    }
+
+    public HistogramSnapshot getQueueWait() {
+        return queueWait;
+    }
+
+    public HistogramSnapshot getQueueDepth() {
+        return queueDepth;
+    }
+
+    public int getPendingOperations() {
+        return pendingOperations;
+    }
+
+    public long getTxBytes() {
+        return txBytes;
+    }
+
+    public long getTxPackets() {
+        return txPackets;
+    }
+
+    public long getRxBytes() {
+        return rxBytes;
+    }
+
+    public long getRxPackets() {
+        return rxPackets;
+    }
+
+    public double getTxBytesPerSecond() {
+        return txBytesPerSecond;
+    }
+
+    public double getTxPacketsPerSecond() {
+        return txPacketsPerSecond;
+    }
+
+    public double getRxBytesPerSecond() {
+        return rxBytesPerSecond;
+    }
+
+    public double getRxPacketsPerSecond() {
+        return rxPacketsPerSecond;
+    }
+
+    // failure count by status, in status order
+    public Map<Integer, Long> getErrors() {
+        return errors;
+    }
+
+    public long getErrorCount() {
+        long total = 0;
+        for (long count : errors.values()) {
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * Multi-line report for the debug screen and logs
+     **/
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.ROOT, "tx %d B %d pkt  %.1f kB/s %.0f pkt/s%n",
+                txBytes, txPackets, txBytesPerSecond / 1000, txPacketsPerSecond));
+        sb.append(String.format(Locale.ROOT, "rx %d B %d pkt  %.1f kB/s %.0f pkt/s%n",
+                rxBytes, rxPackets, rxBytesPerSecond / 1000, rxPacketsPerSecond));
+        sb.append(String.format(Locale.ROOT, "queue %d now, depth p99 %d max %d%n",
+                pendingOperations, queueDepth.getValueAtPercentile(99), queueDepth.getMax()));
+        sb.append("queue wait ").append(queueWait.toLatencyString()).append('\n');
+        for (int op = 0; op < latencies.length; op++) {
+            if (latencies[op].getCount() > 0) {
+                sb.append(GattMetrics.getOperationName(op)).append(' ').append(latencies[op].toLatencyString()).append('\n');
+            }
+        }
+        if (errors.isEmpty()) {
+            sb.append("no errors");
+        } else {
+            sb.append("errors");
+            for (Map.Entry<Integer, Long> entry : errors.entrySet()) {
+                sb.append(" status ").append(entry.getKey()).append(": ").append(entry.getValue());
+            }
+        }
+        return sb.toString();
+    }
+}
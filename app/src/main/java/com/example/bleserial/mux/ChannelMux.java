@@ -0,0 +1,365 @@
+package com.example.bleserial.mux;
+
+import com.example.bleserial.uart.UartFragmenter;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Several logical channels over one UART link, each with its own send queue, priority and flow
+ * control.
+ * <p>
+ * Every packet starts with a header byte, the packet type in the top two bits and the channel id
+ * below. Queued data is cut into packets only when it is sent, one per ATT write, and only a few
+ * packets are handed to the link at a time, so a command queued behind a bulk transfer goes out
+ * after at most linkWindow packets. Higher priorities go first, channels of equal priority take
+ * turns packet by packet.
+ * <p>
+ * The receiving end grants credit in bytes as its reader drains the channel, and a channel sends
+ * only what it has credit for: a reader that falls behind stops its own channel and no other.
+ * Credit comes from the peer opening its end, so both ends open the same ids; a grant for a
+ * channel not open here yet is kept until it opens. Credit assumes the link delivers whatever it
+ * accepts, as BLE does short of losing the connection.
+ **/
+public class ChannelMux {
+    public static final int MAX_CHANNELS = 64;
+    public static final int PRIORITY_BULK = 0;
+    public static final int PRIORITY_NORMAL = 1;
+    public static final int PRIORITY_INTERACTIVE = 2;
+    public static final int DEFAULT_LINK_WINDOW = 4;
+    public static final int DEFAULT_RECEIVE_WINDOW = 8 * 1024;
+    public static final int DEFAULT_MAX_BACKLOG = 64 * 1024;
+    // a refused packet with nothing in flight is offered again after this
+    public static final long RETRY_DELAY_MS = 5;
+
+    static final int PRIORITY_LEVELS = 3;
+    static final int TYPE_DATA = 0;
+    static final int TYPE_CREDIT = 1;
+    static final int HEADER_SIZE = 1;
+    static final int CREDIT_SIZE = HEADER_SIZE + 4;
+
+    /**
+     * Where packets go, one per ATT write or notification
+     **/
+    public interface Output {
+        /**
+         * Send one packet and run sent once it is out, so the next one may follow. Return false
+         * if it cannot be taken now, it is offered again on the next completion, send or credit,
+         * or after RETRY_DELAY_MS when none is to be expected.
+         **/
+        boolean sendPacket(byte[] packet, Runnable sent);
+    }
+
+    private final Output output;
+    // retries refused packets, null to wait for the next event instead
+    private final ScheduledExecutorService timer;
+    private final int linkWindow;
+    private final int maxBacklog;
+
+    // guarded by this
+    private final MuxChannel[] channels = new MuxChannel[MAX_CHANNELS];
+    // the channel served last per priority, turns go round from there
+    private final int[] lastServed = new int[PRIORITY_LEVELS];
+    // credit granted for channels not open here yet
+    private final int[] unclaimedCredit = new int[MAX_CHANNELS];
+    // credit grants, they go before any data
+    private final ArrayDeque<byte[]> control = new ArrayDeque<>();
+    // a packet the output refused, offered again first
+    private byte[] refused;
+    private int outstanding = 0;
+    private int payloadSize = UartFragmenter.payloadSizeForMtu(UartFragmenter.DEFAULT_MTU) - HEADER_SIZE;
+    private boolean dispatching = false;
+    private boolean redispatch = false;
+    private boolean retryScheduled = false;
+    private boolean closed = false;
+
+    private volatile long unknownPackets = 0;
+
+    public ChannelMux(Output output, ScheduledExecutorService timer, int linkWindow, int maxBacklog) {
+        if (linkWindow < 1 || maxBacklog < 1) {
+            throw new IllegalArgumentException("linkWindow and maxBacklog must be >= 1");
+        }
+        this.output = output;
+        this.timer = timer;
+        this.linkWindow = linkWindow;
+        this.maxBacklog = maxBacklog;
+    }
+
+    public ChannelMux(Output output, ScheduledExecutorService timer) {
+        this(output, timer, DEFAULT_LINK_WINDOW, DEFAULT_MAX_BACKLOG);
+    }
+
+    public ChannelMux(Output output) {
+        this(output, null, DEFAULT_LINK_WINDOW, DEFAULT_MAX_BACKLOG);
+    }
+
+    // packets sent from now on carry up to MTU - 3 - 1 bytes of data
+    public synchronized void setMtu(int mtu) {
+        payloadSize = UartFragmenter.payloadSizeForMtu(mtu) - HEADER_SIZE;
+    }
+
+    /**
+     * Open channel id with one of PRIORITY_*. receiveWindow, a power of two, is how many bytes
+     * the peer may send ahead of the reader; the listener hears when data arrives.
+     **/
+    public MuxChannel openChannel(int id, int priority, int receiveWindow, MuxChannel.Listener listener) {
+        if (id < 0 || id >= MAX_CHANNELS) {
+            throw new IllegalArgumentException("channel id must be 0.." + (MAX_CHANNELS - 1));
+        }
+        if (priority < 0 || priority >= PRIORITY_LEVELS) {
+            throw new IllegalArgumentException("unknown priority " + priority);
+        }
+        MuxChannel channel = new MuxChannel(this, id, priority, receiveWindow, listener);
+        synchronized (this) {
+            if (closed || channels[id] != null) {
+                throw new IllegalStateException("channel " + id + (closed ? ": mux closed" : " already open"));
+            }
+            channels[id] = channel;
+            channel.credit = unclaimedCredit[id];
+            unclaimedCredit[id] = 0;
+        }
+        // the peer may send a full window
+        grant(channel, receiveWindow);
+        return channel;
+    }
+
+    public MuxChannel openChannel(int id, int priority) {
+        return openChannel(id, priority, DEFAULT_RECEIVE_WINDOW, null);
+    }
+
+    public synchronized MuxChannel getChannel(int id) {
+        return channels[id];
+    }
+
+    // packets for channels not open here, dropped
+    public long getUnknownPackets() {
+        return unknownPackets;
+    }
+
+    /**
+     * Feed one received packet
+     **/
+    public void onPacket(byte[] packet, int offset, int length) {
+        if (length < HEADER_SIZE) {
+            return;
+        }
+        int type = (packet[offset] & 0xFF) >>> 6;
+        int id = packet[offset] & (MAX_CHANNELS - 1);
+        MuxChannel channel;
+        synchronized (this) {
+            channel = channels[id];
+            if (type == TYPE_CREDIT && length == CREDIT_SIZE) {
+                int count = (packet[offset + 1] & 0xFF) | (packet[offset + 2] & 0xFF) << 8
+                        | (packet[offset + 3] & 0xFF) << 16 | (packet[offset + 4] & 0xFF) << 24;
+                if (channel != null) {
+                    channel.credit += count;
+                } else {
+                    unclaimedCredit[id] += count;
+                    return;
+                }
+            }
+        }
+        if (channel == null) {
+            unknownPackets++;
+        } else if (type == TYPE_DATA) {
+            channel.receive(packet, offset + HEADER_SIZE, length - HEADER_SIZE);
+        } else if (type == TYPE_CREDIT) {
+            dispatch();
+        }
+    }
+
+    /**
+     * Stop: queued data is dropped, blocked senders give up and readers see end of stream
+     **/
+    public void close() {
+        MuxChannel[] open;
+        synchronized (this) {
+            closed = true;
+            open = channels.clone();
+            for (MuxChannel channel : open) {
+                if (channel != null) {
+                    channel.clearBacklog();
+                }
+            }
+            control.clear();
+            refused = null;
+            notifyAll();
+        }
+        for (MuxChannel channel : open) {
+            if (channel != null) {
+                channel.onClosed();
+            }
+        }
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /************************ SENDING **************************/
+
+    // queue bytes for channel, waiting up to timeoutMs for backlog room; 0 does not wait
+    boolean submit(MuxChannel channel, byte[] data, int offset, int length, long timeoutMs) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        while (true) {
+            synchronized (this) {
+                if (closed || channels[channel.id] != channel) {
+                    return false;
+                }
+                int room = maxBacklog - channel.backlogBytes;
+                if (timeoutMs == 0 && room < length) {
+                    return false;
+                }
+                if (room <= 0) {
+                    // what is queued went out to the link before we got here, wait for it to drain
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                    continue;
+                }
+                int n = Math.min(room, length);
+                byte[] copy = new byte[n];
+                System.arraycopy(data, offset, copy, 0, n);
+                channel.backlog.add(copy);
+                channel.backlogBytes += n;
+                offset += n;
+                length -= n;
+            }
+            dispatch();
+            if (length == 0) {
+                return true;
+            }
+        }
+    }
+
+    // tell the peer it may send count more bytes on channel
+    void grant(MuxChannel channel, int count) {
+        byte[] packet = new byte[CREDIT_SIZE];
+        packet[0] = (byte) (TYPE_CREDIT << 6 | channel.id);
+        packet[1] = (byte) count;
+        packet[2] = (byte) (count >>> 8);
+        packet[3] = (byte) (count >>> 16);
+        packet[4] = (byte) (count >>> 24);
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            control.add(packet);
+        }
+        dispatch();
+    }
+
+    void remove(MuxChannel channel) {
+        synchronized (this) {
+            if (channels[channel.id] != channel) {
+                return;
+            }
+            channels[channel.id] = null;
+            channel.clearBacklog();
+            notifyAll();
+        }
+        channel.onClosed();
+    }
+
+    // the next packet allowed out, caller holds the lock
+    private byte[] nextPacket() {
+        if (closed || outstanding >= linkWindow) {
+            return null;
+        }
+        if (refused != null) {
+            byte[] packet = refused;
+            refused = null;
+            return packet;
+        }
+        byte[] packet = control.poll();
+        if (packet != null) {
+            return packet;
+        }
+        for (int priority = PRIORITY_LEVELS - 1; priority >= 0; priority--) {
+            for (int k = 1; k <= MAX_CHANNELS; k++) {
+                int id = (lastServed[priority] + k) & (MAX_CHANNELS - 1);
+                MuxChannel channel = channels[id];
+                if (channel != null && channel.priority == priority && channel.canSend()) {
+                    lastServed[priority] = id;
+                    return channel.nextPacket(payloadSize);
+                }
+            }
+        }
+        return null;
+    }
+
+    private void dispatch() {
+        synchronized (this) {
+            if (dispatching) {
+                redispatch = true;
+                return;
+            }
+            dispatching = true;
+        }
+        while (true) {
+            byte[] packet;
+            synchronized (this) {
+                packet = nextPacket();
+                if (packet == null) {
+                    if (redispatch) {
+                        redispatch = false;
+                        continue;
+                    }
+                    dispatching = false;
+                    return;
+                }
+                outstanding++;
+                // room in the backlog for blocked senders
+                notifyAll();
+            }
+            if (!output.sendPacket(packet, this::onSent)) {
+                boolean retry;
+                synchronized (this) {
+                    outstanding--;
+                    if (!closed) {
+                        refused = packet;
+                    }
+                    // offered again on the next event rather than spinning on a full link
+                    dispatching = false;
+                    redispatch = false;
+                    // with nothing in flight no onSent comes, and a quiet mux may see no other event
+                    retry = !closed && outstanding == 0 && timer != null && !retryScheduled;
+                    retryScheduled |= retry;
+                }
+                if (retry) {
+                    scheduleRetry();
+                }
+                return;
+            }
+        }
+    }
+
+    private void scheduleRetry() {
+        try {
+            timer.schedule(this::onRetry, RETRY_DELAY_MS, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // timer gone with the session, the mux goes with it
+            synchronized (this) {
+                retryScheduled = false;
+            }
+        }
+    }
+
+    private void onRetry() {
+        synchronized (this) {
+            retryScheduled = false;
+        }
+        dispatch();
+    }
+
+    private void onSent() {
+        synchronized (this) {
+            outstanding--;
+        }
+        dispatch();
+    }
+}
@@ -0,0 +1,186 @@
+package com.example.bleserial.mux;
+
+import com.example.bleserial.uart.RxRingBuffer;
+import com.example.bleserial.uart.UartSink;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * One logical channel of a {@link ChannelMux}. Sending queues the bytes in the channel's own
+ * backlog. Received bytes wait in a ring of receiveWindow bytes, and reading them hands the
+ * peer new credit a quarter window at a time.
+ **/
+public class MuxChannel implements UartSink {
+    public interface Listener {
+        // new data, raised once until read() is called again; called on the link's thread
+        void onDataAvailable(MuxChannel channel);
+    }
+
+    final ChannelMux mux;
+    final int id;
+    final int priority;
+    private final Listener listener;
+    private final RxRingBuffer receiveBuffer;
+    private final AtomicBoolean signalPending = new AtomicBoolean(false);
+    // bytes read since the last grant, reader thread only
+    private int consumed = 0;
+    private volatile long overrunBytes = 0;
+
+    // send side, guarded by the mux
+    final ArrayDeque<byte[]> backlog = new ArrayDeque<>();
+    int headOffset = 0;
+    int backlogBytes = 0;
+    // bytes the peer can still take
+    int credit = 0;
+
+    MuxChannel(ChannelMux mux, int id, int priority, int receiveWindow, Listener listener) {
+        this.mux = mux;
+        this.id = id;
+        this.priority = priority;
+        this.listener = listener;
+        // the peer never sends more than fits, so nothing is ever dropped for lack of room
+        this.receiveBuffer = new RxRingBuffer(receiveWindow, RxRingBuffer.OverflowPolicy.DROP_NEWEST);
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    public int available() {
+        return receiveBuffer.available();
+    }
+
+    // bytes the peer sent beyond its credit, dropped
+    public long getOverrunBytes() {
+        return overrunBytes;
+    }
+
+    public int getBacklog() {
+        synchronized (mux) {
+            return backlogBytes;
+        }
+    }
+
+    public int getCredit() {
+        synchronized (mux) {
+            return credit;
+        }
+    }
+
+    /**
+     * Queue bytes without waiting, false if the backlog has no room for all of them
+     **/
+    public boolean send(byte[] data, int offset, int length) {
+        try {
+            return mux.submit(this, data, offset, length, 0);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Queue bytes, waiting up to timeoutMs whenever the backlog is full
+     **/
+    @Override
+    public boolean send(byte[] data, int offset, int length, long timeoutMs) throws InterruptedException {
+        return mux.submit(this, data, offset, length, Math.max(1, timeoutMs));
+    }
+
+    /**
+     * Copy up to length received bytes, 0 if there are none. Never blocks.
+     **/
+    public synchronized int read(byte[] dst, int offset, int length) {
+        // clear first, so data arriving while we drain raises a new signal
+        signalPending.set(false);
+        return consumed(receiveBuffer.read(dst, offset, length));
+    }
+
+    /**
+     * Blocking read: at least one byte, -1 once the channel closed and is drained, 0 on timeout
+     * (0 = forever)
+     **/
+    public synchronized int read(byte[] dst, int offset, int length, long timeoutMs) throws InterruptedException {
+        signalPending.set(false);
+        return consumed(receiveBuffer.read(dst, offset, length, timeoutMs));
+    }
+
+    // grant in batches, one credit packet per quarter window read
+    private int consumed(int n) {
+        if (n > 0) {
+            consumed += n;
+            if (consumed >= receiveBuffer.capacity() / 4) {
+                int count = consumed;
+                consumed = 0;
+                mux.grant(this, count);
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Close this channel only, dropping what it still had to send
+     **/
+    public void close() {
+        mux.remove(this);
+    }
+
+    public boolean isClosed() {
+        return receiveBuffer.isClosed();
+    }
+
+    // the mux holds its lock
+    boolean canSend() {
+        return backlogBytes > 0 && credit > 0;
+    }
+
+    // cut the next packet from the backlog, the mux holds its lock
+    byte[] nextPacket(int payloadSize) {
+        int n = Math.min(Math.min(payloadSize, credit), backlogBytes);
+        byte[] packet = new byte[ChannelMux.HEADER_SIZE + n];
+        packet[0] = (byte) (ChannelMux.TYPE_DATA << 6 | id);
+        int position = ChannelMux.HEADER_SIZE;
+        while (position < packet.length) {
+            byte[] head = backlog.peek();
+            int take = Math.min(head.length - headOffset, packet.length - position);
+            System.arraycopy(head, headOffset, packet, position, take);
+            position += take;
+            headOffset += take;
+            if (headOffset == head.length) {
+                backlog.poll();
+                headOffset = 0;
+            }
+        }
+        backlogBytes -= n;
+        credit -= n;
+        return packet;
+    }
+
+    // the mux holds its lock
+    void clearBacklog() {
+        backlog.clear();
+        headOffset = 0;
+        backlogBytes = 0;
+    }
+
+    void receive(byte[] data, int offset, int length) {
+        if (receiveBuffer.capacity() - receiveBuffer.available() < length) {
+            // the peer ignored its credit
+            overrunBytes += length;
+            return;
+        }
+        receiveBuffer.write(data, offset, length);
+        if (listener != null && signalPending.compareAndSet(false, true)) {
+            listener.onDataAvailable(this);
+        }
+    }
+
+    void onClosed() {
+        receiveBuffer.close();
+    }
+}
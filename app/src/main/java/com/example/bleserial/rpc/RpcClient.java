@@ -0,0 +1,197 @@
+package com.example.bleserial.rpc;
+
+import com.example.bleserial.codec.FrameCodec;
+
+import java.util.HashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Request/response commands over a framed UART, with many requests in flight at once.
+ * <p>
+ * Each frame starts with a 16-bit little endian request id, the rest is the command or its
+ * response as the peripheral defines them. The peripheral answers every request with a frame
+ * carrying the same id, in any order. Requests go out as soon as they are made, so polling a
+ * set of registers costs one burst of writes and about one round trip instead of one round
+ * trip each. Responses complete their {@link RpcFuture} on the thread decoding the frames.
+ **/
+public class RpcClient implements FrameCodec.FrameListener {
+    public static final int HEADER_SIZE = 2;
+    public static final int ID_SPACE = 1 << 16;
+    public static final long DEFAULT_TIMEOUT_MS = 2000;
+    public static final int DEFAULT_MAX_IN_FLIGHT = 64;
+
+    public interface Output {
+        // write one frame, false if it could not be queued
+        boolean sendFrame(byte[] frame, int offset, int length);
+    }
+
+    private final Output output;
+    private final ScheduledExecutorService timer;
+
+    // guarded by this
+    private final HashMap<Integer, RpcFuture> inFlight = new HashMap<>();
+    private int nextId = 0;
+    private int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+    private boolean closed = false;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong responses = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    // responses nobody waits for any more, late or for cancelled requests
+    private final AtomicLong unmatchedResponses = new AtomicLong();
+
+    public RpcClient(Output output, ScheduledExecutorService timer) {
+        this.output = output;
+        this.timer = timer;
+    }
+
+    public synchronized void setMaxInFlight(int maxInFlight) {
+        if (maxInFlight < 1 || maxInFlight > ID_SPACE) {
+            throw new IllegalArgumentException("maxInFlight must be 1.." + ID_SPACE);
+        }
+        this.maxInFlight = maxInFlight;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight.size();
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getResponses() {
+        return responses.get();
+    }
+
+    public long getTimeouts() {
+        return timeouts.get();
+    }
+
+    public long getUnmatchedResponses() {
+        return unmatchedResponses.get();
+    }
+
+    /**
+     * Send a request and return its pending response, failed with STATUS_NOT_SENT if it could
+     * not be written or maxInFlight requests are waiting already. timeoutMs 0 waits forever.
+     **/
+    public RpcFuture call(byte[] request, int offset, int length, long timeoutMs) {
+        RpcFuture future;
+        synchronized (this) {
+            if (closed) {
+                future = new RpcFuture(this, -1);
+                future.complete(RpcFuture.STATUS_CLOSED, null);
+                return future;
+            }
+            if (inFlight.size() >= maxInFlight) {
+                future = new RpcFuture(this, -1);
+                future.complete(RpcFuture.STATUS_NOT_SENT, null);
+                return future;
+            }
+            // skip ids still waiting for their response
+            while (inFlight.containsKey(nextId)) {
+                nextId = (nextId + 1) & (ID_SPACE - 1);
+            }
+            future = new RpcFuture(this, nextId);
+            nextId = (nextId + 1) & (ID_SPACE - 1);
+            // in the map before it is sent, the response may come back on another thread first
+            inFlight.put(future.getId(), future);
+        }
+        byte[] frame = new byte[HEADER_SIZE + length];
+        frame[0] = (byte) future.getId();
+        frame[1] = (byte) (future.getId() >>> 8);
+        System.arraycopy(request, offset, frame, HEADER_SIZE, length);
+        if (!output.sendFrame(frame, 0, frame.length)) {
+            finish(future, RpcFuture.STATUS_NOT_SENT);
+            return future;
+        }
+        requests.incrementAndGet();
+        if (timeoutMs > 0) {
+            try {
+                future.setTimeout(timer.schedule(() -> {
+                    if (remove(future)) {
+                        timeouts.incrementAndGet();
+                        future.complete(RpcFuture.STATUS_TIMEOUT, null);
+                    }
+                }, timeoutMs, TimeUnit.MILLISECONDS));
+            } catch (RejectedExecutionException e) {
+                // timer shut down, the client goes with it
+                finish(future, RpcFuture.STATUS_CLOSED);
+            }
+        }
+        return future;
+    }
+
+    public RpcFuture call(byte[] request, long timeoutMs) {
+        return call(request, 0, request.length, timeoutMs);
+    }
+
+    public RpcFuture call(byte[] request) {
+        return call(request, 0, request.length, DEFAULT_TIMEOUT_MS);
+    }
+
+    /**
+     * One decoded frame from the peripheral, a response
+     **/
+    @Override
+    public void onFrame(byte[] buffer, int offset, int length) {
+        if (length < HEADER_SIZE) {
+            unmatchedResponses.incrementAndGet();
+            return;
+        }
+        int id = (buffer[offset] & 0xFF) | (buffer[offset + 1] & 0xFF) << 8;
+        RpcFuture future;
+        synchronized (this) {
+            future = inFlight.remove(id);
+        }
+        if (future == null) {
+            unmatchedResponses.incrementAndGet();
+            return;
+        }
+        // the codec reuses its buffer
+        byte[] response = new byte[length - HEADER_SIZE];
+        System.arraycopy(buffer, offset + HEADER_SIZE, response, 0, response.length);
+        responses.incrementAndGet();
+        future.complete(RpcFuture.STATUS_SUCCESS, response);
+    }
+
+    /**
+     * Fail every waiting request with STATUS_CLOSED and refuse new ones
+     **/
+    public void close() {
+        RpcFuture[] waiting;
+        synchronized (this) {
+            closed = true;
+            waiting = inFlight.values().toArray(new RpcFuture[0]);
+            inFlight.clear();
+        }
+        for (RpcFuture future : waiting) {
+            future.complete(RpcFuture.STATUS_CLOSED, null);
+        }
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    boolean cancel(RpcFuture future) {
+        return finish(future, RpcFuture.STATUS_CANCELLED);
+    }
+
+    // complete a request that got no response, false if it was done already
+    private boolean finish(RpcFuture future, int status) {
+        return remove(future) && future.complete(status, null);
+    }
+
+    private synchronized boolean remove(RpcFuture future) {
+        if (inFlight.get(future.getId()) != future) {
+            return false;
+        }
+        inFlight.remove(future.getId());
+        return true;
+    }
+}
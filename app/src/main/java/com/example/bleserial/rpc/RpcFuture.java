@@ -0,0 +1,158 @@
+package com.example.bleserial.rpc;
+
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The pending response to one {@link RpcClient} request. Completes once, with the response body
+ * or a STATUS_* saying why there is none.
+ **/
+public class RpcFuture implements Future<byte[]> {
+    // SUCCESS, TIMEOUT and CANCELLED match GattOperation.STATUS_*
+    public static final int STATUS_PENDING = 1;
+    public static final int STATUS_SUCCESS = 0;
+    public static final int STATUS_TIMEOUT = -1;
+    public static final int STATUS_CANCELLED = -2;
+    // the request could not be written
+    public static final int STATUS_NOT_SENT = -3;
+    // the client closed, usually because the link went down
+    public static final int STATUS_CLOSED = -4;
+
+    public interface Callback {
+        // runs once on the completing thread, for responses the transport thread: keep it short
+        void onComplete(RpcFuture future);
+    }
+
+    private final RpcClient client;
+    private final int id;
+
+    // guarded by this
+    private int status = STATUS_PENDING;
+    private byte[] response;
+    private Callback callback;
+    private ScheduledFuture<?> timeout;
+
+    RpcFuture(RpcClient client, int id) {
+        this.client = client;
+        this.id = id;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public synchronized int getStatus() {
+        return status;
+    }
+
+    // the response body, null unless the status is STATUS_SUCCESS
+    public synchronized byte[] getResponse() {
+        return response;
+    }
+
+    /**
+     * Run callback when the request completes, right away if it already has
+     **/
+    public void setCallback(Callback callback) {
+        synchronized (this) {
+            if (status == STATUS_PENDING) {
+                this.callback = callback;
+                return;
+            }
+        }
+        callback.onComplete(this);
+    }
+
+    /**
+     * Give up on the response. The request may already be on its way, so the peripheral can
+     * still act on it; a response arriving later is ignored.
+     **/
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return client.cancel(this);
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return status == STATUS_CANCELLED;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return status != STATUS_PENDING;
+    }
+
+    @Override
+    public synchronized byte[] get() throws InterruptedException, ExecutionException {
+        while (status == STATUS_PENDING) {
+            wait();
+        }
+        return result();
+    }
+
+    @Override
+    public synchronized byte[] get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (status == STATUS_PENDING) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                throw new TimeoutException("no response to request " + id + " yet");
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return result();
+    }
+
+    // caller holds the lock
+    private byte[] result() throws ExecutionException {
+        switch (status) {
+            case STATUS_SUCCESS:
+                return response;
+            case STATUS_CANCELLED:
+                throw new CancellationException("request " + id + " cancelled");
+            case STATUS_TIMEOUT:
+                throw new ExecutionException(new TimeoutException("request " + id + " timed out"));
+            case STATUS_NOT_SENT:
+                throw new ExecutionException(new IOException("request " + id + " not sent"));
+            default:
+                throw new ExecutionException(new IOException("request " + id + ": link closed"));
+        }
+    }
+
+    synchronized void setTimeout(ScheduledFuture<?> timeout) {
+        if (status == STATUS_PENDING) {
+            this.timeout = timeout;
+        } else {
+            timeout.cancel(false);
+        }
+    }
+
+    // false if it had completed already
+    boolean complete(int status, byte[] response) {
+        Callback done;
+        synchronized (this) {
+            if (this.status != STATUS_PENDING) {
+                return false;
+            }
+            this.status = status;
+            this.response = response;
+            if (timeout != null) {
+                timeout.cancel(false);
+                timeout = null;
+            }
+            done = callback;
+            callback = null;
+            notifyAll();
+        }
+        if (done != null) {
+            done.onComplete(this);
+        }
+        return true;
+    }
+}
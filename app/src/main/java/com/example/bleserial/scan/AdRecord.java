@@ -0,0 +1,270 @@
+package com.example.bleserial.scan;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * The AD structures of a scan record, read in place.
+ * <p>
+ * {@link #parse} walks the length/type/data structures once and keeps only their offsets into
+ * the record, the accessors read the bytes from there. Nothing is copied and, once the offset
+ * arrays have grown to the largest record seen, nothing is allocated either, so one instance can
+ * be reused for every advertisement. Multi-byte fields are little endian, as on air.
+ **/
+public final class AdRecord {
+    // AD types, Bluetooth assigned numbers
+    public static final int TYPE_FLAGS = 0x01;
+    public static final int TYPE_UUID16_INCOMPLETE = 0x02;
+    public static final int TYPE_UUID16_COMPLETE = 0x03;
+    public static final int TYPE_UUID32_INCOMPLETE = 0x04;
+    public static final int TYPE_UUID32_COMPLETE = 0x05;
+    public static final int TYPE_UUID128_INCOMPLETE = 0x06;
+    public static final int TYPE_UUID128_COMPLETE = 0x07;
+    public static final int TYPE_NAME_SHORT = 0x08;
+    public static final int TYPE_NAME_COMPLETE = 0x09;
+    public static final int TYPE_TX_POWER = 0x0A;
+    public static final int TYPE_SERVICE_DATA16 = 0x16;
+    public static final int TYPE_SERVICE_DATA32 = 0x20;
+    public static final int TYPE_SERVICE_DATA128 = 0x21;
+    public static final int TYPE_MANUFACTURER_DATA = 0xFF;
+
+    public static final int NOT_PRESENT = -1;
+    // TX power is signed, so absence needs its own value
+    public static final int NO_TX_POWER = Integer.MIN_VALUE;
+
+    // Bluetooth base UUID 0000xxxx-0000-1000-8000-00805F9B34FB
+    private static final long BASE_UUID_LSB = 0x800000805F9B34FBL;
+    private static final long BASE_UUID_MSB = 0x0000000000001000L;
+
+    private byte[] record;
+    private int length;
+    private int count;
+    private int[] types = new int[16];
+    private int[] offsets = new int[16];
+    private int[] lengths = new int[16];
+    // decoded on first use
+    private String name;
+
+    /**
+     * Index the AD structures of record. Stops at the first zero length, which starts the
+     * padding. Returns false if a structure runs past the end, the complete ones before it are
+     * still indexed.
+     **/
+    public boolean parse(byte[] record) {
+        this.record = record;
+        name = null;
+        count = 0;
+        length = 0;
+        if (record == null) {
+            return false;
+        }
+        int i = 0;
+        while (i < record.length) {
+            int len = record[i] & 0xFF;
+            if (len == 0) {
+                break;
+            }
+            if (i + 1 + len > record.length) {
+                length = i;
+                return false;
+            }
+            if (count == types.length) {
+                grow();
+            }
+            types[count] = record[i + 1] & 0xFF;
+            offsets[count] = i + 2;
+            lengths[count] = len - 1;
+            count++;
+            i += 1 + len;
+        }
+        length = i;
+        return true;
+    }
+
+    private void grow() {
+        types = Arrays.copyOf(types, types.length * 2);
+        offsets = Arrays.copyOf(offsets, offsets.length * 2);
+        lengths = Arrays.copyOf(lengths, lengths.length * 2);
+    }
+
+    // the record last parsed, accessors' offsets point into it
+    public byte[] getRecord() {
+        return record;
+    }
+
+    // bytes up to the padding
+    public int getSignificantLength() {
+        return length;
+    }
+
+    // number of AD structures
+    public int size() {
+        return count;
+    }
+
+    public int getType(int index) {
+        return types[index];
+    }
+
+    // offset of the data of structure index in getRecord(), after its type byte
+    public int getOffset(int index) {
+        return offsets[index];
+    }
+
+    public int getLength(int index) {
+        return lengths[index];
+    }
+
+    // first structure of this type, NOT_PRESENT if none
+    public int find(int type) {
+        for (int i = 0; i < count; i++) {
+            if (types[i] == type) {
+                return i;
+            }
+        }
+        return NOT_PRESENT;
+    }
+
+    private int u8(int offset) {
+        return record[offset] & 0xFF;
+    }
+
+    private int u16(int offset) {
+        return (record[offset] & 0xFF) | (record[offset + 1] & 0xFF) << 8;
+    }
+
+    private long u32(int offset) {
+        return (u16(offset) | (long) u16(offset + 2) << 16) & 0xFFFFFFFFL;
+    }
+
+    public int getFlags() {
+        int i = find(TYPE_FLAGS);
+        return i == NOT_PRESENT || lengths[i] < 1 ? NOT_PRESENT : u8(offsets[i]);
+    }
+
+    // advertised TX power in dBm, NO_TX_POWER if absent
+    public int getTxPower() {
+        int i = find(TYPE_TX_POWER);
+        return i == NOT_PRESENT || lengths[i] < 1 ? NO_TX_POWER : record[offsets[i]];
+    }
+
+    // company id of the first manufacturer data, NOT_PRESENT if none
+    public int getManufacturerId() {
+        int i = find(TYPE_MANUFACTURER_DATA);
+        return i == NOT_PRESENT || lengths[i] < 2 ? NOT_PRESENT : u16(offsets[i]);
+    }
+
+    /**
+     * Structure holding manufacturer data for companyId, NOT_PRESENT if none. The payload
+     * starts two bytes after its offset, behind the company id.
+     **/
+    public int findManufacturerData(int companyId) {
+        for (int i = 0; i < count; i++) {
+            if (types[i] == TYPE_MANUFACTURER_DATA && lengths[i] >= 2 && u16(offsets[i]) == companyId) {
+                return i;
+            }
+        }
+        return NOT_PRESENT;
+    }
+
+    /**
+     * Structure holding service data for a 16-bit service UUID, NOT_PRESENT if none. The payload
+     * starts two bytes after its offset, behind the UUID.
+     **/
+    public int findServiceData(int uuid16) {
+        for (int i = 0; i < count; i++) {
+            if (types[i] == TYPE_SERVICE_DATA16 && lengths[i] >= 2 && u16(offsets[i]) == uuid16) {
+                return i;
+            }
+        }
+        return NOT_PRESENT;
+    }
+
+    /**
+     * True if the service is in one of the UUID lists, in whichever of the 16, 32 or 128-bit
+     * forms the device chose
+     **/
+    public boolean hasService(UUID uuid) {
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        boolean shortForm = lsb == BASE_UUID_LSB && (msb & 0xFFFFFFFFL) == BASE_UUID_MSB;
+        long uuid32 = msb >>> 32;
+        for (int i = 0; i < count; i++) {
+            int offset = offsets[i];
+            int end = offset + lengths[i];
+            switch (types[i]) {
+                case TYPE_UUID16_INCOMPLETE:
+                case TYPE_UUID16_COMPLETE:
+                    if (!shortForm || uuid32 > 0xFFFF) {
+                        break;
+                    }
+                    for (int o = offset; o + 2 <= end; o += 2) {
+                        if (u16(o) == uuid32) {
+                            return true;
+                        }
+                    }
+                    break;
+                case TYPE_UUID32_INCOMPLETE:
+                case TYPE_UUID32_COMPLETE:
+                    if (!shortForm) {
+                        break;
+                    }
+                    for (int o = offset; o + 4 <= end; o += 4) {
+                        if (u32(o) == uuid32) {
+                            return true;
+                        }
+                    }
+                    break;
+                case TYPE_UUID128_INCOMPLETE:
+                case TYPE_UUID128_COMPLETE:
+                    for (int o = offset; o + 16 <= end; o += 16) {
+                        if (readLong(o) == lsb && readLong(o + 8) == msb) {
+                            return true;
+                        }
+                    }
+                    break;
+            }
+        }
+        return false;
+    }
+
+    private long readLong(int offset) {
+        return u32(offset) | u32(offset + 4) << 32;
+    }
+
+    // structure with the complete name, else the shortened one, NOT_PRESENT if neither
+    private int findName() {
+        int i = find(TYPE_NAME_COMPLETE);
+        return i != NOT_PRESENT ? i : find(TYPE_NAME_SHORT);
+    }
+
+    /**
+     * Compare the advertised name with prefix without decoding it. Only exact for ASCII,
+     * which covers the prefixes filters are written with.
+     **/
+    public boolean nameStartsWith(CharSequence prefix) {
+        int i = findName();
+        if (i == NOT_PRESENT || lengths[i] < prefix.length()) {
+            return false;
+        }
+        int offset = offsets[i];
+        for (int c = 0; c < prefix.length(); c++) {
+            if (record[offset + c] != prefix.charAt(c)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // decoded once per parse, null if no name is advertised
+    public String getName() {
+        if (name == null) {
+            int i = findName();
+            if (i != NOT_PRESENT) {
+                name = new String(record, offsets[i], lengths[i], StandardCharsets.UTF_8);
+            }
+        }
+        return name;
+    }
+}
@@ -0,0 +1,92 @@
+package com.example.bleserial.scan;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Parsed scan records per device.
+ * <p>
+ * Most devices repeat the same advertisement, so {@link #get} compares the record with the one
+ * parsed last time for that device: a repeat costs one array compare and keeps what the
+ * {@link AdRecord} already worked out, like the decoded name. Only a changed record is parsed
+ * again, into the device's own instance. The cache parses and compares its own copy of the
+ * record, so callers may reuse their buffer. Not thread safe, use it from the scan callback
+ * thread.
+ **/
+public class AdRecordCache {
+    public static final int DEFAULT_MAX_DEVICES = 256;
+
+    private static final class Slot {
+        final AdRecord parsed = new AdRecord();
+        // what parsed reads from, never the caller's array
+        byte[] record;
+    }
+
+    private final int maxDevices;
+    private final LongIntHashMap index;
+    private final List<Slot> slots = new ArrayList<>();
+    private long hits = 0;
+    private long misses = 0;
+
+    public AdRecordCache(int maxDevices) {
+        this.maxDevices = maxDevices;
+        this.index = new LongIntHashMap(maxDevices);
+    }
+
+    public AdRecordCache() {
+        this(DEFAULT_MAX_DEVICES);
+    }
+
+    /**
+     * The parsed record of a device, keyed by its packed MAC address. The result is owned by
+     * the cache and stays valid until the next call for the same device.
+     **/
+    public AdRecord get(long deviceKey, byte[] record) {
+        int i = index.get(deviceKey);
+        Slot slot;
+        if (i == LongIntHashMap.NOT_FOUND) {
+            if (index.size() >= maxDevices) {
+                // rather than tracking use, start over, a busy scan refills it within seconds
+                index.clear();
+            }
+            i = index.size();
+            if (i == slots.size()) {
+                slots.add(new Slot());
+            }
+            index.put(deviceKey, i);
+            slot = slots.get(i);
+        } else {
+            slot = slots.get(i);
+            if (Arrays.equals(slot.record, record)) {
+                hits++;
+                return slot.parsed;
+            }
+        }
+        misses++;
+        if (slot.record == null || slot.record.length != record.length) {
+            slot.record = record.clone();
+        } else {
+            System.arraycopy(record, 0, slot.record, 0, record.length);
+        }
+        slot.parsed.parse(slot.record);
+        return slot.parsed;
+    }
+
+    public int size() {
+        return index.size();
+    }
+
+    // records served without parsing
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public void clear() {
+        index.clear();
+    }
+}
@@ -0,0 +1,48 @@
+package com.example.bleserial.scan;
+
+/**
+ * One row of the device list. Owned by the UI thread once it is in a {@link DeviceListModel}.
+ **/
+public final class DeviceEntry<D> {
+    private final long key;
+    private final String address;
+    private String name;
+    private int rssi;
+    private D device;
+
+    DeviceEntry(long key, String address, String name, int rssi, D device) {
+        this.key = key;
+        this.address = address;
+        this.name = name;
+        this.rssi = rssi;
+        this.device = device;
+    }
+
+    // packed MAC address
+    public long getKey() {
+        return key;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    // null until the device advertises one
+    public String getName() {
+        return name;
+    }
+
+    public int getRssi() {
+        return rssi;
+    }
+
+    public D getDevice() {
+        return device;
+    }
+
+    void set(String name, int rssi, D device) {
+        this.name = name;
+        this.rssi = rssi;
+        this.device = device;
+    }
+}
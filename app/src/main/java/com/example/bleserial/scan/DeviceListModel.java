@@ -0,0 +1,219 @@
+package com.example.bleserial.scan;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The scanned devices, indexed by packed MAC address.
+ * <p>
+ * Scan results are offered from any thread and coalesced per device, so a beacon advertising
+ * ten times between two frames costs one update. Once per frame the UI thread applies the
+ * batch with {@link #applyPending}, which reports removed and inserted rows and in-place
+ * changes with a payload saying what changed, the same calls DiffUtil would make.
+ **/
+public class DeviceListModel<D> {
+    // change payloads, or-ed together
+    public static final int PAYLOAD_RSSI = 1;
+    public static final int PAYLOAD_NAME = 2;
+
+    /**
+     * Receives the row changes, e.g. a RecyclerView adapter's notify methods
+     **/
+    public interface Updates {
+        void onInserted(int position, int count);
+
+        void onChanged(int position, int count, Object payload);
+
+        void onRemoved(int position, int count);
+
+        void onCleared();
+    }
+
+    private static final class Pending<D> {
+        final long key;
+        final String address;
+        String name;
+        int rssi;
+        D device;
+        boolean removed;
+
+        Pending(long key, String address, String name, int rssi, D device) {
+            this.key = key;
+            this.address = address;
+            this.name = name;
+            this.rssi = rssi;
+            this.device = device;
+        }
+    }
+
+    // UI thread only
+    private final List<DeviceEntry<D>> entries = new ArrayList<>();
+    private final LongIntHashMap index = new LongIntHashMap(64);
+
+    // written by the scan thread, swapped out by the UI thread
+    private final Object lock = new Object();
+    private List<Pending<D>> pending = new ArrayList<>();
+    private List<Pending<D>> spare = new ArrayList<>();
+    private final LongIntHashMap pendingIndex = new LongIntHashMap(64);
+    private boolean clearPending = false;
+    private boolean frameRequested = false;
+
+    /**
+     * Record a scan result, from any thread. Returns true if this is the first change since the
+     * last {@link #applyPending}, i.e. the caller should schedule a frame.
+     **/
+    public boolean offer(String address, String name, int rssi, D device) {
+        long key = MacAddress.pack(address);
+        if (key == MacAddress.INVALID) {
+            return false;
+        }
+        synchronized (lock) {
+            int slot = pendingIndex.get(key);
+            if (slot == LongIntHashMap.NOT_FOUND) {
+                pendingIndex.put(key, pending.size());
+                pending.add(new Pending<>(key, address, name, rssi, device));
+            } else {
+                Pending<D> update = pending.get(slot);
+                if (name != null) {
+                    update.name = name;
+                }
+                update.rssi = rssi;
+                update.device = device;
+                update.removed = false;
+            }
+            return requestFrame();
+        }
+    }
+
+    /**
+     * Drop a device from the list on the next frame, from any thread. Returns true if the
+     * caller should schedule a frame.
+     **/
+    public boolean remove(String address) {
+        long key = MacAddress.pack(address);
+        if (key == MacAddress.INVALID) {
+            return false;
+        }
+        synchronized (lock) {
+            int slot = pendingIndex.get(key);
+            if (slot == LongIntHashMap.NOT_FOUND) {
+                Pending<D> removal = new Pending<>(key, address, null, 0, null);
+                removal.removed = true;
+                pendingIndex.put(key, pending.size());
+                pending.add(removal);
+            } else {
+                pending.get(slot).removed = true;
+            }
+            return requestFrame();
+        }
+    }
+
+    /**
+     * Empty the list on the next frame, e.g. when a new scan starts
+     **/
+    public boolean clear() {
+        synchronized (lock) {
+            pending.clear();
+            pendingIndex.clear();
+            clearPending = true;
+            return requestFrame();
+        }
+    }
+
+    // caller holds the lock
+    private boolean requestFrame() {
+        if (frameRequested) {
+            return false;
+        }
+        frameRequested = true;
+        return true;
+    }
+
+    /**
+     * Apply everything offered since the last call, on the UI thread
+     **/
+    public void applyPending(Updates updates) {
+        List<Pending<D>> batch;
+        boolean cleared;
+        synchronized (lock) {
+            batch = pending;
+            pending = spare;
+            spare = batch;
+            pendingIndex.clear();
+            cleared = clearPending;
+            clearPending = false;
+            frameRequested = false;
+        }
+        if (cleared) {
+            entries.clear();
+            index.clear();
+            updates.onCleared();
+        }
+        // removals first, every device has one final state per batch
+        for (int i = 0; i < batch.size(); i++) {
+            Pending<D> update = batch.get(i);
+            if (update.removed) {
+                removeEntry(update.key, updates);
+            }
+        }
+        int insertStart = entries.size();
+        for (int i = 0; i < batch.size(); i++) {
+            Pending<D> update = batch.get(i);
+            if (update.removed) {
+                continue;
+            }
+            int position = index.get(update.key);
+            if (position == LongIntHashMap.NOT_FOUND) {
+                index.put(update.key, entries.size());
+                entries.add(new DeviceEntry<>(update.key, update.address, update.name, update.rssi, update.device));
+                continue;
+            }
+            DeviceEntry<D> entry = entries.get(position);
+            int changes = 0;
+            if (entry.getRssi() != update.rssi) {
+                changes |= PAYLOAD_RSSI;
+            }
+            String name = update.name != null ? update.name : entry.getName();
+            if (name != null && !name.equals(entry.getName())) {
+                changes |= PAYLOAD_NAME;
+            }
+            entry.set(name, update.rssi, update.device);
+            if (changes != 0 && position < insertStart) {
+                updates.onChanged(position, 1, changes);
+            }
+        }
+        if (entries.size() > insertStart) {
+            updates.onInserted(insertStart, entries.size() - insertStart);
+        }
+        batch.clear();
+    }
+
+    private void removeEntry(long key, Updates updates) {
+        int position = index.remove(key);
+        if (position == LongIntHashMap.NOT_FOUND) {
+            return;
+        }
+        entries.remove(position);
+        for (int i = position; i < entries.size(); i++) {
+            index.put(entries.get(i).getKey(), i);
+        }
+        updates.onRemoved(position, 1);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public DeviceEntry<D> get(int position) {
+        return entries.get(position);
+    }
+
+    // position of the device, -1 if not listed, UI thread
+    public int indexOf(String address) {
+        return index.get(MacAddress.pack(address));
+    }
+
+    public boolean contains(String address) {
+        return indexOf(address) >= 0;
+    }
+}
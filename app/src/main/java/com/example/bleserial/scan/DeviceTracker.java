@@ -0,0 +1,233 @@
+package com.example.bleserial.scan;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Devices seen by a scan that never stops, in bounded memory.
+ * <p>
+ * Every device keeps its last sighting and an exponentially smoothed RSSI. The devices are
+ * linked in sighting order, so {@link #expire} only looks at the oldest ones and the
+ * least recently seen device is the one dropped when the bound is reached. They are also kept
+ * sorted by smoothed RSSI: a sighting moves its device only past the neighbours it overtakes,
+ * which are few because the smoothed value moves slowly, so the nearest N are always the first N
+ * without sorting. Not thread safe, use it from the scan callback thread.
+ **/
+public class DeviceTracker<D> {
+    public static final long DEFAULT_TIMEOUT_MS = 30000;
+    public static final int DEFAULT_MAX_DEVICES = 256;
+    // weight of a new RSSI sample
+    public static final double DEFAULT_SMOOTHING = 0.25;
+
+    public interface Listener<D> {
+        // the device timed out or made room for a new one
+        void onDeviceLost(TrackedDevice<D> device);
+    }
+
+    private final int maxDevices;
+    private long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_TIMEOUT_MS);
+    private double smoothing = DEFAULT_SMOOTHING;
+    private Listener<D> listener;
+
+    private final LongIntHashMap index;
+    // by slot, slots are reused once freed
+    private final List<TrackedDevice<D>> slots = new ArrayList<>();
+    private int[] freeSlots = new int[16];
+    private int freeCount = 0;
+    // strongest first
+    private TrackedDevice<?>[] ranked = new TrackedDevice<?>[16];
+    private int size = 0;
+    // sighting order, newest at the head
+    private TrackedDevice<D> newest;
+    private TrackedDevice<D> oldest;
+
+    public DeviceTracker(int maxDevices) {
+        this.maxDevices = maxDevices;
+        this.index = new LongIntHashMap(maxDevices);
+    }
+
+    public DeviceTracker() {
+        this(DEFAULT_MAX_DEVICES);
+    }
+
+    public void setListener(Listener<D> listener) {
+        this.listener = listener;
+    }
+
+    // devices not seen for this long are dropped by expire()
+    public void setTimeout(long timeout, TimeUnit unit) {
+        timeoutNanos = unit.toNanos(timeout);
+    }
+
+    public void setSmoothing(double smoothing) {
+        this.smoothing = smoothing;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Record a sighting. Returns the tracked device, or null if the address is malformed.
+     **/
+    public TrackedDevice<D> seen(String address, String name, int rssi, D device, long nowNanos) {
+        long key = MacAddress.pack(address);
+        if (key == MacAddress.INVALID) {
+            return null;
+        }
+        int slot = index.get(key);
+        if (slot != LongIntHashMap.NOT_FOUND) {
+            TrackedDevice<D> tracked = slots.get(slot);
+            tracked.seen(name, rssi, device, nowNanos, smoothing, false);
+            touch(tracked);
+            rerank(tracked);
+            return tracked;
+        }
+        if (size >= maxDevices) {
+            remove(oldest);
+        }
+        TrackedDevice<D> tracked = new TrackedDevice<>(key, address);
+        tracked.seen(name, rssi, device, nowNanos, smoothing, true);
+        tracked.slot = allocateSlot(tracked);
+        index.put(key, tracked.slot);
+        linkNewest(tracked);
+        if (size == ranked.length) {
+            ranked = Arrays.copyOf(ranked, size * 2);
+        }
+        tracked.rank = size;
+        ranked[size++] = tracked;
+        rerank(tracked);
+        return tracked;
+    }
+
+    /**
+     * Drop the devices not seen within the timeout. Returns how many were dropped.
+     **/
+    public int expire(long nowNanos) {
+        int expired = 0;
+        while (oldest != null && nowNanos - oldest.getLastSeenNanos() > timeoutNanos) {
+            remove(oldest);
+            expired++;
+        }
+        return expired;
+    }
+
+    public TrackedDevice<D> get(String address) {
+        int slot = index.get(MacAddress.pack(address));
+        return slot == LongIntHashMap.NOT_FOUND ? null : slots.get(slot);
+    }
+
+    // rank-th strongest device, 0 is the nearest
+    @SuppressWarnings("unchecked")
+    public TrackedDevice<D> getRanked(int rank) {
+        if (rank < 0 || rank >= size) {
+            throw new IndexOutOfBoundsException("rank " + rank + ", size " + size);
+        }
+        return (TrackedDevice<D>) ranked[rank];
+    }
+
+    /**
+     * Fill out with the n strongest devices, strongest first. Returns how many were added.
+     **/
+    public int getNearest(int n, List<TrackedDevice<D>> out) {
+        int count = Math.min(n, size);
+        for (int i = 0; i < count; i++) {
+            out.add(getRanked(i));
+        }
+        return count;
+    }
+
+    public void clear() {
+        index.clear();
+        slots.clear();
+        freeCount = 0;
+        Arrays.fill(ranked, 0, size, null);
+        size = 0;
+        newest = null;
+        oldest = null;
+    }
+
+    private void remove(TrackedDevice<D> tracked) {
+        index.remove(tracked.getKey());
+        unlink(tracked);
+        // close the gap in the ranking
+        System.arraycopy(ranked, tracked.rank + 1, ranked, tracked.rank, size - tracked.rank - 1);
+        size--;
+        ranked[size] = null;
+        for (int i = tracked.rank; i < size; i++) {
+            ranked[i].rank = i;
+        }
+        slots.set(tracked.slot, null);
+        if (freeCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+        }
+        freeSlots[freeCount++] = tracked.slot;
+        if (listener != null) {
+            listener.onDeviceLost(tracked);
+        }
+    }
+
+    private int allocateSlot(TrackedDevice<D> tracked) {
+        if (freeCount > 0) {
+            int slot = freeSlots[--freeCount];
+            slots.set(slot, tracked);
+            return slot;
+        }
+        slots.add(tracked);
+        return slots.size() - 1;
+    }
+
+    // move toward the front past weaker devices, or back past stronger ones
+    private void rerank(TrackedDevice<D> tracked) {
+        int i = tracked.rank;
+        double value = tracked.getSmoothedRssi();
+        while (i > 0 && ranked[i - 1].getSmoothedRssi() < value) {
+            ranked[i] = ranked[i - 1];
+            ranked[i].rank = i;
+            i--;
+        }
+        while (i < size - 1 && ranked[i + 1].getSmoothedRssi() > value) {
+            ranked[i] = ranked[i + 1];
+            ranked[i].rank = i;
+            i++;
+        }
+        ranked[i] = tracked;
+        tracked.rank = i;
+    }
+
+    private void touch(TrackedDevice<D> tracked) {
+        if (tracked != newest) {
+            unlink(tracked);
+            linkNewest(tracked);
+        }
+    }
+
+    private void linkNewest(TrackedDevice<D> tracked) {
+        tracked.older = newest;
+        tracked.newer = null;
+        if (newest != null) {
+            newest.newer = tracked;
+        }
+        newest = tracked;
+        if (oldest == null) {
+            oldest = tracked;
+        }
+    }
+
+    private void unlink(TrackedDevice<D> tracked) {
+        if (tracked.newer != null) {
+            tracked.newer.older = tracked.older;
+        } else {
+            newest = tracked.older;
+        }
+        if (tracked.older != null) {
+            tracked.older.newer = tracked.newer;
+        } else {
+            oldest = tracked.newer;
+        }
+        tracked.newer = null;
+        tracked.older = null;
+    }
+}
@@ -0,0 +1,129 @@
+package com.example.bleserial.scan;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing map from non-negative long keys to int values, no boxing on get or put.
+ * Sized for device lists, where keys are packed MAC addresses.
+ **/
+public class LongIntHashMap {
+    public static final int NOT_FOUND = -1;
+
+    private static final long EMPTY = -1;
+
+    private long[] keys;
+    private int[] values;
+    private int size = 0;
+
+    public LongIntHashMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1;
+        keys = new long[capacity];
+        values = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+    }
+
+    public LongIntHashMap() {
+        this(16);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    // slot holding key, or the empty slot where it would go
+    private int slot(long key) {
+        int mask = keys.length - 1;
+        int i = hash(key) & mask;
+        while (keys[i] != EMPTY && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    public int get(long key) {
+        if (key < 0) {
+            return NOT_FOUND;
+        }
+        int i = slot(key);
+        return keys[i] == key ? values[i] : NOT_FOUND;
+    }
+
+    public boolean containsKey(long key) {
+        return key >= 0 && keys[slot(key)] == key;
+    }
+
+    public void put(long key, int value) {
+        if (key < 0) {
+            throw new IllegalArgumentException("keys must be >= 0");
+        }
+        int i = slot(key);
+        if (keys[i] != key) {
+            if ((size + 1) * 2 > keys.length) {
+                grow();
+                i = slot(key);
+            }
+            keys[i] = key;
+            size++;
+        }
+        values[i] = value;
+    }
+
+    /**
+     * Remove key, returning its value or NOT_FOUND. The entries after it in the probe run are
+     * shifted back into the gap, so lookups never need tombstones.
+     **/
+    public int remove(long key) {
+        if (key < 0) {
+            return NOT_FOUND;
+        }
+        int i = slot(key);
+        if (keys[i] != key) {
+            return NOT_FOUND;
+        }
+        int value = values[i];
+        int mask = keys.length - 1;
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            if (keys[j] == EMPTY) {
+                break;
+            }
+            int home = hash(keys[j]) & mask;
+            // entries whose home lies cyclically in (i, j] are still reachable, leave them
+            boolean reachable = i <= j ? (i < home && home <= j) : (i < home || home <= j);
+            if (!reachable) {
+                keys[i] = keys[j];
+                values[i] = values[j];
+                i = j;
+            }
+        }
+        keys[i] = EMPTY;
+        size--;
+        return value;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        values = new int[oldValues.length * 2];
+        Arrays.fill(keys, EMPTY);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int j = slot(oldKeys[i]);
+                keys[j] = oldKeys[i];
+                values[j] = oldValues[i];
+            }
+        }
+    }
+}
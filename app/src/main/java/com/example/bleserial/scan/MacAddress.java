@@ -0,0 +1,52 @@
+package com.example.bleserial.scan;
+
+/**
+ * Bluetooth device addresses packed into the low 48 bits of a long, for hashing and comparing
+ * without strings
+ **/
+public final class MacAddress {
+    public static final long INVALID = -1;
+
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    private MacAddress() {
+    }
+
+    /**
+     * "AA:BB:CC:DD:EE:FF" (or with '-') to 0xAABBCCDDEEFF, INVALID if malformed
+     **/
+    public static long pack(CharSequence address) {
+        if (address == null || address.length() != 17) {
+            return INVALID;
+        }
+        long value = 0;
+        for (int i = 0; i < 17; i++) {
+            char c = address.charAt(i);
+            if (i % 3 == 2) {
+                if (c != ':' && c != '-') {
+                    return INVALID;
+                }
+                continue;
+            }
+            int digit = Character.digit(c, 16);
+            if (digit < 0) {
+                return INVALID;
+            }
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    public static String format(long address) {
+        char[] text = new char[17];
+        for (int i = 0; i < 6; i++) {
+            int b = (int) (address >>> (40 - 8 * i)) & 0xFF;
+            text[i * 3] = HEX[b >>> 4];
+            text[i * 3 + 1] = HEX[b & 0x0F];
+            if (i < 5) {
+                text[i * 3 + 2] = ':';
+            }
+        }
+        return new String(text);
+    }
+}
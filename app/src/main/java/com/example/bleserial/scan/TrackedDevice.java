@@ -0,0 +1,71 @@
+package com.example.bleserial.scan;
+
+/**
+ * A device followed by a {@link DeviceTracker}, with its smoothed signal and last sighting
+ **/
+public final class TrackedDevice<D> {
+    private final long key;
+    private final String address;
+    private String name;
+    private D device;
+    private int rssi;
+    private double smoothedRssi;
+    private long lastSeenNanos;
+
+    // owned by the tracker
+    int slot;
+    int rank;
+    TrackedDevice<D> newer;
+    TrackedDevice<D> older;
+
+    TrackedDevice(long key, String address) {
+        this.key = key;
+        this.address = address;
+    }
+
+    // packed MAC address
+    public long getKey() {
+        return key;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    // last name advertised, null if none yet
+    public String getName() {
+        return name;
+    }
+
+    public D getDevice() {
+        return device;
+    }
+
+    // RSSI of the last sighting
+    public int getRssi() {
+        return rssi;
+    }
+
+    public double getSmoothedRssi() {
+        return smoothedRssi;
+    }
+
+    public long getLastSeenNanos() {
+        return lastSeenNanos;
+    }
+
+    // position in the strongest-first ordering, 0 is the nearest
+    public int getRank() {
+        return rank;
+    }
+
+    void seen(String name, int rssi, D device, long nowNanos, double smoothing, boolean first) {
+        if (name != null) {
+            this.name = name;
+        }
+        this.device = device;
+        this.rssi = rssi;
+        this.smoothedRssi = first ? rssi : smoothedRssi + smoothing * (rssi - smoothedRssi);
+        this.lastSeenNanos = nowNanos;
+    }
+}
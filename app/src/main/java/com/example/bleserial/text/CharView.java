@@ -0,0 +1,57 @@
+package com.example.bleserial.text;
+
+/**
+ * A CharSequence over the start of a reused char array. Only valid until its owner writes the
+ * array again, call toString() to keep the text.
+ **/
+public final class CharView implements CharSequence {
+    private char[] chars;
+    private int length;
+
+    CharView(int capacity) {
+        chars = new char[capacity];
+    }
+
+    // room for at least capacity chars, dropping the content
+    char[] ensureCapacity(int capacity) {
+        if (chars.length < capacity) {
+            chars = new char[Math.max(capacity, chars.length * 2)];
+        }
+        return chars;
+    }
+
+    // the backing array, valid up to length()
+    char[] array() {
+        return chars;
+    }
+
+    void setLength(int length) {
+        this.length = length;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index >= length) {
+            throw new IndexOutOfBoundsException("index " + index + ", length " + length);
+        }
+        return chars[index];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || end > length || start > end) {
+            throw new IndexOutOfBoundsException("start " + start + ", end " + end + ", length " + length);
+        }
+        return new String(chars, start, end - start);
+    }
+
+    @Override
+    public String toString() {
+        return new String(chars, 0, length);
+    }
+}
@@ -0,0 +1,144 @@
+package com.example.bleserial.text;
+
+/**
+ * Splits a UTF-8 byte stream into lines, for peripherals that talk in lines.
+ * <p>
+ * Packets are decoded by a {@link Utf8Decoder} and the text gathered in one reused builder until
+ * a delimiter, then the line is passed to the listener without becoming a String. With both
+ * '\r' and '\n' as delimiters a "\r\n" pair ends one line, not two. A line growing past the
+ * maximum length is passed on in pieces, never between the two halves of a surrogate pair, so a
+ * peripheral that never sends a delimiter cannot grow the builder without bound. Use it from one
+ * thread.
+ **/
+public class LineDecoder implements Utf8Decoder.Sink {
+    public static final String DEFAULT_DELIMITERS = "\r\n";
+    public static final int DEFAULT_MAX_LINE_LENGTH = 4096;
+
+    public interface LineListener {
+        // line excludes the delimiter and is only valid during the call
+        void onLine(CharSequence line);
+    }
+
+    private final Utf8Decoder utf8 = new Utf8Decoder();
+    private final boolean[] delimiters = new boolean[128];
+    private final boolean crlf;
+    private final int maxLineLength;
+    private final StringBuilder line = new StringBuilder();
+    private final LineListener listener;
+    private boolean afterCr = false;
+
+    /**
+     * delimiters are ASCII characters, any of which ends a line
+     **/
+    public LineDecoder(String delimiters, int maxLineLength, LineListener listener) {
+        for (int i = 0; i < delimiters.length(); i++) {
+            char c = delimiters.charAt(i);
+            if (c >= 128) {
+                throw new IllegalArgumentException("delimiters must be ASCII");
+            }
+            this.delimiters[c] = true;
+        }
+        this.crlf = this.delimiters['\r'] && this.delimiters['\n'];
+        this.maxLineLength = maxLineLength;
+        this.listener = listener;
+    }
+
+    public LineDecoder(LineListener listener) {
+        this(DEFAULT_DELIMITERS, DEFAULT_MAX_LINE_LENGTH, listener);
+    }
+
+    public void decode(byte[] data, int offset, int length) {
+        utf8.decode(data, offset, length, this);
+    }
+
+    @Override
+    public void onText(CharSequence text) {
+        if (text instanceof CharView) {
+            onChars(((CharView) text).array(), text.length());
+            return;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 128 && delimiters[c]) {
+                onDelimiter(c);
+            } else {
+                afterCr = false;
+                int room = maxLineLength - line.length();
+                if (room == 0 || (room == 1 && Character.isHighSurrogate(c) && line.length() > 0)) {
+                    endLine();
+                }
+                line.append(c);
+            }
+        }
+    }
+
+    // the decoder's own output: find each delimiter and copy the run before it in bulk
+    private void onChars(char[] chars, int length) {
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            char c = chars[i];
+            if (c < 128 && delimiters[c]) {
+                appendRun(chars, start, i);
+                onDelimiter(c);
+                start = i + 1;
+            }
+        }
+        appendRun(chars, start, length);
+    }
+
+    private void appendRun(char[] chars, int start, int end) {
+        if (start == end) {
+            return;
+        }
+        afterCr = false;
+        while (start < end) {
+            int n = Math.min(end - start, maxLineLength - line.length());
+            if (n > 0 && n < end - start && Character.isHighSurrogate(chars[start + n - 1])
+                    && (n > 1 || line.length() > 0)) {
+                // the pair goes on in the next piece
+                n--;
+            }
+            if (n == 0) {
+                endLine();
+                continue;
+            }
+            line.append(chars, start, n);
+            start += n;
+        }
+    }
+
+    private void onDelimiter(char c) {
+        // the '\n' of "\r\n" was ended by the '\r'
+        if (!(c == '\n' && afterCr && crlf)) {
+            endLine();
+        }
+        afterCr = c == '\r';
+    }
+
+    private void endLine() {
+        listener.onLine(line);
+        line.setLength(0);
+    }
+
+    // the line received so far, without its end
+    public CharSequence getPending() {
+        return line;
+    }
+
+    /**
+     * End of stream: pass on the unterminated last line, if any
+     **/
+    public void flush() {
+        utf8.flush(this);
+        if (line.length() > 0) {
+            endLine();
+        }
+        afterCr = false;
+    }
+
+    public void reset() {
+        utf8.reset();
+        line.setLength(0);
+        afterCr = false;
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.bleserial.text;
+
+/**
+ * Incremental UTF-8 decoder for a byte stream that arrives in packets.
+ * <p>
+ * A code point split between two packets is carried over and completed by the next one, where
+ * decoding each packet on its own would turn both halves into garbage. Malformed input, overlong
+ * forms and surrogates become U+FFFD, as with the JDK decoders. The text of each packet is
+ * written into one reused char array and handed to the sink as a {@link CharView}, so decoding
+ * allocates nothing once the array fits the largest packet.
+ **/
+public class Utf8Decoder {
+    public static final char REPLACEMENT = '\uFFFD';
+
+    public interface Sink {
+        // text is only valid during the call
+        void onText(CharSequence text);
+    }
+
+    private final CharView view = new CharView(256);
+
+    // code point being assembled, continuation bytes still expected, smallest valid value
+    private int pending = 0;
+    private int needed = 0;
+    private int minimum = 0;
+
+    /**
+     * Decode a packet, passing its complete characters to sink. Nothing is passed if the packet
+     * only holds part of a code point.
+     **/
+    public void decode(byte[] data, int offset, int length, Sink sink) {
+        // a replaced carry-over plus at most one char per byte
+        char[] out = view.ensureCapacity(length + 1);
+        int n = 0;
+        int end = offset + length;
+        int i = offset;
+        while (i < end) {
+            int b = data[i] & 0xFF;
+            if (needed > 0) {
+                if ((b & 0xC0) == 0x80) {
+                    pending = pending << 6 | (b & 0x3F);
+                    i++;
+                    if (--needed == 0) {
+                        n = appendCodePoint(out, n, pending);
+                    }
+                    continue;
+                }
+                // sequence cut short, b starts afresh
+                out[n++] = REPLACEMENT;
+                needed = 0;
+            }
+            if (b < 0x80) {
+                // ASCII run
+                out[n++] = (char) b;
+                i++;
+                while (i < end && data[i] >= 0) {
+                    out[n++] = (char) data[i++];
+                }
+                continue;
+            }
+            i++;
+            if (b >= 0xC2 && b < 0xE0) {
+                pending = b & 0x1F;
+                needed = 1;
+                minimum = 0x80;
+            } else if (b >= 0xE0 && b < 0xF0) {
+                pending = b & 0x0F;
+                needed = 2;
+                minimum = 0x800;
+            } else if (b >= 0xF0 && b < 0xF5) {
+                pending = b & 0x07;
+                needed = 3;
+                minimum = 0x10000;
+            } else {
+                out[n++] = REPLACEMENT;
+            }
+        }
+        if (n > 0) {
+            view.setLength(n);
+            sink.onText(view);
+        }
+    }
+
+    private int appendCodePoint(char[] out, int n, int codePoint) {
+        if (codePoint < minimum || codePoint > Character.MAX_CODE_POINT
+                || (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE)) {
+            out[n++] = REPLACEMENT;
+        } else if (codePoint >= Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+            // four bytes in, two chars out
+            out[n++] = Character.highSurrogate(codePoint);
+            out[n++] = Character.lowSurrogate(codePoint);
+        } else {
+            out[n++] = (char) codePoint;
+        }
+        return n;
+    }
+
+    // true while part of a code point is carried over to the next packet
+    public boolean hasPending() {
+        return needed > 0;
+    }
+
+    /**
+     * End of stream: an unfinished code point becomes U+FFFD
+     **/
+    public void flush(Sink sink) {
+        if (needed > 0) {
+            needed = 0;
+            char[] out = view.ensureCapacity(1);
+            out[0] = REPLACEMENT;
+            view.setLength(1);
+            sink.onText(view);
+        }
+    }
+
+    // forget any carried over bytes, e.g. after a reconnect
+    public void reset() {
+        needed = 0;
+    }
+}
@@ -0,0 +1,354 @@
+package com.example.bleserial.transfer;
+
+import com.example.bleserial.codec.FrameCodec;
+import com.example.bleserial.rpc.RpcClient;
+import com.example.bleserial.rpc.RpcFuture;
+import com.example.bleserial.uart.UartFragmenter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+
+/**
+ * Streams a file to the peripheral as RPC requests, each one frame of at most one write.
+ * <p>
+ * BEGIN tells the peripheral the size and the offset we would resume from, and it answers with
+ * the offset it wants next. DATA requests carry their offset and up to window of them are in
+ * flight; a response acknowledges its chunk. END follows the last acknowledgement. The file is
+ * read chunk by chunk with positional reads into one buffer, never whole. After a failure,
+ * usually a disconnect, {@link #start} on the next connection's client picks up at the last
+ * offset acknowledged without a gap.
+ * <p>
+ * Requests (after the RPC id): BEGIN [op][size u32][offset u32], DATA [op][offset u32][data],
+ * END [op]. Responses: [status][offset u32] for BEGIN and DATA, [status] for END, little endian,
+ * status 0 for success.
+ **/
+public class FileUpload {
+    public static final byte OP_BEGIN = 0x20;
+    public static final byte OP_DATA = 0x21;
+    public static final byte OP_END = 0x22;
+    // op and offset
+    public static final int DATA_HEADER_SIZE = 5;
+    public static final int DEFAULT_WINDOW = 8;
+    public static final long DEFAULT_REQUEST_TIMEOUT_MS = 5000;
+    // the most data one chunk carries, at the largest MTU
+    public static final int MAX_CHUNK_SIZE = 512;
+    // progress is reported at most this often, and once at the end
+    public static final long PROGRESS_INTERVAL_MS = 100;
+
+    // failure statuses beside the RpcFuture ones
+    public static final int STATUS_REJECTED = -10;
+    public static final int STATUS_READ_FAILED = -11;
+
+    private static final int STATE_IDLE = 0;
+    private static final int STATE_STARTING = 1;
+    private static final int STATE_SENDING = 2;
+    private static final int STATE_FINISHING = 3;
+    private static final int STATE_DONE = 4;
+    private static final int STATE_FAILED = 5;
+
+    public interface Listener {
+        void onProgress(FileUpload upload);
+
+        void onComplete(FileUpload upload);
+
+        // start() again on a new connection to resume
+        void onFailed(FileUpload upload, int status);
+    }
+
+    private static class Chunk {
+        final long offset;
+        final int length;
+        RpcFuture future;
+        boolean acknowledged;
+
+        Chunk(long offset, int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private final FileChannel file;
+    private final long size;
+    private final Executor executor;
+    private final Listener listener;
+    private final int window;
+    private final ByteBuffer buffer = ByteBuffer.allocate(DATA_HEADER_SIZE + MAX_CHUNK_SIZE);
+    private final Runnable pump = this::pump;
+
+    // guarded by this
+    private final ArrayDeque<Chunk> inFlight = new ArrayDeque<>();
+    private int state = STATE_IDLE;
+    private RpcClient client;
+    private int chunkSize;
+    private long nextOffset = 0;
+    private long acknowledged = 0;
+    private long startNanos;
+    private long startOffset;
+    private long lastProgressNanos;
+    private long finishNanos;
+
+    /**
+     * file is read from the executor's thread, which also runs the listener
+     **/
+    public FileUpload(FileChannel file, Executor executor, Listener listener, int window) throws IOException {
+        if (window < 1) {
+            throw new IllegalArgumentException("window must be >= 1");
+        }
+        this.file = file;
+        this.size = file.size();
+        if (size > 0xFFFFFFFFL) {
+            throw new IOException("file too large: " + size);
+        }
+        this.executor = executor;
+        this.listener = listener;
+        this.window = window;
+    }
+
+    public FileUpload(FileChannel file, Executor executor, Listener listener) throws IOException {
+        this(file, executor, listener, DEFAULT_WINDOW);
+    }
+
+    /**
+     * The most file data per DATA request for one write at mtu, after the RPC id, the DATA
+     * header and the codec's framing
+     **/
+    public static int chunkSizeFor(int mtu, FrameCodec codec) {
+        int payload = UartFragmenter.payloadSizeForMtu(mtu);
+        int chunk = Math.min(MAX_CHUNK_SIZE, payload);
+        while (chunk > 1 && codec.maxEncodedLength(RpcClient.HEADER_SIZE + DATA_HEADER_SIZE + chunk) > payload) {
+            chunk--;
+        }
+        return chunk;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    // bytes the peripheral has, without gaps
+    public synchronized long getAcknowledged() {
+        return acknowledged;
+    }
+
+    public synchronized boolean isDone() {
+        return state == STATE_DONE;
+    }
+
+    public synchronized boolean isActive() {
+        return state == STATE_STARTING || state == STATE_SENDING || state == STATE_FINISHING;
+    }
+
+    /**
+     * Sustained rate of this run, the bytes acknowledged since start() over the time since
+     **/
+    public synchronized double getBytesPerSecond() {
+        if (startNanos == 0) {
+            return 0;
+        }
+        long end = finishNanos != 0 ? finishNanos : System.nanoTime();
+        return (acknowledged - startOffset) / (Math.max(1, end - startNanos) / 1e9);
+    }
+
+    /**
+     * Start, or resume after a failure, through client with chunkSize bytes per request. false
+     * if it is running or done already.
+     **/
+    public boolean start(RpcClient client, int chunkSize) {
+        if (chunkSize < 1 || chunkSize > MAX_CHUNK_SIZE) {
+            throw new IllegalArgumentException("chunkSize must be 1.." + MAX_CHUNK_SIZE);
+        }
+        long resumeFrom;
+        synchronized (this) {
+            if (state != STATE_IDLE && state != STATE_FAILED) {
+                return false;
+            }
+            state = STATE_STARTING;
+            this.client = client;
+            this.chunkSize = chunkSize;
+            resumeFrom = acknowledged;
+        }
+        byte[] begin = new byte[9];
+        begin[0] = OP_BEGIN;
+        putInt(begin, 1, size);
+        putInt(begin, 5, resumeFrom);
+        client.call(begin, DEFAULT_REQUEST_TIMEOUT_MS).setCallback(this::onBegin);
+        return true;
+    }
+
+    /**
+     * Stop sending, the requests in flight are cancelled. start() resumes later.
+     **/
+    public void pause() {
+        fail(RpcFuture.STATUS_CANCELLED);
+    }
+
+    private void onBegin(RpcFuture future) {
+        byte[] response = future.getResponse();
+        if (future.getStatus() != RpcFuture.STATUS_SUCCESS) {
+            fail(future.getStatus());
+            return;
+        }
+        if (response.length < 5 || response[0] != 0) {
+            fail(STATUS_REJECTED);
+            return;
+        }
+        synchronized (this) {
+            if (state != STATE_STARTING) {
+                return;
+            }
+            // the peripheral may have less than we think, never more than the file
+            acknowledged = Math.min(getInt(response, 1), size);
+            nextOffset = acknowledged;
+            startOffset = acknowledged;
+            startNanos = System.nanoTime();
+            lastProgressNanos = startNanos;
+            finishNanos = 0;
+            state = STATE_SENDING;
+        }
+        executor.execute(pump);
+    }
+
+    // fill the window, then END once everything is acknowledged
+    private void pump() {
+        RpcClient rpc;
+        while (true) {
+            Chunk chunk;
+            synchronized (this) {
+                if (state != STATE_SENDING) {
+                    return;
+                }
+                rpc = client;
+                if (nextOffset >= size) {
+                    if (!inFlight.isEmpty()) {
+                        return;
+                    }
+                    state = STATE_FINISHING;
+                    break;
+                }
+                if (inFlight.size() >= window) {
+                    return;
+                }
+                chunk = new Chunk(nextOffset, (int) Math.min(chunkSize, size - nextOffset));
+                buffer.clear();
+                buffer.put(OP_DATA);
+                buffer.put((byte) chunk.offset).put((byte) (chunk.offset >>> 8))
+                        .put((byte) (chunk.offset >>> 16)).put((byte) (chunk.offset >>> 24));
+                buffer.limit(DATA_HEADER_SIZE + chunk.length);
+                try {
+                    long position = chunk.offset;
+                    while (buffer.hasRemaining()) {
+                        int n = file.read(buffer, position);
+                        if (n < 0) {
+                            throw new IOException("file ended at " + position);
+                        }
+                        position += n;
+                    }
+                } catch (IOException e) {
+                    chunk = null;
+                }
+                if (chunk != null) {
+                    nextOffset += chunk.length;
+                    inFlight.add(chunk);
+                    // the client copies the request, the buffer is ours again when call returns
+                    chunk.future = rpc.call(buffer.array(), 0, buffer.limit(), DEFAULT_REQUEST_TIMEOUT_MS);
+                }
+            }
+            if (chunk == null) {
+                fail(STATUS_READ_FAILED);
+                return;
+            }
+            final Chunk sent = chunk;
+            sent.future.setCallback(future -> onData(sent, future));
+        }
+        rpc.call(new byte[]{OP_END}, DEFAULT_REQUEST_TIMEOUT_MS).setCallback(this::onEnd);
+    }
+
+    private void onData(Chunk chunk, RpcFuture future) {
+        byte[] response = future.getResponse();
+        if (future.getStatus() != RpcFuture.STATUS_SUCCESS) {
+            fail(future.getStatus());
+            return;
+        }
+        if (response.length < 5 || response[0] != 0) {
+            fail(STATUS_REJECTED);
+            return;
+        }
+        boolean progress = false;
+        synchronized (this) {
+            if (state != STATE_SENDING) {
+                return;
+            }
+            chunk.acknowledged = true;
+            // responses may come out of order, only a gapless prefix counts
+            while (!inFlight.isEmpty() && inFlight.peek().acknowledged) {
+                Chunk done = inFlight.poll();
+                acknowledged = done.offset + done.length;
+            }
+            long now = System.nanoTime();
+            if (now - lastProgressNanos >= PROGRESS_INTERVAL_MS * 1000000L) {
+                lastProgressNanos = now;
+                progress = true;
+            }
+        }
+        executor.execute(pump);
+        if (progress) {
+            executor.execute(() -> listener.onProgress(this));
+        }
+    }
+
+    private void onEnd(RpcFuture future) {
+        byte[] response = future.getResponse();
+        if (future.getStatus() != RpcFuture.STATUS_SUCCESS) {
+            fail(future.getStatus());
+            return;
+        }
+        if (response.length < 1 || response[0] != 0) {
+            fail(STATUS_REJECTED);
+            return;
+        }
+        synchronized (this) {
+            if (state != STATE_FINISHING) {
+                return;
+            }
+            state = STATE_DONE;
+            finishNanos = System.nanoTime();
+        }
+        executor.execute(() -> {
+            listener.onProgress(this);
+            listener.onComplete(this);
+        });
+    }
+
+    private void fail(int status) {
+        Chunk[] cancelled;
+        synchronized (this) {
+            if (state != STATE_STARTING && state != STATE_SENDING && state != STATE_FINISHING) {
+                return;
+            }
+            state = STATE_FAILED;
+            finishNanos = System.nanoTime();
+            cancelled = inFlight.toArray(new Chunk[0]);
+            inFlight.clear();
+            nextOffset = acknowledged;
+        }
+        for (Chunk chunk : cancelled) {
+            chunk.future.cancel(false);
+        }
+        executor.execute(() -> listener.onFailed(this, status));
+    }
+
+    private static void putInt(byte[] buffer, int offset, long value) {
+        buffer[offset] = (byte) value;
+        buffer[offset + 1] = (byte) (value >>> 8);
+        buffer[offset + 2] = (byte) (value >>> 16);
+        buffer[offset + 3] = (byte) (value >>> 24);
+    }
+
+    private static long getInt(byte[] buffer, int offset) {
+        return (buffer[offset] & 0xFFL) | (buffer[offset + 1] & 0xFFL) << 8
+                | (buffer[offset + 2] & 0xFFL) << 16 | (buffer[offset + 3] & 0xFFL) << 24;
+    }
+}
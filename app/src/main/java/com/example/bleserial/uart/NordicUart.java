@@ -0,0 +1,21 @@
+package com.example.bleserial.uart;
+
+import java.util.UUID;
+
+/**
+ * UUIDs of the Nordic UART service, as plain Java objects for code that runs off device.
+ **/
+public class NordicUart {
+    public static final UUID SERVICE = UUID.fromString("6E400001-B5A3-F393-E0A9-E50E24DCCA9E");
+    // central writes here
+    public static final UUID RX = UUID.fromString("6E400002-B5A3-F393-E0A9-E50E24DCCA9E");
+    // peripheral notifies here
+    public static final UUID TX = UUID.fromString("6E400003-B5A3-F393-E0A9-E50E24DCCA9E");
+    public static final UUID CCCD = UUID.fromString("00002902-0000-1000-8000-00805F9B34FB");
+
+    public static final byte[] ENABLE_NOTIFICATION_VALUE = {0x01, 0x00};
+    public static final byte[] DISABLE_NOTIFICATION_VALUE = {0x00, 0x00};
+
+    private NordicUart() {
+    }
+}
@@ -0,0 +1,271 @@
+package com.example.bleserial.uart;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded byte ring between the GATT callback thread (the only producer) and the threads
+ * draining UART data.
+ * <p>
+ * Read and write positions are free running counters, the buffer index is the position masked
+ * by the power of two capacity. Consumers claim bytes with a CAS on the read position; with
+ * {@link OverflowPolicy#DROP_OLDEST} the producer moves the read position the same way, and a
+ * consumer whose bytes were overwritten while it copied them simply fails its CAS and retries.
+ **/
+public class RxRingBuffer {
+    public enum OverflowPolicy {
+        // overwrite the oldest unread bytes
+        DROP_OLDEST,
+        // discard the bytes that do not fit
+        DROP_NEWEST,
+        // make the producer wait for space, up to the block timeout
+        BLOCK
+    }
+
+    public static final long DEFAULT_BLOCK_TIMEOUT_MS = 100;
+
+    private final byte[] buffer;
+    private final int mask;
+    private final OverflowPolicy policy;
+    private final long blockTimeoutNanos;
+
+    private final AtomicLong readPosition = new AtomicLong();
+    private final AtomicLong writePosition = new AtomicLong();
+
+    // written by the producer only
+    private volatile long highWaterMark = 0;
+    private volatile long droppedBytes = 0;
+    private volatile Thread blockedProducer;
+    private volatile Thread blockedConsumer;
+    private volatile boolean closed = false;
+
+    public RxRingBuffer(int capacity, OverflowPolicy policy, long blockTimeoutMs) {
+        if (capacity < 2 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be a power of two: " + capacity);
+        }
+        this.buffer = new byte[capacity];
+        this.mask = capacity - 1;
+        this.policy = policy;
+        this.blockTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(blockTimeoutMs);
+    }
+
+    public RxRingBuffer(int capacity, OverflowPolicy policy) {
+        this(capacity, policy, DEFAULT_BLOCK_TIMEOUT_MS);
+    }
+
+    public int capacity() {
+        return buffer.length;
+    }
+
+    public OverflowPolicy getPolicy() {
+        return policy;
+    }
+
+    public int available() {
+        long r = readPosition.get();
+        return (int) Math.min(writePosition.get() - r, buffer.length);
+    }
+
+    // most bytes ever waiting in the buffer at once
+    public long getHighWaterMark() {
+        return highWaterMark;
+    }
+
+    public long getDroppedBytes() {
+        return droppedBytes;
+    }
+
+    public long getTotalWritten() {
+        return writePosition.get();
+    }
+
+    // no more data will arrive, blocked readers see end of stream once the buffer is empty
+    public void close() {
+        closed = true;
+        wake(blockedProducer);
+        wake(blockedConsumer);
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Producer side, returns the number of bytes stored. Only one thread may call this.
+     **/
+    public int write(byte[] src, int offset, int length) {
+        switch (policy) {
+            case DROP_NEWEST:
+                return writeDropNewest(src, offset, length);
+            case BLOCK:
+                return writeBlocking(src, offset, length);
+            default:
+                return writeDropOldest(src, offset, length);
+        }
+    }
+
+    private int writeDropOldest(byte[] src, int offset, int length) {
+        long dropped = 0;
+        if (length > buffer.length) {
+            // only the newest capacity bytes can survive
+            dropped = length - buffer.length;
+            offset += (int) dropped;
+            length = buffer.length;
+        }
+        long w = writePosition.get();
+        while (true) {
+            long r = readPosition.get();
+            long overflow = (w - r) + length - buffer.length;
+            if (overflow <= 0) {
+                break;
+            }
+            if (readPosition.compareAndSet(r, r + overflow)) {
+                dropped += overflow;
+                break;
+            }
+        }
+        if (dropped > 0) {
+            droppedBytes += dropped;
+        }
+        copyIn(w, src, offset, length);
+        return length;
+    }
+
+    private int writeDropNewest(byte[] src, int offset, int length) {
+        long w = writePosition.get();
+        int free = (int) (buffer.length - (w - readPosition.get()));
+        int n = Math.min(free, length);
+        if (n < length) {
+            droppedBytes += length - n;
+        }
+        if (n > 0) {
+            copyIn(w, src, offset, n);
+        }
+        return n;
+    }
+
+    private int writeBlocking(byte[] src, int offset, int length) {
+        int written = 0;
+        long deadline = System.nanoTime() + blockTimeoutNanos;
+        while (written < length) {
+            long w = writePosition.get();
+            int free = (int) (buffer.length - (w - readPosition.get()));
+            if (free > 0) {
+                int n = Math.min(free, length - written);
+                copyIn(w, src, offset + written, n);
+                written += n;
+                continue;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0 || closed) {
+                // a stalled consumer must not stall the GATT callback thread forever
+                droppedBytes += length - written;
+                break;
+            }
+            blockedProducer = Thread.currentThread();
+            if (buffer.length - (writePosition.get() - readPosition.get()) == 0) {
+                LockSupport.parkNanos(this, remaining);
+            }
+            blockedProducer = null;
+        }
+        return written;
+    }
+
+    // copy into the ring at position w and publish, there is room for length bytes
+    private void copyIn(long w, byte[] src, int offset, int length) {
+        int index = (int) (w & mask);
+        int first = Math.min(length, buffer.length - index);
+        System.arraycopy(src, offset, buffer, index, first);
+        if (first < length) {
+            System.arraycopy(src, offset + first, buffer, 0, length - first);
+        }
+        writePosition.set(w + length);
+
+        long used = w + length - readPosition.get();
+        if (used > highWaterMark) {
+            highWaterMark = used;
+        }
+        wake(blockedConsumer);
+    }
+
+    private static void wake(Thread thread) {
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Consumer side, copies up to length bytes and returns how many, 0 if empty. Never blocks.
+     **/
+    public int read(byte[] dst, int offset, int length) {
+        while (true) {
+            long r = readPosition.get();
+            long w = writePosition.get();
+            int n = (int) Math.min(Math.min(w - r, length), buffer.length);
+            if (n <= 0) {
+                return 0;
+            }
+            int index = (int) (r & mask);
+            int first = Math.min(n, buffer.length - index);
+            System.arraycopy(buffer, index, dst, offset, first);
+            if (first < n) {
+                System.arraycopy(buffer, 0, dst, offset + first, n - first);
+            }
+            if (readPosition.compareAndSet(r, r + n)) {
+                wake(blockedProducer);
+                return n;
+            }
+            // the producer overwrote what we copied, start again from the new read position
+        }
+    }
+
+    // discard everything unread
+    public void clear() {
+        while (true) {
+            long r = readPosition.get();
+            if (readPosition.compareAndSet(r, Math.max(r, writePosition.get()))) {
+                break;
+            }
+        }
+        wake(blockedProducer);
+    }
+
+    /**
+     * Blocking read for stream consumers. Waits until at least one byte is available and returns
+     * the count, -1 once closed and empty, or 0 if the timeout (0 = forever) expired first.
+     **/
+    public int read(byte[] dst, int offset, int length, long timeoutMs) throws InterruptedException {
+        if (length == 0) {
+            return 0;
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        while (true) {
+            int n = read(dst, offset, length);
+            if (n > 0) {
+                return n;
+            }
+            if (closed) {
+                // a last write may have landed between the read and the close
+                n = read(dst, offset, length);
+                return n > 0 ? n : -1;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (timeoutMs > 0 && remaining <= 0) {
+                return 0;
+            }
+            blockedConsumer = Thread.currentThread();
+            if (writePosition.get() == readPosition.get() && !closed) {
+                if (timeoutMs > 0) {
+                    LockSupport.parkNanos(this, remaining);
+                } else {
+                    LockSupport.park(this);
+                }
+            }
+            blockedConsumer = null;
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+}
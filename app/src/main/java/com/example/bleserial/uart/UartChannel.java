@@ -0,0 +1,141 @@
+package com.example.bleserial.uart;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+
+/**
+ * The Nordic UART service as a blocking byte channel.
+ * <p>
+ * Reads drain the RX ring fed by TX characteristic notifications, writes are split into MTU
+ * sized writes on the RX characteristic by the sink. A write that fails after it was queued is
+ * reported by the next write or close. Meant for a worker thread, never call it from the main or
+ * GATT callback thread.
+ **/
+public class UartChannel implements ByteChannel {
+    public static final long DEFAULT_WRITE_TIMEOUT_MS = 10000;
+
+    private final RxRingBuffer rxBuffer;
+    private final UartSink sink;
+    private volatile boolean open = true;
+    private volatile long readTimeoutMs = 0;
+    private volatile long writeTimeoutMs = DEFAULT_WRITE_TIMEOUT_MS;
+
+    private final byte[] readScratch = new byte[4096];
+    private final byte[] writeScratch = new byte[4096];
+
+    public UartChannel(RxRingBuffer rxBuffer, UartSink sink) {
+        this.rxBuffer = rxBuffer;
+        this.sink = sink;
+    }
+
+    // 0 waits forever
+    public void setReadTimeout(long timeoutMs) {
+        readTimeoutMs = timeoutMs;
+    }
+
+    public void setWriteTimeout(long timeoutMs) {
+        writeTimeoutMs = timeoutMs;
+    }
+
+    /**
+     * Blocks until data is available, returns -1 at end of stream
+     **/
+    public int read(byte[] dst, int offset, int length) throws IOException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+        try {
+            int n = rxBuffer.read(dst, offset, length, readTimeoutMs);
+            if (n == 0 && length > 0) {
+                throw new InterruptedIOException("UART read timed out");
+            }
+            return n;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("UART read interrupted");
+        }
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if (dst.hasArray()) {
+            int n = read(dst.array(), dst.arrayOffset() + dst.position(), dst.remaining());
+            if (n > 0) {
+                dst.position(dst.position() + n);
+            }
+            return n;
+        }
+        synchronized (readScratch) {
+            int n = read(readScratch, 0, Math.min(readScratch.length, dst.remaining()));
+            if (n > 0) {
+                dst.put(readScratch, 0, n);
+            }
+            return n;
+        }
+    }
+
+    /**
+     * Blocks until all bytes are queued for transmission. Throws if earlier bytes failed to go out.
+     **/
+    public void write(byte[] src, int offset, int length) throws IOException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+        sink.checkError();
+        try {
+            if (!sink.send(src, offset, length, writeTimeoutMs)) {
+                throw new IOException("UART link not available");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("UART write interrupted");
+        }
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        int total = src.remaining();
+        if (src.hasArray()) {
+            write(src.array(), src.arrayOffset() + src.position(), total);
+            src.position(src.limit());
+            return total;
+        }
+        synchronized (writeScratch) {
+            while (src.hasRemaining()) {
+                int n = Math.min(writeScratch.length, src.remaining());
+                src.get(writeScratch, 0, n);
+                write(writeScratch, 0, n);
+            }
+        }
+        return total;
+    }
+
+    public InputStream getInputStream() {
+        return Channels.newInputStream(this);
+    }
+
+    public OutputStream getOutputStream() {
+        return Channels.newOutputStream(this);
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * Throws if bytes written before failed to go out
+     **/
+    @Override
+    public void close() throws IOException {
+        open = false;
+        rxBuffer.close();
+        sink.checkError();
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.bleserial.uart;
+
+import java.util.Arrays;
+
+/**
+ * Splits outgoing UART payloads into chunks that fit a single ATT write.
+ * <p>
+ * An ATT write carries MTU - 3 bytes of value, so the chunk size follows the MTU
+ * negotiated for the connection. A payload that is an exact multiple of the chunk size
+ * is followed by an empty chunk, so the receiver can see where the message ends
+ * (see {@link UartReassembler}).
+ **/
+public class UartFragmenter {
+    public static final int ATT_HEADER_SIZE = 3;
+    public static final int DEFAULT_MTU = 23;
+    public static final int MAX_MTU = 517;
+
+    private volatile int payloadSize = DEFAULT_MTU - ATT_HEADER_SIZE;
+
+    public static int payloadSizeForMtu(int mtu) {
+        return Math.max(1, Math.min(mtu, MAX_MTU) - ATT_HEADER_SIZE);
+    }
+
+    public void setMtu(int mtu) {
+        payloadSize = payloadSizeForMtu(mtu);
+    }
+
+    public int getPayloadSize() {
+        return payloadSize;
+    }
+
+    // number of writes needed for a message of this length, including the terminating empty chunk
+    public int chunkCount(int length) {
+        return length / payloadSize + 1;
+    }
+
+    /**
+     * Split data[offset, offset + length) into chunks of at most the current payload size.
+     * Stream data has no message boundaries, so pass terminate = false to skip the empty chunk.
+     **/
+    public byte[][] fragment(byte[] data, int offset, int length, boolean terminate) {
+        int size = payloadSize;
+        int count = terminate ? length / size + 1 : (length + size - 1) / size;
+        byte[][] chunks = new byte[count][];
+        for (int i = 0; i < chunks.length; i++) {
+            int start = offset + i * size;
+            chunks[i] = Arrays.copyOfRange(data, start, start + Math.min(size, offset + length - start));
+        }
+        return chunks;
+    }
+
+    public byte[][] fragment(byte[] data, int offset, int length) {
+        return fragment(data, offset, length, true);
+    }
+
+    public byte[][] fragment(byte[] data) {
+        return fragment(data, 0, data.length, true);
+    }
+}
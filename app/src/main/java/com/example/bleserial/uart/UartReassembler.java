@@ -0,0 +1,78 @@
+package com.example.bleserial.uart;
+
+/**
+ * Rebuilds application messages from UART notifications.
+ * <p>
+ * A notification shorter than the negotiated payload size ends the current message, a full
+ * one means more is coming. Messages that fill whole notifications are terminated with an
+ * empty notification, the same convention {@link UartFragmenter} uses for writes.
+ **/
+public class UartReassembler {
+    public static final int DEFAULT_MAX_MESSAGE_SIZE = 64 * 1024;
+
+    public interface Listener {
+        // buffer is reused, copy what you need before returning
+        void onMessage(byte[] buffer, int length);
+    }
+
+    private final Listener listener;
+    private final int maxMessageSize;
+    private volatile int payloadSize = UartFragmenter.DEFAULT_MTU - UartFragmenter.ATT_HEADER_SIZE;
+
+    private byte[] buffer = new byte[UartFragmenter.MAX_MTU];
+    private int length = 0;
+
+    public UartReassembler(Listener listener, int maxMessageSize) {
+        this.listener = listener;
+        this.maxMessageSize = maxMessageSize;
+    }
+
+    public UartReassembler(Listener listener) {
+        this(listener, DEFAULT_MAX_MESSAGE_SIZE);
+    }
+
+    public void setMtu(int mtu) {
+        payloadSize = UartFragmenter.payloadSizeForMtu(mtu);
+    }
+
+    public int getPayloadSize() {
+        return payloadSize;
+    }
+
+    /**
+     * Feed one notification value
+     **/
+    public synchronized void onPacket(byte[] value, int offset, int count) {
+        if (length + count > maxMessageSize) {
+            // peripheral never terminated the message, deliver what we have
+            flush();
+        }
+        if (length + count > buffer.length) {
+            byte[] grown = new byte[Math.min(maxMessageSize, Math.max(buffer.length * 2, length + count))];
+            System.arraycopy(buffer, 0, grown, 0, length);
+            buffer = grown;
+        }
+        System.arraycopy(value, offset, buffer, length, count);
+        length += count;
+        if (count < payloadSize) {
+            flush();
+        }
+    }
+
+    public void onPacket(byte[] value) {
+        onPacket(value, 0, value.length);
+    }
+
+    // deliver a partial message, e.g. on disconnect
+    public synchronized void flush() {
+        if (length > 0) {
+            int n = length;
+            length = 0;
+            listener.onMessage(buffer, n);
+        }
+    }
+
+    public synchronized void reset() {
+        length = 0;
+    }
+}
@@ -0,0 +1,21 @@
+package com.example.bleserial.uart;
+
+import java.io.IOException;
+
+/**
+ * Where UART stream writes end up, implemented by the connection that owns the RX characteristic.
+ **/
+public interface UartSink {
+    /**
+     * Queue bytes for transmission, waiting up to timeoutMs for room in the link.
+     * Returns false if the data could not be queued, e.g. because the link is gone.
+     **/
+    boolean send(byte[] data, int offset, int length, long timeoutMs) throws InterruptedException;
+
+    /**
+     * Throw, once, the failure of bytes an earlier send queued but could not deliver. Sinks that
+     * report every failure from send have none.
+     **/
+    default void checkError() throws IOException {
+    }
+}
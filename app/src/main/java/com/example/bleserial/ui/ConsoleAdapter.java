@@ -0,0 +1,139 @@
+package com.example.bleserial.ui;
+
+import android.view.Choreographer;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.example.bleserial.R;
+import com.example.bleserial.console.ScrollbackBuffer;
+
+/**
+ * The received text as a scrollback of lines. Appends only touch the buffer, the RecyclerView is
+ * told about them once per frame from a Choreographer callback, however many packets came in.
+ * Until then it sees the rows as of the last frame.
+ **/
+public class ConsoleAdapter extends RecyclerView.Adapter<ConsoleAdapter.ViewHolder> {
+    private final ScrollbackBuffer scrollback;
+    private final RecyclerView recyclerView;
+    private OnFrameListener onFrameListener;
+    private boolean frameScheduled = false;
+    private long coalescedPackets = 0;
+
+    public static class ViewHolder extends RecyclerView.ViewHolder {
+        TextView lineTextView;
+
+        public ViewHolder(View itemView) {
+            super(itemView);
+            this.lineTextView = itemView.findViewById(R.id.consoleLineTextView);
+        }
+    }
+
+    public interface OnFrameListener {
+        // after the frame's changes are applied, with the total of packets shown with others
+        void onConsoleFrame(long coalescedPackets);
+    }
+
+    // row changes from the scrollback, passed on as RecyclerView notifications
+    private final ScrollbackBuffer.Updates updates = new ScrollbackBuffer.Updates() {
+        @Override
+        public void onRemoved(int position, int count) {
+            notifyItemRangeRemoved(position, count);
+        }
+
+        @Override
+        public void onChanged(int position, int count) {
+            notifyItemRangeChanged(position, count);
+        }
+
+        @Override
+        public void onInserted(int position, int count) {
+            notifyItemRangeInserted(position, count);
+        }
+
+        @Override
+        public void onCleared() {
+            notifyDataSetChanged();
+        }
+    };
+
+    private final Choreographer.FrameCallback frameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            frameScheduled = false;
+            // follow the output unless the user scrolled up to read
+            boolean atBottom = !recyclerView.canScrollVertically(1);
+            long packets = scrollback.applyChanges(updates);
+            if (packets > 1) {
+                coalescedPackets += packets - 1;
+            }
+            if (atBottom) {
+                recyclerView.scrollToPosition(scrollback.shownSize() - 1);
+            }
+            if (onFrameListener != null) {
+                onFrameListener.onConsoleFrame(coalescedPackets);
+            }
+        }
+    };
+
+    public ConsoleAdapter(RecyclerView recyclerView, ScrollbackBuffer scrollback) {
+        this.recyclerView = recyclerView;
+        this.scrollback = scrollback;
+    }
+
+    public void setOnFrameListener(OnFrameListener onFrameListener) {
+        this.onFrameListener = onFrameListener;
+    }
+
+    // UI thread
+    public void append(CharSequence text) {
+        scrollback.append(text);
+        scheduleFrame();
+    }
+
+    public void clear() {
+        scrollback.clear();
+        scheduleFrame();
+    }
+
+    public long getCoalescedPackets() {
+        return coalescedPackets;
+    }
+
+    private void scheduleFrame() {
+        if (!frameScheduled) {
+            frameScheduled = true;
+            Choreographer.getInstance().postFrameCallback(frameCallback);
+        }
+    }
+
+    // stop rendering, e.g. when the activity goes away
+    public void cancelFrame() {
+        if (frameScheduled) {
+            frameScheduled = false;
+            Choreographer.getInstance().removeFrameCallback(frameCallback);
+        }
+    }
+
+    @NonNull
+    @Override
+    public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View v = LayoutInflater.from(parent.getContext()).inflate(R.layout.console_line_layout,
+                parent, false);
+        return new ViewHolder(v);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
+        holder.lineTextView.setText(scrollback.getShown(position));
+    }
+
+    @Override
+    public int getItemCount() {
+        return scrollback.shownSize();
+    }
+}
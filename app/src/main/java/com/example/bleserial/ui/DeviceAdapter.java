@@ -1,39 +1,35 @@
 package com.example.bleserial.ui;
 
-import android.Manifest;
-import android.app.Activity;
 import android.bluetooth.BluetoothDevice;
 import android.content.Context;
-import android.content.pm.PackageManager;
-import android.os.Build;
-import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
-import androidx.core.app.ActivityCompat;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.example.bleserial.R;
-import com.example.bleserial.bluetooth.Constants;
+import com.example.bleserial.scan.DeviceEntry;
+import com.example.bleserial.scan.DeviceListModel;
 
 import java.util.List;
 
 public class DeviceAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
-    private List<BluetoothDevice> dataSet;
+    private final DeviceListModel<BluetoothDevice> dataSet = new DeviceListModel<>();
     private OnClickListenerScanDevice onClickListener;
     private Context context;
 
     public static class ViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
-        TextView deviceNameTextView, macAddressTextView;
+        TextView deviceNameTextView, macAddressTextView, rssiTextView;
         OnClickListenerScanDevice onClickListener;
 
         public ViewHolder(View itemView, OnClickListenerScanDevice onClickListener) {
             super(itemView);
             this.deviceNameTextView = itemView.findViewById(R.id.deviceNameTextView);
             this.macAddressTextView = itemView.findViewById(R.id.macAddressTextView);
+            this.rssiTextView = itemView.findViewById(R.id.rssiTextView);
             this.onClickListener = onClickListener;
             itemView.setOnClickListener(this);
         }
@@ -44,29 +40,67 @@ public class DeviceAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
         }
     }
 
+    // row changes from the model, passed on as RecyclerView notifications
+    private final DeviceListModel.Updates updates = new DeviceListModel.Updates() {
+        @Override
+        public void onInserted(int position, int count) {
+            notifyItemRangeInserted(position, count);
+        }
+
+        @Override
+        public void onChanged(int position, int count, Object payload) {
+            notifyItemRangeChanged(position, count, payload);
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            notifyItemRangeRemoved(position, count);
+        }
 
-    public DeviceAdapter(List<BluetoothDevice> data, OnClickListenerScanDevice onClickListener, Context context) {
-        this.dataSet = data;
+        @Override
+        public void onCleared() {
+            notifyDataSetChanged();
+        }
+    };
+
+    public DeviceAdapter(OnClickListenerScanDevice onClickListener, Context context) {
         this.onClickListener = onClickListener;
         this.context = context;
     }
 
-    public void addDevice(BluetoothDevice device) {
-        if (!dataSet.contains(device)) {
-            dataSet.add(device);
-        }
+    /**
+     * Record a scan result, from any thread. Returns true when the caller should schedule
+     * applyPendingUpdates() for the next frame.
+     **/
+    public boolean offerDevice(BluetoothDevice device, String name, int rssi) {
+        return dataSet.offer(device.getAddress(), name, rssi, device);
+    }
+
+    // apply the scan results gathered since the last frame, UI thread
+    public void applyPendingUpdates() {
+        dataSet.applyPending(updates);
     }
 
     public boolean contains(BluetoothDevice device) {
-        return dataSet.contains(device);
+        return dataSet.contains(device.getAddress());
     }
 
     public BluetoothDevice getDevice(int position) {
+        return dataSet.get(position).getDevice();
+    }
+
+    public DeviceEntry<BluetoothDevice> getEntry(int position) {
         return dataSet.get(position);
     }
 
-    public void clear() {
-        dataSet.clear();
+    // drops the device with the next applyPendingUpdates()
+    public boolean removeDevice(String address) {
+        return dataSet.remove(address);
+    }
+
+    // empties the list with the next applyPendingUpdates()
+    public boolean clear() {
+        return dataSet.clear();
     }
 
     @NonNull
@@ -78,27 +112,42 @@ public class DeviceAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
     }
 
     @Override
-    public void onBindViewHolder(@NonNull final RecyclerView.ViewHolder holder, final int listPosition) {
-        Log.d(Constants.TAG, "onBindViewHolder: Here");
-        try {
-            if (ActivityCompat.checkSelfPermission(context, Manifest.permission.BLUETOOTH_CONNECT) != PackageManager.PERMISSION_GRANTED) {
-                Activity activity = (Activity) context;
-                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
-                    int REQUEST_BLUETOOTH_CONNECT = 0;
-                    ActivityCompat.requestPermissions(activity, new String[]{Manifest.permission.BLUETOOTH_CONNECT}, REQUEST_BLUETOOTH_CONNECT);
-                }
-            }
-
-            String name = dataSet.get(listPosition).getName();
-            if (name == null)
-                name = "No name...";
-
-            ((ViewHolder) holder).deviceNameTextView.setText(name);
-            ((ViewHolder) holder).macAddressTextView.setText(dataSet.get(listPosition).getAddress());
-
-        } catch (Exception e) {
-            e.printStackTrace();
+    public void onBindViewHolder(@NonNull RecyclerView.ViewHolder holder, int listPosition, @NonNull List<Object> payloads) {
+        if (payloads.isEmpty()) {
+            onBindViewHolder(holder, listPosition);
+            return;
         }
+        // in-place update, only touch the views that changed
+        DeviceEntry<BluetoothDevice> entry = dataSet.get(listPosition);
+        int changes = 0;
+        for (Object payload : payloads) {
+            changes |= (Integer) payload;
+        }
+        if ((changes & DeviceListModel.PAYLOAD_NAME) != 0) {
+            bindName((ViewHolder) holder, entry);
+        }
+        if ((changes & DeviceListModel.PAYLOAD_RSSI) != 0) {
+            bindRssi((ViewHolder) holder, entry);
+        }
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull final RecyclerView.ViewHolder holder, final int listPosition) {
+        DeviceEntry<BluetoothDevice> entry = dataSet.get(listPosition);
+        bindName((ViewHolder) holder, entry);
+        ((ViewHolder) holder).macAddressTextView.setText(entry.getAddress());
+        bindRssi((ViewHolder) holder, entry);
+    }
+
+    private void bindName(ViewHolder holder, DeviceEntry<BluetoothDevice> entry) {
+        String name = entry.getName();
+        if (name == null)
+            name = "No name...";
+        holder.deviceNameTextView.setText(name);
+    }
+
+    private void bindRssi(ViewHolder holder, DeviceEntry<BluetoothDevice> entry) {
+        holder.rssiTextView.setText(entry.getRssi() + " dBm");
     }
 
     @Override
@@ -13,6 +13,7 @@ import android.Manifest;
 import android.app.Activity;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
+import android.bluetooth.le.ScanResult;
 import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
@@ -20,6 +21,7 @@ import android.location.LocationManager;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.provider.Settings;
 import android.util.Log;
 import android.widget.Button;
@@ -30,15 +32,27 @@ import com.example.bleserial.R;
 import com.example.bleserial.bluetooth.Constants;
 import com.example.bleserial.bluetooth.ScanResultsConsumer;
 import com.example.bleserial.bluetooth.Scanner;
+import com.example.bleserial.scan.DeviceTracker;
+import com.example.bleserial.scan.TrackedDevice;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 
 public class MainActivity extends AppCompatActivity implements ScanResultsConsumer {
     private boolean bleScanning = false;
     private static final long SCAN_TIMEOUT = 10000;
-    private int deviceCount = 0;
+    // results are batched by the controller, a device list needs no faster updates
+    private static final long SCAN_REPORT_DELAY = 500;
+    // continuous scanning, started with a long press on the scan button
+    private static final long DEVICE_TIMEOUT = 30000;
+    private static final int MAX_DEVICES = 100;
+    private static final int NEAREST_COUNT = 3;
+    private static final long EXPIRE_INTERVAL = 1000;
+    private boolean continuousScan = false;
+    private final DeviceTracker<BluetoothDevice> deviceTracker = new DeviceTracker<>(MAX_DEVICES);
+    private final List<TrackedDevice<BluetoothDevice>> nearest = new ArrayList<>();
     private Button scanButton;
     public static RecyclerView availableDevicesRecyclerView;
 
@@ -46,12 +60,10 @@ public class MainActivity extends AppCompatActivity implements ScanResultsConsum
     DeviceAdapter availableDeviceAdapter;
     private Scanner bleScanner;
 
-    List<BluetoothDevice> deviceList;
     private BluetoothAdapter mBtAdapter = null;
     private LocationManager locationManager;
     private static final int REQUEST_ENABLE_BT = 2;
     private static final int REQUEST_ACCESS_FINE_LOCATION = 3;
-    private final int REQUEST_BLUETOOTH_SCAN = 4;
 
     private Handler handler = new Handler();
 
@@ -85,11 +97,18 @@ public class MainActivity extends AppCompatActivity implements ScanResultsConsum
         }
 
         bleScanner = new Scanner(this.getApplicationContext());
+        bleScanner.setReportDelay(SCAN_REPORT_DELAY);
+        deviceTracker.setTimeout(DEVICE_TIMEOUT, TimeUnit.MILLISECONDS);
+        deviceTracker.setListener(device -> {
+            if (availableDeviceAdapter.removeDevice(device.getAddress())) {
+                availableDevicesRecyclerView.postOnAnimation(applyScanUpdates);
+            }
+        });
 
         RecyclerView.LayoutManager layoutManager = new LinearLayoutManager(this);
         availableDevicesRecyclerView.setLayoutManager(layoutManager);
 
-        availableDeviceAdapter = new DeviceAdapter(deviceList, position -> {
+        availableDeviceAdapter = new DeviceAdapter(position -> {
             setScanState(false);
             if (bleScanning) {
                 bleScanner.stopScanning();
@@ -115,58 +134,128 @@ public class MainActivity extends AppCompatActivity implements ScanResultsConsum
 
         scanButton = findViewById(R.id.scanButton);
         availableDevicesRecyclerView = findViewById(R.id.availableDevicesRecyclerView);
-        deviceList = new ArrayList<>();
     }
 
     private void setOnClickListener() {
         scanButton.setOnClickListener(v -> {
             if (!bleScanner.isScanning()) {
-                if (!mBtAdapter.isEnabled()) {
-                    Intent enableIntent = new Intent(BluetoothAdapter.ACTION_REQUEST_ENABLE);
-                    startActivityForResult(enableIntent, REQUEST_ENABLE_BT);
-
-                } else if (ActivityCompat.checkSelfPermission(MainActivity.this, Manifest.permission.ACCESS_FINE_LOCATION) != PackageManager.PERMISSION_GRANTED && ActivityCompat.checkSelfPermission(MainActivity.this, Manifest.permission.ACCESS_COARSE_LOCATION) != PackageManager.PERMISSION_GRANTED) {
-                    ActivityCompat.requestPermissions(MainActivity.this, new String[]{Manifest.permission.ACCESS_FINE_LOCATION}, REQUEST_ACCESS_FINE_LOCATION);
-
-                } else if (!locationManager.isProviderEnabled(LocationManager.GPS_PROVIDER)) {
-                    MainActivity.this.startActivity(new Intent(Settings.ACTION_LOCATION_SOURCE_SETTINGS));
-
-                } else {
-                    deviceCount = 0;
-                    startScanning();
+                if (readyToScan()) {
+                    startScanning(false);
                 }
             } else {
                 bleScanner.stopScanning();
             }
         });
+        scanButton.setOnLongClickListener(v -> {
+            if (bleScanner.isScanning() || !readyToScan()) {
+                return false;
+            }
+            startScanning(true);
+            return true;
+        });
     }
 
-    private void startScanning() {
-        runOnUiThread(() -> {
-            availableDeviceAdapter.clear();
-            availableDeviceAdapter.notifyDataSetChanged();
-        });
-        showMessage(Constants.SCANNING);
-        bleScanner.startScanning(this, SCAN_TIMEOUT);
+    private boolean readyToScan() {
+        if (!mBtAdapter.isEnabled()) {
+            Intent enableIntent = new Intent(BluetoothAdapter.ACTION_REQUEST_ENABLE);
+            startActivityForResult(enableIntent, REQUEST_ENABLE_BT);
+            return false;
+
+        } else if (ActivityCompat.checkSelfPermission(MainActivity.this, Manifest.permission.ACCESS_FINE_LOCATION) != PackageManager.PERMISSION_GRANTED && ActivityCompat.checkSelfPermission(MainActivity.this, Manifest.permission.ACCESS_COARSE_LOCATION) != PackageManager.PERMISSION_GRANTED) {
+            ActivityCompat.requestPermissions(MainActivity.this, new String[]{Manifest.permission.ACCESS_FINE_LOCATION}, REQUEST_ACCESS_FINE_LOCATION);
+            return false;
+
+        } else if (!locationManager.isProviderEnabled(LocationManager.GPS_PROVIDER)) {
+            MainActivity.this.startActivity(new Intent(Settings.ACTION_LOCATION_SOURCE_SETTINGS));
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * A continuous scan runs until stopped, forgets devices not seen for DEVICE_TIMEOUT and
+     * shows the nearest ones in the toolbar
+     **/
+    private void startScanning(boolean continuous) {
+        if (availableDeviceAdapter.clear()) {
+            availableDevicesRecyclerView.postOnAnimation(applyScanUpdates);
+        }
+        continuousScan = continuous;
+        deviceTracker.clear();
+        showMessage(continuous ? Constants.SCANNING_CONTINUOUSLY : Constants.SCANNING);
+        bleScanner.startScanning(this, continuous ? Scanner.NO_TIMEOUT : SCAN_TIMEOUT);
+        if (continuous) {
+            handler.postDelayed(expireDevices, EXPIRE_INTERVAL);
+        }
+    }
+
+    private final Runnable expireDevices = new Runnable() {
+        @Override
+        public void run() {
+            if (!continuousScan) {
+                return;
+            }
+            deviceTracker.expire(SystemClock.elapsedRealtimeNanos());
+            showNearest();
+            handler.postDelayed(this, EXPIRE_INTERVAL);
+        }
+    };
+
+    private void showNearest() {
+        if (getSupportActionBar() == null) {
+            return;
+        }
+        nearest.clear();
+        deviceTracker.getNearest(NEAREST_COUNT, nearest);
+        StringBuilder text = new StringBuilder();
+        for (TrackedDevice<BluetoothDevice> device : nearest) {
+            if (text.length() > 0) {
+                text.append(", ");
+            }
+            text.append(device.getName() != null ? device.getName() : device.getAddress());
+        }
+        getSupportActionBar().setSubtitle(text.length() > 0 ? text : null);
     }
 
 
     @Override
     public void candidateDevice(BluetoothDevice device, byte[] scan_record, int rssi) {
-        runOnUiThread(() -> {
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
-                if (ActivityCompat.checkSelfPermission(this, Manifest.permission.BLUETOOTH_SCAN) != PackageManager.PERMISSION_GRANTED) {
-                    ActivityCompat.requestPermissions(this, new String[]{Manifest.permission.BLUETOOTH_SCAN}, REQUEST_BLUETOOTH_SCAN);
-                }
-            }
-            if (!availableDeviceAdapter.contains(device)) {
-                availableDeviceAdapter.addDevice(device);
-                availableDeviceAdapter.notifyItemInserted(availableDeviceAdapter.getItemCount() - 1);
-                deviceCount++;
+        if (offerDevice(device, rssi, SystemClock.elapsedRealtimeNanos())) {
+            availableDevicesRecyclerView.postOnAnimation(applyScanUpdates);
+        }
+    }
+
+    @Override
+    public void candidateDevices(List<ScanResult> results) {
+        boolean frameNeeded = false;
+        for (ScanResult result : results) {
+            // batched results were seen up to a report delay ago, age them by their own time
+            frameNeeded |= offerDevice(result.getDevice(), result.getRssi(), result.getTimestampNanos());
+        }
+        if (frameNeeded) {
+            availableDevicesRecyclerView.postOnAnimation(applyScanUpdates);
+        }
+    }
+
+    private boolean offerDevice(BluetoothDevice device, int rssi, long timestampNanos) {
+        String name = null;
+        try {
+            name = device.getName();
+        } catch (SecurityException e) {
+            // no BLUETOOTH_CONNECT yet, the row shows the address only
+        }
+        if (continuousScan) {
+            TrackedDevice<BluetoothDevice> tracked = deviceTracker.seen(device.getAddress(), name, rssi, device, timestampNanos);
+            if (tracked != null) {
+                rssi = (int) Math.round(tracked.getSmoothedRssi());
             }
-        });
+        }
+        // results are coalesced per device and shown once per frame
+        return availableDeviceAdapter.offerDevice(device, name, rssi);
     }
 
+    private final Runnable applyScanUpdates = () -> availableDeviceAdapter.applyPendingUpdates();
+
     @Override
     public void scanningStarted() {
         setScanState(true);
@@ -175,6 +264,8 @@ public class MainActivity extends AppCompatActivity implements ScanResultsConsum
     @Override
     public void scanningStopped() {
         setScanState(false);
+        continuousScan = false;
+        handler.removeCallbacks(expireDevices);
     }
 
     private void showMessage(String msg) {
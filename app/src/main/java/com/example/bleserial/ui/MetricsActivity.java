@@ -0,0 +1,115 @@
+package com.example.bleserial.ui;
+
+import android.content.ComponentName;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.widget.TextView;
+
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.appcompat.widget.Toolbar;
+
+import com.example.bleserial.R;
+import com.example.bleserial.bluetooth.BluetoothAdapterService;
+import com.example.bleserial.metrics.MetricsSnapshot;
+import com.example.bleserial.uart.RxRingBuffer;
+
+import java.util.Locale;
+import java.util.Objects;
+
+/**
+ * Debug screen: the metrics of the current connection, refreshed every second
+ **/
+public class MetricsActivity extends AppCompatActivity {
+    private static final long REFRESH_INTERVAL = 1000;
+
+    private BluetoothAdapterService bluetoothLeAdapter;
+    private TextView metricsTextView;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private final Runnable refresh = new Runnable() {
+        @Override
+        public void run() {
+            showMetrics();
+            handler.postDelayed(this, REFRESH_INTERVAL);
+        }
+    };
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_metrics);
+
+        Toolbar toolbar = findViewById(R.id.metricsActivityToolbar);
+        setSupportActionBar(toolbar);
+        Objects.requireNonNull(getSupportActionBar()).setDisplayHomeAsUpEnabled(true);
+        getSupportActionBar().setDisplayShowHomeEnabled(true);
+        metricsTextView = findViewById(R.id.metricsTextView);
+
+        Intent gattServiceIntent = new Intent(this, BluetoothAdapterService.class);
+        bindService(gattServiceIntent, serviceConnection, BIND_AUTO_CREATE);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        handler.post(refresh);
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        handler.removeCallbacks(refresh);
+    }
+
+    @Override
+    public boolean onSupportNavigateUp() {
+        onBackPressed();
+        return true;
+    }
+
+    private void showMetrics() {
+        if (bluetoothLeAdapter == null) {
+            return;
+        }
+        MetricsSnapshot snapshot = bluetoothLeAdapter.getMetricsSnapshot();
+        if (snapshot == null) {
+            metricsTextView.setText("Not connected");
+            return;
+        }
+        StringBuilder text = new StringBuilder(snapshot.toString());
+        RxRingBuffer rx = bluetoothLeAdapter.getRxBuffer();
+        if (rx != null) {
+            text.append(String.format(Locale.US, "%nrx ring %d/%d B, high water %d B, dropped %d B",
+                    rx.available(), rx.capacity(), rx.getHighWaterMark(), rx.getDroppedBytes()));
+        }
+        metricsTextView.setText(text);
+    }
+
+    /**
+     * Service Connection
+     **/
+    private final ServiceConnection serviceConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName componentName, IBinder service) {
+            bluetoothLeAdapter = ((BluetoothAdapterService.LocalBinder) service).getService();
+            showMetrics();
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName componentName) {
+            bluetoothLeAdapter = null;
+        }
+    };
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        handler.removeCallbacks(refresh);
+        unbindService(serviceConnection);
+        bluetoothLeAdapter = null;
+    }
+}
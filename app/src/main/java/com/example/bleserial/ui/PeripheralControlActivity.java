@@ -1,7 +1,6 @@
 package com.example.bleserial.ui;
 
 import android.annotation.SuppressLint;
-import android.bluetooth.BluetoothGattService;
 import android.content.ComponentName;
 import android.content.Intent;
 import android.content.ServiceConnection;
@@ -11,20 +10,28 @@ import android.os.IBinder;
 import android.os.Message;
 import android.util.Log;
 import android.widget.Button;
+import android.view.View;
 import android.widget.EditText;
+import android.widget.ProgressBar;
 import android.widget.TextView;
 
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.Toolbar;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 
 import com.example.bleserial.R;
 import com.example.bleserial.bluetooth.BluetoothAdapterService;
 import com.example.bleserial.bluetooth.Constants;
+import com.example.bleserial.console.ScrollbackBuffer;
+import com.example.bleserial.text.Utf8Decoder;
+import com.example.bleserial.uart.RxRingBuffer;
 
 import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Locale;
 import java.util.Objects;
+import java.util.UUID;
 import java.util.Timer;
 import java.util.TimerTask;
 
@@ -37,10 +44,24 @@ public class PeripheralControlActivity extends AppCompatActivity {
     private String deviceAddress;
     private boolean backRequested = false;
 
-    private TextView nameTextView, receivedTextView;
-    private Button sendButton, connectButton;
+    private TextView nameTextView, coalescedTextView;
+    private ConsoleAdapter console;
+    private long shownCoalescedPackets = -1;
+    private Button sendButton, connectButton, metricsButton, sendFileButton, replayButton;
+    private ProgressBar transferProgressBar;
     private EditText inputEditText;
 
+    private static final int REQUEST_PICK_FILE = 1;
+
+    private static final int RX_BUFFER_SIZE = 64 * 1024;
+    // recorded timing, see CaptureReplayer
+    private static final double REPLAY_SPEED = 1;
+    // drained in one go for every RX_DATA_AVAILABLE message
+    private final byte[] rxBatch = new byte[RX_BUFFER_SIZE];
+    // characters split between notifications are completed by the next one
+    private final Utf8Decoder rxDecoder = new Utf8Decoder();
+    private final Utf8Decoder.Sink consoleSink = text -> console.append(text);
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -72,8 +93,27 @@ public class PeripheralControlActivity extends AppCompatActivity {
         nameTextView = findViewById(R.id.nameTextView);
         connectButton = findViewById(R.id.connectButton);
         sendButton = findViewById(R.id.sendButton);
-        receivedTextView = findViewById(R.id.receivedTextView);
+        metricsButton = findViewById(R.id.metricsButton);
+        sendFileButton = findViewById(R.id.sendFileButton);
+        replayButton = findViewById(R.id.replayButton);
+        transferProgressBar = findViewById(R.id.transferProgressBar);
+        coalescedTextView = findViewById(R.id.coalescedTextView);
         inputEditText = findViewById(R.id.inputEditText);
+
+        RecyclerView consoleRecyclerView = findViewById(R.id.consoleRecyclerView);
+        LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        layoutManager.setStackFromEnd(true);
+        consoleRecyclerView.setLayoutManager(layoutManager);
+        // appends change the last row many times a second, skip the change animations
+        consoleRecyclerView.setItemAnimator(null);
+        console = new ConsoleAdapter(consoleRecyclerView, new ScrollbackBuffer());
+        console.setOnFrameListener(coalescedPackets -> {
+            if (coalescedPackets != shownCoalescedPackets) {
+                shownCoalescedPackets = coalescedPackets;
+                coalescedTextView.setText(String.format(Locale.US, "%d packets coalesced", coalescedPackets));
+            }
+        });
+        consoleRecyclerView.setAdapter(console);
     }
 
     @Override
@@ -112,6 +152,19 @@ public class PeripheralControlActivity extends AppCompatActivity {
             }
         });
 
+        // long press toggles the traffic capture
+        connectButton.setOnLongClickListener(v -> {
+            if (bluetoothLeAdapter == null) {
+                return false;
+            }
+            if (bluetoothLeAdapter.isCapturing()) {
+                bluetoothLeAdapter.stopCapture();
+            } else {
+                bluetoothLeAdapter.startCapture();
+            }
+            return true;
+        });
+
         sendButton.setOnClickListener(v -> {
             if (bluetoothLeAdapter != null) {
                 String str = inputEditText.getText().toString();
@@ -123,10 +176,50 @@ public class PeripheralControlActivity extends AppCompatActivity {
 
                 } else {
                     byte[] data = (str).getBytes();
-                    bluetoothLeAdapter.writeCharacteristic(BluetoothAdapterService.UART_SERVICE_UUID, BluetoothAdapterService.CHARACTERISTIC_UUID_RX, data);
+                    bluetoothLeAdapter.writeUart(data);
                 }
             }
         });
+
+        // plays the latest capture back through the console, the service refuses while connected
+        replayButton.setOnClickListener(v -> {
+            if (bluetoothLeAdapter != null) {
+                bluetoothLeAdapter.replayLatestCapture(REPLAY_SPEED);
+            }
+        });
+
+        metricsButton.setOnClickListener(v -> startActivity(new Intent(this, MetricsActivity.class)));
+
+        sendFileButton.setOnClickListener(v -> {
+            if (bluetoothLeAdapter == null || !bluetoothLeAdapter.isConnected()) {
+                showMessage("Connect first");
+                return;
+            }
+            Intent pick = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+            pick.addCategory(Intent.CATEGORY_OPENABLE);
+            pick.setType("*/*");
+            startActivityForResult(pick, REQUEST_PICK_FILE);
+        });
+
+        // long press stops the upload for good, a disconnect only pauses it
+        sendFileButton.setOnLongClickListener(v -> {
+            if (bluetoothLeAdapter != null && bluetoothLeAdapter.getFileUpload() != null) {
+                bluetoothLeAdapter.stopFileUpload();
+                transferProgressBar.setVisibility(View.GONE);
+            }
+            return true;
+        });
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if (requestCode == REQUEST_PICK_FILE && resultCode == RESULT_OK && data != null && bluetoothLeAdapter != null) {
+            if (bluetoothLeAdapter.startFileUpload(data.getData())) {
+                transferProgressBar.setProgress(0);
+                transferProgressBar.setVisibility(View.VISIBLE);
+            }
+        }
     }
 
     /**
@@ -137,6 +230,7 @@ public class PeripheralControlActivity extends AppCompatActivity {
         public void onServiceConnected(ComponentName componentName, IBinder service) {
             bluetoothLeAdapter = ((BluetoothAdapterService.LocalBinder) service).getService();
             bluetoothLeAdapter.setActivityHandler(messageHandler);
+            bluetoothLeAdapter.enableRxBuffer(RX_BUFFER_SIZE, RxRingBuffer.OverflowPolicy.DROP_OLDEST);
         }
 
         @Override
@@ -181,6 +275,7 @@ public class PeripheralControlActivity extends AppCompatActivity {
                     //UI
                     connectButton.setText(getResources().getString(R.string.connect_to_device));
                     connectButton.setBackgroundColor(getResources().getColor(R.color.green));
+                    rxDecoder.reset();
 
                     if (backRequested) {
                         PeripheralControlActivity.this.finish();
@@ -189,13 +284,13 @@ public class PeripheralControlActivity extends AppCompatActivity {
 
                 case BluetoothAdapterService.GATT_SERVICES_DISCOVERED:
                     // validate services and if ok....
-                    List<BluetoothGattService> servicesList = bluetoothLeAdapter.getSupportedGattServices();
+                    List<UUID> servicesList = bluetoothLeAdapter.getSupportedServiceUuids();
                     boolean uart_present = false;
 
-                    for (BluetoothGattService service : servicesList) {
-                        Log.d(Constants.TAG, "UUID=" + service.getUuid().toString().toUpperCase() + " INSTANCE=" + service.getInstanceId());
+                    for (UUID service : servicesList) {
+                        Log.d(Constants.TAG, "UUID=" + service.toString().toUpperCase());
 
-                        if (service.getUuid().toString().equalsIgnoreCase(BluetoothAdapterService.UART_SERVICE_UUID)) {
+                        if (service.toString().equalsIgnoreCase(BluetoothAdapterService.UART_SERVICE_UUID)) {
                             uart_present = true;
                         }
                     }
@@ -227,8 +322,7 @@ public class PeripheralControlActivity extends AppCompatActivity {
 
                         b = bundle.getByteArray(BluetoothAdapterService.PARCEL_VALUE);
                         if (b.length > 0) {
-                            String s = new String(b, StandardCharsets.US_ASCII);
-                            receivedTextView.setText(s);
+                            rxDecoder.decode(b, 0, b.length, consoleSink);
                         }
                     }
                     break;
@@ -252,6 +346,42 @@ public class PeripheralControlActivity extends AppCompatActivity {
                     }
                     break;
 
+                case BluetoothAdapterService.TRANSFER_PROGRESS:
+                    bundle = msg.getData();
+                    long transferred = bundle.getLong(BluetoothAdapterService.PARCEL_TRANSFERRED);
+                    long size = bundle.getLong(BluetoothAdapterService.PARCEL_SIZE);
+                    transferProgressBar.setVisibility(View.VISIBLE);
+                    transferProgressBar.setProgress(size == 0 ? transferProgressBar.getMax()
+                            : (int) (transferProgressBar.getMax() * transferred / size));
+                    coalescedTextView.setText(String.format(Locale.US, "%d / %d bytes, %.1f kB/s", transferred, size,
+                            bundle.getDouble(BluetoothAdapterService.PARCEL_RATE) / 1000));
+                    break;
+
+                case BluetoothAdapterService.GATT_MTU_CHANGED:
+                    showMessage("MTU: " + msg.getData().getInt(BluetoothAdapterService.PARCEL_MTU));
+                    break;
+
+                case BluetoothAdapterService.UART_MESSAGE_RECEIVED:
+                    b = msg.getData().getByteArray(BluetoothAdapterService.PARCEL_VALUE);
+                    if (b.length > 0) {
+                        rxDecoder.decode(b, 0, b.length, consoleSink);
+                    }
+                    break;
+
+                case BluetoothAdapterService.RX_DATA_AVAILABLE:
+                    if (bluetoothLeAdapter == null) {
+                        break;
+                    }
+                    int length = 0;
+                    int n;
+                    while (length < rxBatch.length && (n = bluetoothLeAdapter.readRx(rxBatch, length, rxBatch.length - length)) > 0) {
+                        length += n;
+                    }
+                    if (length > 0) {
+                        rxDecoder.decode(rxBatch, 0, length, consoleSink);
+                    }
+                    break;
+
                 case BluetoothAdapterService.NOTIFICATION_OR_INDICATION_RECEIVED:
                     bundle = msg.getData();
                     service_uuid = bundle.getString(BluetoothAdapterService.PARCEL_SERVICE_UUID);
@@ -260,9 +390,7 @@ public class PeripheralControlActivity extends AppCompatActivity {
                     if (characteristic_uuid.equalsIgnoreCase((BluetoothAdapterService.CHARACTERISTIC_UUID_TX))) {
                         b = bundle.getByteArray(BluetoothAdapterService.PARCEL_VALUE);
                         if (b.length > 0) {
-                            String s = new String(b, StandardCharsets.US_ASCII);
-                            receivedTextView.setText(s);
-                            Log.d(Constants.TAG, "handleMessage: " + s);
+                            rxDecoder.decode(b, 0, b.length, consoleSink);
                         }
                     }
             }
@@ -277,6 +405,7 @@ public class PeripheralControlActivity extends AppCompatActivity {
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        console.cancelFrame();
         unbindService(serviceConnection);
         bluetoothLeAdapter = null;
     }
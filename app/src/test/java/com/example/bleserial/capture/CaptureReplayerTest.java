@@ -0,0 +1,122 @@
+package com.example.bleserial.capture;
+
+import com.example.bleserial.gatt.FakeUartPeripheral;
+import com.example.bleserial.gatt.GattSession;
+import com.example.bleserial.uart.NordicUart;
+import com.example.bleserial.uart.RxRingBuffer;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class CaptureReplayerTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+    private final AtomicReference<ReplayStats> result = new AtomicReference<>();
+
+    @After
+    public void tearDown() {
+        timer.shutdownNow();
+    }
+
+    // count notifications 5 ms apart, each followed by a write that replay must skip
+    private void record(String name, int count) throws IOException {
+        CaptureWriter writer = new CaptureWriter(folder.getRoot(), name, CaptureWriter.MIN_SEGMENT_SIZE);
+        for (int i = 0; i < count; i++) {
+            long timestamp = TimeUnit.MILLISECONDS.toNanos(5 * i);
+            writer.append(CaptureFormat.TYPE_RX, NordicUart.SERVICE, NordicUart.TX, new byte[]{(byte) i, 1, 2, 3}, timestamp);
+            writer.append(CaptureFormat.TYPE_TX, NordicUart.SERVICE, NordicUart.RX, new byte[]{9}, timestamp + 1000);
+        }
+        writer.close();
+    }
+
+    @Test
+    public void recordedTiming_scaledBySpeed() throws IOException {
+        record("timing", 21);
+        GattSession session = new GattSession(new FakeUartPeripheral(), timer, new GattSession.Listener() {
+        });
+        RxRingBuffer rx = session.enableRxBuffer(1024, RxRingBuffer.OverflowPolicy.DROP_NEWEST);
+
+        CaptureReplayer replayer = new CaptureReplayer(CaptureReader.open(folder.getRoot(), "timing"), session);
+        ReplayStats stats = replayer.run();
+        assertEquals(21, stats.getEvents());
+        assertEquals(84, stats.getBytes());
+        assertEquals(84, rx.getTotalWritten());
+        // 20 gaps of 5 ms
+        assertTrue(stats.getElapsedNanos() >= TimeUnit.MILLISECONDS.toNanos(100));
+
+        replayer = new CaptureReplayer(CaptureReader.open(folder.getRoot(), "timing"), session);
+        replayer.setSpeed(4);
+        stats = replayer.run();
+        assertEquals(21, stats.getEvents());
+        assertTrue(stats.getElapsedNanos() >= TimeUnit.MILLISECONDS.toNanos(25));
+        assertTrue(stats.getElapsedNanos() < TimeUnit.MILLISECONDS.toNanos(100));
+    }
+
+    @Test
+    public void replayTransport_feedsSessionAsFastAsPossible() throws Exception {
+        record("load", 2000);
+        CountDownLatch discovered = new CountDownLatch(1);
+        CountDownLatch disconnected = new CountDownLatch(1);
+        GattSession session = new GattSession(
+                new ReplayTransport("replay", CaptureReader.open(folder.getRoot(), "load"), CaptureReplayer.AS_FAST_AS_POSSIBLE,
+                        new ReplayTransport.Listener() {
+                            @Override
+                            public void onReplayFinished(ReplayTransport transport, ReplayStats stats) {
+                                result.set(stats);
+                            }
+
+                            @Override
+                            public void onReplayFailed(ReplayTransport transport, IOException e) {
+                                fail(e.toString());
+                            }
+                        }),
+                timer, new GattSession.Listener() {
+            @Override
+            public void onServicesDiscovered(GattSession session, int status) {
+                discovered.countDown();
+            }
+
+            @Override
+            public void onConnectionStateChange(GattSession session, boolean connected) {
+                if (!connected) {
+                    disconnected.countDown();
+                }
+            }
+        });
+        RxRingBuffer rx = session.enableRxBuffer(16 * 1024, RxRingBuffer.OverflowPolicy.DROP_NEWEST);
+        assertTrue(session.connect());
+        while (!session.isConnected()) {
+            Thread.sleep(1);
+        }
+        assertTrue(session.discoverServices());
+        assertTrue(discovered.await(2, TimeUnit.SECONDS));
+        assertTrue(session.setNotificationsEnabled(NordicUart.SERVICE, NordicUart.TX, true));
+
+        // the link ends with the recording
+        assertTrue(disconnected.await(5, TimeUnit.SECONDS));
+        ReplayStats stats = result.get();
+        assertEquals(2000, stats.getEvents());
+        assertEquals(8000, rx.getTotalWritten());
+        assertEquals(0, stats.getMaxLagNanos());
+        assertTrue(stats.getEventsPerSecond() > 0);
+
+        byte[] data = new byte[8000];
+        assertEquals(8000, rx.read(data, 0, data.length));
+        for (int i = 0; i < 2000; i++) {
+            assertEquals((byte) i, data[4 * i]);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.example.bleserial.capture;
+
+import com.example.bleserial.gatt.FakeUartPeripheral;
+import com.example.bleserial.gatt.GattSession;
+import com.example.bleserial.uart.NordicUart;
+import com.example.bleserial.uart.RxRingBuffer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class CaptureWriterTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void packets_readBackAcrossSegments() throws IOException, InterruptedException {
+        File directory = folder.getRoot();
+        CaptureWriter writer = new CaptureWriter(directory, "test", CaptureWriter.MIN_SEGMENT_SIZE);
+        UUID other = UUID.randomUUID();
+        int total = 3000;
+        for (int i = 0; i < total; i++) {
+            byte[] packet = new byte[244];
+            packet[0] = (byte) (i >> 8);
+            packet[1] = (byte) i;
+            writer.append(i % 3 == 0 ? CaptureFormat.TYPE_TX : CaptureFormat.TYPE_RX,
+                    NordicUart.SERVICE, i % 3 == 0 ? NordicUart.RX : other, packet, 1000L * i);
+            if (i % 256 == 255) {
+                // give the io thread time to map the next segment
+                Thread.sleep(5);
+            }
+        }
+        writer.close();
+        assertEquals(total, writer.getRecordCount() + writer.getDroppedCount());
+        assertTrue(writer.getSegmentCount() > 1);
+
+        List<File> segments = CaptureFormat.listSegments(directory, "test");
+        assertEquals(writer.getSegmentCount(), segments.size());
+        long length = 0;
+        for (File segment : segments) {
+            length += segment.length();
+        }
+        // trimmed to what was written
+        assertEquals(writer.getBytesWritten(), length);
+
+        CaptureReader reader = CaptureReader.open(directory, "test");
+        byte[] payload = new byte[244];
+        int previous = -1;
+        int count = 0;
+        while (reader.next()) {
+            reader.getPayload(payload, 0);
+            int i = (payload[0] & 0xFF) << 8 | payload[1] & 0xFF;
+            assertTrue(i > previous);
+            assertEquals(1000L * i, reader.getTimestampNanos());
+            assertEquals(244, reader.getLength());
+            if (i % 3 == 0) {
+                assertEquals(CaptureFormat.TYPE_TX, reader.getType());
+                assertEquals(NordicUart.RX, reader.getCharacteristic());
+            } else {
+                assertEquals(CaptureFormat.TYPE_RX, reader.getType());
+                assertEquals(other, reader.getCharacteristic());
+            }
+            assertEquals(NordicUart.SERVICE, reader.getService());
+            previous = i;
+            count++;
+        }
+        assertEquals(writer.getRecordCount(), count);
+        // nothing left of the spare segment
+        assertEquals(segments.size(), directory.listFiles().length);
+    }
+
+    @Test
+    public void sessionTraffic_capturedInBothDirections() throws Exception {
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+        FakeUartPeripheral peripheral = new FakeUartPeripheral();
+        peripheral.setConnectionInterval(1, TimeUnit.MILLISECONDS);
+        CountDownLatch discovered = new CountDownLatch(1);
+        GattSession session = new GattSession(peripheral, timer, new GattSession.Listener() {
+            @Override
+            public void onServicesDiscovered(GattSession session, int status) {
+                discovered.countDown();
+            }
+        });
+        CaptureWriter writer = new CaptureWriter(folder.getRoot(), "session", CaptureWriter.MIN_SEGMENT_SIZE);
+        session.setTrafficTap(writer);
+        try {
+            RxRingBuffer rx = session.enableRxBuffer(8192, RxRingBuffer.OverflowPolicy.DROP_NEWEST);
+            assertTrue(session.connect());
+            while (!session.isConnected()) {
+                Thread.sleep(1);
+            }
+            assertTrue(session.discoverServices());
+            assertTrue(discovered.await(2, TimeUnit.SECONDS));
+            assertTrue(session.setNotificationsEnabled(NordicUart.SERVICE, NordicUart.TX, true));
+
+            byte[] data = new byte[1000];
+            for (int i = 0; i < data.length; i++) {
+                data[i] = (byte) i;
+            }
+            assertTrue(session.writeUart(data, null));
+            long deadline = System.currentTimeMillis() + 2000;
+            while (rx.getTotalWritten() < data.length && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+            assertEquals(data.length, rx.getTotalWritten());
+        } finally {
+            peripheral.close();
+            timer.shutdownNow();
+            writer.close();
+        }
+
+        ByteArrayOutputStream sent = new ByteArrayOutputStream();
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        CaptureReader reader = CaptureReader.open(folder.getRoot(), "session");
+        while (reader.next()) {
+            byte[] payload = reader.copyPayload();
+            if (reader.getType() == CaptureFormat.TYPE_TX) {
+                assertEquals(NordicUart.RX, reader.getCharacteristic());
+                sent.write(payload);
+            } else {
+                assertEquals(NordicUart.TX, reader.getCharacteristic());
+                received.write(payload);
+            }
+        }
+        assertEquals(0, writer.getDroppedCount());
+        assertEquals(1000, sent.size());
+        assertEquals(1000, received.size());
+        assertArrayEquals(sent.toByteArray(), received.toByteArray());
+    }
+}
@@ -0,0 +1,167 @@
+package com.example.bleserial.codec;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FrameCodecTest {
+    private final List<byte[]> frames = new ArrayList<>();
+    private final FrameCodec.FrameListener collect = (buffer, offset, length) ->
+            frames.add(Arrays.copyOfRange(buffer, offset, offset + length));
+
+    private static byte[] bytes(int... values) {
+        byte[] b = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            b[i] = (byte) values[i];
+        }
+        return b;
+    }
+
+    private static byte[] encode(FrameCodec codec, byte[] payload) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ChunkWriter writer = new ChunkWriter(517, (chunk, length) -> out.write(chunk, 0, length));
+        codec.encode(payload, 0, payload.length, writer);
+        writer.flush();
+        return out.toByteArray();
+    }
+
+    @Test
+    public void cobs_knownVectors() {
+        CobsCodec cobs = new CobsCodec();
+        assertArrayEquals(bytes(0x01, 0x01, 0x00), encode(cobs, bytes(0x00)));
+        assertArrayEquals(bytes(0x01, 0x01, 0x01, 0x00), encode(cobs, bytes(0x00, 0x00)));
+        assertArrayEquals(bytes(0x03, 0x11, 0x22, 0x02, 0x33, 0x00), encode(cobs, bytes(0x11, 0x22, 0x00, 0x33)));
+        assertArrayEquals(bytes(0x02, 0x11, 0x01, 0x01, 0x01, 0x00), encode(cobs, bytes(0x11, 0x00, 0x00, 0x00)));
+
+        byte[] run = new byte[254];
+        for (int i = 0; i < run.length; i++) {
+            run[i] = (byte) (i + 1);
+        }
+        byte[] encoded = encode(cobs, run);
+        assertEquals(256, encoded.length);
+        assertEquals((byte) 0xFF, encoded[0]);
+        assertEquals(0, encoded[255]);
+
+        cobs.decode(encoded, 0, encoded.length, collect);
+        assertArrayEquals(run, frames.get(0));
+    }
+
+    @Test
+    public void slipAndVarint_knownVectors() {
+        assertArrayEquals(bytes(0x01, 0xDB, 0xDC, 0xDB, 0xDD, 0x02, 0xC0),
+                encode(new SlipCodec(), bytes(0x01, 0xC0, 0xDB, 0x02)));
+        assertArrayEquals(bytes(0xAC, 0x02), Arrays.copyOf(encode(new VarintLengthCodec(), new byte[300]), 2));
+        assertArrayEquals(bytes(0x00), encode(new VarintLengthCodec(), new byte[0]));
+        assertArrayEquals(bytes('h', 'i', '\n'), encode(new DelimiterCodec(), bytes('h', 'i')));
+    }
+
+    // random frames, full of the bytes each framing treats specially
+    private void roundTrip(FrameCodec codec, boolean allowDelimiter) {
+        Random random = new Random(11);
+        List<byte[]> sent = new ArrayList<>();
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        byte[] specials = bytes(0x00, 0xC0, 0xDB, 0xDC, 0xDD, 0x80, '\n');
+        for (int f = 0; f < 300; f++) {
+            int length = f % 50 == 0 ? 254 + random.nextInt(600) : 1 + random.nextInt(60);
+            byte[] payload = new byte[length];
+            random.nextBytes(payload);
+            for (int i = 0; i < length; i++) {
+                if (random.nextInt(8) == 0) {
+                    payload[i] = specials[random.nextInt(specials.length)];
+                }
+                if (!allowDelimiter && payload[i] == '\n') {
+                    payload[i] = 'x';
+                }
+            }
+            sent.add(payload);
+            byte[] encoded = encode(codec, payload);
+            assertTrue(encoded.length <= codec.maxEncodedLength(length));
+            stream.write(encoded, 0, encoded.length);
+        }
+        byte[] all = stream.toByteArray();
+
+        // in MTU sized packets, then byte by byte
+        for (int packet : new int[]{20, 244, 1}) {
+            frames.clear();
+            codec.reset();
+            for (int i = 0; i < all.length; i += packet) {
+                codec.decode(all, i, Math.min(packet, all.length - i), collect);
+            }
+            assertEquals(sent.size(), frames.size());
+            for (int f = 0; f < sent.size(); f++) {
+                assertArrayEquals("frame " + f + " in " + packet + " byte packets", sent.get(f), frames.get(f));
+            }
+        }
+        assertEquals(0, codec.getFramesDropped());
+    }
+
+    @Test
+    public void cobs_roundTrips() {
+        roundTrip(new CobsCodec(), true);
+    }
+
+    @Test
+    public void slip_roundTrips() {
+        roundTrip(new SlipCodec(), true);
+    }
+
+    @Test
+    public void varint_roundTrips() {
+        roundTrip(new VarintLengthCodec(), true);
+    }
+
+    @Test
+    public void delimiter_roundTrips() {
+        roundTrip(new DelimiterCodec(), false);
+    }
+
+    @Test
+    public void damagedOrOversizedFrames_droppedAndDecodingResumes() {
+        CobsCodec cobs = new CobsCodec(16);
+        // block promises 4 bytes, frame ends after 2
+        byte[] stream = bytes(0x05, 0x11, 0x22, 0x00, 0x02, 0x33, 0x00);
+        cobs.decode(stream, 0, stream.length, collect);
+        assertEquals(1, cobs.getFramesDropped());
+        assertArrayEquals(bytes(0x33), frames.get(0));
+        byte[] big = encode(cobs, new byte[40]);
+        cobs.decode(big, 0, big.length, collect);
+        assertEquals(2, cobs.getFramesDropped());
+
+        frames.clear();
+        VarintLengthCodec varint = new VarintLengthCodec(8);
+        byte[] tooLong = encode(varint, new byte[20]);
+        byte[] fine = encode(varint, bytes(1, 2, 3));
+        varint.decode(tooLong, 0, tooLong.length, collect);
+        varint.decode(fine, 0, fine.length, collect);
+        assertEquals(1, varint.getFramesDropped());
+        assertEquals(1, frames.size());
+        assertArrayEquals(bytes(1, 2, 3), frames.get(0));
+
+        frames.clear();
+        DelimiterCodec lines = new DelimiterCodec((byte) '\n', 4);
+        byte[] text = bytes('a', 'b', 'c', 'd', 'e', '\n', 'o', 'k', '\n', '\n');
+        lines.decode(text, 0, 3, collect);
+        lines.decode(text, 3, text.length - 3, collect);
+        assertEquals(1, lines.getFramesDropped());
+        assertEquals(1, frames.size());
+        assertArrayEquals(bytes('o', 'k'), frames.get(0));
+    }
+
+    @Test
+    public void chunkWriter_packsFramesIntoMtuSizedChunks() {
+        List<Integer> sizes = new ArrayList<>();
+        ChunkWriter writer = new ChunkWriter(23, (chunk, length) -> sizes.add(length));
+        SlipCodec slip = new SlipCodec();
+        slip.encode(new byte[30], 0, 30, writer);
+        slip.encode(new byte[5], 0, 5, writer);
+        writer.flush();
+        // 31 + 6 bytes in 20 byte writes
+        assertEquals(Arrays.asList(20, 17), sizes);
+    }
+}
@@ -0,0 +1,133 @@
+package com.example.bleserial.console;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ScrollbackBufferTest {
+    private final List<String> calls = new ArrayList<>();
+    private int rows = 1;
+    private final ScrollbackBuffer.Updates updates = new ScrollbackBuffer.Updates() {
+        @Override
+        public void onRemoved(int position, int count) {
+            calls.add("removed " + position + " " + count);
+            rows -= count;
+        }
+
+        @Override
+        public void onChanged(int position, int count) {
+            calls.add("changed " + position + " " + count);
+            assertTrue(position + count <= rows);
+        }
+
+        @Override
+        public void onInserted(int position, int count) {
+            calls.add("inserted " + position + " " + count);
+            assertEquals(rows, position);
+            rows += count;
+        }
+
+        @Override
+        public void onCleared() {
+            calls.add("cleared");
+        }
+    };
+
+    @Test
+    public void appends_reportedOncePerApply() {
+        ScrollbackBuffer scrollback = new ScrollbackBuffer(10, 80);
+        scrollback.append("hel");
+        scrollback.append("lo\r\nwor");
+        scrollback.append("ld\nx");
+
+        assertEquals(3, scrollback.applyChanges(updates));
+        assertEquals("changed 0 1", calls.get(0));
+        assertEquals("inserted 1 2", calls.get(1));
+        assertEquals(3, scrollback.size());
+        assertEquals("hello", scrollback.get(0).toString());
+        assertEquals("world", scrollback.get(1).toString());
+        assertEquals("x", scrollback.get(2).toString());
+
+        calls.clear();
+        scrollback.append("y");
+        assertEquals(1, scrollback.applyChanges(updates));
+        assertEquals(1, calls.size());
+        assertEquals("changed 2 1", calls.get(0));
+
+        calls.clear();
+        assertEquals(0, scrollback.applyChanges(updates));
+        assertTrue(calls.isEmpty());
+    }
+
+    @Test
+    public void fullRing_dropsOldestLines() {
+        ScrollbackBuffer scrollback = new ScrollbackBuffer(3, 80);
+        scrollback.append("a\nb\n");
+        scrollback.applyChanges(updates);
+        assertEquals(3, rows);
+
+        calls.clear();
+        scrollback.append("c\nd\ne\nf");
+        scrollback.applyChanges(updates);
+        assertEquals(4, scrollback.size());
+        assertEquals(rows, scrollback.size());
+        assertEquals("c", scrollback.get(0).toString());
+        assertEquals("f", scrollback.get(3).toString());
+        assertEquals(2, scrollback.getDroppedLines());
+        assertEquals("removed 0 2", calls.get(0));
+
+        // everything shown scrolls out in one frame
+        calls.clear();
+        scrollback.append("\n1\n2\n3\n4");
+        scrollback.applyChanges(updates);
+        assertEquals("removed 0 4", calls.get(0));
+        assertEquals("inserted 0 4", calls.get(1));
+        assertEquals(rows, scrollback.size());
+        assertEquals("1", scrollback.get(0).toString());
+    }
+
+    @Test
+    public void longLine_brokenAtMaximumLength() {
+        ScrollbackBuffer scrollback = new ScrollbackBuffer(10, 4);
+        scrollback.append("abcdefghij");
+        assertEquals(3, scrollback.size());
+        assertEquals("abcd", scrollback.get(0).toString());
+        assertEquals("ij", scrollback.get(2).toString());
+
+        scrollback.clear();
+        scrollback.applyChanges(updates);
+        assertEquals("cleared", calls.get(0));
+        assertEquals(1, scrollback.size());
+        assertEquals("", scrollback.get(0).toString());
+    }
+
+    @Test
+    public void shownRows_stayAsReportedUntilApply() {
+        ScrollbackBuffer scrollback = new ScrollbackBuffer(4, 80);
+        scrollback.append("a\nb\nc");
+        scrollback.applyChanges(updates);
+        assertEquals(rows, scrollback.shownSize());
+
+        // "a" drops out of the ring before the adapter hears of it
+        scrollback.append("\nd\ne\nf");
+        assertEquals(3, scrollback.shownSize());
+        assertEquals("", scrollback.getShown(0).toString());
+        assertEquals("b", scrollback.getShown(1).toString());
+        assertEquals("c", scrollback.getShown(2).toString());
+
+        scrollback.applyChanges(updates);
+        assertEquals(rows, scrollback.shownSize());
+        assertEquals(scrollback.size(), scrollback.shownSize());
+        assertEquals("b", scrollback.getShown(0).toString());
+        assertEquals("f", scrollback.getShown(4).toString());
+
+        scrollback.clear();
+        assertEquals(5, scrollback.shownSize());
+        assertEquals("", scrollback.getShown(1).toString());
+        scrollback.applyChanges(updates);
+        assertEquals(1, scrollback.shownSize());
+    }
+}
@@ -0,0 +1,138 @@
+package com.example.bleserial.gatt;
+
+import com.example.bleserial.uart.NordicUart;
+import com.example.bleserial.uart.UartChannel;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class FakeUartPeripheralTest {
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+    private final FakeUartPeripheral peripheral = new FakeUartPeripheral(1);
+    private final CountDownLatch connected = new CountDownLatch(1);
+    private final CountDownLatch mtuChanged = new CountDownLatch(1);
+    private final GattSession session = new GattSession(peripheral, timer, new GattSession.Listener() {
+        @Override
+        public void onConnectionStateChange(GattSession session, boolean isConnected) {
+            if (isConnected) {
+                connected.countDown();
+            }
+        }
+
+        @Override
+        public void onMtuChanged(GattSession session, int mtu) {
+            mtuChanged.countDown();
+        }
+    });
+
+    @After
+    public void tearDown() {
+        peripheral.close();
+        timer.shutdownNow();
+    }
+
+    private void connect() throws InterruptedException {
+        assertTrue(session.connect());
+        assertTrue(connected.await(2, TimeUnit.SECONDS));
+        assertTrue(session.discoverServices());
+        assertTrue(mtuChanged.await(2, TimeUnit.SECONDS));
+        assertTrue(session.setNotificationsEnabled(NordicUart.SERVICE, NordicUart.TX, true));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (session.getPendingOperationCount() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+    }
+
+    @Test
+    public void echo_roundTripsThroughSession() throws Exception {
+        peripheral.setMaxMtu(185);
+        peripheral.setConnectionInterval(1, TimeUnit.MILLISECONDS);
+        peripheral.setPeripheralBufferSize(64 * 1024);
+        connect();
+        assertEquals(185, session.getMtu());
+
+        byte[] sent = new byte[100 * 1024];
+        new Random(7).nextBytes(sent);
+        UartChannel channel = session.openUartChannel();
+        channel.setReadTimeout(5000);
+        Thread writer = new Thread(() -> {
+            try {
+                OutputStream out = channel.getOutputStream();
+                out.write(sent);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        writer.start();
+
+        byte[] received = new byte[sent.length];
+        new DataInputStream(channel.getInputStream()).readFully(received);
+        writer.join();
+
+        assertArrayEquals(sent, received);
+        assertEquals(sent.length, peripheral.getBytesReceived());
+        assertEquals(0, peripheral.getBytesOverflowed());
+    }
+
+    @Test
+    public void slowFirmware_overflowsPeripheralBuffer() throws Exception {
+        peripheral.setConnectionInterval(1, TimeUnit.MILLISECONDS);
+        peripheral.setPeripheralBufferSize(1024);
+        peripheral.setPeripheralDrainRate(1000);
+        peripheral.setDataHandler(null);
+        connect();
+
+        CountDownLatch written = new CountDownLatch(1);
+        assertTrue(session.writeUart(new byte[4000], (operation, status) -> written.countDown()));
+        assertTrue(written.await(2, TimeUnit.SECONDS));
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (peripheral.getBytesReceived() < 4000 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(4000, peripheral.getBytesReceived());
+        assertTrue(peripheral.getBytesOverflowed() > 2000);
+    }
+
+    @Test
+    public void lossRate_dropsPacketsAndDisconnectEndsStream() throws Exception {
+        peripheral.setConnectionInterval(1, TimeUnit.MILLISECONDS);
+        peripheral.setLossRate(0.5);
+        connect();
+
+        UartChannel channel = session.openUartChannel();
+        byte[] data = new byte[20];
+        Arrays.fill(data, (byte) 'x');
+        for (int i = 0; i < 100; i++) {
+            channel.write(ByteBuffer.wrap(data));
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (peripheral.getNotificationsSent() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        Thread.sleep(50);
+        session.disconnect();
+
+        byte[] buffer = new byte[4096];
+        int total = 0;
+        channel.setReadTimeout(2000);
+        for (int n; (n = channel.read(buffer, 0, buffer.length)) != -1; ) {
+            total += n;
+        }
+        assertTrue(peripheral.getPacketsLost() > 0);
+        assertTrue(total < 2000);
+        assertFalse(session.isConnected());
+    }
+}
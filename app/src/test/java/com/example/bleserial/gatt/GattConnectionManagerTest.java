@@ -0,0 +1,178 @@
+package com.example.bleserial.gatt;
+
+import com.example.bleserial.codec.CobsCodec;
+import com.example.bleserial.rpc.RpcFuture;
+import com.example.bleserial.uart.RxRingBuffer;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class GattConnectionManagerTest {
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+    private final GattConnectionManager manager = new GattConnectionManager(timer);
+
+    @After
+    public void tearDown() {
+        manager.closeAll();
+        timer.shutdownNow();
+    }
+
+    private GattSession connect(String address) throws InterruptedException {
+        FakeUartPeripheral peripheral = new FakeUartPeripheral();
+        peripheral.setAddress(address);
+        peripheral.setConnectionInterval(1, TimeUnit.MILLISECONDS);
+        peripheral.setDataHandler(null);
+        CountDownLatch ready = new CountDownLatch(1);
+        GattSession session = manager.connect(peripheral, new GattSession.Listener() {
+            @Override
+            public void onConnectionStateChange(GattSession session, boolean connected) {
+                session.discoverServices();
+            }
+
+            @Override
+            public void onMtuChanged(GattSession session, int mtu) {
+                ready.countDown();
+            }
+        });
+        assertNotNull(session);
+        assertTrue(ready.await(2, TimeUnit.SECONDS));
+        return session;
+    }
+
+    @Test
+    public void quietDevice_notStarvedByChattyOne() throws InterruptedException {
+        GattSession chatty = connect("02:00:00:00:00:01");
+        GattSession quiet = connect("02:00:00:00:00:02");
+
+        AtomicInteger chattyDone = new AtomicInteger();
+        for (int i = 0; i < 100; i++) {
+            assertTrue(manager.writeUart("02:00:00:00:00:01", new byte[2000], (operation, status) -> chattyDone.incrementAndGet()));
+        }
+        CountDownLatch quietDone = new CountDownLatch(1);
+        int[] chattyBacklogAtQuietDone = new int[1];
+        assertTrue(manager.writeUart("02:00:00:00:00:02", new byte[500], (operation, status) -> {
+            chattyBacklogAtQuietDone[0] = manager.getWriteScheduler().getBacklog(chatty);
+            quietDone.countDown();
+        }));
+
+        assertTrue(quietDone.await(2, TimeUnit.SECONDS));
+        assertTrue(chattyBacklogAtQuietDone[0] > 0);
+        assertEquals(0, manager.getWriteScheduler().getBacklog(quiet));
+    }
+
+    @Test
+    public void throughput_reportedPerDeviceAndAggregate() throws InterruptedException {
+        connect("02:00:00:00:00:01");
+        connect("02:00:00:00:00:02");
+        manager.sampleThroughput();
+
+        CountDownLatch done = new CountDownLatch(2);
+        assertTrue(manager.writeUart("02:00:00:00:00:01", new byte[3000], (operation, status) -> done.countDown()));
+        assertTrue(manager.writeUart("02:00:00:00:00:02", new byte[1000], (operation, status) -> done.countDown()));
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+
+        List<ThroughputSnapshot> snapshots = manager.sampleThroughput();
+        assertEquals(3, snapshots.size());
+        assertEquals("02:00:00:00:00:01", snapshots.get(0).getAddress());
+        assertEquals(3000, snapshots.get(0).getTxBytes());
+        assertEquals(1000, snapshots.get(1).getTxBytes());
+        ThroughputSnapshot aggregate = snapshots.get(2);
+        assertEquals(ThroughputSnapshot.AGGREGATE, aggregate.getAddress());
+        assertEquals(4000, aggregate.getTxBytes());
+        assertTrue(aggregate.getTxBytesPerSecond() > 0);
+    }
+
+    @Test
+    public void remove_failsWaitingWrites() throws InterruptedException {
+        connect("02:00:00:00:00:01");
+        AtomicInteger cancelled = new AtomicInteger();
+        for (int i = 0; i < 20; i++) {
+            manager.writeUart("02:00:00:00:00:01", new byte[5000], (operation, status) -> {
+                if (status == GattOperation.STATUS_CANCELLED) {
+                    cancelled.incrementAndGet();
+                }
+            });
+        }
+        manager.remove("02:00:00:00:00:01");
+
+        assertTrue(cancelled.get() > 0);
+        assertNull(manager.getSession("02:00:00:00:00:01"));
+    }
+
+    @Test
+    public void replacedSession_isTornDown() throws InterruptedException {
+        GattSession previous = connect("02:00:00:00:00:01");
+        RxRingBuffer buffer = previous.enableRxBuffer(1024, RxRingBuffer.OverflowPolicy.BLOCK);
+        // nobody answers, the call stays in flight
+        RpcFuture call = previous.enableRpc(new CobsCodec()).call(new byte[]{1}, 10000);
+        assertFalse(call.isDone());
+
+        GattSession next = connect("02:00:00:00:00:01");
+
+        assertNotSame(previous, next);
+        assertFalse(previous.isConnected());
+        assertTrue(buffer.isClosed());
+        assertEquals(RpcFuture.STATUS_CLOSED, call.getStatus());
+        assertNull(previous.getRpcClient());
+        assertTrue(next.isConnected());
+    }
+
+    @Test
+    public void refusedChunk_dropsTheRestOfItsMessage() throws InterruptedException {
+        FakeUartPeripheral peripheral = new FakeUartPeripheral();
+        peripheral.setConnectionInterval(1, TimeUnit.MILLISECONDS);
+        peripheral.setDataHandler(null);
+        LinkedBlockingQueue<String> events = new LinkedBlockingQueue<>();
+        AtomicInteger chunks = new AtomicInteger();
+        AtomicInteger handedOn = new AtomicInteger();
+        // the session queue refuses the fourth chunk, e.g. full from other traffic
+        GattSession session = new GattSession(peripheral, timer, new GattSession.Listener() {
+            @Override
+            public void onConnectionStateChange(GattSession session, boolean connected) {
+                session.discoverServices();
+            }
+
+            @Override
+            public void onServicesDiscovered(GattSession session, int status) {
+                events.add("discovered");
+            }
+        }) {
+            @Override
+            public boolean writeUartChunk(byte[] chunk, GattOperation.Callback callback) {
+                if (chunks.incrementAndGet() == 4) {
+                    return false;
+                }
+                handedOn.addAndGet(chunk.length);
+                return super.writeUartChunk(chunk, callback);
+            }
+        };
+        assertTrue(session.connect());
+        assertEquals("discovered", events.poll(2, TimeUnit.SECONDS));
+
+        // many chunks at any MTU
+        byte[] message = new byte[4000];
+        LinkedBlockingQueue<Integer> statuses = new LinkedBlockingQueue<>();
+        FairWriteScheduler scheduler = manager.getWriteScheduler();
+        assertTrue(scheduler.submit(session, message, (operation, status) -> statuses.add(status)));
+
+        assertEquals(Integer.valueOf(GattOperation.STATUS_NOT_STARTED), statuses.poll(2, TimeUnit.SECONDS));
+        assertEquals(0, scheduler.getBacklog(session));
+        Thread.sleep(100);
+        // only the chunks before the hole went out
+        assertEquals(4, chunks.get());
+        assertEquals(handedOn.get(), peripheral.getBytesReceived());
+        assertTrue(statuses.isEmpty());
+        scheduler.remove(session);
+        peripheral.close();
+    }
+}
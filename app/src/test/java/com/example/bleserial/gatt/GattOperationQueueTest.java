@@ -0,0 +1,153 @@
+package com.example.bleserial.gatt;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class GattOperationQueueTest {
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+    private final List<String> started = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        timer.shutdownNow();
+    }
+
+    private GattOperation op(int type, String name, GattOperation.Callback callback, long timeoutMs) {
+        return new GattOperation(type, () -> {
+            started.add(name);
+            return true;
+        }, callback, timeoutMs);
+    }
+
+    private GattOperation op(int type, String name) {
+        return op(type, name, null, GattOperationQueue.DEFAULT_TIMEOUT_MS);
+    }
+
+    @Test
+    public void writesWithResponse_runOneAtATime() {
+        GattOperationQueue queue = new GattOperationQueue(timer, 8, 4);
+        queue.enqueue(op(GattOperation.TYPE_WRITE, "a"));
+        queue.enqueue(op(GattOperation.TYPE_WRITE, "b"));
+        assertEquals(1, started.size());
+
+        queue.onOperationComplete(GattOperation.TYPE_WRITE, GattOperation.STATUS_SUCCESS);
+        assertEquals(2, started.size());
+        assertEquals("b", started.get(1));
+    }
+
+    @Test
+    public void writesWithoutResponse_pipelineUpToWindow() {
+        GattOperationQueue queue = new GattOperationQueue(timer, 16, 3);
+        for (int i = 0; i < 5; i++) {
+            queue.enqueue(op(GattOperation.TYPE_WRITE_NO_RESPONSE, "w" + i));
+        }
+        assertEquals(3, started.size());
+        assertEquals(3, queue.inFlightCount());
+
+        queue.onOperationComplete(GattOperation.TYPE_WRITE_NO_RESPONSE, GattOperation.STATUS_SUCCESS);
+        assertEquals(4, started.size());
+    }
+
+    @Test
+    public void exclusiveOperation_waitsForPipelinedWrites() {
+        GattOperationQueue queue = new GattOperationQueue(timer, 16, 4);
+        queue.enqueue(op(GattOperation.TYPE_WRITE_NO_RESPONSE, "w0"));
+        queue.enqueue(op(GattOperation.TYPE_READ, "r"));
+        queue.enqueue(op(GattOperation.TYPE_WRITE_NO_RESPONSE, "w1"));
+        assertEquals(1, started.size());
+
+        queue.onOperationComplete(GattOperation.TYPE_WRITE_NO_RESPONSE, GattOperation.STATUS_SUCCESS);
+        assertEquals("r", started.get(1));
+        assertEquals(2, started.size());
+    }
+
+    @Test
+    public void fullQueue_rejectsOperation() {
+        GattOperationQueue queue = new GattOperationQueue(timer, 2, 1);
+        assertTrue(queue.enqueue(op(GattOperation.TYPE_WRITE, "a")));
+        assertTrue(queue.enqueue(op(GattOperation.TYPE_WRITE, "b")));
+        assertFalse(queue.enqueue(op(GattOperation.TYPE_WRITE, "c")));
+    }
+
+    @Test
+    public void refusedPipelinedWrite_isRetriedAfterCompletion() {
+        GattOperationQueue queue = new GattOperationQueue(timer, 8, 4);
+        final int[] attempts = {0};
+        queue.enqueue(op(GattOperation.TYPE_WRITE_NO_RESPONSE, "w0"));
+        queue.enqueue(new GattOperation(GattOperation.TYPE_WRITE_NO_RESPONSE, () -> ++attempts[0] > 1, null));
+        assertEquals(1, attempts[0]);
+
+        queue.onOperationComplete(GattOperation.TYPE_WRITE_NO_RESPONSE, GattOperation.STATUS_SUCCESS);
+        assertEquals(2, attempts[0]);
+        assertEquals(1, queue.inFlightCount());
+    }
+
+    @Test
+    public void stalledOperation_timesOutAndQueueMovesOn() throws InterruptedException {
+        GattOperationQueue queue = new GattOperationQueue(timer, 8, 1);
+        final int[] status = {Integer.MIN_VALUE};
+        final CountDownLatch nextStarted = new CountDownLatch(1);
+        queue.enqueue(op(GattOperation.TYPE_WRITE, "lost", (operation, s) -> status[0] = s, 50));
+        queue.enqueue(new GattOperation(GattOperation.TYPE_WRITE, () -> {
+            nextStarted.countDown();
+            return true;
+        }, null));
+
+        assertTrue(nextStarted.await(2, TimeUnit.SECONDS));
+        assertEquals(GattOperation.STATUS_TIMEOUT, status[0]);
+    }
+
+    @Test
+    public void lateCompletion_ofTimedOutOperation_isSwallowed() throws InterruptedException {
+        GattOperationQueue queue = new GattOperationQueue(timer, 8, 1);
+        final List<Integer> statuses = new ArrayList<>();
+        final CountDownLatch nextStarted = new CountDownLatch(1);
+        queue.enqueue(op(GattOperation.TYPE_READ, "slow", (operation, s) -> statuses.add(s), 50));
+        queue.enqueue(new GattOperation(GattOperation.TYPE_READ, () -> {
+            nextStarted.countDown();
+            return true;
+        }, (operation, s) -> statuses.add(s)));
+        assertTrue(nextStarted.await(2, TimeUnit.SECONDS));
+
+        // the stack answers the timed out read after all, then the next one
+        queue.onOperationComplete(GattOperation.TYPE_READ, GattOperation.STATUS_SUCCESS);
+        assertEquals(1, queue.inFlightCount());
+        queue.onOperationComplete(GattOperation.TYPE_READ, 5);
+        assertEquals(0, queue.inFlightCount());
+        assertEquals(GattOperation.STATUS_TIMEOUT, (int) statuses.get(0));
+        assertEquals(5, (int) statuses.get(1));
+    }
+
+    @Test
+    public void stoppedTimer_doesNotWedgeQueue() {
+        timer.shutdownNow();
+        GattOperationQueue queue = new GattOperationQueue(timer, 8, 1);
+        queue.enqueue(op(GattOperation.TYPE_WRITE, "a"));
+        queue.enqueue(op(GattOperation.TYPE_WRITE, "b"));
+        queue.onOperationComplete(GattOperation.TYPE_WRITE, GattOperation.STATUS_SUCCESS);
+        assertEquals(2, started.size());
+    }
+
+    @Test
+    public void clear_completesEverythingWithStatus() {
+        GattOperationQueue queue = new GattOperationQueue(timer, 8, 1);
+        final List<Integer> statuses = new ArrayList<>();
+        GattOperation.Callback callback = (operation, s) -> statuses.add(s);
+        queue.enqueue(op(GattOperation.TYPE_WRITE, "a", callback, 1000));
+        queue.enqueue(op(GattOperation.TYPE_WRITE, "b", callback, 1000));
+
+        queue.clear(GattOperation.STATUS_CANCELLED);
+        assertEquals(2, statuses.size());
+        assertEquals(GattOperation.STATUS_CANCELLED, (int) statuses.get(0));
+        assertEquals(0, queue.size());
+    }
+}
@@ -0,0 +1,145 @@
+package com.example.bleserial.gatt;
+
+import com.example.bleserial.text.LineDecoder;
+import com.example.bleserial.uart.NordicUart;
+import com.example.bleserial.uart.UartChannel;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class GattSessionTest {
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+    private final FakeUartPeripheral peripheral = new FakeUartPeripheral();
+    private final LinkedBlockingQueue<String> events = new LinkedBlockingQueue<>();
+    private final GattSession session = new GattSession(peripheral, timer, new GattSession.Listener() {
+        @Override
+        public void onConnectionStateChange(GattSession session, boolean connected) {
+            events.add(connected ? "connected" : "disconnected");
+        }
+
+        @Override
+        public void onServicesDiscovered(GattSession session, int status) {
+            events.add("discovered");
+        }
+
+        @Override
+        public void onConsoleMessage(GattSession session, String text) {
+            events.add(text);
+        }
+    });
+
+    @After
+    public void tearDown() {
+        peripheral.close();
+        timer.shutdownNow();
+    }
+
+    private void await(String event) throws InterruptedException {
+        String next;
+        do {
+            next = events.poll(2, TimeUnit.SECONDS);
+            assertNotNull("timed out waiting for " + event, next);
+        } while (!next.equals(event));
+    }
+
+    private void connect() throws InterruptedException {
+        peripheral.setConnectionInterval(1, TimeUnit.MILLISECONDS);
+        assertTrue(session.connect());
+        await("connected");
+        assertTrue(session.discoverServices());
+        await("discovered");
+    }
+
+    @Test
+    public void handles_resolvedAfterDiscovery() throws InterruptedException {
+        assertNull(session.getCharacteristic(NordicUart.SERVICE, NordicUart.RX));
+        connect();
+
+        CharacteristicHandle rx = session.getCharacteristic(NordicUart.SERVICE, NordicUart.RX);
+        assertNotNull(rx);
+        assertTrue(session.isValid(rx));
+        assertTrue(rx.canWrite(GattTransport.WRITE_TYPE_NO_RESPONSE));
+        assertNull(session.getCharacteristic(NordicUart.CCCD, NordicUart.RX));
+        assertTrue(session.writeCharacteristic(rx, new byte[]{1}, GattTransport.WRITE_TYPE_NO_RESPONSE, null));
+    }
+
+    @Test
+    public void handles_rejectedAfterServiceChange() throws InterruptedException {
+        connect();
+        CharacteristicHandle rx = session.getCharacteristic(NordicUart.SERVICE, NordicUart.RX);
+
+        peripheral.changeServices();
+        await("discovered");
+
+        assertFalse(session.isValid(rx));
+        assertFalse(session.writeCharacteristic(rx, new byte[]{1}, GattTransport.WRITE_TYPE_NO_RESPONSE, null));
+        CharacteristicHandle fresh = session.getCharacteristic(NordicUart.SERVICE, NordicUart.RX);
+        assertTrue(session.isValid(fresh));
+        assertNotSame(rx, fresh);
+    }
+
+    @Test
+    public void handles_clearedOnDisconnect() throws InterruptedException {
+        connect();
+        CharacteristicHandle rx = session.getCharacteristic(NordicUart.SERVICE, NordicUart.RX);
+
+        session.disconnect();
+        await("disconnected");
+
+        assertFalse(session.isValid(rx));
+        assertNull(session.getCharacteristic(NordicUart.SERVICE, NordicUart.RX));
+        assertFalse(session.writeUart(new byte[]{1}, null));
+    }
+
+    @Test
+    public void write_rejectsUnsupportedWriteType() throws InterruptedException {
+        connect();
+        CharacteristicHandle tx = session.getCharacteristic(NordicUart.SERVICE, NordicUart.TX);
+
+        assertFalse(session.writeCharacteristic(tx, new byte[]{1}, GattTransport.WRITE_TYPE_DEFAULT, null));
+    }
+
+    @Test
+    public void streamWrite_failedAfterQueueing_reportedOnClose() throws Exception {
+        connect();
+        UartChannel channel = session.openUartChannel();
+        // slow enough that the chunks are still queued when the link drops
+        peripheral.setConnectionInterval(50, TimeUnit.MILLISECONDS);
+        peripheral.setPacketsPerEvent(1);
+        channel.write(new byte[400], 0, 400);
+        session.disconnect();
+        await("disconnected");
+
+        try {
+            channel.close();
+            fail("expected the cancelled chunks to be reported");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("status " + GattOperation.STATUS_CANCELLED));
+        }
+    }
+
+    @Test
+    public void lineDecoder_receivesUartNotificationsAsLines() throws InterruptedException {
+        connect();
+        LinkedBlockingQueue<String> lines = new LinkedBlockingQueue<>();
+        session.setLineDecoder(new LineDecoder(line -> lines.add(line.toString())));
+        assertTrue(session.setNotificationsEnabled(NordicUart.SERVICE, NordicUart.TX, true));
+        while (session.getPendingOperationCount() > 0) {
+            Thread.sleep(1);
+        }
+
+        assertTrue(peripheral.notifyPacket("temp=2".getBytes(StandardCharsets.UTF_8)));
+        assertTrue(peripheral.notifyPacket("1.5\r\nok\n".getBytes(StandardCharsets.UTF_8)));
+        assertEquals("temp=21.5", lines.poll(2, TimeUnit.SECONDS));
+        assertEquals("ok", lines.poll(2, TimeUnit.SECONDS));
+    }
+}
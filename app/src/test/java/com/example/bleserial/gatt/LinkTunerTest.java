@@ -0,0 +1,91 @@
+package com.example.bleserial.gatt;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class LinkTunerTest {
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+    private final FakeUartPeripheral peripheral = new FakeUartPeripheral();
+    private final CountDownLatch ready = new CountDownLatch(1);
+    private final GattSession session = new GattSession(peripheral, timer, new GattSession.Listener() {
+        @Override
+        public void onConnectionStateChange(GattSession session, boolean connected) {
+            session.discoverServices();
+        }
+
+        @Override
+        public void onMtuChanged(GattSession session, int mtu) {
+            ready.countDown();
+        }
+    });
+    private final LinkTuner tuner = new LinkTuner(session, timer);
+    private final LinkedBlockingQueue<Integer> priorities = new LinkedBlockingQueue<>();
+
+    @After
+    public void tearDown() {
+        tuner.stop();
+        peripheral.close();
+        timer.shutdownNow();
+    }
+
+    private void connect() throws InterruptedException {
+        peripheral.setDataHandler(null);
+        peripheral.setConnectionInterval(2, TimeUnit.MILLISECONDS);
+        peripheral.setPriorityInterval(GattTransport.CONNECTION_PRIORITY_HIGH, 1, TimeUnit.MILLISECONDS);
+        peripheral.setPriorityInterval(GattTransport.CONNECTION_PRIORITY_BALANCED, 4, TimeUnit.MILLISECONDS);
+        peripheral.setPriorityInterval(GattTransport.CONNECTION_PRIORITY_LOW_POWER, 10, TimeUnit.MILLISECONDS);
+        tuner.setSampleInterval(20, TimeUnit.MILLISECONDS);
+        tuner.setIdleTimeouts(100, 300, TimeUnit.MILLISECONDS);
+        tuner.setListener((s, priority, throughput) -> priorities.add(priority));
+        assertTrue(session.connect());
+        assertTrue(ready.await(2, TimeUnit.SECONDS));
+        tuner.start();
+    }
+
+    private int nextPriority() throws InterruptedException {
+        Integer priority = priorities.poll(2, TimeUnit.SECONDS);
+        assertNotNull(priority);
+        return priority;
+    }
+
+    @Test
+    public void traffic_raisesPriorityAndIdleLowersIt() throws InterruptedException {
+        connect();
+        assertEquals(GattTransport.CONNECTION_PRIORITY_BALANCED, nextPriority());
+
+        CountDownLatch written = new CountDownLatch(1);
+        assertTrue(session.writeUart(new byte[10000], (operation, status) -> written.countDown()));
+        assertEquals(GattTransport.CONNECTION_PRIORITY_HIGH, nextPriority());
+        assertTrue(written.await(2, TimeUnit.SECONDS));
+        assertEquals(GattTransport.PHY_LE_2M, peripheral.getPhy());
+        assertEquals(GattTransport.PHY_LE_2M, session.getLinkParameters().getTxPhy());
+        assertEquals(1250, session.getLinkParameters().getIntervalMicros());
+
+        assertEquals(GattTransport.CONNECTION_PRIORITY_BALANCED, nextPriority());
+        assertEquals(GattTransport.CONNECTION_PRIORITY_LOW_POWER, nextPriority());
+        Thread.sleep(50);
+        assertEquals(GattTransport.PHY_LE_1M, peripheral.getPhy());
+        assertEquals(10000, peripheral.getCurrentIntervalMicros());
+    }
+
+    @Test
+    public void transfer_holdsHighPriority() throws InterruptedException {
+        connect();
+        assertEquals(GattTransport.CONNECTION_PRIORITY_BALANCED, nextPriority());
+
+        tuner.beginTransfer();
+        assertEquals(GattTransport.CONNECTION_PRIORITY_HIGH, nextPriority());
+        assertNull(priorities.poll(200, TimeUnit.MILLISECONDS));
+
+        tuner.endTransfer();
+        assertEquals(GattTransport.CONNECTION_PRIORITY_BALANCED, nextPriority());
+    }
+}
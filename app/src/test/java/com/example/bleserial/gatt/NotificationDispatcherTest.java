@@ -0,0 +1,67 @@
+package com.example.bleserial.gatt;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class NotificationDispatcherTest {
+    private static final UUID TX = UUID.fromString("6E400003-B5A3-F393-E0A9-E50E24DCCA9E");
+    private static final UUID RX = UUID.fromString("6E400002-B5A3-F393-E0A9-E50E24DCCA9E");
+
+    private long sum;
+
+    @Test
+    public void resolvesRegisteredCharacteristics() {
+        NotificationDispatcher dispatcher = new NotificationDispatcher(TX, RX);
+        final int[] seen = new int[2];
+        dispatcher.setListener((id, buffer, offset, length) -> {
+            seen[0] = id;
+            seen[1] = length;
+        });
+
+        // a fresh UUID instance, as the stack hands us one per callback
+        assertTrue(dispatcher.dispatch(UUID.fromString(RX.toString()), new byte[]{1, 2, 3}));
+        assertEquals(1, seen[0]);
+        assertEquals(3, seen[1]);
+        assertEquals(NotificationDispatcher.UNKNOWN_CHARACTERISTIC, dispatcher.resolve(UUID.randomUUID()));
+    }
+
+    @Test
+    public void noListener_fallsBack() {
+        assertFalse(new NotificationDispatcher(TX).dispatch(TX, new byte[1]));
+    }
+
+    @Test
+    public void dispatch_doesNotAllocate() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        NotificationDispatcher dispatcher = new NotificationDispatcher(RX, TX);
+        dispatcher.setListener((id, buffer, offset, length) -> sum += id + buffer[offset + length - 1]);
+        UUID uuid = UUID.fromString(TX.toString());
+        byte[] value = new byte[244];
+
+        // warm up so the JIT has compiled the path
+        for (int i = 0; i < 200_000; i++) {
+            dispatcher.dispatch(uuid, value);
+        }
+        long thread = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < 100_000; i++) {
+            dispatcher.dispatch(uuid, value);
+        }
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+        // allow for the measuring call itself, far less than one byte per packet
+        assertTrue("allocated " + allocated + " bytes", allocated < 4096);
+        assertTrue(sum > 0);
+    }
+}
@@ -0,0 +1,210 @@
+package com.example.bleserial.gatt;
+
+import com.example.bleserial.uart.NordicUart;
+import com.example.bleserial.uart.RxRingBuffer;
+import com.example.bleserial.uart.UartChannel;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class TxPacerTest {
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+    private final GattConnectionManager manager = new GattConnectionManager(timer);
+
+    @After
+    public void tearDown() {
+        manager.closeAll();
+        timer.shutdownNow();
+    }
+
+    private static byte[] credit(int bytes) {
+        return new byte[]{TxPacer.CREDIT_MARKER, TxPacer.CREDIT_TYPE, (byte) bytes, (byte) (bytes >>> 8)};
+    }
+
+    // a device with a 1 kB UART buffer its firmware drains at 20 kB/s
+    private GattSession connect(FakeUartPeripheral peripheral) throws InterruptedException {
+        peripheral.setConnectionInterval(1, TimeUnit.MILLISECONDS);
+        peripheral.setPeripheralBufferSize(1024);
+        peripheral.setPeripheralDrainRate(20000);
+        CountDownLatch ready = new CountDownLatch(1);
+        GattSession session = manager.connect(peripheral, new GattSession.Listener() {
+            @Override
+            public void onConnectionStateChange(GattSession session, boolean connected) {
+                session.discoverServices();
+            }
+
+            @Override
+            public void onMtuChanged(GattSession session, int mtu) {
+                ready.countDown();
+            }
+        });
+        assertTrue(ready.await(2, TimeUnit.SECONDS));
+        assertTrue(session.setNotificationsEnabled(NordicUart.SERVICE, NordicUart.TX, true));
+        while (session.getPendingOperationCount() > 0) {
+            Thread.sleep(1);
+        }
+        return session;
+    }
+
+    private void send(GattSession session, int messages, int size) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(messages);
+        for (int i = 0; i < messages; i++) {
+            assertTrue(manager.writeUart(session.getTransport().getAddress(), new byte[size],
+                    (operation, status) -> done.countDown()));
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    private static void await(AtomicInteger received, int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (received.get() < count && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    public void tokenBucket_thenCredits_holdBackAndWake() throws InterruptedException {
+        TxPacer pacer = new TxPacer(timer, 10000, 1000, true);
+        CountDownLatch tokens = new CountDownLatch(1);
+        assertTrue(pacer.tryAcquire(1000, null));
+        assertFalse(pacer.tryAcquire(500, tokens::countDown));
+        // 500 bytes at 10 kB/s
+        assertTrue(tokens.await(1, TimeUnit.SECONDS));
+        assertTrue(pacer.tryAcquire(500, null));
+
+        // credits replace the bucket once they arrive
+        assertTrue(TxPacer.isCreditPacket(credit(300)));
+        pacer.onCreditPacket(credit(300));
+        assertTrue(pacer.isCreditMode());
+        assertTrue(pacer.tryAcquire(200, null));
+        CountDownLatch credited = new CountDownLatch(1);
+        assertFalse(pacer.tryAcquire(200, credited::countDown));
+        pacer.addCredit(100);
+        assertEquals(0, credited.getCount());
+        assertTrue(pacer.tryAcquire(200, null));
+        assertEquals(2, pacer.getThrottled());
+
+        pacer.reset();
+        assertFalse(pacer.isCreditMode());
+        assertTrue(pacer.tryAcquire(1000, null));
+    }
+
+    @Test
+    public void creditingPeripheral_neverOverflows() throws InterruptedException {
+        FakeUartPeripheral peripheral = new FakeUartPeripheral();
+        AtomicInteger received = new AtomicInteger();
+        // firmware hands back what it reads from its buffer
+        peripheral.setDataHandler((p, data, offset, length) -> {
+            received.addAndGet(length);
+            p.notifyPacket(credit(length));
+        });
+        GattSession session = connect(peripheral);
+        TxPacer pacer = session.enableTxPacing(1000, TxPacer.DEFAULT_BURST, true);
+        assertTrue(peripheral.notifyPacket(credit(1024)));
+        while (!pacer.isCreditMode()) {
+            Thread.sleep(1);
+        }
+
+        send(session, 8, 2000);
+        await(received, 16000);
+        assertEquals(16000, received.get());
+        assertEquals(0, peripheral.getBytesOverflowed());
+        assertTrue(pacer.getThrottled() > 0);
+    }
+
+    @Test
+    public void tokenBucket_keepsSilentPeripheralFromOverflowing() throws InterruptedException {
+        FakeUartPeripheral peripheral = new FakeUartPeripheral();
+        AtomicInteger received = new AtomicInteger();
+        peripheral.setDataHandler((p, data, offset, length) -> received.addAndGet(length));
+        GattSession session = connect(peripheral);
+        TxPacer pacer = session.enableTxPacing(18000, 512, false);
+
+        send(session, 4, 2000);
+        await(received, 8000);
+        assertEquals(8000, received.get());
+        assertEquals(0, peripheral.getBytesOverflowed());
+        assertFalse(pacer.isCreditMode());
+    }
+
+    @Test
+    public void bufferSmallerThanChunk_stillSends() {
+        // a 128 byte buffer against 244 byte chunks
+        TxPacer pacer = new TxPacer(timer, 10000, 1000, true);
+        pacer.addCredit(128);
+        assertTrue(pacer.tryAcquire(244, null));
+        // 116 bytes in debt, the next chunk waits until the buffer has emptied again
+        assertFalse(pacer.tryAcquire(244, null));
+        pacer.addCredit(128);
+        CountDownLatch credited = new CountDownLatch(1);
+        assertFalse(pacer.tryAcquire(244, credited::countDown));
+        pacer.addCredit(128);
+        assertEquals(0, credited.getCount());
+        assertTrue(pacer.tryAcquire(244, null));
+    }
+
+    @Test
+    public void creditsIgnoredUnlessEnabled() {
+        TxPacer pacer = new TxPacer(timer, 10000, 1000, false);
+        pacer.onCreditPacket(credit(300));
+        assertFalse(pacer.isCreditMode());
+        assertEquals(0, pacer.getCreditsReceived());
+    }
+
+    @Test
+    public void creditLookingData_isDeliveredUntouched() throws InterruptedException {
+        FakeUartPeripheral peripheral = new FakeUartPeripheral();
+        GattSession session = connect(peripheral);
+        RxRingBuffer buffer = session.enableRxBuffer(4096, RxRingBuffer.OverflowPolicy.DROP_NEWEST);
+        byte[] sent = new byte[4 * 64];
+        for (int i = 0; i < 64; i++) {
+            byte[] chunk = credit(i * 1000);
+            System.arraycopy(chunk, 0, sent, i * 4, 4);
+        }
+
+        // without a pacer, then with one that does not take credits
+        for (int pass = 0; pass < 2; pass++) {
+            if (pass == 1) {
+                session.enableTxPacing(18000, 512, false);
+            }
+            for (int i = 0; i < sent.length; i += 4) {
+                assertTrue(peripheral.notifyPacket(Arrays.copyOfRange(sent, i, i + 4)));
+            }
+            byte[] received = new byte[sent.length];
+            int total = 0;
+            while (total < received.length) {
+                int n = buffer.read(received, total, received.length - total, 2000);
+                assertTrue(n > 0);
+                total += n;
+            }
+            assertArrayEquals(sent, received);
+        }
+        assertEquals(0, session.getTxPacer().getCreditsReceived());
+    }
+
+    @Test
+    public void streamWrites_arePacedToo() throws InterruptedException, IOException {
+        FakeUartPeripheral peripheral = new FakeUartPeripheral();
+        AtomicInteger received = new AtomicInteger();
+        peripheral.setDataHandler((p, data, offset, length) -> received.addAndGet(length));
+        GattSession session = connect(peripheral);
+        TxPacer pacer = session.enableTxPacing(18000, 512, false);
+
+        UartChannel channel = session.openUartChannel();
+        channel.write(new byte[8000], 0, 8000);
+        await(received, 8000);
+        assertEquals(8000, received.get());
+        assertEquals(0, peripheral.getBytesOverflowed());
+        assertTrue(pacer.getThrottled() > 0);
+    }
+}
@@ -0,0 +1,253 @@
+package com.example.bleserial.link;
+
+import com.example.bleserial.gatt.FakeUartPeripheral;
+import com.example.bleserial.gatt.GattSession;
+import com.example.bleserial.uart.NordicUart;
+import com.example.bleserial.uart.UartChannel;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ReliableLinkTest {
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+    private final ScheduledExecutorService wire = Executors.newSingleThreadScheduledExecutor();
+    private final Random random = new Random(3);
+
+    @After
+    public void tearDown() {
+        timer.shutdownNow();
+        wire.shutdownNow();
+    }
+
+    // collects what a link delivers
+    private static class Sink implements ReliableLink.Listener {
+        final ByteArrayOutputStream received = new ByteArrayOutputStream();
+        final CountDownLatch failed = new CountDownLatch(1);
+
+        @Override
+        public synchronized boolean onData(byte[] buffer, int offset, int length) {
+            received.write(buffer, offset, length);
+            return true;
+        }
+
+        @Override
+        public void onLinkFailed(ReliableLink link) {
+            failed.countDown();
+        }
+
+        synchronized byte[] toByteArray() {
+            return received.toByteArray();
+        }
+    }
+
+    // loses lossRate of the frames and holds back one in twenty of the rest, so it arrives late
+    private ReliableLink.Output lossyWire(ReliableLink[] peer, double lossRate) {
+        return frame -> {
+            if (random.nextDouble() >= lossRate) {
+                long delay = random.nextInt(20) == 0 ? 2000 : 500;
+                wire.schedule(() -> peer[0].onFrame(frame), delay, TimeUnit.MICROSECONDS);
+            }
+            return true;
+        };
+    }
+
+    private ReliableLink newLink(ReliableLink.Output output, ReliableLink.Listener listener) {
+        ReliableLink link = new ReliableLink(output, listener, timer);
+        link.setMtu(67);
+        link.setAckDelay(2, TimeUnit.MILLISECONDS);
+        link.setMinRetransmitTimeout(10, TimeUnit.MILLISECONDS);
+        link.setInitialRetransmitTimeout(20, TimeUnit.MILLISECONDS);
+        return link;
+    }
+
+    private static void await(Sink sink, int length) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (sink.toByteArray().length < length && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    public void crc_matchesCcittFalse() {
+        byte[] check = "123456789".getBytes(StandardCharsets.US_ASCII);
+        assertEquals(0x29B1, Crc16.compute(check, 0, check.length));
+
+        byte[] frame = LinkFrame.data(7, check, 0, check.length);
+        assertTrue(LinkFrame.isValid(frame, 0, frame.length));
+        assertEquals(7, LinkFrame.getSequence(frame, 0));
+        frame[5] ^= 0x10;
+        assertFalse(LinkFrame.isValid(frame, 0, frame.length));
+
+        byte[] ack = LinkFrame.ack(255, 0x80000001);
+        assertTrue(LinkFrame.isValid(ack, 0, ack.length));
+        assertEquals(LinkFrame.TYPE_ACK, LinkFrame.getType(ack, 0));
+        assertEquals(0x80000001, LinkFrame.getReceived(ack, 0));
+    }
+
+    @Test
+    public void corruptFrame_droppedThenRecovered() throws Exception {
+        List<byte[]> out = new ArrayList<>();
+        Sink sink = new Sink();
+        ReliableLink receiver = newLink(frame -> {
+            synchronized (out) {
+                out.add(frame);
+            }
+            return true;
+        }, sink);
+
+        byte[] payload = {1, 2, 3};
+        byte[] frame = LinkFrame.data(0, payload, 0, payload.length);
+        byte[] damaged = frame.clone();
+        damaged[3] ^= 1;
+        receiver.onFrame(damaged);
+        assertEquals(1, receiver.getCorruptFrames());
+        assertEquals(0, sink.toByteArray().length);
+
+        // the resent frame is delivered and acknowledged after the ack delay
+        receiver.onFrame(frame);
+        receiver.onFrame(frame);
+        assertArrayEquals(payload, sink.toByteArray());
+        assertEquals(1, receiver.getDuplicates());
+        Thread.sleep(20);
+        synchronized (out) {
+            byte[] ack = out.get(out.size() - 1);
+            assertEquals(LinkFrame.TYPE_ACK, LinkFrame.getType(ack, 0));
+            assertEquals(1, LinkFrame.getSequence(ack, 0));
+        }
+    }
+
+    @Test
+    public void lossyReorderingWire_deliversBothWaysInOrder() throws Exception {
+        ReliableLink[] toB = new ReliableLink[1];
+        ReliableLink[] toA = new ReliableLink[1];
+        Sink atA = new Sink();
+        Sink atB = new Sink();
+        ReliableLink a = newLink(lossyWire(toB, 0.2), atA);
+        ReliableLink b = newLink(lossyWire(toA, 0.2), atB);
+        toB[0] = b;
+        toA[0] = a;
+
+        byte[] fromA = new byte[64 * 1024];
+        byte[] fromB = new byte[16 * 1024];
+        random.nextBytes(fromA);
+        random.nextBytes(fromB);
+        Thread writer = new Thread(() -> {
+            try {
+                assertTrue(b.send(fromB, 0, fromB.length, 5000));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        writer.start();
+        assertTrue(a.send(fromA, 0, fromA.length, 5000));
+        writer.join();
+        await(atB, fromA.length);
+        await(atA, fromB.length);
+
+        assertArrayEquals(fromA, atB.toByteArray());
+        assertArrayEquals(fromB, atA.toByteArray());
+        assertTrue(a.awaitAcknowledged(5000));
+        assertTrue(a.getRetransmissions() > 0);
+        assertEquals(1, atA.failed.getCount());
+        assertEquals(1, atB.failed.getCount());
+    }
+
+    @Test
+    public void deadPeer_failsAfterMaxRetries() throws Exception {
+        Sink sink = new Sink();
+        ReliableLink link = newLink(frame -> true, sink);
+        link.setMaxRetries(2);
+        assertTrue(link.send(new byte[10], 0, 10, 100));
+        assertFalse(link.awaitAcknowledged(2000));
+        assertTrue(link.isClosed());
+        assertTrue(sink.failed.await(1, TimeUnit.SECONDS));
+        assertEquals(2, link.getRetransmissions());
+        assertFalse(link.send(new byte[10], 0, 10, 100));
+    }
+
+    @Test
+    public void lossyPeripheral_channelRoundTrips() throws Exception {
+        FakeUartPeripheral peripheral = new FakeUartPeripheral(5);
+        peripheral.setConnectionInterval(1, TimeUnit.MILLISECONDS);
+        peripheral.setMaxMtu(185);
+        peripheral.setLossRate(0.05);
+        CountDownLatch mtuChanged = new CountDownLatch(1);
+        GattSession session = new GattSession(peripheral, timer, new GattSession.Listener() {
+            @Override
+            public void onMtuChanged(GattSession session, int mtu) {
+                mtuChanged.countDown();
+            }
+        });
+        try {
+            assertTrue(session.connect());
+            while (!session.isConnected()) {
+                Thread.sleep(1);
+            }
+            assertTrue(session.discoverServices());
+            assertTrue(mtuChanged.await(2, TimeUnit.SECONDS));
+            assertTrue(session.setNotificationsEnabled(NordicUart.SERVICE, NordicUart.TX, true));
+            while (session.getPendingOperationCount() > 0) {
+                Thread.sleep(1);
+            }
+
+            // firmware side of the protocol, echoing what it receives from its own thread
+            LinkedBlockingQueue<byte[]> echo = new LinkedBlockingQueue<>();
+            ReliableLink firmware = new ReliableLink(peripheral::notifyPacket,
+                    (buffer, offset, length) -> echo.add(Arrays.copyOfRange(buffer, offset, offset + length)), timer);
+            Thread echoThread = new Thread(() -> {
+                try {
+                    while (true) {
+                        byte[] data = echo.take();
+                        firmware.send(data, 0, data.length, 5000);
+                    }
+                } catch (InterruptedException e) {
+                    // test over
+                }
+            });
+            echoThread.setDaemon(true);
+            echoThread.start();
+            firmware.setMtu(peripheral.getMtu());
+            peripheral.setPacketHandler((p, value) -> firmware.onFrame(value));
+
+            UartChannel channel = session.openReliableChannel();
+            channel.setReadTimeout(10000);
+            byte[] sent = new byte[48 * 1024];
+            random.nextBytes(sent);
+            Thread writer = new Thread(() -> {
+                try {
+                    channel.write(sent, 0, sent.length);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            writer.start();
+            byte[] received = new byte[sent.length];
+            new DataInputStream(channel.getInputStream()).readFully(received);
+            writer.join();
+
+            assertArrayEquals(sent, received);
+            assertTrue(peripheral.getPacketsLost() > 0);
+            ReliableLink link = session.getReliableLink();
+            assertTrue(link.getRetransmissions() > 0);
+            assertEquals(0, link.getCorruptFrames());
+            echoThread.interrupt();
+        } finally {
+            peripheral.close();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.bleserial.metrics;
+
+import com.example.bleserial.gatt.FakeUartPeripheral;
+import com.example.bleserial.gatt.GattSession;
+import com.example.bleserial.uart.NordicUart;
+import com.example.bleserial.uart.RxRingBuffer;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class GattMetricsTest {
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+    private final FakeUartPeripheral peripheral = new FakeUartPeripheral();
+
+    @After
+    public void tearDown() {
+        peripheral.close();
+        timer.shutdownNow();
+    }
+
+    @Test
+    public void session_recordsOperationsTrafficAndErrors() throws Exception {
+        CountDownLatch discovered = new CountDownLatch(1);
+        CountDownLatch mtu = new CountDownLatch(1);
+        CountDownLatch data = new CountDownLatch(1);
+        peripheral.setConnectionInterval(1, TimeUnit.MILLISECONDS);
+        GattSession session = new GattSession(peripheral, timer, new GattSession.Listener() {
+            @Override
+            public void onServicesDiscovered(GattSession session, int status) {
+                discovered.countDown();
+            }
+
+            @Override
+            public void onMtuChanged(GattSession session, int value) {
+                mtu.countDown();
+            }
+
+            @Override
+            public void onRxDataAvailable(GattSession session) {
+                data.countDown();
+            }
+        });
+        session.enableRxBuffer(4096, RxRingBuffer.OverflowPolicy.DROP_NEWEST);
+        assertTrue(session.connect());
+        while (!session.isConnected()) {
+            Thread.sleep(1);
+        }
+        assertTrue(session.discoverServices());
+        assertTrue(discovered.await(2, TimeUnit.SECONDS));
+        assertTrue(mtu.await(2, TimeUnit.SECONDS));
+        assertTrue(session.setNotificationsEnabled(NordicUart.SERVICE, NordicUart.TX, true));
+        assertTrue(session.writeUart(new byte[500], null));
+        assertTrue(data.await(2, TimeUnit.SECONDS));
+        Thread.sleep(20);
+        session.readRx(new byte[4096], 0, 4096);
+
+        MetricsSnapshot snapshot = session.getMetricsSnapshot();
+        assertEquals(1, snapshot.getLatency(GattMetrics.OP_CONNECT).getCount());
+        assertEquals(1, snapshot.getLatency(GattMetrics.OP_DISCOVER).getCount());
+        assertEquals(1, snapshot.getLatency(GattMetrics.OP_MTU_REQUEST).getCount());
+        assertEquals(1, snapshot.getLatency(GattMetrics.OP_DESCRIPTOR_WRITE).getCount());
+        assertTrue(snapshot.getLatency(GattMetrics.OP_WRITE_NO_RESPONSE).getCount() >= 3);
+        assertEquals(1, snapshot.getLatency(GattMetrics.OP_NOTIFICATION_DELIVERY).getCount());
+        assertEquals(500, snapshot.getTxBytes());
+        assertTrue(snapshot.getRxPackets() >= 3);
+        assertTrue(snapshot.getTxBytesPerSecond() > 0);
+        assertTrue(snapshot.toString().contains("mtu exchange"));
+        assertEquals(0, snapshot.getErrorCount());
+        session.disconnect();
+    }
+
+    @Test
+    public void errors_countedByStatus() {
+        GattMetrics metrics = new GattMetrics();
+        metrics.recordError(133);
+        metrics.recordError(133);
+        metrics.recordError(-1);
+        MetricsSnapshot snapshot = metrics.snapshot(0);
+        assertEquals(3, snapshot.getErrorCount());
+        assertEquals(Long.valueOf(2), snapshot.getErrors().get(133));
+        assertEquals(Long.valueOf(1), snapshot.getErrors().get(-1));
+        assertTrue(snapshot.toString().contains("status 133: 2"));
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.bleserial.metrics;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class HistogramTest {
+    @Test
+    public void buckets_coverValuesWithinOneSixteenth() {
+        long[] values = {0, 1, 15, 16, 17, 31, 32, 33, 1000, 65535, 65536, 123456789L, (1L << 40) - 1};
+        for (long value : values) {
+            int index = Histogram.index(value);
+            long lower = Histogram.lowerBound(index);
+            assertTrue(value + " below its bucket", lower <= value);
+            if (index + 1 < Histogram.BUCKETS) {
+                long upper = Histogram.lowerBound(index + 1);
+                assertTrue(value + " above its bucket", value < upper);
+                assertTrue((upper - lower) * 16 <= Math.max(16, lower));
+            }
+        }
+        assertEquals(Histogram.BUCKETS - 1, Histogram.index(Long.MAX_VALUE));
+        for (int i = 0; i < Histogram.BUCKETS; i++) {
+            assertEquals(i, Histogram.index(Histogram.lowerBound(i)));
+        }
+    }
+
+    @Test
+    public void percentiles_matchSortedValues() {
+        Random random = new Random(7);
+        Histogram histogram = new Histogram();
+        long[] values = new long[10000];
+        for (int i = 0; i < values.length; i++) {
+            // log-normal-ish latencies around a millisecond
+            values[i] = (long) (1000000 * Math.exp(random.nextGaussian()));
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+        HistogramSnapshot snapshot = histogram.snapshot();
+        assertEquals(values.length, snapshot.getCount());
+        assertEquals(values[values.length - 1], snapshot.getMax());
+        for (double p : new double[]{50, 90, 99, 99.9}) {
+            long exact = values[(int) Math.ceil(p / 100 * values.length) - 1];
+            long estimate = snapshot.getValueAtPercentile(p);
+            assertTrue(p + ": " + estimate + " vs " + exact, estimate >= exact && estimate <= exact + exact / 16 + 1);
+        }
+        assertEquals(0, new Histogram().snapshot().getValueAtPercentile(99));
+    }
+
+    @Test
+    public void record_fromManyThreads() throws InterruptedException {
+        Histogram histogram = new Histogram();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            int offset = t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 100000; i++) {
+                    histogram.record(i % 1000 + offset);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        HistogramSnapshot snapshot = histogram.snapshot();
+        assertEquals(400000, snapshot.getCount());
+        assertEquals(1002, snapshot.getMax());
+    }
+}
@@ -0,0 +1,257 @@
+package com.example.bleserial.mux;
+
+import com.example.bleserial.gatt.FakeUartPeripheral;
+import com.example.bleserial.gatt.GattSession;
+import com.example.bleserial.uart.NordicUart;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ChannelMuxTest {
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+    private final Random random = new Random(5);
+
+    @After
+    public void tearDown() {
+        timer.shutdownNow();
+    }
+
+    private static byte[] credit(int id, int count) {
+        return new byte[]{(byte) (ChannelMux.TYPE_CREDIT << 6 | id), (byte) count, (byte) (count >>> 8),
+                (byte) (count >>> 16), (byte) (count >>> 24)};
+    }
+
+    // hands every packet straight to the peer, as if the link never queued anything
+    private static ChannelMux.Output wire(ChannelMux[] peer) {
+        return (packet, sent) -> {
+            peer[0].onPacket(packet, 0, packet.length);
+            sent.run();
+            return true;
+        };
+    }
+
+    @Test
+    public void refusedPacket_retriedWithNothingInFlight() throws InterruptedException {
+        CountDownLatch delivered = new CountDownLatch(1);
+        // the session queue is full of other traffic for the first few offers
+        int[] offers = {0};
+        ChannelMux mux = new ChannelMux((packet, sent) -> {
+            if (packet[0] == 1 && ++offers[0] <= 3) {
+                return false;
+            }
+            if (packet[0] == 1) {
+                delivered.countDown();
+            }
+            sent.run();
+            return true;
+        }, timer);
+        MuxChannel channel = mux.openChannel(1, ChannelMux.PRIORITY_NORMAL);
+        mux.onPacket(credit(1, 1000), 0, ChannelMux.CREDIT_SIZE);
+
+        assertTrue(channel.send(new byte[10], 0, 10));
+        // no send, credit or completion follows, only the retry timer
+        assertTrue(delivered.await(2, TimeUnit.SECONDS));
+        assertEquals(0, channel.getBacklog());
+    }
+
+    @Test
+    public void interactivePacket_overtakesQueuedBulk() {
+        List<byte[]> packets = new ArrayList<>();
+        ArrayDeque<Runnable> inFlight = new ArrayDeque<>();
+        ChannelMux mux = new ChannelMux((packet, sent) -> {
+            packets.add(packet);
+            inFlight.add(sent);
+            return true;
+        });
+        MuxChannel bulk = mux.openChannel(1, ChannelMux.PRIORITY_BULK);
+        MuxChannel interactive = mux.openChannel(2, ChannelMux.PRIORITY_INTERACTIVE);
+        // the two grants for the peer
+        assertEquals(2, packets.size());
+        assertEquals(ChannelMux.TYPE_CREDIT, (packets.get(0)[0] & 0xFF) >>> 6);
+        mux.onPacket(credit(1, 1 << 20), 0, ChannelMux.CREDIT_SIZE);
+        mux.onPacket(credit(2, 1 << 20), 0, ChannelMux.CREDIT_SIZE);
+
+        assertTrue(bulk.send(new byte[10000], 0, 10000));
+        // the link window is full, the rest waits in the backlog
+        assertEquals(ChannelMux.DEFAULT_LINK_WINDOW, inFlight.size());
+        assertEquals(4, packets.size());
+        assertEquals(19, packets.get(3).length - ChannelMux.HEADER_SIZE);
+
+        byte[] command = "ping".getBytes(StandardCharsets.US_ASCII);
+        assertTrue(interactive.send(command, 0, command.length));
+        assertEquals(4, packets.size());
+        inFlight.poll().run();
+        byte[] next = packets.get(4);
+        assertEquals(2, next[0]);
+        assertArrayEquals(command, Arrays.copyOfRange(next, 1, next.length));
+
+        // bulk carries on afterwards
+        while (!inFlight.isEmpty()) {
+            inFlight.poll().run();
+        }
+        int bulkBytes = 0;
+        for (byte[] packet : packets) {
+            if (packet[0] == 1) {
+                bulkBytes += packet.length - ChannelMux.HEADER_SIZE;
+            }
+        }
+        assertEquals(10000, bulkBytes);
+        assertEquals(0, bulk.getBacklog());
+    }
+
+    @Test
+    public void slowReader_stallsOnlyItsOwnChannel() throws Exception {
+        ChannelMux[] toB = new ChannelMux[1];
+        ChannelMux[] toA = new ChannelMux[1];
+        ChannelMux a = new ChannelMux(wire(toB));
+        ChannelMux b = new ChannelMux(wire(toA));
+        toB[0] = b;
+        toA[0] = a;
+        // b opens first, a keeps the grants until it opens too
+        MuxChannel slowAtB = b.openChannel(1, ChannelMux.PRIORITY_BULK, 1024, null);
+        MuxChannel fastAtB = b.openChannel(2, ChannelMux.PRIORITY_BULK, 1024, null);
+        MuxChannel slowAtA = a.openChannel(1, ChannelMux.PRIORITY_BULK);
+        MuxChannel fastAtA = a.openChannel(2, ChannelMux.PRIORITY_BULK);
+
+        byte[] slowData = new byte[8192];
+        byte[] fastData = new byte[8192];
+        random.nextBytes(slowData);
+        random.nextBytes(fastData);
+        assertTrue(slowAtA.send(slowData, 0, slowData.length));
+        assertTrue(fastAtA.send(fastData, 0, fastData.length));
+
+        byte[] received = new byte[fastData.length];
+        int count = 0;
+        while (count < received.length) {
+            int n = fastAtB.read(received, count, received.length - count);
+            assertTrue(n > 0);
+            count += n;
+        }
+        assertArrayEquals(fastData, received);
+        // the unread channel holds one window and its sender stopped there
+        assertEquals(1024, slowAtB.available());
+        assertEquals(0, slowAtA.getCredit());
+        assertEquals(slowData.length - 1024, slowAtA.getBacklog());
+
+        count = 0;
+        while (count < received.length) {
+            int n = slowAtB.read(received, count, received.length - count);
+            assertTrue(n > 0);
+            count += n;
+        }
+        assertArrayEquals(slowData, received);
+        assertEquals(0, slowAtB.getOverrunBytes());
+        assertEquals(0, b.getUnknownPackets());
+    }
+
+    @Test
+    public void peripheral_echoesEveryChannel() throws Exception {
+        FakeUartPeripheral peripheral = new FakeUartPeripheral(5);
+        peripheral.setConnectionInterval(1, TimeUnit.MILLISECONDS);
+        peripheral.setMaxMtu(185);
+        CountDownLatch mtuChanged = new CountDownLatch(1);
+        GattSession session = new GattSession(peripheral, timer, new GattSession.Listener() {
+            @Override
+            public void onMtuChanged(GattSession session, int mtu) {
+                mtuChanged.countDown();
+            }
+        });
+        List<Thread> threads = new ArrayList<>();
+        try {
+            assertTrue(session.connect());
+            while (!session.isConnected()) {
+                Thread.sleep(1);
+            }
+            assertTrue(session.discoverServices());
+            assertTrue(mtuChanged.await(2, TimeUnit.SECONDS));
+            assertTrue(session.setNotificationsEnabled(NordicUart.SERVICE, NordicUart.TX, true));
+            while (session.getPendingOperationCount() > 0) {
+                Thread.sleep(1);
+            }
+
+            // firmware side, echoing each channel from its own thread
+            ChannelMux firmware = new ChannelMux((packet, sent) -> {
+                if (!peripheral.notifyPacket(packet)) {
+                    return false;
+                }
+                sent.run();
+                return true;
+            });
+            firmware.setMtu(peripheral.getMtu());
+            peripheral.setPacketHandler((p, value) -> firmware.onPacket(value, 0, value.length));
+            // the firmware keeps these grants until it opens its ends
+            ChannelMux mux = session.enableChannelMux();
+            MuxChannel bulk = mux.openChannel(1, ChannelMux.PRIORITY_BULK);
+            MuxChannel interactive = mux.openChannel(2, ChannelMux.PRIORITY_INTERACTIVE);
+            for (int id = 1; id <= 2; id++) {
+                MuxChannel echo = firmware.openChannel(id, id == 1 ? ChannelMux.PRIORITY_BULK : ChannelMux.PRIORITY_INTERACTIVE);
+                Thread thread = new Thread(() -> {
+                    byte[] buffer = new byte[512];
+                    try {
+                        int n;
+                        while ((n = echo.read(buffer, 0, buffer.length, 0)) > 0) {
+                            echo.send(buffer, 0, n, 5000);
+                        }
+                    } catch (InterruptedException e) {
+                        // test over
+                    }
+                });
+                thread.setDaemon(true);
+                thread.start();
+                threads.add(thread);
+            }
+
+            byte[] file = new byte[32 * 1024];
+            random.nextBytes(file);
+            Thread writer = new Thread(() -> {
+                try {
+                    assertTrue(bulk.send(file, 0, file.length, 5000));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            writer.start();
+            byte[] command = "status?".getBytes(StandardCharsets.US_ASCII);
+            assertTrue(interactive.send(command, 0, command.length));
+
+            byte[] reply = new byte[command.length];
+            int count = 0;
+            while (count < reply.length) {
+                int n = interactive.read(reply, count, reply.length - count, 5000);
+                assertTrue(n > 0);
+                count += n;
+            }
+            assertArrayEquals(command, reply);
+
+            byte[] echoed = new byte[file.length];
+            count = 0;
+            while (count < echoed.length) {
+                int n = bulk.read(echoed, count, echoed.length - count, 5000);
+                assertTrue(n > 0);
+                count += n;
+            }
+            writer.join();
+            assertArrayEquals(file, echoed);
+            assertEquals(0, bulk.getOverrunBytes());
+            assertEquals(0, mux.getUnknownPackets());
+        } finally {
+            for (Thread thread : threads) {
+                thread.interrupt();
+            }
+            peripheral.close();
+        }
+    }
+}
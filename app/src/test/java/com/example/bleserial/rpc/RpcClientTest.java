@@ -0,0 +1,171 @@
+package com.example.bleserial.rpc;
+
+import com.example.bleserial.codec.ChunkWriter;
+import com.example.bleserial.codec.CobsCodec;
+import com.example.bleserial.gatt.FakeUartPeripheral;
+import com.example.bleserial.gatt.GattSession;
+import com.example.bleserial.uart.NordicUart;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.*;
+
+public class RpcClientTest {
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+    private final List<byte[]> sent = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        timer.shutdownNow();
+    }
+
+    private RpcClient newClient() {
+        return new RpcClient((frame, offset, length) -> {
+            synchronized (sent) {
+                sent.add(Arrays.copyOfRange(frame, offset, offset + length));
+            }
+            return true;
+        }, timer);
+    }
+
+    // the peripheral's answer to a request frame: same id, the register number doubled
+    private static byte[] answer(byte[] request) {
+        return new byte[]{request[0], request[1], (byte) (request[2] * 2)};
+    }
+
+    @Test
+    public void pipelinedRequests_completeOutOfOrder() throws Exception {
+        RpcClient client = newClient();
+        List<RpcFuture> futures = new ArrayList<>();
+        for (int register = 0; register < 40; register++) {
+            futures.add(client.call(new byte[]{(byte) register}));
+        }
+        // all of them out before any response
+        assertEquals(40, sent.size());
+        assertEquals(40, client.getInFlight());
+
+        for (int i = sent.size() - 1; i >= 0; i--) {
+            byte[] response = answer(sent.get(i));
+            client.onFrame(response, 0, response.length);
+        }
+        for (int register = 0; register < 40; register++) {
+            assertArrayEquals(new byte[]{(byte) (register * 2)}, futures.get(register).get(1, TimeUnit.SECONDS));
+        }
+        assertEquals(0, client.getInFlight());
+        assertEquals(40, client.getResponses());
+        assertEquals(0, client.getUnmatchedResponses());
+    }
+
+    @Test
+    public void timeoutAndCancel_failOnlyTheirRequest() throws Exception {
+        RpcClient client = newClient();
+        RpcFuture slow = client.call(new byte[]{1}, 20);
+        RpcFuture cancelled = client.call(new byte[]{2}, 0);
+        RpcFuture answered = client.call(new byte[]{3}, 0);
+        CountDownLatch called = new CountDownLatch(1);
+        slow.setCallback(future -> called.countDown());
+
+        assertTrue(cancelled.cancel(false));
+        assertFalse(cancelled.cancel(false));
+        try {
+            cancelled.get();
+            fail();
+        } catch (CancellationException expected) {
+        }
+        try {
+            slow.get(2, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException expected) {
+            assertTrue(expected.getCause() instanceof TimeoutException);
+        }
+        assertEquals(RpcFuture.STATUS_TIMEOUT, slow.getStatus());
+        assertTrue(called.await(1, TimeUnit.SECONDS));
+        assertEquals(1, client.getTimeouts());
+
+        // late answers are ignored, the live one still completes
+        for (byte[] request : sent) {
+            byte[] response = answer(request);
+            client.onFrame(response, 0, response.length);
+        }
+        assertEquals(2, client.getUnmatchedResponses());
+        assertArrayEquals(new byte[]{6}, answered.get());
+
+        RpcFuture pending = client.call(new byte[]{4}, 0);
+        client.close();
+        assertEquals(RpcFuture.STATUS_CLOSED, pending.getStatus());
+        assertEquals(RpcFuture.STATUS_CLOSED, client.call(new byte[]{5}).getStatus());
+    }
+
+    @Test
+    public void peripheral_answersPipelinedBurst() throws Exception {
+        FakeUartPeripheral peripheral = new FakeUartPeripheral(5);
+        peripheral.setConnectionInterval(1, TimeUnit.MILLISECONDS);
+        peripheral.setMaxMtu(185);
+        CountDownLatch mtuChanged = new CountDownLatch(1);
+        GattSession session = new GattSession(peripheral, timer, new GattSession.Listener() {
+            @Override
+            public void onMtuChanged(GattSession session, int mtu) {
+                mtuChanged.countDown();
+            }
+        });
+        try {
+            assertTrue(session.connect());
+            while (!session.isConnected()) {
+                Thread.sleep(1);
+            }
+            assertTrue(session.discoverServices());
+            assertTrue(mtuChanged.await(2, TimeUnit.SECONDS));
+            assertTrue(session.setNotificationsEnabled(NordicUart.SERVICE, NordicUart.TX, true));
+            while (session.getPendingOperationCount() > 0) {
+                Thread.sleep(1);
+            }
+
+            // firmware side: decode the requests and answer each one as it arrives
+            CobsCodec firmwareCodec = new CobsCodec();
+            ChunkWriter replies = new ChunkWriter(peripheral.getMtu(),
+                    (chunk, length) -> peripheral.notifyPacket(Arrays.copyOf(chunk, length)));
+            peripheral.setPacketHandler((p, value) -> firmwareCodec.decode(value, 0, value.length,
+                    (buffer, offset, length) -> {
+                        byte[] response = answer(Arrays.copyOfRange(buffer, offset, offset + length));
+                        firmwareCodec.encode(response, 0, response.length, replies);
+                        replies.flush();
+                    }));
+
+            RpcClient client = session.enableRpc(new CobsCodec());
+            List<RpcFuture> futures = new ArrayList<>();
+            for (int register = 0; register < 48; register++) {
+                futures.add(client.call(new byte[]{(byte) register}));
+            }
+            for (int register = 0; register < 48; register++) {
+                assertArrayEquals(new byte[]{(byte) (register * 2)}, futures.get(register).get(2, TimeUnit.SECONDS));
+            }
+            assertEquals(0, client.getInFlight());
+
+            // pending requests fail when the link goes
+            peripheral.setPacketHandler((p, value) -> { });
+            RpcFuture lost = client.call(new byte[]{1}, 0);
+            session.disconnect();
+            try {
+                lost.get(2, TimeUnit.SECONDS);
+                fail();
+            } catch (ExecutionException expected) {
+                assertEquals(RpcFuture.STATUS_CLOSED, lost.getStatus());
+            }
+            assertNull(session.getRpcClient());
+        } finally {
+            peripheral.close();
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.example.bleserial.scan;
+
+import com.example.bleserial.uart.NordicUart;
+
+import org.junit.Test;
+
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class AdRecordTest {
+    private static final UUID HEART_RATE = UUID.fromString("0000180D-0000-1000-8000-00805F9B34FB");
+
+    private static byte[] record(int... bytes) {
+        byte[] record = new byte[bytes.length + 4];
+        for (int i = 0; i < bytes.length; i++) {
+            record[i] = (byte) bytes[i];
+        }
+        return record;
+    }
+
+    private static byte[] uartRecord() {
+        byte[] record = new byte[31];
+        int i = 0;
+        record[i++] = 2;
+        record[i++] = AdRecord.TYPE_FLAGS;
+        record[i++] = 0x06;
+        record[i++] = 17;
+        record[i++] = AdRecord.TYPE_UUID128_COMPLETE;
+        long lsb = NordicUart.SERVICE.getLeastSignificantBits();
+        long msb = NordicUart.SERVICE.getMostSignificantBits();
+        for (int b = 0; b < 8; b++) {
+            record[i++] = (byte) (lsb >>> (8 * b));
+        }
+        for (int b = 0; b < 8; b++) {
+            record[i++] = (byte) (msb >>> (8 * b));
+        }
+        record[i++] = 5;
+        record[i++] = AdRecord.TYPE_NAME_COMPLETE;
+        record[i++] = 'U';
+        record[i++] = 'A';
+        record[i++] = 'R';
+        record[i] = 'T';
+        return record;
+    }
+
+    @Test
+    public void parse_readsFieldsInPlace() {
+        byte[] record = record(
+                2, AdRecord.TYPE_FLAGS, 0x06,
+                2, AdRecord.TYPE_TX_POWER, -8,
+                5, AdRecord.TYPE_UUID16_COMPLETE, 0x0F, 0x18, 0x0D, 0x18,
+                5, AdRecord.TYPE_MANUFACTURER_DATA, 0x59, 0x00, 0xAA, 0xBB,
+                4, AdRecord.TYPE_SERVICE_DATA16, 0x0F, 0x18, 0x64,
+                3, AdRecord.TYPE_NAME_SHORT, 'h', 'r');
+        AdRecord ad = new AdRecord();
+        assertTrue(ad.parse(record));
+
+        assertEquals(6, ad.size());
+        assertSame(record, ad.getRecord());
+        assertEquals(0x06, ad.getFlags());
+        assertEquals(-8, ad.getTxPower());
+        assertEquals(0x0059, ad.getManufacturerId());
+        int manufacturer = ad.findManufacturerData(0x0059);
+        assertEquals(0xAA, record[ad.getOffset(manufacturer) + 2] & 0xFF);
+        assertEquals(4, ad.getLength(manufacturer));
+        int battery = ad.findServiceData(0x180F);
+        assertEquals(100, record[ad.getOffset(battery) + 2]);
+        assertTrue(ad.hasService(HEART_RATE));
+        assertFalse(ad.hasService(NordicUart.SERVICE));
+        assertEquals("hr", ad.getName());
+        assertTrue(ad.nameStartsWith("h"));
+    }
+
+    @Test
+    public void parse_matchesFullUuidAndName() {
+        AdRecord ad = new AdRecord();
+        assertTrue(ad.parse(uartRecord()));
+        assertTrue(ad.hasService(NordicUart.SERVICE));
+        assertFalse(ad.hasService(HEART_RATE));
+        assertTrue(ad.nameStartsWith("UA"));
+        assertFalse(ad.nameStartsWith("UARTS"));
+        assertEquals(AdRecord.NO_TX_POWER, ad.getTxPower());
+        assertEquals(AdRecord.NOT_PRESENT, ad.getManufacturerId());
+    }
+
+    @Test
+    public void parse_truncatedRecordKeepsCompleteStructures() {
+        AdRecord ad = new AdRecord();
+        assertFalse(ad.parse(new byte[]{2, AdRecord.TYPE_FLAGS, 0x06, 9, AdRecord.TYPE_NAME_COMPLETE, 'a'}));
+        assertEquals(1, ad.size());
+        assertEquals(0x06, ad.getFlags());
+        assertNull(ad.getName());
+    }
+
+    @Test
+    public void cache_parsesOnlyChangedRecords() {
+        AdRecordCache cache = new AdRecordCache(2);
+        byte[] first = uartRecord();
+        AdRecord ad = cache.get(1, first);
+        String name = ad.getName();
+        assertSame(ad, cache.get(1, first.clone()));
+        assertSame(name, ad.getName());
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getHits());
+
+        byte[] changed = first.clone();
+        changed[ad.getOffset(ad.find(AdRecord.TYPE_NAME_COMPLETE))] = 'X';
+        assertFalse(cache.get(1, changed).nameStartsWith("UART"));
+        assertEquals(2, cache.getMisses());
+
+        // a third device exceeds the bound and starts the cache over
+        cache.get(2, first);
+        cache.get(3, first);
+        assertEquals(1, cache.size());
+        assertTrue(cache.get(1, first).nameStartsWith("UART"));
+        assertEquals(5, cache.getMisses());
+    }
+
+    @Test
+    public void cache_seesChangesInReusedBuffer() {
+        AdRecordCache cache = new AdRecordCache(2);
+        byte[] buffer = uartRecord();
+        AdRecord ad = cache.get(1, buffer);
+        assertTrue(ad.nameStartsWith("UART"));
+
+        // the scanner fills the same array with the next advertisement
+        buffer[ad.getOffset(ad.find(AdRecord.TYPE_NAME_COMPLETE))] = 'X';
+        assertFalse(cache.get(1, buffer).nameStartsWith("UART"));
+        assertEquals(2, cache.getMisses());
+        assertEquals(0, cache.getHits());
+    }
+}
@@ -0,0 +1,124 @@
+package com.example.bleserial.scan;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DeviceListModelTest {
+    private final DeviceListModel<Object> model = new DeviceListModel<>();
+    private final List<String> calls = new ArrayList<>();
+    private final DeviceListModel.Updates updates = new DeviceListModel.Updates() {
+        @Override
+        public void onInserted(int position, int count) {
+            calls.add("inserted " + position + " " + count);
+        }
+
+        @Override
+        public void onChanged(int position, int count, Object payload) {
+            calls.add("changed " + position + " " + count + " " + payload);
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            calls.add("removed " + position + " " + count);
+        }
+
+        @Override
+        public void onCleared() {
+            calls.add("cleared");
+        }
+    };
+
+    @Test
+    public void macAddress_packAndFormat() {
+        assertEquals(0x240AC4123456L, MacAddress.pack("24:0a:c4:12:34:56"));
+        assertEquals(0x240AC4123456L, MacAddress.pack("24-0A-C4-12-34-56"));
+        assertEquals("24:0A:C4:12:34:56", MacAddress.format(0x240AC4123456L));
+        assertEquals(MacAddress.INVALID, MacAddress.pack("24:0A:C4:12:34"));
+        assertEquals(MacAddress.INVALID, MacAddress.pack("24:0A:C4:12:34:5G"));
+        assertEquals(MacAddress.INVALID, MacAddress.pack(null));
+    }
+
+    @Test
+    public void offers_coalescedIntoOneFrame() {
+        assertTrue(model.offer("24:0A:C4:00:00:01", null, -70, null));
+        assertFalse(model.offer("24:0A:C4:00:00:02", "b", -60, null));
+        assertFalse(model.offer("24:0A:C4:00:00:01", "a", -65, null));
+        model.applyPending(updates);
+
+        assertEquals(1, calls.size());
+        assertEquals("inserted 0 2", calls.get(0));
+        assertEquals(2, model.size());
+        assertEquals("a", model.get(0).getName());
+        assertEquals(-65, model.get(0).getRssi());
+        assertEquals(1, model.indexOf("24:0a:c4:00:00:02"));
+        assertFalse(model.contains("24:0A:C4:00:00:03"));
+    }
+
+    @Test
+    public void existingDevice_changedInPlaceWithPayload() {
+        model.offer("24:0A:C4:00:00:01", "a", -70, null);
+        model.offer("24:0A:C4:00:00:02", "b", -60, null);
+        model.applyPending(updates);
+        calls.clear();
+
+        // a name missing from one advertisement keeps the known one
+        assertTrue(model.offer("24:0A:C4:00:00:02", null, -50, null));
+        model.offer("24:0A:C4:00:00:01", "a", -70, null);
+        model.offer("24:0A:C4:00:00:03", "c", -80, null);
+        model.applyPending(updates);
+
+        assertEquals(2, calls.size());
+        assertEquals("changed 1 1 " + DeviceListModel.PAYLOAD_RSSI, calls.get(0));
+        assertEquals("inserted 2 1", calls.get(1));
+        assertEquals("b", model.get(1).getName());
+
+        calls.clear();
+        model.offer("24:0A:C4:00:00:03", "renamed", -40, null);
+        model.applyPending(updates);
+        assertEquals("changed 2 1 " + (DeviceListModel.PAYLOAD_RSSI | DeviceListModel.PAYLOAD_NAME), calls.get(0));
+    }
+
+    @Test
+    public void clear_dropsListAndPendingResults() {
+        model.offer("24:0A:C4:00:00:01", "a", -70, null);
+        model.applyPending(updates);
+        model.offer("24:0A:C4:00:00:02", "b", -60, null);
+        assertFalse(model.clear());
+        model.offer("24:0A:C4:00:00:03", "c", -60, null);
+        calls.clear();
+        model.applyPending(updates);
+
+        assertEquals("cleared", calls.get(0));
+        assertEquals("inserted 0 1", calls.get(1));
+        assertEquals(1, model.size());
+        assertEquals(0, model.indexOf("24:0A:C4:00:00:03"));
+        assertFalse(model.contains("24:0A:C4:00:00:01"));
+    }
+
+    @Test
+    public void remove_shiftsLaterRows() {
+        model.offer("24:0A:C4:00:00:01", "a", -70, null);
+        model.offer("24:0A:C4:00:00:02", "b", -60, null);
+        model.offer("24:0A:C4:00:00:03", "c", -50, null);
+        model.applyPending(updates);
+        calls.clear();
+
+        assertTrue(model.remove("24:0A:C4:00:00:01"));
+        model.offer("24:0A:C4:00:00:03", "c", -40, null);
+        // offered and lost within one frame never shows
+        model.offer("24:0A:C4:00:00:04", "d", -40, null);
+        model.remove("24:0A:C4:00:00:04");
+        model.applyPending(updates);
+
+        assertEquals("removed 0 1", calls.get(0));
+        assertEquals("changed 1 1 " + DeviceListModel.PAYLOAD_RSSI, calls.get(1));
+        assertEquals(2, calls.size());
+        assertEquals(0, model.indexOf("24:0A:C4:00:00:02"));
+        assertEquals(1, model.indexOf("24:0A:C4:00:00:03"));
+        assertFalse(model.contains("24:0A:C4:00:00:01"));
+    }
+}
@@ -0,0 +1,122 @@
+package com.example.bleserial.scan;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class DeviceTrackerTest {
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final List<String> lost = new ArrayList<>();
+
+    private static String address(int i) {
+        return MacAddress.format(0x240AC4000000L + i);
+    }
+
+    private DeviceTracker<Object> tracker(int maxDevices) {
+        DeviceTracker<Object> tracker = new DeviceTracker<>(maxDevices);
+        tracker.setListener(device -> lost.add(device.getAddress()));
+        return tracker;
+    }
+
+    @Test
+    public void nearest_followsSmoothedRssi() {
+        DeviceTracker<Object> tracker = tracker(10);
+        tracker.seen(address(1), "a", -80, null, 0);
+        tracker.seen(address(2), "b", -60, null, 0);
+        tracker.seen(address(3), "c", -70, null, 0);
+        assertEquals(address(2), tracker.getRanked(0).getAddress());
+
+        // one strong sample moves a quarter of the way, not straight to the top
+        TrackedDevice<Object> a = tracker.seen(address(1), null, -40, null, 1);
+        assertEquals(-70, a.getSmoothedRssi(), 0.001);
+        assertEquals("a", a.getName());
+        assertEquals(-40, a.getRssi());
+        tracker.seen(address(1), null, -40, null, 2);
+        tracker.seen(address(1), null, -40, null, 3);
+
+        List<TrackedDevice<Object>> nearest = new ArrayList<>();
+        assertEquals(2, tracker.getNearest(2, nearest));
+        assertEquals(address(1), nearest.get(0).getAddress());
+        assertEquals(address(2), nearest.get(1).getAddress());
+        assertEquals(2, tracker.get(address(3)).getRank());
+    }
+
+    @Test
+    public void expire_dropsOnlyStaleDevices() {
+        DeviceTracker<Object> tracker = tracker(10);
+        tracker.setTimeout(5, TimeUnit.SECONDS);
+        tracker.seen(address(1), null, -50, null, 0);
+        tracker.seen(address(2), null, -60, null, 0);
+        tracker.seen(address(1), null, -50, null, 4 * SECOND);
+
+        assertEquals(0, tracker.expire(5 * SECOND));
+        assertEquals(1, tracker.expire(6 * SECOND));
+        assertEquals(1, tracker.size());
+        assertNull(tracker.get(address(2)));
+        assertEquals(address(1), tracker.getRanked(0).getAddress());
+        assertEquals(1, lost.size());
+    }
+
+    @Test
+    public void bound_evictsLeastRecentlySeen() {
+        DeviceTracker<Object> tracker = tracker(3);
+        tracker.seen(address(1), null, -50, null, 0);
+        tracker.seen(address(2), null, -60, null, 1);
+        tracker.seen(address(3), null, -70, null, 2);
+        tracker.seen(address(1), null, -50, null, 3);
+        tracker.seen(address(4), null, -90, null, 4);
+
+        assertEquals(3, tracker.size());
+        assertEquals(address(2), lost.get(0));
+        assertNotNull(tracker.get(address(1)));
+        assertEquals(address(4), tracker.getRanked(2).getAddress());
+    }
+
+    @Test
+    public void ranking_staysSortedUnderChurn() {
+        DeviceTracker<Object> tracker = tracker(50);
+        tracker.setTimeout(200, TimeUnit.NANOSECONDS);
+        Random random = new Random(1);
+        for (int t = 0; t < 20000; t++) {
+            tracker.seen(address(random.nextInt(80)), null, -30 - random.nextInt(70), null, t);
+            if (t % 100 == 0) {
+                tracker.expire(t);
+            }
+            for (int i = 1; i < tracker.size(); i++) {
+                assertTrue(tracker.getRanked(i - 1).getSmoothedRssi() >= tracker.getRanked(i).getSmoothedRssi());
+                assertEquals(i, tracker.getRanked(i).getRank());
+            }
+        }
+        assertTrue(tracker.size() <= 50);
+    }
+
+    @Test
+    public void hashMap_removeKeepsProbeRunsReachable() {
+        LongIntHashMap map = new LongIntHashMap(4);
+        Random random = new Random(2);
+        Map<Long, Integer> expected = new HashMap<>();
+        for (int i = 0; i < 20000; i++) {
+            long key = random.nextInt(64);
+            if (random.nextBoolean()) {
+                map.put(key, i);
+                expected.put(key, i);
+            } else {
+                Integer previous = expected.remove(key);
+                assertEquals(previous == null ? LongIntHashMap.NOT_FOUND : previous, map.remove(key));
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        for (long key = 0; key < 64; key++) {
+            Integer value = expected.get(key);
+            assertEquals(value == null ? LongIntHashMap.NOT_FOUND : value, map.get(key));
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.bleserial.text;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class LineDecoderTest {
+    private final List<String> lines = new ArrayList<>();
+    private final StringBuilder text = new StringBuilder();
+    private final Utf8Decoder.Sink sink = t -> text.append(t);
+
+    @Test
+    public void utf8_codePointsSplitAcrossPackets() {
+        byte[] data = "a\u00E9\u20AC\uD83D\uDE00z".getBytes(StandardCharsets.UTF_8);
+        Utf8Decoder decoder = new Utf8Decoder();
+        // every possible cut, one byte at a time
+        for (int i = 0; i < data.length; i++) {
+            decoder.decode(data, i, 1, sink);
+        }
+        assertEquals("a\u00E9\u20AC\uD83D\uDE00z", text.toString());
+        assertFalse(decoder.hasPending());
+    }
+
+    @Test
+    public void utf8_malformedBecomesReplacement() {
+        Utf8Decoder decoder = new Utf8Decoder();
+        // lone continuation, overlong '/', encoded surrogate, lead byte cut short by ASCII
+        byte[] data = {(byte) 0x80, (byte) 0xC0, (byte) 0xAF, (byte) 0xED, (byte) 0xA0, (byte) 0x80,
+                (byte) 0xE2, (byte) 0x82, 'x'};
+        decoder.decode(data, 0, data.length, sink);
+        String r = String.valueOf(Utf8Decoder.REPLACEMENT);
+        assertEquals(r + r + r + r + r + "x", text.toString());
+
+        text.setLength(0);
+        decoder.decode(new byte[]{(byte) 0xE2, (byte) 0x82}, 0, 2, sink);
+        assertTrue(decoder.hasPending());
+        assertEquals(0, text.length());
+        decoder.flush(sink);
+        assertEquals(r, text.toString());
+    }
+
+    @Test
+    public void lines_splitOnDelimitersAcrossPackets() {
+        LineDecoder decoder = new LineDecoder(line -> lines.add(line.toString()));
+        byte[] data = "one\r\ntw\u20AC\n\nthree\rfour".getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < data.length; i += 3) {
+            decoder.decode(data, i, Math.min(3, data.length - i));
+        }
+        assertEquals(4, lines.size());
+        assertEquals("one", lines.get(0));
+        assertEquals("tw\u20AC", lines.get(1));
+        assertEquals("", lines.get(2));
+        assertEquals("three", lines.get(3));
+        assertEquals("four", decoder.getPending().toString());
+
+        decoder.flush();
+        assertEquals("four", lines.get(4));
+    }
+
+    @Test
+    public void lines_customDelimiterAndMaximumLength() {
+        LineDecoder decoder = new LineDecoder(";", 4, line -> lines.add(line.toString()));
+        byte[] data = "a\nb;abcdefg;".getBytes(StandardCharsets.US_ASCII);
+        decoder.decode(data, 0, data.length);
+        assertEquals(3, lines.size());
+        assertEquals("a\nb", lines.get(0));
+        assertEquals("abcd", lines.get(1));
+        assertEquals("efg", lines.get(2));
+    }
+
+    @Test
+    public void lines_overlongBreakKeepsSurrogatePairs() {
+        LineDecoder decoder = new LineDecoder("\n", 4, line -> lines.add(line.toString()));
+        // the fourth char would be the first half of a pair
+        byte[] data = "abc\uD83D\uDE00de\n".getBytes(StandardCharsets.UTF_8);
+        decoder.decode(data, 0, data.length);
+        assertEquals(2, lines.size());
+        assertEquals("abc", lines.get(0));
+        assertEquals("\uD83D\uDE00de", lines.get(1));
+
+        // the same through the char by char path
+        lines.clear();
+        decoder.onText("abc\uD83D\uDE00de\n");
+        assertEquals("abc", lines.get(0));
+        assertEquals("\uD83D\uDE00de", lines.get(1));
+    }
+}
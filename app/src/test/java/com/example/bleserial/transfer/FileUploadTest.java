@@ -0,0 +1,213 @@
+package com.example.bleserial.transfer;
+
+import com.example.bleserial.codec.CobsCodec;
+import com.example.bleserial.rpc.RpcClient;
+import com.example.bleserial.rpc.RpcFuture;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class FileUploadTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+    private final ExecutorService wire = Executors.newSingleThreadExecutor();
+    private final ExecutorService worker = Executors.newSingleThreadExecutor();
+
+    @After
+    public void tearDown() {
+        timer.shutdownNow();
+        wire.shutdownNow();
+        worker.shutdownNow();
+    }
+
+    // the peripheral's end of the protocol, keeping what it got in memory
+    private static class Firmware {
+        final byte[] received;
+        final boolean[] written;
+        volatile long resumeRequested = -1;
+        volatile boolean ended = false;
+        final AtomicInteger inFlight = new AtomicInteger();
+        volatile int maxInFlight = 0;
+
+        Firmware(int size) {
+            received = new byte[size];
+            written = new boolean[size];
+        }
+
+        synchronized long contiguous() {
+            int offset = 0;
+            while (offset < written.length && written[offset]) {
+                offset++;
+            }
+            return offset;
+        }
+
+        synchronized byte[] handle(byte[] frame) {
+            byte[] response = new byte[RpcClient.HEADER_SIZE + 5];
+            response[0] = frame[0];
+            response[1] = frame[1];
+            int op = frame[RpcClient.HEADER_SIZE];
+            long value;
+            if (op == FileUpload.OP_BEGIN) {
+                resumeRequested = getInt(frame, RpcClient.HEADER_SIZE + 5);
+                value = Math.min(resumeRequested, contiguous());
+            } else if (op == FileUpload.OP_DATA) {
+                int offset = (int) getInt(frame, RpcClient.HEADER_SIZE + 1);
+                int start = RpcClient.HEADER_SIZE + FileUpload.DATA_HEADER_SIZE;
+                for (int i = start; i < frame.length; i++) {
+                    received[offset + i - start] = frame[i];
+                    written[offset + i - start] = true;
+                }
+                value = offset + frame.length - start;
+            } else {
+                ended = true;
+                return Arrays.copyOf(response, RpcClient.HEADER_SIZE + 1);
+            }
+            response[3] = (byte) value;
+            response[4] = (byte) (value >>> 8);
+            response[5] = (byte) (value >>> 16);
+            response[6] = (byte) (value >>> 24);
+            return response;
+        }
+
+        private static long getInt(byte[] buffer, int offset) {
+            return (buffer[offset] & 0xFFL) | (buffer[offset + 1] & 0xFFL) << 8
+                    | (buffer[offset + 2] & 0xFFL) << 16 | (buffer[offset + 3] & 0xFFL) << 24;
+        }
+    }
+
+    // delivers requests to the firmware and its responses back, in order on the wire thread
+    private RpcClient connect(Firmware firmware) {
+        RpcClient[] client = new RpcClient[1];
+        client[0] = new RpcClient((frame, offset, length) -> {
+            byte[] request = Arrays.copyOfRange(frame, offset, offset + length);
+            int n = firmware.inFlight.incrementAndGet();
+            firmware.maxInFlight = Math.max(firmware.maxInFlight, n);
+            wire.execute(() -> {
+                firmware.inFlight.decrementAndGet();
+                byte[] response = firmware.handle(request);
+                client[0].onFrame(response, 0, response.length);
+            });
+            return true;
+        }, timer);
+        return client[0];
+    }
+
+    private static class Events implements FileUpload.Listener {
+        final CountDownLatch completed = new CountDownLatch(1);
+        volatile CountDownLatch failed = new CountDownLatch(1);
+        volatile int failStatus;
+        final AtomicInteger progress = new AtomicInteger();
+
+        @Override
+        public void onProgress(FileUpload upload) {
+            progress.incrementAndGet();
+        }
+
+        @Override
+        public void onComplete(FileUpload upload) {
+            completed.countDown();
+        }
+
+        @Override
+        public void onFailed(FileUpload upload, int status) {
+            failStatus = status;
+            failed.countDown();
+        }
+    }
+
+    private File newFile(int size) throws Exception {
+        byte[] data = new byte[size];
+        new Random(7).nextBytes(data);
+        File file = folder.newFile();
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(data);
+        }
+        return file;
+    }
+
+    private static byte[] read(File file) throws Exception {
+        byte[] data = new byte[(int) file.length()];
+        try (FileInputStream in = new FileInputStream(file)) {
+            assertEquals(data.length, in.read(data));
+        }
+        return data;
+    }
+
+    @Test
+    public void chunkSize_fillsOneWrite() {
+        CobsCodec codec = new CobsCodec();
+        int chunk = FileUpload.chunkSizeFor(185, codec);
+        assertTrue(codec.maxEncodedLength(RpcClient.HEADER_SIZE + FileUpload.DATA_HEADER_SIZE + chunk) <= 182);
+        assertTrue(codec.maxEncodedLength(RpcClient.HEADER_SIZE + FileUpload.DATA_HEADER_SIZE + chunk + 1) > 182);
+    }
+
+    @Test
+    public void upload_streamsWholeFileWithinWindow() throws Exception {
+        File file = newFile(200 * 1000 + 17);
+        Firmware firmware = new Firmware((int) file.length());
+        Events events = new Events();
+        try (FileChannel channel = new FileInputStream(file).getChannel()) {
+            FileUpload upload = new FileUpload(channel, worker, events, 6);
+            assertTrue(upload.start(connect(firmware), 176));
+            assertFalse(upload.start(connect(firmware), 176));
+            assertTrue(events.completed.await(10, TimeUnit.SECONDS));
+
+            assertTrue(upload.isDone());
+            assertEquals(file.length(), upload.getAcknowledged());
+            assertTrue(upload.getBytesPerSecond() > 0);
+        }
+        assertArrayEquals(read(file), firmware.received);
+        assertTrue(firmware.ended);
+        assertEquals(0, firmware.resumeRequested);
+        assertTrue(firmware.maxInFlight <= 6);
+        assertTrue(events.progress.get() > 0);
+    }
+
+    @Test
+    public void lostLink_resumesFromAcknowledgedOffset() throws Exception {
+        File file = newFile(64 * 1024);
+        Firmware firmware = new Firmware((int) file.length());
+        Events events = new Events();
+        try (FileChannel channel = new FileInputStream(file).getChannel()) {
+            FileUpload upload = new FileUpload(channel, worker, events);
+            RpcClient first = connect(firmware);
+            assertTrue(upload.start(first, 100));
+            while (upload.getAcknowledged() < 16 * 1024) {
+                Thread.sleep(1);
+            }
+            // the link drops
+            first.close();
+            assertTrue(events.failed.await(5, TimeUnit.SECONDS));
+            assertEquals(RpcFuture.STATUS_CLOSED, events.failStatus);
+            assertFalse(upload.isActive());
+            long resumeFrom = upload.getAcknowledged();
+            assertTrue(resumeFrom >= 16 * 1024);
+
+            // a new connection picks up where the peripheral's data ends
+            assertTrue(upload.start(connect(firmware), 100));
+            assertTrue(events.completed.await(10, TimeUnit.SECONDS));
+            assertTrue(firmware.resumeRequested >= resumeFrom);
+        }
+        assertArrayEquals(read(file), firmware.received);
+    }
+}
@@ -0,0 +1,93 @@
+package com.example.bleserial.uart;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RxRingBufferTest {
+    private static byte[] bytes(int from, int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (from + i);
+        }
+        return data;
+    }
+
+    @Test
+    public void wrapsAround() {
+        RxRingBuffer ring = new RxRingBuffer(8, RxRingBuffer.OverflowPolicy.DROP_NEWEST);
+        byte[] out = new byte[8];
+        ring.write(bytes(0, 6), 0, 6);
+        assertEquals(6, ring.read(out, 0, 6));
+        ring.write(bytes(6, 6), 0, 6);
+        assertEquals(6, ring.read(out, 0, 8));
+        assertArrayEquals(bytes(6, 6), java.util.Arrays.copyOf(out, 6));
+        assertEquals(0, ring.read(out, 0, 8));
+    }
+
+    @Test
+    public void dropNewest_keepsOldDataAndCounts() {
+        RxRingBuffer ring = new RxRingBuffer(8, RxRingBuffer.OverflowPolicy.DROP_NEWEST);
+        assertEquals(8, ring.write(bytes(0, 10), 0, 10));
+        assertEquals(2, ring.getDroppedBytes());
+        assertEquals(8, ring.getHighWaterMark());
+
+        byte[] out = new byte[8];
+        ring.read(out, 0, 8);
+        assertArrayEquals(bytes(0, 8), out);
+    }
+
+    @Test
+    public void dropOldest_keepsNewestData() {
+        RxRingBuffer ring = new RxRingBuffer(8, RxRingBuffer.OverflowPolicy.DROP_OLDEST);
+        ring.write(bytes(0, 6), 0, 6);
+        ring.write(bytes(6, 6), 0, 6);
+        assertEquals(4, ring.getDroppedBytes());
+
+        byte[] out = new byte[8];
+        assertEquals(8, ring.read(out, 0, 8));
+        assertArrayEquals(bytes(4, 8), out);
+    }
+
+    @Test
+    public void block_waitsForConsumerThenTimesOut() {
+        RxRingBuffer ring = new RxRingBuffer(8, RxRingBuffer.OverflowPolicy.BLOCK, 20);
+        assertEquals(8, ring.write(bytes(0, 12), 0, 12));
+        assertEquals(4, ring.getDroppedBytes());
+    }
+
+    @Test
+    public void concurrentProducerAndConsumer_preserveOrder() throws InterruptedException {
+        final RxRingBuffer ring = new RxRingBuffer(256, RxRingBuffer.OverflowPolicy.BLOCK, 5000);
+        final int total = 2_000_000;
+        Thread producer = new Thread(() -> {
+            byte[] chunk = new byte[61];
+            int next = 0;
+            while (next < total) {
+                int n = Math.min(chunk.length, total - next);
+                for (int i = 0; i < n; i++) {
+                    chunk[i] = (byte) (next + i);
+                }
+                ring.write(chunk, 0, n);
+                next += n;
+            }
+        });
+        producer.start();
+
+        byte[] out = new byte[100];
+        int received = 0;
+        boolean inOrder = true;
+        while (received < total) {
+            int n = ring.read(out, 0, out.length);
+            for (int i = 0; i < n; i++) {
+                inOrder &= out[i] == (byte) (received + i);
+            }
+            received += n;
+        }
+        producer.join();
+
+        assertTrue(inOrder);
+        assertEquals(0, ring.getDroppedBytes());
+        assertTrue(ring.getHighWaterMark() <= 256);
+    }
+}
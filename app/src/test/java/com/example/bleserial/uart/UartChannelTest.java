@@ -0,0 +1,57 @@
+package com.example.bleserial.uart;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class UartChannelTest {
+    private final ByteArrayOutputStream sent = new ByteArrayOutputStream();
+    private final RxRingBuffer ring = new RxRingBuffer(1024, RxRingBuffer.OverflowPolicy.BLOCK);
+    private final UartChannel channel = new UartChannel(ring, (data, offset, length, timeoutMs) -> {
+        sent.write(data, offset, length);
+        return true;
+    });
+
+    @Test
+    public void inputStream_readsAcrossNotificationsUntilEndOfStream() throws Exception {
+        Thread producer = new Thread(() -> {
+            for (int i = 0; i < 100; i++) {
+                byte[] packet = {(byte) (i >> 8), (byte) i};
+                ring.write(packet, 0, packet.length);
+            }
+            ring.close();
+        });
+        producer.start();
+
+        DataInputStream in = new DataInputStream(channel.getInputStream());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, in.readUnsignedShort());
+        }
+        assertEquals(-1, in.read());
+        producer.join();
+    }
+
+    @Test
+    public void write_passesBuffersToSink() throws IOException {
+        channel.write(ByteBuffer.wrap(new byte[]{1, 2, 3}));
+        ByteBuffer direct = ByteBuffer.allocateDirect(5000);
+        channel.write(direct);
+        channel.getOutputStream().write(new byte[]{4});
+
+        assertEquals(5004, sent.size());
+    }
+
+    @Test(expected = InterruptedIOException.class)
+    public void read_timesOut() throws IOException {
+        channel.setReadTimeout(20);
+        InputStream in = channel.getInputStream();
+        in.read(new byte[4]);
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.bleserial.uart;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class UartFragmenterTest {
+    private static byte[] pattern(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) i;
+        }
+        return data;
+    }
+
+    @Test
+    public void chunksFollowNegotiatedMtu() {
+        UartFragmenter fragmenter = new UartFragmenter();
+        assertEquals(20, fragmenter.getPayloadSize());
+
+        fragmenter.setMtu(247);
+        byte[][] chunks = fragmenter.fragment(pattern(600));
+        assertEquals(3, chunks.length);
+        assertEquals(244, chunks[0].length);
+        assertEquals(112, chunks[2].length);
+    }
+
+    @Test
+    public void exactMultiple_isTerminatedByEmptyChunk() {
+        UartFragmenter fragmenter = new UartFragmenter();
+        byte[][] chunks = fragmenter.fragment(pattern(40));
+        assertEquals(3, chunks.length);
+        assertEquals(0, chunks[2].length);
+    }
+
+    @Test
+    public void reassembler_rebuildsFragmentedMessages() {
+        final List<byte[]> messages = new ArrayList<>();
+        UartReassembler reassembler = new UartReassembler((buffer, length) -> messages.add(Arrays.copyOf(buffer, length)));
+        UartFragmenter fragmenter = new UartFragmenter();
+        fragmenter.setMtu(185);
+        reassembler.setMtu(185);
+
+        byte[] first = pattern(1000);
+        byte[] second = pattern(182 * 2);
+        for (byte[] message : new byte[][]{first, second}) {
+            for (byte[] chunk : fragmenter.fragment(message)) {
+                reassembler.onPacket(chunk);
+            }
+        }
+
+        assertEquals(2, messages.size());
+        assertArrayEquals(first, messages.get(0));
+        assertArrayEquals(second, messages.get(1));
+    }
+
+    @Test
+    public void reassembler_flushesAtMaxMessageSize() {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final int[] count = {0};
+        UartReassembler reassembler = new UartReassembler((buffer, length) -> {
+            out.write(buffer, 0, length);
+            count[0]++;
+        }, 40);
+        for (int i = 0; i < 3; i++) {
+            reassembler.onPacket(pattern(20));
+        }
+        assertEquals(1, count[0]);
+        assertEquals(40, out.size());
+    }
+}
@@ -0,0 +1,123 @@
+package com.example.bleserial.benchmark;
+
+import com.example.bleserial.scan.AdRecord;
+import com.example.bleserial.scan.AdRecordCache;
+import com.example.bleserial.uart.NordicUart;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Per advertisement work on a typical UART peripheral record: flags, the 128-bit service,
+ * manufacturer data and a name in the scan response, padded to 62 bytes.
+ * <p>
+ * android.bluetooth.le.ScanRecord needs a device, so allocatingParse does what
+ * ScanRecord.parseFromBytes does with plain collections: a UUID list, copied manufacturer data
+ * and a decoded name. parseInPlace and cachedRepeat answer the same questions, filterInPlace
+ * checks the name prefix without decoding it.
+ **/
+@State(Scope.Thread)
+public class AdRecordBenchmark {
+    private static final long DEVICE = 0x240AC4123456L;
+
+    private byte[] record;
+    private byte[] repeat;
+    private final AdRecord parsed = new AdRecord();
+    private final AdRecordCache cache = new AdRecordCache();
+
+    @Setup
+    public void setup() {
+        record = new byte[62];
+        int i = 0;
+        record[i++] = 2;
+        record[i++] = AdRecord.TYPE_FLAGS;
+        record[i++] = 0x06;
+        record[i++] = 17;
+        record[i++] = AdRecord.TYPE_UUID128_COMPLETE;
+        long lsb = NordicUart.SERVICE.getLeastSignificantBits();
+        long msb = NordicUart.SERVICE.getMostSignificantBits();
+        for (int b = 0; b < 8; b++) {
+            record[i++] = (byte) (lsb >>> (8 * b));
+        }
+        for (int b = 0; b < 8; b++) {
+            record[i++] = (byte) (msb >>> (8 * b));
+        }
+        record[i++] = 7;
+        record[i++] = (byte) AdRecord.TYPE_MANUFACTURER_DATA;
+        record[i++] = 0x59;
+        record[i++] = 0x00;
+        record[i++] = 1;
+        record[i++] = 2;
+        record[i++] = 3;
+        record[i++] = 4;
+        byte[] name = "UART-Sensor".getBytes(StandardCharsets.US_ASCII);
+        record[i++] = (byte) (name.length + 1);
+        record[i++] = AdRecord.TYPE_NAME_COMPLETE;
+        System.arraycopy(name, 0, record, i, name.length);
+        // each ScanResult brings its own copy
+        repeat = record.clone();
+        cache.get(DEVICE, record).getName();
+    }
+
+    @Benchmark
+    public Object allocatingParse() {
+        List<UUID> uuids = new ArrayList<>();
+        Map<Integer, byte[]> manufacturerData = new HashMap<>();
+        String name = null;
+        int i = 0;
+        while (i < record.length && record[i] != 0) {
+            int len = record[i] & 0xFF;
+            int type = record[i + 1] & 0xFF;
+            int offset = i + 2;
+            if (type == AdRecord.TYPE_UUID128_COMPLETE) {
+                long lsb = 0;
+                long msb = 0;
+                for (int b = 7; b >= 0; b--) {
+                    lsb = lsb << 8 | (record[offset + b] & 0xFF);
+                    msb = msb << 8 | (record[offset + 8 + b] & 0xFF);
+                }
+                uuids.add(new UUID(msb, lsb));
+            } else if (type == AdRecord.TYPE_MANUFACTURER_DATA) {
+                int id = (record[offset] & 0xFF) | (record[offset + 1] & 0xFF) << 8;
+                manufacturerData.put(id, Arrays.copyOfRange(record, offset + 2, offset + len - 1));
+            } else if (type == AdRecord.TYPE_NAME_COMPLETE) {
+                name = new String(record, offset, len - 1, StandardCharsets.UTF_8);
+            }
+            i += 1 + len;
+        }
+        return uuids.contains(NordicUart.SERVICE) && manufacturerData.containsKey(0x59) ? name : null;
+    }
+
+    @Benchmark
+    public boolean filterInPlace() {
+        parsed.parse(record);
+        return parsed.hasService(NordicUart.SERVICE) && parsed.findManufacturerData(0x59) != AdRecord.NOT_PRESENT
+                && parsed.nameStartsWith("UART");
+    }
+
+    @Benchmark
+    public Object parseInPlace() {
+        parsed.parse(record);
+        return query(parsed);
+    }
+
+    @Benchmark
+    public Object cachedRepeat() {
+        return query(cache.get(DEVICE, repeat));
+    }
+
+    private static Object query(AdRecord ad) {
+        return ad.hasService(NordicUart.SERVICE) && ad.findManufacturerData(0x59) != AdRecord.NOT_PRESENT
+                ? ad.getName() : null;
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.bleserial.benchmark;
+
+import com.example.bleserial.text.LineDecoder;
+import com.example.bleserial.text.Utf8Decoder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Turning received bytes into text for the console. The data is ASCII with a newline every 64
+ * bytes, streamingUtf8 and lines hand the text on without making Strings.
+ **/
+@State(Scope.Thread)
+public class AsciiDecodeBenchmark {
+    @Param({"20", "244", "4096"})
+    public int length;
+
+    private byte[] data;
+    private final StringBuilder builder = new StringBuilder();
+    private final Utf8Decoder utf8 = new Utf8Decoder();
+    private Utf8Decoder.Sink sink;
+    private LineDecoder lines;
+
+    @Setup
+    public void setup(Blackhole blackhole) {
+        data = new byte[length];
+        Arrays.fill(data, (byte) 'a');
+        for (int i = 63; i < length; i += 64) {
+            data[i] = '\n';
+        }
+        sink = text -> blackhole.consume(text.charAt(text.length() - 1));
+        lines = new LineDecoder(line -> blackhole.consume(line.length()));
+    }
+
+    @Benchmark
+    public String newString() {
+        return new String(data, StandardCharsets.US_ASCII);
+    }
+
+    @Benchmark
+    public String newStringUtf8() {
+        return new String(data, StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public void streamingUtf8() {
+        utf8.decode(data, 0, data.length, sink);
+    }
+
+    @Benchmark
+    public void lines() {
+        lines.decode(data, 0, data.length);
+    }
+
+    @Benchmark
+    public int reusedBuilder() {
+        builder.setLength(0);
+        for (byte b : data) {
+            builder.append((char) (b & 0x7F));
+        }
+        return builder.length();
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.bleserial.benchmark;
+
+import com.example.bleserial.capture.CaptureWriter;
+import com.example.bleserial.uart.NordicUart;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Cost of capturing one packet on the GATT callback thread, segment rollovers included. A full
+ * link moves well under 100k packets/s, so anything near a microsecond keeps up. At full speed
+ * this can outrun the thread preparing segments and the cheaper drop path inflates the score,
+ * so the captured and dropped counters report both rates; the captured one is what counts.
+ **/
+@State(Scope.Thread)
+public class CaptureBenchmark {
+    @Param({"20", "244"})
+    public int packetSize;
+
+    private byte[] value;
+
+    /**
+     * One capture per iteration, its packets written and dropped as JMH counters
+     **/
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Capture {
+        private File directory;
+        private CaptureWriter writer;
+
+        @Setup(Level.Iteration)
+        public void open() throws IOException {
+            directory = Files.createTempDirectory("capture").toFile();
+            writer = new CaptureWriter(directory, "bench");
+        }
+
+        @TearDown(Level.Iteration)
+        public void close() throws IOException {
+            writer.close();
+            File[] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            directory.delete();
+        }
+
+        public long captured() {
+            return writer.getRecordCount();
+        }
+
+        public long dropped() {
+            return writer.getDroppedCount();
+        }
+    }
+
+    @Setup
+    public void setup() {
+        value = new byte[packetSize];
+    }
+
+    @Benchmark
+    public void onRx(Capture capture) {
+        capture.writer.onRx(NordicUart.SERVICE, NordicUart.TX, value);
+    }
+}
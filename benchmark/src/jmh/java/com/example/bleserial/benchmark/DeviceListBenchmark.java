@@ -0,0 +1,74 @@
+package com.example.bleserial.benchmark;
+
+import com.example.bleserial.scan.LongIntHashMap;
+import com.example.bleserial.scan.MacAddress;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * DeviceAdapter.contains on every scan result. BluetoothDevice.equals compares the address
+ * strings, so a list of addresses does the same work off device. The packed variants are what
+ * DeviceListModel does: parse the address into a long and probe the index.
+ **/
+@State(Scope.Thread)
+public class DeviceListBenchmark {
+    @Param({"10", "100", "1000"})
+    public int devices;
+
+    private final List<String> list = new ArrayList<>();
+    private final Set<String> set = new HashSet<>();
+    private final LongIntHashMap index = new LongIntHashMap(16);
+    private String present;
+    private String absent;
+
+    private static String address(int i) {
+        return String.format(Locale.ROOT, "24:0A:C4:%02X:%02X:%02X", (i >> 16) & 0xFF, (i >> 8) & 0xFF, i & 0xFF);
+    }
+
+    @Setup
+    public void setup() {
+        for (int i = 0; i < devices; i++) {
+            list.add(address(i));
+            set.add(address(i));
+            index.put(MacAddress.pack(address(i)), i);
+        }
+        // fresh instances, like the BluetoothDevice objects in each ScanResult
+        present = new String(address(devices / 2));
+        absent = address(devices);
+    }
+
+    @Benchmark
+    public boolean listContainsHit() {
+        return list.contains(present);
+    }
+
+    @Benchmark
+    public boolean listContainsMiss() {
+        return list.contains(absent);
+    }
+
+    @Benchmark
+    public boolean hashContainsMiss() {
+        return set.contains(absent);
+    }
+
+    @Benchmark
+    public int packedIndexHit() {
+        return index.get(MacAddress.pack(present));
+    }
+
+    @Benchmark
+    public int packedIndexMiss() {
+        return index.get(MacAddress.pack(absent));
+    }
+}
@@ -0,0 +1,89 @@
+package com.example.bleserial.benchmark;
+
+import com.example.bleserial.codec.ChunkWriter;
+import com.example.bleserial.codec.CobsCodec;
+import com.example.bleserial.codec.DelimiterCodec;
+import com.example.bleserial.codec.FrameCodec;
+import com.example.bleserial.codec.SlipCodec;
+import com.example.bleserial.codec.VarintLengthCodec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+/**
+ * Throughput of each framing for 200 byte frames, decoded from 244 byte notifications and
+ * encoded into 244 byte writes. Run with -prof gc: both directions allocate nothing per frame.
+ **/
+@State(Scope.Thread)
+public class FrameCodecBenchmark {
+    private static final int FRAME_SIZE = 200;
+    private static final int FRAMES = 64;
+    private static final int MTU = 247;
+
+    @Param({"cobs", "slip", "varint", "delimiter"})
+    public String codecName;
+
+    private FrameCodec codec;
+    private byte[] payload;
+    private byte[] stream;
+    private ChunkWriter writer;
+    private long chunkBytes;
+    private long frameBytes;
+    private final FrameCodec.FrameListener listener = (buffer, offset, length) -> frameBytes += length;
+
+    private static FrameCodec create(String name) {
+        switch (name) {
+            case "cobs":
+                return new CobsCodec();
+            case "slip":
+                return new SlipCodec();
+            case "varint":
+                return new VarintLengthCodec();
+            default:
+                return new DelimiterCodec();
+        }
+    }
+
+    @Setup
+    public void setup() {
+        codec = create(codecName);
+        payload = new byte[FRAME_SIZE];
+        Random random = new Random(1);
+        random.nextBytes(payload);
+        for (int i = 0; i < payload.length; i++) {
+            if (payload[i] == DelimiterCodec.DEFAULT_DELIMITER) {
+                payload[i] = 0;
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ChunkWriter setupWriter = new ChunkWriter(MTU, (chunk, length) -> out.write(chunk, 0, length));
+        for (int i = 0; i < FRAMES; i++) {
+            codec.encode(payload, 0, payload.length, setupWriter);
+        }
+        setupWriter.flush();
+        stream = out.toByteArray();
+        writer = new ChunkWriter(MTU, (chunk, length) -> chunkBytes += length);
+    }
+
+    @Benchmark
+    public long encode() {
+        codec.encode(payload, 0, payload.length, writer);
+        return chunkBytes;
+    }
+
+    // FRAMES frames per call
+    @Benchmark
+    public long decode() {
+        int packet = MTU - 3;
+        for (int i = 0; i < stream.length; i += packet) {
+            codec.decode(stream, i, Math.min(packet, stream.length - i), listener);
+        }
+        return frameBytes;
+    }
+}
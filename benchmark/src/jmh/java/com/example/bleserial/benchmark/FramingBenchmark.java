@@ -0,0 +1,45 @@
+package com.example.bleserial.benchmark;
+
+import com.example.bleserial.uart.UartFragmenter;
+import com.example.bleserial.uart.UartReassembler;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Splitting a 4 KB message into MTU sized writes and putting it back together
+ **/
+@State(Scope.Thread)
+public class FramingBenchmark {
+    @Param({"23", "247", "517"})
+    public int mtu;
+
+    private final byte[] message = new byte[4096];
+    private final UartFragmenter fragmenter = new UartFragmenter();
+    private UartReassembler reassembler;
+    private byte[][] packets;
+
+    @Setup
+    public void setup(Blackhole blackhole) {
+        fragmenter.setMtu(mtu);
+        reassembler = new UartReassembler((buffer, length) -> blackhole.consume(length));
+        reassembler.setMtu(mtu);
+        packets = fragmenter.fragment(message);
+    }
+
+    @Benchmark
+    public byte[][] fragment() {
+        return fragmenter.fragment(message);
+    }
+
+    @Benchmark
+    public void reassemble() {
+        for (byte[] packet : packets) {
+            reassembler.onPacket(packet, 0, packet.length);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.example.bleserial.benchmark;
+
+import com.example.bleserial.gatt.GattOperation;
+import com.example.bleserial.gatt.GattOperationQueue;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Queue overhead of one write without response, from enqueue to its completion callback
+ **/
+@State(Scope.Thread)
+public class GattOperationQueueBenchmark {
+    private ScheduledExecutorService timer;
+    private GattOperationQueue queue;
+    private final GattOperation.Action action = () -> true;
+
+    @Setup
+    public void setup() {
+        timer = Executors.newSingleThreadScheduledExecutor();
+        queue = new GattOperationQueue(timer);
+    }
+
+    @TearDown
+    public void tearDown() {
+        queue.clear(GattOperation.STATUS_CANCELLED);
+        timer.shutdownNow();
+    }
+
+    @Benchmark
+    public int enqueueAndComplete() {
+        queue.enqueue(new GattOperation(GattOperation.TYPE_WRITE_NO_RESPONSE, action, null));
+        queue.onOperationComplete(GattOperation.TYPE_WRITE_NO_RESPONSE, GattOperation.STATUS_SUCCESS);
+        return queue.size();
+    }
+}
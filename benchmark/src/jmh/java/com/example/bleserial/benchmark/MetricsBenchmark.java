@@ -0,0 +1,37 @@
+package com.example.bleserial.benchmark;
+
+import com.example.bleserial.metrics.GattMetrics;
+import com.example.bleserial.metrics.Histogram;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * What the always-on metrics cost per packet and per completed operation
+ **/
+@State(Scope.Benchmark)
+public class MetricsBenchmark {
+    private final Histogram histogram = new Histogram();
+    private final GattMetrics metrics = new GattMetrics();
+    private long value = 1234567;
+
+    @Benchmark
+    public void record() {
+        // walk the buckets instead of hitting one
+        value = value * 6364136223846793005L + 1442695040888963407L;
+        histogram.record(value >>> 36);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void recordContended() {
+        histogram.record(System.nanoTime() & 0xFFFFFF);
+    }
+
+    @Benchmark
+    public void countPacket() {
+        metrics.onRx(20);
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.bleserial.benchmark;
+
+import com.example.bleserial.gatt.NotificationDispatcher;
+import com.example.bleserial.uart.NordicUart;
+import com.example.bleserial.uart.UartReassembler;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Per notification work on the GATT callback thread.
+ * <p>
+ * android.os.Bundle needs a device, so bundlePacking does the same work against a small map:
+ * two UUID strings, a copy of the value and the map entries.
+ **/
+@State(Scope.Thread)
+public class NotificationBenchmark {
+    @Param({"20", "244"})
+    public int packetSize;
+
+    private byte[] value;
+    private UUID service = NordicUart.SERVICE;
+    private UUID characteristic = NordicUart.TX;
+    private NotificationDispatcher dispatcher;
+    private UartReassembler reassembler;
+    private Blackhole blackhole;
+
+    @Setup
+    public void setup(Blackhole blackhole) {
+        this.blackhole = blackhole;
+        value = new byte[packetSize];
+        dispatcher = new NotificationDispatcher(NordicUart.TX, NordicUart.RX);
+        dispatcher.setListener((characteristicId, buffer, offset, length) -> blackhole.consume(buffer[offset]));
+        reassembler = new UartReassembler((buffer, length) -> blackhole.consume(length));
+        reassembler.setMtu(packetSize + 3);
+    }
+
+    @Benchmark
+    public Map<String, Object> bundlePacking() {
+        Map<String, Object> bundle = new HashMap<>();
+        bundle.put("CHARACTERISTIC_UUID", characteristic.toString());
+        bundle.put("SERVICE_UUID", service.toString());
+        bundle.put("VALUE", value.clone());
+        return bundle;
+    }
+
+    @Benchmark
+    public boolean dispatch() {
+        return dispatcher.dispatch(characteristic, value);
+    }
+
+    @Benchmark
+    public void reassemble() {
+        // full packets only, so this measures appending without delivering
+        reassembler.onPacket(value, 0, value.length);
+        reassembler.reset();
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.bleserial.benchmark;
+
+import com.example.bleserial.link.Crc16;
+import com.example.bleserial.link.LinkFrame;
+import com.example.bleserial.link.ReliableLink;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What the reliable link adds per packet: CRC, framing and the window bookkeeping of both ends,
+ * over a lossless in-process wire. A BLE link moves at most a few thousand packets a second.
+ **/
+@State(Scope.Thread)
+public class ReliableLinkBenchmark {
+    @Param({"20", "244"})
+    public int packetSize;
+
+    private byte[] payload;
+    private byte[] frame;
+    private ScheduledExecutorService timer;
+    private ReliableLink sender;
+    private long delivered;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        payload = new byte[packetSize - LinkFrame.DATA_OVERHEAD];
+        frame = LinkFrame.data(0, payload, 0, payload.length);
+        timer = Executors.newSingleThreadScheduledExecutor();
+        ReliableLink[] receiver = new ReliableLink[1];
+        // frames cross synchronously, so every send is acked before it returns
+        sender = new ReliableLink(f -> {
+            receiver[0].onFrame(f);
+            return true;
+        }, (buffer, offset, length) -> true, timer);
+        receiver[0] = new ReliableLink(f -> {
+            sender.onFrame(f);
+            return true;
+        }, (buffer, offset, length) -> {
+            delivered += length;
+            return true;
+        }, timer);
+        receiver[0].setAckDelay(1, TimeUnit.HOURS);
+        sender.setMtu(packetSize + 3);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        timer.shutdownNow();
+    }
+
+    @Benchmark
+    public int crc() {
+        return Crc16.compute(frame, 0, frame.length);
+    }
+
+    @Benchmark
+    public boolean validate() {
+        return LinkFrame.isValid(frame, 0, frame.length);
+    }
+
+    @Benchmark
+    public long sendAndReceive() throws InterruptedException {
+        sender.send(payload, 0, payload.length, 1000);
+        return delivered;
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.bleserial.benchmark;
+
+import com.example.bleserial.capture.CaptureFormat;
+import com.example.bleserial.capture.CaptureReader;
+import com.example.bleserial.capture.CaptureReplayer;
+import com.example.bleserial.capture.CaptureWriter;
+import com.example.bleserial.capture.ReplayStats;
+import com.example.bleserial.gatt.FakeUartPeripheral;
+import com.example.bleserial.gatt.GattSession;
+import com.example.bleserial.gatt.NotificationDispatcher;
+import com.example.bleserial.uart.NordicUart;
+import com.example.bleserial.uart.RxRingBuffer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * A recorded session replayed as fast as possible into a GattSession, the score is the
+ * notifications per second each delivery path absorbs. The capture is synthetic here, point it
+ * at a real one for a load test of that traffic.
+ **/
+@State(Scope.Thread)
+public class ReplayBenchmark {
+    private static final int NOTIFICATIONS = 10000;
+
+    @Param({"20", "244"})
+    public int packetSize;
+
+    private File directory;
+    private ScheduledExecutorService timer;
+    private GattSession ringSession;
+    private RxRingBuffer ring;
+    private GattSession dispatchSession;
+    private final byte[] drain = new byte[64 * 1024];
+
+    @Setup
+    public void setup(Blackhole blackhole) throws IOException {
+        directory = Files.createTempDirectory("replay").toFile();
+        CaptureWriter writer = new CaptureWriter(directory, "bench");
+        byte[] value = new byte[packetSize];
+        for (int i = 0; i < NOTIFICATIONS; i++) {
+            writer.append(CaptureFormat.TYPE_RX, NordicUart.SERVICE, NordicUart.TX, value, i * 1000L);
+        }
+        writer.close();
+
+        timer = Executors.newSingleThreadScheduledExecutor();
+        ringSession = new GattSession(new FakeUartPeripheral(), timer, new GattSession.Listener() {
+        });
+        ring = ringSession.enableRxBuffer(64 * 1024, RxRingBuffer.OverflowPolicy.DROP_OLDEST);
+        dispatchSession = new GattSession(new FakeUartPeripheral(), timer, new GattSession.Listener() {
+        });
+        NotificationDispatcher.Listener listener = (characteristicId, buffer, offset, length) -> blackhole.consume(buffer[offset]);
+        dispatchSession.setNotificationListener(listener);
+    }
+
+    @TearDown
+    public void tearDown() {
+        timer.shutdownNow();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    private ReplayStats replay(GattSession session) throws IOException {
+        CaptureReplayer replayer = new CaptureReplayer(CaptureReader.open(directory, "bench"), session);
+        replayer.setSpeed(CaptureReplayer.AS_FAST_AS_POSSIBLE);
+        return replayer.run();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NOTIFICATIONS)
+    public ReplayStats rxRing() throws IOException {
+        ReplayStats stats = replay(ringSession);
+        ringSession.readRx(drain, 0, drain.length);
+        return stats;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NOTIFICATIONS)
+    public ReplayStats dispatcher() throws IOException {
+        return replay(dispatchSession);
+    }
+}
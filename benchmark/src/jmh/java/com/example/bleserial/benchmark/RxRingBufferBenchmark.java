@@ -0,0 +1,47 @@
+package com.example.bleserial.benchmark;
+
+import com.example.bleserial.uart.RxRingBuffer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * One 244 byte notification into the RX ring and back out, on one thread and across two
+ **/
+@State(Scope.Group)
+public class RxRingBufferBenchmark {
+    private final RxRingBuffer ring = new RxRingBuffer(64 * 1024, RxRingBuffer.OverflowPolicy.DROP_NEWEST);
+    private final byte[] packet = new byte[244];
+
+    @State(Scope.Thread)
+    public static class ReadBuffer {
+        final byte[] data = new byte[4096];
+    }
+
+    @Setup
+    public void setup() {
+        ring.clear();
+    }
+
+    @Benchmark
+    @Group("singleThread")
+    public int writeThenRead(ReadBuffer buffer) {
+        ring.write(packet, 0, packet.length);
+        return ring.read(buffer.data, 0, buffer.data.length);
+    }
+
+    @Benchmark
+    @Group("producerConsumer")
+    public int produce() {
+        return ring.write(packet, 0, packet.length);
+    }
+
+    @Benchmark
+    @Group("producerConsumer")
+    public int consume(ReadBuffer buffer) {
+        return ring.read(buffer.data, 0, buffer.data.length);
+    }
+}
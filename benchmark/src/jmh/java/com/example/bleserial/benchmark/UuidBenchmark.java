@@ -0,0 +1,36 @@
+package com.example.bleserial.benchmark;
+
+import com.example.bleserial.uart.NordicUart;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.UUID;
+
+/**
+ * UUID handling on every write: the String based service API parses both UUIDs per call
+ **/
+@State(Scope.Thread)
+public class UuidBenchmark {
+    private String serviceUuid = "6E400001-B5A3-F393-E0A9-E50E24DCCA9E";
+    private String characteristicUuid = "6E400002-B5A3-F393-E0A9-E50E24DCCA9E";
+    private UUID characteristic = NordicUart.RX;
+
+    @Benchmark
+    public boolean parsePerWrite() {
+        UUID service = UUID.fromString(serviceUuid);
+        UUID characteristic = UUID.fromString(characteristicUuid);
+        return service.equals(NordicUart.SERVICE) && characteristic.equals(NordicUart.RX);
+    }
+
+    @Benchmark
+    public boolean resolvedConstants() {
+        return characteristic.equals(NordicUart.RX);
+    }
+
+    @Benchmark
+    public String format() {
+        return characteristic.toString();
+    }
+}